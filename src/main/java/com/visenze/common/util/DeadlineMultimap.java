@@ -0,0 +1,48 @@
+package com.visenze.common.util;
+
+import com.google.common.collect.ForwardingMultimap;
+import com.google.common.collect.Multimap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request params carrying the deadline of the call they were built for, so
+ * that the http client can bound the timeouts of every attempt of the call,
+ * retries included, by the time left.
+ */
+public final class DeadlineMultimap extends ForwardingMultimap<String, String> {
+
+    private final Multimap<String, String> delegate;
+
+    private final long deadline;
+
+    private DeadlineMultimap(Multimap<String, String> delegate, long deadline) {
+        this.delegate = delegate;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param params request params
+     * @param timeout milliseconds from now the call must complete in, null for no deadline
+     * @return the params, with the deadline if there is a timeout
+     */
+    public static Multimap<String, String> withTimeout(Multimap<String, String> params, Long timeout) {
+        if (timeout == null) {
+            return params;
+        }
+        return new DeadlineMultimap(params, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    /**
+     * @param params request params
+     * @return deadline of the call as a {@link System#nanoTime()}, null if it has none
+     */
+    public static Long deadlineOf(Multimap<String, String> params) {
+        return params instanceof DeadlineMultimap ? ((DeadlineMultimap) params).deadline : null;
+    }
+
+    @Override
+    protected Multimap<String, String> delegate() {
+        return delegate;
+    }
+}
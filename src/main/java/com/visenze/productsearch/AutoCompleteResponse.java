@@ -4,10 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.visenze.common.util.ViJsonMapper;
 import com.visenze.visearch.AutoCompleteResultItem;
-import com.visenze.visearch.ResponseMessages;
-import com.visenze.visearch.internal.InternalViSearchException;
 import com.visenze.visearch.internal.http.ViSearchHttpResponse;
-import java.io.IOException;
 import java.util.List;
 
 /**
@@ -33,11 +30,7 @@ public class AutoCompleteResponse extends BaseProductSearchResponse {
      * @return Product Search autocomplete response
      */
     public static AutoCompleteResponse fromResponse(ViSearchHttpResponse response) {
-        try {
-            return mapper.readValue(response.getBody(), AutoCompleteResponse.class);
-        } catch(IOException e){
-            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e.getMessage());
-        }
+        return readResponse(response, AutoCompleteResponse.class);
     }
 
     public List<AutoCompleteResultItem> getResult() {
@@ -3,6 +3,12 @@ package com.visenze.productsearch;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.visenze.common.util.ViJsonMapper;
 import com.visenze.productsearch.response.ErrorMsg;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.internal.http.ViSearchHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Created by Hung on 24/11/23.
@@ -110,5 +116,26 @@ public abstract class BaseProductSearchResponse extends ViJsonMapper {
         return error;
     }
 
-
+    /**
+     * Parse a response body, streaming it from the connection when possible
+     * instead of reading it into a string first.
+     *
+     * @param response http response to parse
+     * @param type     response class
+     * @return the parsed response
+     */
+    static <T extends BaseProductSearchResponse> T readResponse(ViSearchHttpResponse response, Class<T> type) {
+        InputStream content = response.getContent();
+        try {
+            if (content == null) {
+                return mapper.readValue(response.getBody(), type);
+            }
+            return mapper.readValue(content, type);
+        } catch (IOException e) {
+            response.checkSize(e);
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e.getMessage());
+        } finally {
+            response.close();
+        }
+    }
 }
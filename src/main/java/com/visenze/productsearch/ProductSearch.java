@@ -1,19 +1,31 @@
 package com.visenze.productsearch;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Function;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.visenze.productsearch.http.MultiRegionHttpClient;
 import com.visenze.productsearch.http.ProductSearchHttpClientImpl;
 import com.visenze.productsearch.param.*;
 import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.ConnectionPoolStats;
+import com.visenze.visearch.QueueTimeStats;
+import com.visenze.visearch.RequestPriority;
 import com.visenze.visearch.ResponseMessages;
 import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.internal.http.ViSearchAsyncHttpClient;
+import com.visenze.visearch.internal.http.ViSearchHttpResponse;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * <h1> ProductSearch </h1>
@@ -26,7 +38,7 @@ import java.util.Set;
  * @version 1.0
  * @since 08 Jan 2021
  */
-public class ProductSearch {
+public class ProductSearch implements Closeable {
     /**
      * Default endpoint if none is set
      */
@@ -85,6 +97,22 @@ public class ProductSearch {
         }
     }
 
+    private static final Function<ViSearchHttpResponse, ProductSearchResponse> PRODUCT_SEARCH_RESPONSE =
+            new Function<ViSearchHttpResponse, ProductSearchResponse>() {
+                @Override
+                public ProductSearchResponse apply(ViSearchHttpResponse response) {
+                    return ProductSearchResponse.fromResponse(response);
+                }
+            };
+
+    private static final Function<ViSearchHttpResponse, AutoCompleteResponse> AUTO_COMPLETE_RESPONSE =
+            new Function<ViSearchHttpResponse, AutoCompleteResponse>() {
+                @Override
+                public AutoCompleteResponse apply(ViSearchHttpResponse response) {
+                    return AutoCompleteResponse.fromResponse(response);
+                }
+            };
+
     private static boolean isNewEndpoint(String endpoint) {
         return NEW_ENDPOINTS.contains(endpoint.replaceAll("/$", ""));
     }
@@ -114,7 +142,12 @@ public class ProductSearch {
     /**
      * The Http wrapper class for easy functionalities
      */
-    private ProductSearchHttpClientImpl httpClient;
+    private ViSearchAsyncHttpClient httpClient;
+
+    /**
+     * Executor the async calls parse responses on
+     */
+    private Executor asyncExecutor;
 
     /**
      * Builder class to make configuring of ProductSearch more readable
@@ -142,6 +175,11 @@ public class ProductSearch {
          */
         private String endpoint = DEFAULT_ENDPOINT;
 
+        /**
+         * Regional endpoints to route between, null to use the single endpoint
+         */
+        private List<String> regionEndpoints;
+
         /**
          * Client configurations such as time-outs etc. These configurations
          * will be used to construct the ViHttpClient class that is stored as
@@ -174,7 +212,8 @@ public class ProductSearch {
             if (this.appKey == null || this.appKey.isEmpty()) {
                 throw new InternalViSearchException(ResponseMessages.INVALID_KEY);
             }
-            return new ProductSearch(this.appKey, this.placementId, endpoint, config);
+            List<String> endpoints = regionEndpoints == null ? Collections.singletonList(endpoint) : regionEndpoints;
+            return new ProductSearch(this.appKey, this.placementId, endpoints, config);
         }
 
         /**
@@ -186,6 +225,7 @@ public class ProductSearch {
          */
         public Builder setApiEndPoint(String url) {
             this.endpoint = url;
+            this.regionEndpoints = null;
             return this;
         }
 
@@ -196,6 +236,7 @@ public class ProductSearch {
          */
         public Builder useAws() {
             this.endpoint = ENDPOINT_AWS;
+            this.regionEndpoints = null;
             return this;
         }
 
@@ -206,6 +247,46 @@ public class ProductSearch {
          */
         public Builder useAzure() {
             this.endpoint = ENDPOINT_AZURE;
+            this.regionEndpoints = null;
+            return this;
+        }
+
+        /**
+         * Route every call to the fastest healthy of the AWS and Azure
+         * endpoints, failing over to the other one on network errors and
+         * 5xx responses.
+         *
+         * @return this 'itself'
+         *
+         * @see #useRegions(String...)
+         */
+        public Builder useAllRegions() {
+            return useRegions(ENDPOINT_AWS, ENDPOINT_AZURE);
+        }
+
+        /**
+         * Route every call to the fastest healthy of several endpoints
+         * serving the same API, failing over to the next one on network
+         * errors and 5xx responses. Latency and error rate of each endpoint
+         * are tracked as moving averages; until latencies are known the
+         * endpoints are tried in the given order.
+         *
+         * @param endpoints endpoints of the regions, all new or all legacy
+         *                  endpoints
+         *
+         * @return this 'itself'
+         */
+        public Builder useRegions(String... endpoints) {
+            if (endpoints.length == 0) {
+                throw new IllegalArgumentException("at least one endpoint is required");
+            }
+            for (String url : endpoints) {
+                if (isNewEndpoint(url) != isNewEndpoint(endpoints[0])) {
+                    throw new IllegalArgumentException("regions must serve the same api paths: " + url);
+                }
+            }
+            this.endpoint = endpoints[0];
+            this.regionEndpoints = Collections.unmodifiableList(Arrays.asList(endpoints.clone()));
             return this;
         }
 
@@ -231,17 +312,21 @@ public class ProductSearch {
      * @param appKey Unique app key that acts as authenticator for the client
      * @param placementId Placement ID of the template that was chosen when
      *                     creating apps on the dashboard
-     * @param endpoint Which endpoint to use for all ViHttpClient queries
+     * @param endpoints Which endpoints to use for all ViHttpClient queries,
+     *                  more than one to route between regions
      * @param config Configuration to the behaviours of the ViHttpClient
      */
-    private ProductSearch(String appKey, Integer placementId, String endpoint,
+    private ProductSearch(String appKey, Integer placementId, List<String> endpoints,
                           ClientConfig config)
     {
         this.appKey       = appKey;
         this.placementId  = placementId;
-        this.endpoint     = endpoint;
+        this.endpoint     = endpoints.get(0);
         this.pathConfig   = isNewEndpoint(endpoint) ? NEW_PATHS : LEGACY_PATHS;
-        this.httpClient   = new ProductSearchHttpClientImpl(this.endpoint, config);
+        this.httpClient   = endpoints.size() > 1
+                ? new MultiRegionHttpClient(endpoints, config)
+                : new ProductSearchHttpClientImpl(this.endpoint, config);
+        this.asyncExecutor = config.getAsyncExecutor();
     }
 
     public ProductSearchResponse multiSearch(SearchByImageParam params) {
@@ -262,11 +347,8 @@ public class ProductSearch {
         final File imageFile = params.getImage();
 
         if (imageFile != null) {
-            try {
-                return AutoCompleteResponse.fromResponse(httpClient.postImage(pathConfig.multiSearchAutocompletePath, paramMap, new FileInputStream(imageFile), imageFile.getName()));
-            } catch (FileNotFoundException e) {
-                throw new InternalViSearchException(ResponseMessages.INVALID_IMAGE_OR_URL, e);
-            }
+            checkReadable(imageFile);
+            return AutoCompleteResponse.fromResponse(httpClient.postImage(pathConfig.multiSearchAutocompletePath, paramMap, imageFile));
         }
 
         return AutoCompleteResponse.fromResponse(httpClient.post(pathConfig.multiSearchAutocompletePath, paramMap));
@@ -289,11 +371,9 @@ public class ProductSearch {
         final File imageFile = params.getImage();
         // attempt search using image file
         if (imageFile != null) {
-            try {
-                return ProductSearchResponse.fromResponse(httpClient.postImage(apiPath, paramMap, new FileInputStream(imageFile), imageFile.getName()));
-            } catch (FileNotFoundException e) {
-                throw new InternalViSearchException(ResponseMessages.INVALID_IMAGE_OR_URL, e);
-            }
+            // the file can be read again when the request fails over to another region
+            checkReadable(imageFile);
+            return ProductSearchResponse.fromResponse(httpClient.postImage(apiPath, paramMap, imageFile));
         }
 
         // attempt using post for image url or image id
@@ -333,6 +413,85 @@ public class ProductSearch {
         return ProductSearchResponse.fromResponse(httpClient.get(path, paramMap));
     }
 
+    public ListenableFuture<ProductSearchResponse> multiSearchAsync(SearchByImageParam params) {
+        return postImageSearchAsync(params, pathConfig.multiSearchPath);
+    }
+
+    public ListenableFuture<ProductSearchResponse> outfitRecommendationsAsync(SearchByImageParam params) {
+        return postImageSearchAsync(params, pathConfig.outfitRecommendationsPath);
+    }
+
+    public ListenableFuture<ProductSearchResponse> complementarySearchAsync(SearchByImageParam params) {
+        return postImageSearchAsync(params, pathConfig.complementarySearchPath);
+    }
+
+    /**
+     * Asynchronous {@link #imageSearch(SearchByImageParam)}. The future fails
+     * with an InternalViSearchException where the blocking call throws one,
+     * and cancelling it aborts the request.
+     *
+     * @param params ImageSearchParam specific parameters to perform request
+     *
+     * @return future of the search results
+     */
+    public ListenableFuture<ProductSearchResponse> imageSearchAsync(SearchByImageParam params) {
+        return postImageSearchAsync(params, pathConfig.imageSearchPath);
+    }
+
+    public ListenableFuture<AutoCompleteResponse> multiSearchAutocompleteAsync(SearchByImageParam params) {
+        return parseAsync(postImageAsync(params, pathConfig.multiSearchAutocompletePath), AUTO_COMPLETE_RESPONSE);
+    }
+
+    /**
+     * Asynchronous {@link #recommendations(SearchByIdParam)}.
+     *
+     * @param params VisualSimilarParam specific parameters to perform request
+     *
+     * @return future of the search results
+     */
+    public ListenableFuture<ProductSearchResponse> recommendationsAsync(SearchByIdParam params) {
+        final String path = pathConfig.recommendationPath + '/' + params.getProductId();
+        Multimap<String, String> paramMap = addAuth2Map(params);
+        return parseAsync(httpClient.getAsync(path, paramMap), PRODUCT_SEARCH_RESPONSE);
+    }
+
+    private ListenableFuture<ProductSearchResponse> postImageSearchAsync(SearchByImageParam params, String apiPath) {
+        return parseAsync(postImageAsync(params, apiPath), PRODUCT_SEARCH_RESPONSE);
+    }
+
+    /**
+     * Parse on the async executor, so I/O threads never parse json.
+     */
+    private <T> ListenableFuture<T> parseAsync(ListenableFuture<ViSearchHttpResponse> response,
+                                               Function<ViSearchHttpResponse, T> parser) {
+        ListenableFuture<T> result = Futures.transform(response, parser, asyncExecutor);
+        ViSearchHttpResponse.closeOnCancel(response, result);
+        return result;
+    }
+
+    private ListenableFuture<ViSearchHttpResponse> postImageAsync(SearchByImageParam params, String apiPath) {
+        Multimap<String, String> paramMap = addAuth2Map(params);
+
+        final File imageFile = params.getImage();
+        if (imageFile != null) {
+            try {
+                checkReadable(imageFile);
+            } catch (InternalViSearchException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+            return httpClient.postImageAsync(apiPath, paramMap, imageFile);
+        }
+
+        return httpClient.postAsync(apiPath, paramMap);
+    }
+
+    private static void checkReadable(File imageFile) {
+        if (!imageFile.isFile() || !imageFile.canRead()) {
+            throw new InternalViSearchException(ResponseMessages.INVALID_IMAGE_OR_URL,
+                    new FileNotFoundException(imageFile.getPath()));
+        }
+    }
+
     /**
      * Add placement ID and app key to parameter for authentication since we
      * do not use any in basic auth header
@@ -351,6 +510,50 @@ public class ProductSearch {
         return paramMap;
     }
 
+    /**
+     * Get a snapshot of the http connection pool used by this client, to size
+     * the pool under load or detect pool exhaustion.
+     *
+     * @return pool statistics, or null if the client does not manage a pool
+     */
+    public ConnectionPoolStats getPoolStats() {
+        return httpClient.getPoolStats();
+    }
+
+    /**
+     * Get the time the requests of a priority waited for admission, to tune
+     * the admission policy of the client.
+     *
+     * @param priority priority of the requests
+     * @return queue time statistics, or null if the client has no admission queue
+     */
+    public QueueTimeStats getQueueTimeStats(RequestPriority priority) {
+        return httpClient.getQueueTimeStats(priority);
+    }
+
+    /**
+     * Open connections to the endpoint before the first requests, e.g. right
+     * after a deploy, so that they don't pay for DNS lookup and TCP and TLS
+     * handshakes. Blocks until the connections are open or failed. With
+     * several regions, every region is warmed up.
+     *
+     * @param connections number of connections to open, at most the pool size
+     * @return number of connections ready for requests
+     */
+    public int warmUp(int connections) {
+        return httpClient.warmUp(connections);
+    }
+
+    /**
+     * Release the http connections held by this client. If the client was
+     * created with a shared connection pool, the pool stays open until every
+     * client using it has been closed.
+     */
+    @Override
+    public void close() {
+        httpClient.close();
+    }
+
     /**
      * Sets the http client to use. Meant to be used for testing - mocking, as
      * the default created on construction is sufficient.
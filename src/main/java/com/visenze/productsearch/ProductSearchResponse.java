@@ -13,12 +13,10 @@ import com.visenze.productsearch.response.Product;
 import com.visenze.productsearch.response.Strategy;
 import com.visenze.visearch.ProductType;
 import com.visenze.visearch.Facet;
-import com.visenze.visearch.ResponseMessages;
 import com.visenze.visearch.SetInfo;
 import com.visenze.visearch.internal.InternalViSearchException;
 import com.visenze.visearch.internal.http.ViSearchHttpResponse;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -148,11 +146,7 @@ public class ProductSearchResponse extends BaseProductSearchResponse {
      * @return Product Search response
      */
     public static ProductSearchResponse fromResponse(ViSearchHttpResponse response) {
-        try {
-            return mapper.readValue(response.getBody(), ProductSearchResponse.class);
-        } catch(IOException e){
-            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e.getMessage());
-        }
+        return readResponse(response, ProductSearchResponse.class);
     }
 
     /**
@@ -0,0 +1,492 @@
+package com.visenze.productsearch.http;
+
+import com.google.common.base.Function;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.ConnectionPoolStats;
+import com.visenze.visearch.QueueTimeStats;
+import com.visenze.visearch.RequestPriority;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.internal.http.ViSearchAsyncHttpClient;
+import com.visenze.visearch.internal.http.ViSearchHttpResponse;
+import org.apache.http.auth.UsernamePasswordCredentials;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1> MultiRegionHttpClient </h1>
+ * Sends every call to the fastest healthy of several regional endpoints
+ * serving the same API. Latency and error rate are tracked per region as
+ * exponentially weighted moving averages. A call failing with a network
+ * error or a 5xx response is sent again to the next region, and the failing
+ * region is taken out of rotation for a cool-down period once its error rate
+ * gets too high; a network error takes it out right away. Now and then a call
+ * goes to a region that is not the fastest, to keep its latency current.
+ *
+ * Uploads of an image stream cannot be sent twice and are never failed over.
+ */
+public class MultiRegionHttpClient implements ViSearchAsyncHttpClient {
+
+    /**
+     * Weight of the newest sample in the moving averages
+     */
+    static final double EWMA_WEIGHT = 0.3;
+
+    /**
+     * Error rate at which a region is taken out of rotation
+     */
+    static final double MAX_ERROR_RATE = 0.5;
+
+    static final long COOL_DOWN_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * One in this many calls goes to the least recently used healthy region
+     */
+    static final int PROBE_INTERVAL = 20;
+
+    private final List<Region> regions;
+
+    private final Ticker ticker;
+
+    private final AtomicLong calls = new AtomicLong();
+
+    /**
+     * @param endpoints regional endpoints, in order of preference until
+     *                  their latencies are known
+     * @param config client config of every region
+     */
+    public MultiRegionHttpClient(List<String> endpoints, ClientConfig config) {
+        this(clients(endpoints, config), endpoints, Ticker.systemTicker());
+    }
+
+    MultiRegionHttpClient(List<? extends ViSearchAsyncHttpClient> clients, List<String> endpoints, Ticker ticker) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("at least one endpoint is required");
+        }
+        this.ticker = ticker;
+        this.regions = new ArrayList<Region>(clients.size());
+        for (int i = 0; i < clients.size(); i++) {
+            regions.add(new Region(endpoints.get(i), clients.get(i), i));
+        }
+    }
+
+    private static List<ViSearchAsyncHttpClient> clients(List<String> endpoints, ClientConfig config) {
+        List<ViSearchAsyncHttpClient> clients = new ArrayList<ViSearchAsyncHttpClient>(endpoints.size());
+        for (String endpoint : endpoints) {
+            clients.add(new ProductSearchHttpClientImpl(endpoint, config));
+        }
+        return clients;
+    }
+
+    /**
+     * Health and latency of one regional endpoint
+     */
+    static final class Region {
+
+        final String endpoint;
+
+        final ViSearchAsyncHttpClient client;
+
+        private final int preference;
+
+        private double latencyNanos = -1;
+
+        private double errorRate;
+
+        private long downUntil;
+
+        private boolean down;
+
+        private long lastUsed = Long.MIN_VALUE;
+
+        Region(String endpoint, ViSearchAsyncHttpClient client, int preference) {
+            this.endpoint = endpoint;
+            this.client = client;
+            this.preference = preference;
+        }
+
+        synchronized void succeeded(long latency) {
+            latencyNanos = latencyNanos < 0 ? latency : latencyNanos + EWMA_WEIGHT * (latency - latencyNanos);
+            errorRate -= EWMA_WEIGHT * errorRate;
+            down = false;
+        }
+
+        synchronized void failed(long now, boolean networkError) {
+            errorRate += EWMA_WEIGHT * (1 - errorRate);
+            if (networkError || errorRate >= MAX_ERROR_RATE) {
+                down = true;
+                downUntil = now + COOL_DOWN_NANOS;
+            }
+        }
+
+        synchronized boolean isHealthy(long now) {
+            return !down || now - downUntil >= 0;
+        }
+
+        synchronized double getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        synchronized double getErrorRate() {
+            return errorRate;
+        }
+
+        synchronized long getDownUntil() {
+            return downUntil;
+        }
+
+        synchronized long getLastUsed() {
+            return lastUsed;
+        }
+
+        synchronized void used(long now) {
+            lastUsed = now;
+        }
+    }
+
+    /**
+     * Regions in the order to try them for the next call: healthy regions
+     * from the fastest, a region without a latency yet counting as fastest,
+     * then the regions out of rotation from the one back soonest.
+     */
+    List<Region> route() {
+        final long now = ticker.read();
+        List<Region> healthy = new ArrayList<Region>(regions.size());
+        List<Region> down = new ArrayList<Region>(regions.size());
+        for (Region region : regions) {
+            (region.isHealthy(now) ? healthy : down).add(region);
+        }
+        Collections.sort(healthy, new Comparator<Region>() {
+            @Override
+            public int compare(Region a, Region b) {
+                int byLatency = Double.compare(Math.max(0, a.getLatencyNanos()), Math.max(0, b.getLatencyNanos()));
+                return byLatency != 0 ? byLatency : a.preference - b.preference;
+            }
+        });
+        if (healthy.size() > 1 && calls.incrementAndGet() % PROBE_INTERVAL == 0) {
+            Region stalest = healthy.get(0);
+            for (Region region : healthy) {
+                if (region.getLastUsed() < stalest.getLastUsed()) {
+                    stalest = region;
+                }
+            }
+            healthy.remove(stalest);
+            healthy.add(0, stalest);
+        }
+        Collections.sort(down, new Comparator<Region>() {
+            @Override
+            public int compare(Region a, Region b) {
+                long diff = a.getDownUntil() - b.getDownUntil();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        healthy.addAll(down);
+        return healthy;
+    }
+
+    List<Region> getRegions() {
+        return regions;
+    }
+
+    /**
+     * One call, sent to a region
+     */
+    private abstract static class Call {
+
+        abstract ViSearchHttpResponse send(ViSearchAsyncHttpClient client);
+
+        abstract ListenableFuture<ViSearchHttpResponse> sendAsync(ViSearchAsyncHttpClient client);
+    }
+
+    private static boolean isNetworkError(InternalViSearchException e) {
+        return e.getResponseMessage() == ResponseMessages.NETWORK_ERROR;
+    }
+
+    private static boolean isServerError(ViSearchHttpResponse response) {
+        return response != null && response.getStatusCode() >= 500;
+    }
+
+    private ViSearchHttpResponse execute(Call call, boolean failover) {
+        List<Region> route = route();
+        int attempts = failover ? route.size() : 1;
+        for (int i = 0; ; i++) {
+            Region region = route.get(i);
+            boolean last = i == attempts - 1;
+            long start = ticker.read();
+            region.used(start);
+            ViSearchHttpResponse response;
+            try {
+                response = call.send(region.client);
+            } catch (InternalViSearchException e) {
+                if (!isNetworkError(e)) {
+                    throw e;
+                }
+                region.failed(ticker.read(), true);
+                if (last) {
+                    throw e;
+                }
+                continue;
+            }
+            if (isServerError(response)) {
+                region.failed(ticker.read(), false);
+                if (!last) {
+                    response.close();
+                    continue;
+                }
+            } else {
+                region.succeeded(ticker.read() - start);
+            }
+            return response;
+        }
+    }
+
+    private ListenableFuture<ViSearchHttpResponse> executeAsync(Call call, boolean failover) {
+        List<Region> route = route();
+        return executeAsync(call, route, 0, failover ? route.size() : 1);
+    }
+
+    private ListenableFuture<ViSearchHttpResponse> executeAsync(final Call call, final List<Region> route,
+                                                                final int index, final int attempts) {
+        final Region region = route.get(index);
+        final boolean last = index == attempts - 1;
+        final long start = ticker.read();
+        region.used(start);
+        // a network error to fail over on turns into a null response
+        ListenableFuture<ViSearchHttpResponse> attempt = Futures.catching(call.sendAsync(region.client),
+                InternalViSearchException.class, new Function<InternalViSearchException, ViSearchHttpResponse>() {
+                    @Override
+                    public ViSearchHttpResponse apply(InternalViSearchException e) {
+                        if (!isNetworkError(e)) {
+                            throw e;
+                        }
+                        region.failed(ticker.read(), true);
+                        if (last) {
+                            throw e;
+                        }
+                        return null;
+                    }
+                });
+        return Futures.transformAsync(attempt, new AsyncFunction<ViSearchHttpResponse, ViSearchHttpResponse>() {
+            @Override
+            public ListenableFuture<ViSearchHttpResponse> apply(ViSearchHttpResponse response) {
+                if (response == null) {
+                    return executeAsync(call, route, index + 1, attempts);
+                }
+                if (isServerError(response)) {
+                    region.failed(ticker.read(), false);
+                    if (!last) {
+                        response.close();
+                        return executeAsync(call, route, index + 1, attempts);
+                    }
+                } else {
+                    region.succeeded(ticker.read() - start);
+                }
+                return Futures.immediateFuture(response);
+            }
+        });
+    }
+
+    @Override
+    public UsernamePasswordCredentials getCredentials() {
+        return regions.get(0).client.getCredentials();
+    }
+
+    @Override
+    public ViSearchHttpResponse get(String url, Multimap<String, String> params) {
+        return execute(getCall(url, params), true);
+    }
+
+    @Override
+    public ViSearchHttpResponse post(String url, Multimap<String, String> params) {
+        return execute(postCall(url, params), true);
+    }
+
+    @Override
+    public ViSearchHttpResponse postImage(String url, Multimap<String, String> params, File file) {
+        return execute(postImageCall(url, params, file), true);
+    }
+
+    @Override
+    public ViSearchHttpResponse postImage(String url, Multimap<String, String> params, InputStream inputStream, String filename) {
+        return execute(postImageCall(url, params, inputStream, filename), false);
+    }
+
+    @Override
+    public ViSearchHttpResponse postImFeature(String url, Multimap<String, String> params, String imFeature, String transId) {
+        return execute(postImFeatureCall(url, params, imFeature, transId), true);
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> getAsync(String url, Multimap<String, String> params) {
+        return executeAsync(getCall(url, params), true);
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> postAsync(String url, Multimap<String, String> params) {
+        return executeAsync(postCall(url, params), true);
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> postImageAsync(String url, Multimap<String, String> params, File file) {
+        return executeAsync(postImageCall(url, params, file), true);
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> postImageAsync(String url, Multimap<String, String> params, InputStream inputStream, String filename) {
+        return executeAsync(postImageCall(url, params, inputStream, filename), false);
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> postImFeatureAsync(String url, Multimap<String, String> params, String imFeature, String transId) {
+        return executeAsync(postImFeatureCall(url, params, imFeature, transId), true);
+    }
+
+    private static Call getCall(final String url, final Multimap<String, String> params) {
+        return new Call() {
+            @Override
+            ViSearchHttpResponse send(ViSearchAsyncHttpClient client) {
+                return client.get(url, params);
+            }
+
+            @Override
+            ListenableFuture<ViSearchHttpResponse> sendAsync(ViSearchAsyncHttpClient client) {
+                return client.getAsync(url, params);
+            }
+        };
+    }
+
+    private static Call postCall(final String url, final Multimap<String, String> params) {
+        return new Call() {
+            @Override
+            ViSearchHttpResponse send(ViSearchAsyncHttpClient client) {
+                return client.post(url, params);
+            }
+
+            @Override
+            ListenableFuture<ViSearchHttpResponse> sendAsync(ViSearchAsyncHttpClient client) {
+                return client.postAsync(url, params);
+            }
+        };
+    }
+
+    private static Call postImageCall(final String url, final Multimap<String, String> params, final File file) {
+        return new Call() {
+            @Override
+            ViSearchHttpResponse send(ViSearchAsyncHttpClient client) {
+                return client.postImage(url, params, file);
+            }
+
+            @Override
+            ListenableFuture<ViSearchHttpResponse> sendAsync(ViSearchAsyncHttpClient client) {
+                return client.postImageAsync(url, params, file);
+            }
+        };
+    }
+
+    private static Call postImageCall(final String url, final Multimap<String, String> params,
+                                      final InputStream inputStream, final String filename) {
+        return new Call() {
+            @Override
+            ViSearchHttpResponse send(ViSearchAsyncHttpClient client) {
+                return client.postImage(url, params, inputStream, filename);
+            }
+
+            @Override
+            ListenableFuture<ViSearchHttpResponse> sendAsync(ViSearchAsyncHttpClient client) {
+                return client.postImageAsync(url, params, inputStream, filename);
+            }
+        };
+    }
+
+    private static Call postImFeatureCall(final String url, final Multimap<String, String> params,
+                                          final String imFeature, final String transId) {
+        return new Call() {
+            @Override
+            ViSearchHttpResponse send(ViSearchAsyncHttpClient client) {
+                return client.postImFeature(url, params, imFeature, transId);
+            }
+
+            @Override
+            ListenableFuture<ViSearchHttpResponse> sendAsync(ViSearchAsyncHttpClient client) {
+                return client.postImFeatureAsync(url, params, imFeature, transId);
+            }
+        };
+    }
+
+    /**
+     * @return pool statistics summed over every region, or null if a region
+     *         does not expose them
+     */
+    @Override
+    public ConnectionPoolStats getPoolStats() {
+        int leased = 0;
+        int available = 0;
+        int pending = 0;
+        int max = 0;
+        for (Region region : regions) {
+            ConnectionPoolStats stats = region.client.getPoolStats();
+            if (stats == null) {
+                return null;
+            }
+            leased += stats.getLeased();
+            available += stats.getAvailable();
+            pending += stats.getPending();
+            max += stats.getMax();
+        }
+        return new ConnectionPoolStats(leased, available, pending, max);
+    }
+
+    /**
+     * @return queue time summed over every region, or null if a region has no admission queue
+     */
+    @Override
+    public QueueTimeStats getQueueTimeStats(RequestPriority priority) {
+        long requests = 0;
+        int queued = 0;
+        double total = 0;
+        double max = 0;
+        for (Region region : regions) {
+            QueueTimeStats stats = region.client.getQueueTimeStats(priority);
+            if (stats == null) {
+                return null;
+            }
+            requests += stats.getRequests();
+            queued += stats.getQueued();
+            total += stats.getTotalQueueTime();
+            max = Math.max(max, stats.getMaxQueueTime());
+        }
+        return new QueueTimeStats(requests, queued, total, max);
+    }
+
+    /**
+     * Warm up every region, so that failing over does not pay for new
+     * connections either.
+     */
+    @Override
+    public int warmUp(int connections) {
+        int ready = 0;
+        for (Region region : regions) {
+            ready += region.client.warmUp(connections);
+        }
+        return ready;
+    }
+
+    @Override
+    public void close() {
+        for (Region region : regions) {
+            region.client.close();
+        }
+    }
+}
@@ -2,14 +2,13 @@ package com.visenze.productsearch.http;
 
 import com.visenze.visearch.ClientConfig;
 import com.visenze.visearch.internal.http.ViSearchHttpClientImpl;
-import com.visenze.visearch.internal.http.ViSearchHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 
 /**
  * <h1> ProductSearchHttpClientImpl </h1>
  * This class extends the ViSearchHttpClientImpl class to reuse most of its
  * functionalities. Since ProductSearch no longer needs authentication in its
- * headers (app key and placement id is passed as parameters), the getResponse
+ * headers (app key and placement id is passed as parameters), the prepareRequest
  * method implemented here is the same as ViSearchHttpClientImpl except for the
  * addAuthHeader method not being called.
  *
@@ -24,9 +23,8 @@ public class ProductSearchHttpClientImpl extends ViSearchHttpClientImpl {
     }
 
     @Override
-    protected ViSearchHttpResponse getResponse(HttpUriRequest request) {
+    protected void prepareRequest(HttpUriRequest request) {
         // for Product Search, auth is via app_key
         addOtherHeaders(request);
-        return getViSearchHttpResponse(request);
     }
 }
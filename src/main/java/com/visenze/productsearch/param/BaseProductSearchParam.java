@@ -2,6 +2,7 @@ package com.visenze.productsearch.param;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.*;
+import com.visenze.common.util.DeadlineMultimap;
 
 import static com.visenze.common.util.MultimapUtil.putIfPresent;
 import static com.visenze.common.util.MultimapUtil.putList;
@@ -138,9 +139,12 @@ public class BaseProductSearchParam {
     private String appKey;
     private Integer placementId;
 
+    // milliseconds the call must complete in, retries included
+    private Long timeout;
+
 
     public Multimap<String, String> toMultimap() {
-        Multimap<String, String> multimap = HashMultimap.create();
+        Multimap<String, String> multimap = DeadlineMultimap.withTimeout(HashMultimap.<String, String>create(), timeout);
 
         putIfPresent(multimap, page, PAGE);
         putIfPresent(multimap, limit, LIMIT);
@@ -732,4 +736,20 @@ public class BaseProductSearchParam {
     public void setPlacementId(Integer placementId) {
         this.placementId = placementId;
     }
+
+    public Long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Bound the connect, connection lease and socket timeouts of this call
+     * by a deadline, so interactive calls fail fast while batch calls can
+     * wait. Retries are only sent while time is left.
+     *
+     * @param timeout milliseconds the call must complete in, null to use the
+     *                timeouts of the client config
+     */
+    public void setTimeout(Long timeout) {
+        this.timeout = timeout;
+    }
 }
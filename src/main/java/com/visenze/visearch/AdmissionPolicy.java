@@ -0,0 +1,95 @@
+package com.visenze.visearch;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Admission queue in front of a client's requests. Once the client has
+ * max in flight requests sent, further requests queue until one completes.
+ * Waiting requests are admitted by {@link RequestPriority}, then in turns
+ * across tenants, i.e. the app key and placement id of Product Search calls,
+ * so that one busy tenant cannot hold back the others of the same priority.
+ * A blocking call waits up to the max queue time, then fails with
+ * SYSTEM_BUSY. An asynchronous call waits until it is admitted or cancelled.
+ */
+public class AdmissionPolicy {
+
+    public static final long DEFAULT_MAX_QUEUE_TIME = 10 * 1000;
+
+    private static final String[] BATCH_PATHS = {"/insert", "/remove", "/extractfeature"};
+
+    private static final String PREFETCH_PATH = "recommendations";
+
+    private int maxInFlight;
+
+    private long maxQueueTime = DEFAULT_MAX_QUEUE_TIME;
+
+    private final Map<String, RequestPriority> priorities = new ConcurrentHashMap<String, RequestPriority>();
+
+    /**
+     * @return max requests in flight, 0 for the max connections of the client
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @param maxInFlight max requests in flight, 0 for the max connections of the client
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 0) {
+            throw new IllegalArgumentException("maxInFlight must not be negative");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    public long getMaxQueueTime() {
+        return maxQueueTime;
+    }
+
+    /**
+     * @param maxQueueTime milliseconds a blocking call waits for admission
+     */
+    public void setMaxQueueTime(long maxQueueTime) {
+        this.maxQueueTime = maxQueueTime;
+    }
+
+    /**
+     * Set the priority of the requests to a path, e.g. to make
+     * "/v1/visearch/recommendations" interactive where recommendations are
+     * shown right away. The longest path set as a prefix of a request path
+     * applies.
+     *
+     * @param path request path or path prefix
+     * @param priority priority of the requests to the path
+     */
+    public void setPriority(String path, RequestPriority priority) {
+        priorities.put(path, priority);
+    }
+
+    /**
+     * @param path request path, e.g. "/search"
+     * @return priority of the requests to the path: the one set for it, else
+     *         BATCH for data operations and feature extraction, PREFETCH for
+     *         recommendations and INTERACTIVE for anything else
+     */
+    public RequestPriority getPriority(String path) {
+        RequestPriority priority = null;
+        int matched = -1;
+        for (Map.Entry<String, RequestPriority> entry : priorities.entrySet()) {
+            if (path.startsWith(entry.getKey()) && entry.getKey().length() > matched) {
+                priority = entry.getValue();
+                matched = entry.getKey().length();
+            }
+        }
+        if (priority != null) {
+            return priority;
+        }
+        for (String batchPath : BATCH_PATHS) {
+            if (path.startsWith(batchPath)) {
+                return RequestPriority.BATCH;
+            }
+        }
+        return path.contains(PREFETCH_PATH) ? RequestPriority.PREFETCH : RequestPriority.INTERACTIVE;
+    }
+}
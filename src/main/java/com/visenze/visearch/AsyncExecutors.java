@@ -0,0 +1,59 @@
+package com.visenze.visearch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for the asynchronous API. An executor runs blocking exchanges
+ * (on the blocking transport) and parses responses, so callers are never
+ * blocked by an async call.
+ */
+public final class AsyncExecutors {
+
+    private AsyncExecutors() {
+    }
+
+    /**
+     * Executor used when no executor is set on the {@link ClientConfig}: a
+     * cached pool of daemon threads shared by every client in the process.
+     *
+     * @return the shared default executor
+     */
+    public static ExecutorService sharedExecutor() {
+        return SharedExecutorHolder.INSTANCE;
+    }
+
+    /**
+     * Create an executor that starts a virtual thread per task when running
+     * on JDK 21 or later, and a cached pool of daemon threads otherwise.
+     *
+     * @return a new executor, to be shut down by the caller
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return newDaemonPool("visearch-async-%d");
+        } catch (IllegalAccessException e) {
+            return newDaemonPool("visearch-async-%d");
+        } catch (InvocationTargetException e) {
+            return newDaemonPool("visearch-async-%d");
+        }
+    }
+
+    private static ExecutorService newDaemonPool(String nameFormat) {
+        return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat(nameFormat)
+                .setDaemon(true)
+                .build());
+    }
+
+    private static final class SharedExecutorHolder {
+        static final ExecutorService INSTANCE = newDaemonPool("visearch-shared-async-%d");
+    }
+}
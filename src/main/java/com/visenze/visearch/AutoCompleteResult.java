@@ -1,6 +1,8 @@
 package com.visenze.visearch;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import java.util.List;
 
 /**
@@ -11,7 +13,7 @@ public class AutoCompleteResult extends PagedResult<AutoCompleteResultItem> {
 
     private String reqId;
 
-    private String rawJson;
+    private Supplier<String> rawJson;
 
     public AutoCompleteResult(List<AutoCompleteResultItem> result) {
         this.result = result;
@@ -32,10 +34,20 @@ public class AutoCompleteResult extends PagedResult<AutoCompleteResultItem> {
     }
 
     public String getRawJson() {
-        return rawJson;
+        return rawJson == null ? null : rawJson.get();
     }
 
     public void setRawJson(String rawJson) {
+        this.rawJson = rawJson == null ? null : Suppliers.ofInstance(rawJson);
+    }
+
+    /**
+     * Set the raw json as a supplier called on every {@link #getRawJson()},
+     * to keep it in a more compact form than a string.
+     *
+     * @param rawJson supplier of the raw json, null for none
+     */
+    public void setRawJsonSupplier(Supplier<String> rawJson) {
         this.rawJson = rawJson;
     }
 }
@@ -6,6 +6,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.visenze.common.util.DeadlineMultimap;
 
 import java.util.HashMap;
 import java.util.List;
@@ -76,6 +77,11 @@ public class BaseSearchParams<P extends BaseSearchParams<P>> {
      */
     protected Optional<String> vaSid = Optional.absent();
 
+    /**
+     * Milliseconds the call must complete in, retries included
+     */
+    protected Long timeout;
+
 
     @SuppressWarnings("unchecked")
     public P setPage(Integer page) {
@@ -354,8 +360,26 @@ public class BaseSearchParams<P extends BaseSearchParams<P>> {
         this.vaSid = Optional.fromNullable(vaSid);
     }
 
+    public Long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Bound the connect, connection lease and socket timeouts of this call by
+     * a deadline, e.g. a few hundred milliseconds for an interactive search.
+     * Retries are only sent while time is left. The timeouts of the client
+     * config are used when no timeout is set.
+     *
+     * @param timeout milliseconds the call must complete in, null for no deadline
+     */
+    @SuppressWarnings("unchecked")
+    public P setTimeout(Long timeout) {
+        this.timeout = timeout;
+        return (P) this;
+    }
+
     public Multimap<String, String> toMap() {
-        Multimap<String, String> map = LinkedHashMultimap.create();
+        Multimap<String, String> map = DeadlineMultimap.withTimeout(LinkedHashMultimap.<String, String>create(), timeout);
 
         putIfPresent(map, page, PAGE);
         putIfPresent(map, limit, LIMIT);
@@ -0,0 +1,132 @@
+package com.visenze.visearch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of the batches sent by a {@link BulkInserter}: the insert
+ * transactions started, to follow with
+ * {@link com.visenze.visearch.internal.DataOperations#insertStatus(String)},
+ * and the batches that could not be sent.
+ */
+public class BulkInsertReport {
+
+    /**
+     * A batch whose insert call failed, none of its images was inserted
+     */
+    public static class Failure {
+
+        private final List<String> imNames;
+
+        private final String errorMessage;
+
+        private final Throwable cause;
+
+        public Failure(List<String> imNames, String errorMessage, Throwable cause) {
+            this.imNames = imNames;
+            this.errorMessage = errorMessage;
+            this.cause = cause;
+        }
+
+        /**
+         * @return im_names of the images of the batch, to send again
+         */
+        public List<String> getImNames() {
+            return imNames;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        public Throwable getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return "Failure{images=" + imNames.size() + ", errorMessage='" + errorMessage + "'}";
+        }
+    }
+
+    private final List<InsertTrans> transactions;
+
+    private final List<Failure> failures;
+
+    private final long images;
+
+    private final long duplicates;
+
+    public BulkInsertReport(List<InsertTrans> transactions, List<Failure> failures, long images, long duplicates) {
+        this.transactions = Collections.unmodifiableList(transactions);
+        this.failures = Collections.unmodifiableList(failures);
+        this.images = images;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * @return insert transactions of the batches sent successfully
+     */
+    public List<InsertTrans> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * @return trans ids of the batches sent successfully
+     */
+    public List<String> getTransIds() {
+        List<String> transIds = new ArrayList<String>(transactions.size());
+        for (InsertTrans transaction : transactions) {
+            transIds.add(transaction.getTransId());
+        }
+        return transIds;
+    }
+
+    /**
+     * @return errors reported for single images of the batches sent successfully
+     */
+    public List<InsertError> getInsertErrors() {
+        List<InsertError> errors = new ArrayList<InsertError>();
+        for (InsertTrans transaction : transactions) {
+            if (transaction.getErrorList() != null) {
+                errors.addAll(transaction.getErrorList());
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * @return batches whose insert call failed
+     */
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return number of images of the batches sent successfully, duplicates excluded
+     */
+    public long getImageCount() {
+        return images;
+    }
+
+    /**
+     * @return number of images dropped as a later image of the same batch had the same im_name
+     */
+    public long getDuplicateCount() {
+        return duplicates;
+    }
+
+    /**
+     * @return true if every batch was sent and no image was reported in error
+     */
+    public boolean isSuccess() {
+        return failures.isEmpty() && getInsertErrors().isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BulkInsertReport{images=" + images + ", duplicates=" + duplicates
+                + ", transactions=" + transactions.size() + ", failures=" + failures.size() + "}";
+    }
+}
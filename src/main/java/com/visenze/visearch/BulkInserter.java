@@ -0,0 +1,253 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.visenze.visearch.internal.DataOperations;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Inserts any number of images, e.g. a whole catalog, by splitting them into
+ * insert calls of at most a batch size images and a max encoded size. Up to
+ * max concurrent batches are sent at once, {@link #add(Image)} blocking while
+ * they are all in flight. Within a batch an image replaces an earlier image
+ * of the same im_name.
+ *
+ * <pre>
+ * BulkInserter inserter = new BulkInserter(viSearch);
+ * for (Image image : catalog) {
+ *     inserter.add(image);
+ * }
+ * BulkInsertReport report = inserter.finish();
+ * </pre>
+ */
+public class BulkInserter {
+
+    /**
+     * Notified of every batch sent, from the thread completing its insert call.
+     */
+    public interface Listener {
+
+        /**
+         * @param images images of the batch
+         * @param insertTrans insert transaction started for the batch
+         */
+        void onBatchSent(List<Image> images, InsertTrans insertTrans);
+    }
+
+    public static final int MAX_BATCH_SIZE = 100;
+
+    public static final long DEFAULT_MAX_BATCH_BYTES = 2 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_CONCURRENT_BATCHES = 4;
+
+    private final DataOperations dataOperations;
+
+    private final int batchSize;
+
+    private final long maxBatchBytes;
+
+    private final int maxConcurrentBatches;
+
+    private final Semaphore inFlight;
+
+    private final Map<String, Image> batch = new LinkedHashMap<String, Image>();
+
+    private long batchBytes;
+
+    private final List<InsertTrans> transactions = new ArrayList<InsertTrans>();
+
+    private final List<BulkInsertReport.Failure> failures = new ArrayList<BulkInsertReport.Failure>();
+
+    private long images;
+
+    private long duplicates;
+
+    private volatile Listener listener;
+
+    /**
+     * @param dataOperations client to insert with, e.g. a {@link ViSearch}
+     */
+    public BulkInserter(DataOperations dataOperations) {
+        this(dataOperations, MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_BYTES, DEFAULT_MAX_CONCURRENT_BATCHES);
+    }
+
+    /**
+     * @param dataOperations client to insert with, e.g. a {@link ViSearch}
+     * @param batchSize max images per insert call, at most {@link #MAX_BATCH_SIZE}
+     * @param maxBatchBytes max bytes of the form encoded images of an insert call
+     * @param maxConcurrentBatches max insert calls in flight
+     */
+    public BulkInserter(DataOperations dataOperations, int batchSize, long maxBatchBytes, int maxConcurrentBatches) {
+        Preconditions.checkNotNull(dataOperations, "data operations must not be null");
+        Preconditions.checkArgument(batchSize >= 1 && batchSize <= MAX_BATCH_SIZE,
+                "batch size must be between 1 and " + MAX_BATCH_SIZE);
+        Preconditions.checkArgument(maxBatchBytes > 0, "max batch bytes must be positive");
+        Preconditions.checkArgument(maxConcurrentBatches >= 1, "max concurrent batches must be at least 1");
+        this.dataOperations = dataOperations;
+        this.batchSize = batchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxConcurrentBatches = maxConcurrentBatches;
+        this.inFlight = new Semaphore(maxConcurrentBatches);
+    }
+
+    /**
+     * @param listener listener notified of every batch sent, null for none
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Insert every image of a stream and wait for the insert calls.
+     *
+     * @param images images to insert
+     * @return report of every batch sent by this inserter so far
+     */
+    public BulkInsertReport insertAll(Iterator<Image> images) {
+        while (images.hasNext()) {
+            add(images.next());
+        }
+        return finish();
+    }
+
+    /**
+     * Add an image to the current batch, sending the batch once full. Blocks
+     * while max concurrent batches are in flight.
+     *
+     * @param image image to insert, with an im_name
+     */
+    public synchronized void add(Image image) {
+        Preconditions.checkNotNull(image, "image must not be null");
+        Preconditions.checkNotNull(image.getImName(), "im_name must not be null");
+        long bytes = encodedSize(image);
+        Image previous = batch.get(image.getImName());
+        if (previous != null) {
+            batchBytes -= encodedSize(previous);
+            synchronized (transactions) {
+                duplicates++;
+            }
+        } else if (!batch.isEmpty() && batchBytes + bytes > maxBatchBytes) {
+            flush();
+        }
+        batch.put(image.getImName(), image);
+        batchBytes += bytes;
+        if (batch.size() >= batchSize || batchBytes >= maxBatchBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Send the current batch, even if it is not full.
+     */
+    public synchronized void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<Image> images = new ArrayList<Image>(batch.values());
+        batch.clear();
+        batchBytes = 0;
+        inFlight.acquireUninterruptibly();
+        ListenableFuture<InsertTrans> future;
+        try {
+            future = dataOperations.insertAsync(images);
+        } catch (RuntimeException e) {
+            failed(images, e.getMessage(), e);
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<InsertTrans>() {
+            @Override
+            public void onSuccess(InsertTrans insertTrans) {
+                if (insertTrans.getTransId() == null) {
+                    failed(images, insertTrans.getErrorMessage(), insertTrans.getCause());
+                } else {
+                    sent(images, insertTrans);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                failed(images, t.getMessage(), t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Send the current batch and wait for every insert call in flight.
+     *
+     * @return report of every batch sent by this inserter so far
+     */
+    public synchronized BulkInsertReport finish() {
+        flush();
+        inFlight.acquireUninterruptibly(maxConcurrentBatches);
+        inFlight.release(maxConcurrentBatches);
+        synchronized (transactions) {
+            return new BulkInsertReport(new ArrayList<InsertTrans>(transactions),
+                    new ArrayList<BulkInsertReport.Failure>(failures), images, duplicates);
+        }
+    }
+
+    private void sent(List<Image> batchImages, InsertTrans insertTrans) {
+        synchronized (transactions) {
+            transactions.add(insertTrans);
+            images += batchImages.size();
+        }
+        try {
+            Listener listener = this.listener;
+            if (listener != null) {
+                listener.onBatchSent(batchImages, insertTrans);
+            }
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    private void failed(List<Image> batchImages, String errorMessage, Throwable cause) {
+        List<String> imNames = new ArrayList<String>(batchImages.size());
+        for (Image image : batchImages) {
+            imNames.add(image.getImName());
+        }
+        synchronized (transactions) {
+            failures.add(new BulkInsertReport.Failure(imNames, errorMessage, cause));
+        }
+        inFlight.release();
+    }
+
+    /**
+     * @return bytes of the form encoded params of the image, with the largest index of a batch
+     */
+    private long encodedSize(Image image) {
+        String index = "[" + (batchSize - 1) + "]";
+        long size = encodedSize("im_name" + index, image.getImName());
+        if (image.getImUrl() != null) {
+            size += encodedSize("im_url" + index, image.getImUrl());
+        }
+        if (image.getMetadata() != null) {
+            for (Map.Entry<String, String> entry : image.getMetadata().entrySet()) {
+                if (entry.getValue() != null) {
+                    size += encodedSize(entry.getKey() + index, entry.getValue());
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long encodedSize(String name, String value) {
+        try {
+            // name=value&
+            return URLEncoder.encode(name, "UTF-8").length() + URLEncoder.encode(value, "UTF-8").length() + 2;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
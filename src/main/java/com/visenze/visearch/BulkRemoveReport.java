@@ -0,0 +1,116 @@
+package com.visenze.visearch;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of the batches sent by a {@link BulkRemover}: the images removed
+ * and the batches whose remove call failed for good.
+ */
+public class BulkRemoveReport {
+
+    /**
+     * A batch whose remove call failed after every attempt
+     */
+    public static class Failure {
+
+        private final List<String> imNames;
+
+        private final String errorMessage;
+
+        private final Throwable cause;
+
+        private final int attempts;
+
+        public Failure(List<String> imNames, String errorMessage, Throwable cause, int attempts) {
+            this.imNames = imNames;
+            this.errorMessage = errorMessage;
+            this.cause = cause;
+            this.attempts = attempts;
+        }
+
+        /**
+         * @return im_names of the batch, to remove again
+         */
+        public List<String> getImNames() {
+            return imNames;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        public Throwable getCause() {
+            return cause;
+        }
+
+        /**
+         * @return number of times the batch was sent
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        @Override
+        public String toString() {
+            return "Failure{images=" + imNames.size() + ", attempts=" + attempts
+                    + ", errorMessage='" + errorMessage + "'}";
+        }
+    }
+
+    private final long total;
+
+    private final long batches;
+
+    private final long retries;
+
+    private final List<Failure> failures;
+
+    public BulkRemoveReport(long total, long batches, long retries, List<Failure> failures) {
+        this.total = total;
+        this.batches = batches;
+        this.retries = retries;
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return images removed, as the sum of the totals of the remove calls
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return batches sent, whether they succeeded or failed
+     */
+    public long getBatchCount() {
+        return batches;
+    }
+
+    /**
+     * @return attempts sent again after a transient error
+     */
+    public long getRetryCount() {
+        return retries;
+    }
+
+    /**
+     * @return batches whose remove call failed after every attempt
+     */
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return true if every batch was removed
+     */
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "[total: " + total + "; batches: " + batches + "; retries: " + retries
+                + "; failures: " + failures + "]";
+    }
+}
@@ -0,0 +1,300 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.visenze.visearch.internal.DataOperations;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes any number of images, e.g. read from a file, by splitting their
+ * im_names into remove calls of at most a batch size im_names. Up to max
+ * concurrent batches are sent at once, {@link #add(String)} blocking while
+ * they are all in flight. A batch failing with a network error or a busy
+ * server is sent again after a jittered backoff, removing an image twice
+ * being harmless.
+ *
+ * <pre>
+ * BulkRemover remover = new BulkRemover(viSearch);
+ * BulkRemoveReport report = remover.removeAll(imNames);
+ * remover.close();
+ * </pre>
+ */
+public class BulkRemover implements Closeable {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final int DEFAULT_MAX_CONCURRENT_BATCHES = 4;
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    public static final long DEFAULT_RETRY_DELAY = 1000;
+
+    public static final long DEFAULT_MAX_RETRY_DELAY = 30 * 1000;
+
+    /**
+     * Errors of a call that may succeed if sent again
+     */
+    private static final Set<String> TRANSIENT_ERRORS = ImmutableSet.of(
+            ResponseMessages.SYSTEM_BUSY.getMessage(),
+            ResponseMessages.SYSTEM_ERROR.getMessage(),
+            ResponseMessages.NETWORK_ERROR.getMessage(),
+            ResponseMessages.CIRCUIT_OPEN.getMessage());
+
+    private final DataOperations dataOperations;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final boolean ownScheduler;
+
+    private final int batchSize;
+
+    private final int maxConcurrentBatches;
+
+    private final int maxAttempts;
+
+    /**
+     * Backoff of the retries, the same full jitter as retried requests
+     */
+    private final RetryPolicy retryPolicy = new RetryPolicy();
+
+    private final Random random = new Random();
+
+    private final Semaphore inFlight;
+
+    /**
+     * Batches waiting for a retry, removed by whichever of the retry and
+     * {@link #close()} comes first
+     */
+    private final Set<Batch> retrying = Collections.newSetFromMap(new ConcurrentHashMap<Batch, Boolean>());
+
+    private List<String> batch = new ArrayList<String>();
+
+    private final List<BulkRemoveReport.Failure> failures = new ArrayList<BulkRemoveReport.Failure>();
+
+    private long total;
+
+    private long batches;
+
+    private long retries;
+
+    /**
+     * @param dataOperations client to remove with, e.g. a {@link ViSearch}
+     */
+    public BulkRemover(DataOperations dataOperations) {
+        this(dataOperations, Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("visearch-bulk-remove-%d")
+                        .setDaemon(true)
+                        .build()), true,
+                DEFAULT_BATCH_SIZE, DEFAULT_MAX_CONCURRENT_BATCHES, DEFAULT_MAX_ATTEMPTS, DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * @param dataOperations client to remove with, e.g. a {@link ViSearch}
+     * @param scheduler scheduler of the retries, not shut down by {@link #close()}
+     * @param batchSize max im_names per remove call
+     * @param maxConcurrentBatches max remove calls in flight
+     * @param maxAttempts max number of attempts of a batch, the first one included
+     * @param retryDelay milliseconds of backoff before the first retry of a batch, doubled for every
+     *                   further retry up to 30 seconds; the actual wait is a random time up to the backoff
+     */
+    public BulkRemover(DataOperations dataOperations, ScheduledExecutorService scheduler, int batchSize,
+                       int maxConcurrentBatches, int maxAttempts, long retryDelay) {
+        this(dataOperations, scheduler, false, batchSize, maxConcurrentBatches, maxAttempts, retryDelay);
+    }
+
+    private BulkRemover(DataOperations dataOperations, ScheduledExecutorService scheduler, boolean ownScheduler,
+                        int batchSize, int maxConcurrentBatches, int maxAttempts, long retryDelay) {
+        Preconditions.checkNotNull(dataOperations, "data operations must not be null");
+        Preconditions.checkNotNull(scheduler, "scheduler must not be null");
+        Preconditions.checkArgument(batchSize >= 1, "batch size must be at least 1");
+        Preconditions.checkArgument(maxConcurrentBatches >= 1, "max concurrent batches must be at least 1");
+        Preconditions.checkArgument(maxAttempts >= 1, "max attempts must be at least 1");
+        Preconditions.checkArgument(retryDelay >= 0, "retry delay must not be negative");
+        this.dataOperations = dataOperations;
+        this.scheduler = scheduler;
+        this.ownScheduler = ownScheduler;
+        this.batchSize = batchSize;
+        this.maxConcurrentBatches = maxConcurrentBatches;
+        this.maxAttempts = maxAttempts;
+        this.retryPolicy.setBaseDelay(retryDelay);
+        this.retryPolicy.setMaxDelay(Math.max(retryDelay, DEFAULT_MAX_RETRY_DELAY));
+        this.inFlight = new Semaphore(maxConcurrentBatches);
+    }
+
+    /**
+     * Remove every image of a stream and wait for the remove calls.
+     *
+     * @param imNames im_names of the images to remove
+     * @return report of every batch sent by this remover so far
+     */
+    public BulkRemoveReport removeAll(Iterator<String> imNames) {
+        while (imNames.hasNext()) {
+            add(imNames.next());
+        }
+        return finish();
+    }
+
+    /**
+     * Add an image to the current batch, sending the batch once full. Blocks
+     * while max concurrent batches are in flight.
+     *
+     * @param imName im_name of the image to remove
+     */
+    public synchronized void add(String imName) {
+        Preconditions.checkNotNull(imName, "im_name must not be null");
+        batch.add(imName);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Send the current batch, even if it is not full.
+     */
+    public synchronized void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<String> imNames = batch;
+        batch = new ArrayList<String>();
+        inFlight.acquireUninterruptibly();
+        new Batch(imNames).send();
+    }
+
+    /**
+     * Send the current batch and wait for every remove call in flight, retries
+     * included.
+     *
+     * @return report of every batch sent by this remover so far
+     */
+    public synchronized BulkRemoveReport finish() {
+        flush();
+        inFlight.acquireUninterruptibly(maxConcurrentBatches);
+        inFlight.release(maxConcurrentBatches);
+        synchronized (failures) {
+            return new BulkRemoveReport(total, batches, retries, new ArrayList<BulkRemoveReport.Failure>(failures));
+        }
+    }
+
+    /**
+     * Stop the retry thread of a remover created without a scheduler. Batches
+     * waiting for a retry are then reported as failed with their last error.
+     */
+    @Override
+    public void close() {
+        if (ownScheduler) {
+            scheduler.shutdownNow();
+            for (Batch batch : retrying) {
+                if (retrying.remove(batch)) {
+                    batch.gaveUp();
+                }
+            }
+        }
+    }
+
+    private final class Batch implements Runnable {
+
+        final List<String> imNames;
+
+        int attempts;
+
+        String errorMessage;
+
+        Throwable cause;
+
+        Batch(List<String> imNames) {
+            this.imNames = imNames;
+        }
+
+        @Override
+        public void run() {
+            if (!retrying.remove(this)) {
+                // given up by close
+                return;
+            }
+            synchronized (failures) {
+                retries++;
+            }
+            send();
+        }
+
+        void send() {
+            attempts++;
+            ListenableFuture<RemoveStatus> future;
+            try {
+                future = dataOperations.removeAsync(imNames);
+            } catch (RuntimeException e) {
+                failed(e.getMessage(), e, false);
+                return;
+            }
+            Futures.addCallback(future, new FutureCallback<RemoveStatus>() {
+                @Override
+                public void onSuccess(RemoveStatus removeStatus) {
+                    if (removeStatus.getErrorMessage() == null) {
+                        removed(removeStatus.getTotal());
+                    } else {
+                        failed(removeStatus.getErrorMessage(), removeStatus.getCause(),
+                                TRANSIENT_ERRORS.contains(removeStatus.getErrorMessage()));
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failed(t.getMessage(), t, true);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        void removed(int removed) {
+            synchronized (failures) {
+                total += removed;
+                batches++;
+            }
+            inFlight.release();
+        }
+
+        void failed(String errorMessage, Throwable cause, boolean retryable) {
+            this.errorMessage = errorMessage;
+            this.cause = cause;
+            if (retryable && attempts < maxAttempts) {
+                retrying.add(this);
+                try {
+                    scheduler.schedule(this, retryPolicy.backoff(attempts, random), TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // closed, give up the batch unless close already did
+                    if (!retrying.remove(this)) {
+                        return;
+                    }
+                }
+            }
+            gaveUp();
+        }
+
+        void gaveUp() {
+            synchronized (failures) {
+                failures.add(new BulkRemoveReport.Failure(imNames, errorMessage, cause, attempts));
+                batches++;
+            }
+            inFlight.release();
+        }
+    }
+}
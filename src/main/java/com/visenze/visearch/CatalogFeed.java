@@ -0,0 +1,323 @@
+package com.visenze.visearch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.io.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the images of a catalog feed one record at a time, so that a feed
+ * of any size is read in constant memory. Every record has an im_name field
+ * and usually an im_url field, any other field is metadata.
+ * <ul>
+ * <li>CSV: a header line naming the columns, then one image per line, as in
+ * RFC 4180 (quoted fields may contain commas, quotes doubled and line
+ * breaks).</li>
+ * <li>JSONL: one JSON object per line, non text values being kept as their
+ * JSON form.</li>
+ * </ul>
+ * Records without an im_name, and lines that are not a JSON object or do not
+ * have one value per column, are skipped and counted.
+ */
+public class CatalogFeed implements Closeable {
+
+    public enum Format {CSV, JSONL}
+
+    private static final String IM_NAME = "im_name";
+
+    private static final String IM_URL = "im_url";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Format format;
+
+    private final long length;
+
+    private final CountingInputStream counter;
+
+    private final BufferedReader reader;
+
+    private List<String> columns;
+
+    /**
+     * Chars of a CSV feed read ahead, not to read them one call at a time
+     */
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    private int position;
+
+    private int limit;
+
+    private int pending = -1;
+
+    private long records;
+
+    private long skippedRecords;
+
+    /**
+     * @param in feed to read, closed by {@link #close()}
+     * @param format format of the feed
+     * @param length bytes of the feed, -1 if unknown
+     * @throws IOException if the header of a CSV feed cannot be read
+     */
+    public CatalogFeed(InputStream in, Format format, long length) throws IOException {
+        Preconditions.checkNotNull(in, "input stream must not be null");
+        Preconditions.checkNotNull(format, "format must not be null");
+        this.format = format;
+        this.length = length;
+        this.counter = new CountingInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        this.reader = new BufferedReader(new InputStreamReader(counter, Charsets.UTF_8));
+        if (format == Format.CSV) {
+            readHeader();
+        }
+    }
+
+    /**
+     * Open a feed file, as CSV if its name ends with ".csv" and as JSONL
+     * otherwise.
+     *
+     * @param file feed file, UTF-8 encoded
+     * @return the feed, to close once read
+     * @throws IOException if the file cannot be opened
+     */
+    public static CatalogFeed open(File file) throws IOException {
+        Format format = file.getName().toLowerCase().endsWith(".csv") ? Format.CSV : Format.JSONL;
+        return open(file, format);
+    }
+
+    /**
+     * @param file feed file, UTF-8 encoded
+     * @param format format of the feed
+     * @return the feed, to close once read
+     * @throws IOException if the file cannot be opened
+     */
+    public static CatalogFeed open(File file, Format format) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return new CatalogFeed(in, format, file.length());
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        } catch (RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the next image of the feed, null at the end of the feed
+     * @throws IOException if the feed cannot be read
+     */
+    public Image next() throws IOException {
+        while (true) {
+            Image image = format == Format.CSV ? nextCsvImage() : nextJsonImage();
+            if (image == null) {
+                return null;
+            }
+            if (!Strings.isNullOrEmpty(image.getImName())) {
+                records++;
+                return image;
+            }
+            skippedRecords++;
+        }
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @return bytes of the feed, -1 if unknown
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return bytes read from the feed so far, including read ahead buffers
+     */
+    public long getBytesRead() {
+        return counter.getCount();
+    }
+
+    /**
+     * @return images read so far
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return malformed records skipped so far
+     */
+    public long getSkippedRecords() {
+        return skippedRecords;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * @return the image of the next non blank line, with a null im_name if the
+     *         line is malformed, null at the end of the feed
+     */
+    private Image nextJsonImage() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.trim().isEmpty());
+        JsonNode node;
+        try {
+            node = MAPPER.readTree(line);
+        } catch (IOException e) {
+            return new Image(null, null);
+        }
+        if (node == null || !node.isObject()) {
+            return new Image(null, null);
+        }
+        String imName = null;
+        String imUrl = null;
+        Map<String, String> metadata = new HashMap<String, String>();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode value = field.getValue();
+            if (value.isNull()) {
+                continue;
+            }
+            String text = value.isValueNode() ? value.asText() : value.toString();
+            if (IM_NAME.equals(field.getKey())) {
+                imName = text;
+            } else if (IM_URL.equals(field.getKey())) {
+                imUrl = text;
+            } else {
+                metadata.put(field.getKey(), text);
+            }
+        }
+        return new Image(imName, imUrl, metadata);
+    }
+
+    private void readHeader() throws IOException {
+        columns = readCsvRecord();
+        if (columns == null || !columns.contains(IM_NAME)) {
+            throw new IOException("CSV feed header must have an " + IM_NAME + " column");
+        }
+    }
+
+    /**
+     * @return the image of the next non blank line, with a null im_name if the
+     *         line is malformed, null at the end of the feed
+     */
+    private Image nextCsvImage() throws IOException {
+        List<String> values;
+        do {
+            values = readCsvRecord();
+            if (values == null) {
+                return null;
+            }
+        } while (values.size() == 1 && values.get(0).isEmpty());
+        if (values.size() != columns.size()) {
+            return new Image(null, null);
+        }
+        String imName = null;
+        String imUrl = null;
+        Map<String, String> metadata = new HashMap<String, String>();
+        for (int i = 0; i < values.size(); i++) {
+            String column = columns.get(i);
+            String value = values.get(i);
+            if (IM_NAME.equals(column)) {
+                imName = value;
+            } else if (IM_URL.equals(column)) {
+                imUrl = Strings.emptyToNull(value);
+            } else if (!value.isEmpty()) {
+                metadata.put(column, value);
+            }
+        }
+        return new Image(imName, imUrl, metadata);
+    }
+
+    /**
+     * @return fields of the next record, null at the end of the feed
+     */
+    private List<String> readCsvRecord() throws IOException {
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("CSV feed ends inside a quoted field");
+                }
+                if (c == '"') {
+                    c = read();
+                    if (c != '"') {
+                        quoted = false;
+                        continue;
+                    }
+                }
+                field.append((char) c);
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r' || c == -1) {
+                if (c == '\r') {
+                    c = read();
+                    if (c != '\n') {
+                        pending = c;
+                    }
+                }
+                fields.add(field.toString());
+                return fields;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    private int read() throws IOException {
+        if (pending != -1) {
+            int c = pending;
+            pending = -1;
+            return c;
+        }
+        if (position == limit) {
+            limit = reader.read(buffer);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+}
@@ -0,0 +1,164 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Content hashes of the images of a catalog as last inserted, by im_name,
+ * that a {@link CatalogSync} compares a new snapshot of the catalog with.
+ * An index is saved to a compact binary file: 8 bytes of hash and the UTF-8
+ * im_name per image.
+ */
+public class CatalogIndex {
+
+    private static final int MAGIC = 0x56534349;
+
+    private static final int VERSION = 1;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final Map<String, Long> hashes;
+
+    public CatalogIndex() {
+        this.hashes = new HashMap<String, Long>();
+    }
+
+    private CatalogIndex(Map<String, Long> hashes) {
+        this.hashes = hashes;
+    }
+
+    /**
+     * @param file index file saved by {@link #save(File)}
+     * @return the index of the file, an empty index if the file does not exist
+     * @throws IOException if the file cannot be read or is not an index file
+     */
+    public static CatalogIndex load(File file) throws IOException {
+        if (!file.exists()) {
+            return new CatalogIndex();
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a catalog index file");
+            }
+            int size = in.readInt();
+            Map<String, Long> hashes = new HashMap<String, Long>(Math.max(16, (int) (size / 0.75f) + 1));
+            for (int i = 0; i < size; i++) {
+                String imName = in.readUTF();
+                hashes.put(imName, in.readLong());
+            }
+            return new CatalogIndex(hashes);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Save the index, replacing the file only once the index is fully written.
+     *
+     * @param file index file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(hashes.size());
+            for (Map.Entry<String, Long> entry : hashes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temp, file);
+    }
+
+    /**
+     * @param image image of a catalog
+     * @return hash of the im_url and metadata of the image
+     */
+    public static long hash(Image image) {
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        putString(hasher, image.getImUrl());
+        if (image.getMetadata() != null) {
+            // metadata in key order, whatever the order of the map
+            for (Map.Entry<String, String> entry : new TreeMap<String, String>(image.getMetadata()).entrySet()) {
+                if (entry.getValue() != null) {
+                    putString(hasher, entry.getKey());
+                    putString(hasher, entry.getValue());
+                }
+            }
+        }
+        return hasher.hash().asLong();
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putString(value, Charsets.UTF_8);
+        }
+    }
+
+    /**
+     * @param image image of a catalog
+     * @return true if the image is indexed with the same im_url and metadata
+     */
+    public synchronized boolean contains(Image image) {
+        Long hash = hashes.get(image.getImName());
+        return hash != null && hash == hash(image);
+    }
+
+    /**
+     * @param imName im_name of an image
+     * @return true if the image is indexed
+     */
+    public synchronized boolean contains(String imName) {
+        return hashes.containsKey(imName);
+    }
+
+    /**
+     * Index an image as inserted.
+     */
+    public synchronized void put(Image image) {
+        hashes.put(image.getImName(), hash(image));
+    }
+
+    /**
+     * Stop indexing an image, as removed.
+     */
+    public synchronized void remove(String imName) {
+        hashes.remove(imName);
+    }
+
+    /**
+     * @return im_names of the indexed images
+     */
+    public synchronized List<String> getImNames() {
+        return new ArrayList<String>(hashes.keySet());
+    }
+
+    public synchronized int size() {
+        return hashes.size();
+    }
+}
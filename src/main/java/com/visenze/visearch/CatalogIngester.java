@@ -0,0 +1,109 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.visenze.visearch.internal.DataOperations;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserts the images of a {@link CatalogFeed} as they are read, through a
+ * {@link BulkInserter}, so that only the record being read and the batches
+ * in flight are held in memory whatever the size of the feed.
+ *
+ * <pre>
+ * CatalogFeed feed = CatalogFeed.open(new File("catalog.jsonl"));
+ * try {
+ *     IngestionReport report = new CatalogIngester(viSearch).ingest(feed);
+ * } finally {
+ *     feed.close();
+ * }
+ * </pre>
+ */
+public class CatalogIngester {
+
+    /**
+     * Notified of the progress of an ingestion, from the ingesting thread.
+     */
+    public interface ProgressListener {
+
+        void onProgress(IngestionProgress progress);
+    }
+
+    public static final long DEFAULT_PROGRESS_INTERVAL = 10 * 1000;
+
+    private final BulkInserter inserter;
+
+    private ProgressListener progressListener;
+
+    private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+    /**
+     * @param dataOperations client to insert with, e.g. a {@link ViSearch}
+     */
+    public CatalogIngester(DataOperations dataOperations) {
+        this(new BulkInserter(dataOperations));
+    }
+
+    /**
+     * @param inserter inserter to send the images with, e.g. with smaller batches
+     */
+    public CatalogIngester(BulkInserter inserter) {
+        Preconditions.checkNotNull(inserter, "inserter must not be null");
+        this.inserter = inserter;
+    }
+
+    /**
+     * @param progressListener listener notified every progress interval, null for none
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * @param progressInterval milliseconds between two progress notifications
+     */
+    public void setProgressInterval(long progressInterval) {
+        Preconditions.checkArgument(progressInterval > 0, "progress interval must be positive");
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Insert every image of a feed and wait for the insert calls. The feed is
+     * not closed.
+     *
+     * @param feed feed to read
+     * @return report of the ingestion, including the batches sent before by
+     *         the inserter
+     * @throws IOException if the feed cannot be read, the images read so far
+     *         being still sent
+     */
+    public IngestionReport ingest(CatalogFeed feed) throws IOException {
+        long start = System.nanoTime();
+        long nextProgress = start + TimeUnit.MILLISECONDS.toNanos(progressInterval);
+        try {
+            Image image;
+            while ((image = feed.next()) != null) {
+                inserter.add(image);
+                if (progressListener != null && System.nanoTime() - nextProgress >= 0) {
+                    progressListener.onProgress(progress(feed, start));
+                    nextProgress = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(progressInterval);
+                }
+            }
+        } catch (IOException e) {
+            inserter.finish();
+            throw e;
+        }
+        BulkInsertReport insertReport = inserter.finish();
+        IngestionProgress progress = progress(feed, start);
+        if (progressListener != null) {
+            progressListener.onProgress(progress);
+        }
+        return new IngestionReport(progress, insertReport);
+    }
+
+    private static IngestionProgress progress(CatalogFeed feed, long start) {
+        return new IngestionProgress(feed.getBytesRead(), feed.getLength(), feed.getRecords(),
+                feed.getSkippedRecords(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
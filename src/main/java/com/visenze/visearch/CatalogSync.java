@@ -0,0 +1,338 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.visenze.visearch.internal.DataOperations;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Brings the images of an app in line with a new snapshot of a catalog by
+ * sending only what changed since the last sync, as recorded by a
+ * {@link CatalogIndex}: new images and images whose im_url or metadata
+ * changed are inserted, images no longer in the catalog are removed. An
+ * image is indexed only once its insert transaction is processed without an
+ * error for it, so that images which failed are sent again by the next sync.
+ *
+ * <pre>
+ * File indexFile = new File("catalog.index");
+ * CatalogIndex index = CatalogIndex.load(indexFile);
+ * SyncReport report = new CatalogSync(viSearch, index).sync(catalog.iterator());
+ * index.save(indexFile);
+ * </pre>
+ */
+public class CatalogSync {
+
+    /**
+     * Default max milliseconds to wait for the insert transactions of a sync
+     */
+    public static final long DEFAULT_CONFIRM_TIMEOUT = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Default max share of the indexed images one sync may remove
+     */
+    public static final double DEFAULT_MAX_REMOVAL_RATIO = 0.5;
+
+    private final DataOperations dataOperations;
+
+    private final CatalogIndex index;
+
+    private final InsertStatusTracker tracker;
+
+    private final boolean ownTracker;
+
+    private volatile long confirmTimeout = DEFAULT_CONFIRM_TIMEOUT;
+
+    private volatile double maxRemovalRatio = DEFAULT_MAX_REMOVAL_RATIO;
+
+    /**
+     * @param dataOperations client to sync with, e.g. a {@link ViSearch}
+     * @param index index of the last sync, updated by every sync
+     */
+    public CatalogSync(DataOperations dataOperations, CatalogIndex index) {
+        this(dataOperations, index, null);
+    }
+
+    /**
+     * @param dataOperations client to sync with, e.g. a {@link ViSearch}
+     * @param index index of the last sync, updated by every sync
+     * @param tracker tracker to wait for the insert transactions with, null
+     *                for a tracker of each sync
+     */
+    public CatalogSync(DataOperations dataOperations, CatalogIndex index, InsertStatusTracker tracker) {
+        Preconditions.checkNotNull(dataOperations, "data operations must not be null");
+        Preconditions.checkNotNull(index, "index must not be null");
+        this.dataOperations = dataOperations;
+        this.index = index;
+        this.tracker = tracker;
+        this.ownTracker = tracker == null;
+    }
+
+    /**
+     * @param confirmTimeout max milliseconds to wait for the insert
+     *                       transactions once the snapshot is sent. The
+     *                       images of transactions still not processed then
+     *                       are counted as failed and sent again by the next
+     *                       sync.
+     */
+    public void setConfirmTimeout(long confirmTimeout) {
+        Preconditions.checkArgument(confirmTimeout > 0, "confirm timeout must be positive");
+        this.confirmTimeout = confirmTimeout;
+    }
+
+    /**
+     * A truncated or empty snapshot would otherwise remove most of the app.
+     *
+     * @param maxRemovalRatio max share of the indexed images one sync may
+     *                        remove, 1 for no limit. If more images vanished
+     *                        from the snapshot, none of them is removed.
+     */
+    public void setMaxRemovalRatio(double maxRemovalRatio) {
+        Preconditions.checkArgument(maxRemovalRatio >= 0 && maxRemovalRatio <= 1,
+                "max removal ratio must be between 0 and 1");
+        this.maxRemovalRatio = maxRemovalRatio;
+    }
+
+    /**
+     * Sync with a snapshot and wait until its insert transactions are processed.
+     *
+     * @param snapshot every image of the catalog
+     * @return report of the sync
+     */
+    public SyncReport sync(Iterator<Image> snapshot) {
+        Session session = new Session();
+        try {
+            while (snapshot.hasNext()) {
+                session.add(snapshot.next());
+            }
+            return session.finish(true);
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Sync with a snapshot read from a feed, see {@link #sync(Iterator)}.
+     * Nothing is removed if the feed has malformed records, as the images of
+     * those records would otherwise be taken for images no longer in the
+     * catalog.
+     *
+     * @param snapshot feed of every image of the catalog, not closed
+     * @return report of the sync
+     * @throws IOException if the feed cannot be read, nothing being removed
+     */
+    public SyncReport sync(CatalogFeed snapshot) throws IOException {
+        Session session = new Session();
+        try {
+            Image image;
+            while ((image = snapshot.next()) != null) {
+                session.add(image);
+            }
+            return session.finish(snapshot.getSkippedRecords() == 0);
+        } catch (IOException e) {
+            // wait for the images read so far, only their index entries are updated
+            session.confirm();
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Sync of one snapshot.
+     */
+    private final class Session implements BulkInserter.Listener {
+
+        final InsertStatusTracker sessionTracker = ownTracker ? new InsertStatusTracker(dataOperations) : tracker;
+
+        final BulkInserter inserter = new BulkInserter(dataOperations);
+
+        final Set<String> imNames = new HashSet<String>();
+
+        final List<ListenableFuture<InsertStatus>> statuses = new ArrayList<ListenableFuture<InsertStatus>>();
+
+        /**
+         * Completed once the status of each batch is processed
+         */
+        final List<ListenableFuture<Void>> confirmations = new ArrayList<ListenableFuture<Void>>();
+
+        long unchanged;
+
+        long inserted;
+
+        long insertFailed;
+
+        Session() {
+            inserter.setListener(this);
+        }
+
+        void add(Image image) {
+            Preconditions.checkNotNull(image.getImName(), "im_name must not be null");
+            imNames.add(image.getImName());
+            if (index.contains(image)) {
+                unchanged++;
+            } else {
+                inserter.add(image);
+            }
+        }
+
+        @Override
+        public void onBatchSent(final List<Image> images, InsertTrans insertTrans) {
+            ListenableFuture<InsertStatus> status = sessionTracker.track(insertTrans.getTransId());
+            final SettableFuture<Void> confirmation = SettableFuture.create();
+            synchronized (statuses) {
+                statuses.add(status);
+                confirmations.add(confirmation);
+            }
+            Futures.addCallback(status, new FutureCallback<InsertStatus>() {
+                @Override
+                public void onSuccess(InsertStatus status) {
+                    processed(images, status);
+                    confirmation.set(null);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    processed(images, new InsertStatus(t.getMessage(), t, null));
+                    confirmation.set(null);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        void processed(List<Image> images, InsertStatus status) {
+            if (status.getErrorMessage() != null) {
+                synchronized (this) {
+                    insertFailed += images.size();
+                }
+                return;
+            }
+            Set<String> failedImNames = new HashSet<String>();
+            if (status.getErrorList() != null) {
+                for (InsertError error : status.getErrorList()) {
+                    failedImNames.add(error.getImName());
+                }
+            }
+            int indexed = 0;
+            for (Image image : images) {
+                if (!failedImNames.contains(image.getImName())) {
+                    index.put(image);
+                    indexed++;
+                }
+            }
+            synchronized (this) {
+                inserted += indexed;
+                insertFailed += images.size() - indexed;
+            }
+        }
+
+        /**
+         * Wait up to the confirm timeout for the transactions of the batches
+         * sent. The images of the transactions still not processed then are
+         * counted as failed, as are all of them if the thread is interrupted.
+         *
+         * @return report of the batches sent
+         */
+        BulkInsertReport confirm() {
+            BulkInsertReport insertReport = inserter.finish();
+            List<ListenableFuture<InsertStatus>> pending;
+            ListenableFuture<List<Void>> confirmed;
+            synchronized (statuses) {
+                pending = new ArrayList<ListenableFuture<InsertStatus>>(statuses);
+                confirmed = Futures.successfulAsList(confirmations);
+            }
+            try {
+                confirmed.get(confirmTimeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                stopTracking(pending);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopTracking(pending);
+            } catch (ExecutionException e) {
+                // successfulAsList never fails
+                throw new IllegalStateException(e);
+            }
+            return insertReport;
+        }
+
+        /**
+         * Stop polling the transactions not processed yet, and wait for
+         * their images to be counted as failed.
+         */
+        private void stopTracking(List<ListenableFuture<InsertStatus>> pending) {
+            for (ListenableFuture<InsertStatus> status : pending) {
+                status.cancel(false);
+            }
+            List<ListenableFuture<Void>> pendingConfirmations;
+            synchronized (statuses) {
+                pendingConfirmations = new ArrayList<ListenableFuture<Void>>(confirmations);
+            }
+            try {
+                // only waits for the callbacks of the last statuses to return
+                Uninterruptibles.getUninterruptibly(Futures.successfulAsList(pendingConfirmations));
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * @param removeVanished false to not remove the indexed images missing from the snapshot
+         */
+        SyncReport finish(boolean removeVanished) {
+            BulkInsertReport insertReport = confirm();
+            long notSent = 0;
+            for (BulkInsertReport.Failure failure : insertReport.getFailures()) {
+                notSent += failure.getImNames().size();
+            }
+            long removed = 0;
+            long removeFailed = 0;
+            List<String> vanished = new ArrayList<String>();
+            List<String> indexed = index.getImNames();
+            for (String imName : indexed) {
+                if (!imNames.contains(imName)) {
+                    vanished.add(imName);
+                }
+            }
+            long removeSkipped = 0;
+            if (!removeVanished || vanished.size() > maxRemovalRatio * indexed.size()) {
+                removeSkipped = vanished.size();
+                vanished.clear();
+            }
+            for (int from = 0; from < vanished.size(); from += BulkInserter.MAX_BATCH_SIZE) {
+                List<String> chunk = vanished.subList(from, Math.min(vanished.size(), from + BulkInserter.MAX_BATCH_SIZE));
+                RemoveStatus status = dataOperations.remove(new ArrayList<String>(chunk));
+                if (status.getErrorMessage() == null) {
+                    for (String imName : chunk) {
+                        index.remove(imName);
+                    }
+                    removed += chunk.size();
+                } else {
+                    removeFailed += chunk.size();
+                }
+            }
+            synchronized (this) {
+                return new SyncReport(unchanged, inserted, insertFailed + notSent, removed, removeFailed, removeSkipped,
+                        insertReport);
+            }
+        }
+
+        void close() {
+            if (ownTracker) {
+                sessionTracker.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.visenze.visearch;
+
+/**
+ * Circuit breakers keyed by API path, e.g. "/uploadsearch", "/insert" or
+ * Product Search "/multisearch". A breaker opens when, over the last
+ * window of calls to its path, the share of failed calls (network errors
+ * and 5xx responses) or of calls slower than the slow call duration reaches
+ * its threshold. While open, calls to the path fail right away with
+ * {@link ResponseMessages#CIRCUIT_OPEN} instead of waiting for the socket
+ * timeout. After the open duration a few trial calls are let through: the
+ * breaker closes when they all succeed and opens again otherwise.
+ */
+public class CircuitBreakerPolicy {
+
+    public static final int DEFAULT_WINDOW_SIZE = 50;
+
+    public static final int DEFAULT_MIN_CALLS = 20;
+
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+
+    public static final long DEFAULT_SLOW_CALL_DURATION = 10 * 1000;
+
+    public static final double DEFAULT_SLOW_CALL_RATE_THRESHOLD = 0.8;
+
+    public static final long DEFAULT_OPEN_DURATION = 30 * 1000;
+
+    public static final int DEFAULT_HALF_OPEN_CALLS = 3;
+
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+
+    private int minCalls = DEFAULT_MIN_CALLS;
+
+    private double failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+
+    private long slowCallDuration = DEFAULT_SLOW_CALL_DURATION;
+
+    private double slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+
+    private long openDuration = DEFAULT_OPEN_DURATION;
+
+    private int halfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param windowSize number of most recent calls the rates are computed over
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        this.windowSize = windowSize;
+    }
+
+    public int getMinCalls() {
+        return minCalls;
+    }
+
+    /**
+     * @param minCalls calls to see before the breaker may open
+     */
+    public void setMinCalls(int minCalls) {
+        this.minCalls = minCalls;
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @param failureRateThreshold share of failed calls opening the breaker, between 0 and 1
+     */
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("failureRateThreshold must be in (0, 1]");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * @param slowCallDuration milliseconds after which a call counts as slow
+     */
+    public void setSlowCallDuration(long slowCallDuration) {
+        this.slowCallDuration = slowCallDuration;
+    }
+
+    public double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * @param slowCallRateThreshold share of slow calls opening the breaker, between 0 and 1
+     */
+    public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+        if (slowCallRateThreshold <= 0 || slowCallRateThreshold > 1) {
+            throw new IllegalArgumentException("slowCallRateThreshold must be in (0, 1]");
+        }
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * @param openDuration milliseconds calls fail fast before trial calls are let through
+     */
+    public void setOpenDuration(long openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    /**
+     * @param halfOpenCalls trial calls that must succeed to close the breaker
+     */
+    public void setHalfOpenCalls(int halfOpenCalls) {
+        if (halfOpenCalls < 1) {
+            throw new IllegalArgumentException("halfOpenCalls must be at least 1");
+        }
+        this.halfOpenCalls = halfOpenCalls;
+    }
+}
@@ -1,7 +1,13 @@
 package com.visenze.visearch;
 
+import com.visenze.visearch.internal.http.HttpTransportFactory;
 import org.apache.http.HttpHost;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
 /**
  * Client config for http connection timeouts, max connections, etc.
  */
@@ -13,6 +19,10 @@ public class ClientConfig {
 
     public static final int DEFAULT_MAX_CONNECTIONS = 50;
 
+    public static final int DEFAULT_IDLE_CONNECTION_TIMEOUT = 30 * 1000;
+
+    public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY = 2 * 1000;
+
     public static final String DEFAULT_USER_AGENT = getDefaultUserAgent();
 
     public static final String DEFAULT_XREQUEST_WITH = getDefaultXRequestWith();
@@ -21,12 +31,58 @@ public class ClientConfig {
 
     private int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
 
-    private int maxConnection = DEFAULT_MAX_CONNECTIONS;
+    private int maxConnectionTotal = DEFAULT_MAX_CONNECTIONS;
+
+    private int maxConnectionPerRoute = DEFAULT_MAX_CONNECTIONS;
+
+    private int connectionRequestTimeout = -1;
+
+    private int keepAliveTimeout = -1;
+
+    private int connectionTimeToLive = -1;
+
+    private int validateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
 
     private String userAgent = DEFAULT_USER_AGENT;
 
     private HttpHost proxy;
 
+    private boolean sharedConnectionPool = false;
+
+    private int idleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT;
+
+    private TransportType transportType = TransportType.BLOCKING;
+
+    private HttpTransportFactory transportFactory;
+
+    private int ioThreadCount = -1;
+
+    private Executor asyncExecutor;
+
+    private RawJsonMode rawJsonMode = RawJsonMode.STRING;
+
+    private int requestCompressionThreshold = -1;
+
+    private final Map<String, Integer> requestCompressionThresholds = new ConcurrentHashMap<String, Integer>();
+
+    private boolean responseCompression = true;
+
+    private HedgePolicy hedgePolicy;
+
+    private RetryPolicy retryPolicy;
+
+    private ConcurrencyLimit concurrencyLimit;
+
+    private CircuitBreakerPolicy circuitBreakerPolicy;
+
+    private AdmissionPolicy admissionPolicy;
+
+    private long memoryBudget;
+
+    private long maxResponseSize;
+
+    private final Map<OperationClass, Integer> bulkheads = new EnumMap<OperationClass, Integer>(OperationClass.class);
+
     public static String getDefaultUserAgent() {
         String version = ViSearch.VISEACH_JAVA_SDK_VERSION;
         String osName = System.getProperty("os.name");
@@ -64,11 +120,98 @@ public class ClientConfig {
     }
 
     public int getMaxConnection() {
-        return maxConnection;
+        return maxConnectionTotal;
     }
 
+    /**
+     * Set both the total and the per-route connection limit.
+     *
+     * @param maxConnection max number of connections
+     */
     public void setMaxConnection(int maxConnection) {
-        this.maxConnection = maxConnection;
+        this.maxConnectionTotal = maxConnection;
+        this.maxConnectionPerRoute = maxConnection;
+    }
+
+    public int getMaxConnectionTotal() {
+        return maxConnectionTotal;
+    }
+
+    /**
+     * @param maxConnectionTotal max number of connections in the pool across all hosts
+     */
+    public void setMaxConnectionTotal(int maxConnectionTotal) {
+        this.maxConnectionTotal = maxConnectionTotal;
+    }
+
+    public int getMaxConnectionPerRoute() {
+        return maxConnectionPerRoute;
+    }
+
+    /**
+     * @param maxConnectionPerRoute max number of connections to a single host
+     */
+    public void setMaxConnectionPerRoute(int maxConnectionPerRoute) {
+        this.maxConnectionPerRoute = maxConnectionPerRoute;
+    }
+
+    public int getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    /**
+     * Max time to wait for a connection from the pool. When the pool is
+     * exhausted for longer than this the request fails with a network error
+     * instead of queueing. Negative waits indefinitely.
+     *
+     * @param connectionRequestTimeout pool lease timeout in milliseconds
+     */
+    public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    /**
+     * Max time an idle connection is kept alive for reuse. A shorter
+     * Keep-Alive timeout sent by the server takes precedence. Negative only
+     * follows the server's Keep-Alive header.
+     *
+     * @param keepAliveTimeout keep-alive timeout in milliseconds
+     */
+    public void setKeepAliveTimeout(int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    public int getConnectionTimeToLive() {
+        return connectionTimeToLive;
+    }
+
+    /**
+     * Total life time of a pooled connection, after which it is closed even
+     * if it is still in use by keep-alive. Useful to pick up DNS changes of
+     * the endpoint. Negative keeps connections without time limit.
+     *
+     * @param connectionTimeToLive time to live in milliseconds
+     */
+    public void setConnectionTimeToLive(int connectionTimeToLive) {
+        this.connectionTimeToLive = connectionTimeToLive;
+    }
+
+    public int getValidateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    /**
+     * Pooled connections idle for longer than this are checked for staleness
+     * before being leased again. Negative disables the check.
+     *
+     * @param validateAfterInactivity inactivity period in milliseconds
+     */
+    public void setValidateAfterInactivity(int validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
     }
 
     public String getUserAgent() {
@@ -86,4 +229,313 @@ public class ClientConfig {
     public void setProxy(HttpHost proxy) {
         this.proxy = proxy;
     }
+
+    public boolean isSharedConnectionPool() {
+        return sharedConnectionPool;
+    }
+
+    /**
+     * Share the connection pool with every other client created with the same
+     * endpoint and pool settings in this process, instead of giving this
+     * client its own private pool.
+     *
+     * @param sharedConnectionPool true to use the process-wide shared pool
+     */
+    public void setSharedConnectionPool(boolean sharedConnectionPool) {
+        this.sharedConnectionPool = sharedConnectionPool;
+    }
+
+    public int getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    /**
+     * Connections idle in a shared pool for longer than this are closed by
+     * the background evictor. Zero or negative keeps idle connections open.
+     *
+     * @param idleConnectionTimeout idle timeout in milliseconds
+     */
+    public void setIdleConnectionTimeout(int idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    public TransportType getTransportType() {
+        return transportType;
+    }
+
+    /**
+     * Select the http transport. {@link TransportType#NIO} serves many
+     * concurrent asynchronous calls with a few I/O threads and
+     * {@link TransportType#HTTP2} multiplexes them over a few connections;
+     * blocking calls behave the same on all transports.
+     *
+     * @param transportType transport to send requests with
+     * @throws IllegalStateException if HTTP2 is selected on a runtime older than Java 11
+     */
+    public void setTransportType(TransportType transportType) {
+        if (transportType == TransportType.HTTP2 && !isHttp2Supported()) {
+            throw new IllegalStateException("The HTTP/2 transport requires Java 11 or later, running on Java "
+                    + System.getProperty("java.specification.version"));
+        }
+        this.transportType = transportType;
+    }
+
+    /**
+     * @return true if the runtime has the JDK http client the HTTP2 transport is built on
+     */
+    static boolean isHttp2Supported() {
+        try {
+            Class.forName("java.net.http.HttpClient");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    public HttpTransportFactory getTransportFactory() {
+        return transportFactory;
+    }
+
+    /**
+     * Plug in a custom http transport. When set, it replaces the transport
+     * selected by {@link #setTransportType(TransportType)}.
+     *
+     * @param transportFactory factory of the transport, null for the built-in transports
+     */
+    public void setTransportFactory(HttpTransportFactory transportFactory) {
+        this.transportFactory = transportFactory;
+    }
+
+    public int getIoThreadCount() {
+        return ioThreadCount;
+    }
+
+    /**
+     * Number of I/O threads of the {@link TransportType#NIO} transport. Zero
+     * or negative uses one thread per available processor.
+     *
+     * @param ioThreadCount number of I/O threads
+     */
+    public void setIoThreadCount(int ioThreadCount) {
+        this.ioThreadCount = ioThreadCount;
+    }
+
+    /**
+     * @return executor of the asynchronous API, the shared default if none was set
+     */
+    public Executor getAsyncExecutor() {
+        return asyncExecutor == null ? AsyncExecutors.sharedExecutor() : asyncExecutor;
+    }
+
+    /**
+     * Executor the asynchronous API runs blocking exchanges and response
+     * parsing on, e.g. {@link AsyncExecutors#newVirtualThreadPerTaskExecutor()}.
+     * The executor is not shut down by the SDK.
+     *
+     * @param asyncExecutor executor for async calls, null for the shared default
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    public RawJsonMode getRawJsonMode() {
+        return rawJsonMode;
+    }
+
+    /**
+     * How search results keep their raw json. Defaults to
+     * {@link RawJsonMode#STRING}; result caches can use
+     * {@link RawJsonMode#NONE} or {@link RawJsonMode#BYTES} to avoid keeping a
+     * second full copy of every response as a string.
+     *
+     * @param rawJsonMode raw json retention of search results
+     */
+    public void setRawJsonMode(RawJsonMode rawJsonMode) {
+        this.rawJsonMode = rawJsonMode;
+    }
+
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * Gzip post bodies of at least this many bytes, e.g. large /insert
+     * batches. Bodies of unknown size are always compressed. Negative, the
+     * default, sends bodies uncompressed.
+     *
+     * @param requestCompressionThreshold minimum body size in bytes to compress
+     */
+    public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    /**
+     * @param path request path, e.g. "/insert"
+     * @return compression threshold of the path, the default threshold if none was set for it
+     */
+    public int getRequestCompressionThreshold(String path) {
+        Integer threshold = requestCompressionThresholds.get(path);
+        return threshold == null ? requestCompressionThreshold : threshold;
+    }
+
+    /**
+     * Override the compression threshold for one operation, e.g. to only
+     * compress "/insert" or to never compress already compressed image
+     * uploads.
+     *
+     * @param path request path, e.g. "/insert"
+     * @param threshold minimum body size in bytes to compress, negative to never compress
+     */
+    public void setRequestCompressionThreshold(String path, int threshold) {
+        requestCompressionThresholds.put(path, threshold);
+    }
+
+    public boolean isResponseCompression() {
+        return responseCompression;
+    }
+
+    /**
+     * Ask the server for gzip compressed responses. Enabled by default.
+     *
+     * @param responseCompression false to request uncompressed responses
+     */
+    public void setResponseCompression(boolean responseCompression) {
+        this.responseCompression = responseCompression;
+    }
+
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    /**
+     * Hedge slow read-only requests, e.g. searches and recommendations, by
+     * sending them again and using the first response. Off by default.
+     *
+     * @param hedgePolicy hedge delay and budget, null to never hedge
+     */
+    public void setHedgePolicy(HedgePolicy hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Retry requests failing with a network error or a transient status,
+     * e.g. 503. Off by default, failed requests are then reported right away.
+     *
+     * @param retryPolicy attempts, backoff and budget of retries, null to never retry
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public ConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * Adapt the number of requests in flight to the server load, rejecting
+     * requests over the limit instead of queueing them for a connection.
+     * Off by default.
+     *
+     * @param concurrencyLimit bounds and backoff of the limit, null to not limit
+     */
+    public void setConcurrencyLimit(ConcurrencyLimit concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    public CircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return circuitBreakerPolicy;
+    }
+
+    /**
+     * Fail fast the calls to an API path that keeps failing or timing out,
+     * instead of waiting for the socket timeout on every call. Off by default.
+     *
+     * @param circuitBreakerPolicy thresholds of the per path breakers, null for no breakers
+     */
+    public void setCircuitBreakerPolicy(CircuitBreakerPolicy circuitBreakerPolicy) {
+        this.circuitBreakerPolicy = circuitBreakerPolicy;
+    }
+
+    /**
+     * @param operation class of operations
+     * @return max requests of the class in flight, null if only the pool bounds them
+     */
+    public Integer getMaxConcurrentRequests(OperationClass operation) {
+        return bulkheads.get(operation);
+    }
+
+    /**
+     * Bulkhead an operation class: cap the requests it has in flight, so that
+     * e.g. a catalog sync cannot take every pooled connection from searches.
+     * A request over the cap waits for another request of its class up to the
+     * connection request timeout, then fails with SYSTEM_BUSY. Asynchronous
+     * calls over the cap fail right away.
+     *
+     * @param operation class of operations
+     * @param maxConcurrentRequests max requests of the class in flight, at least 1
+     */
+    public void setMaxConcurrentRequests(OperationClass operation, int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests must be at least 1");
+        }
+        bulkheads.put(operation, maxConcurrentRequests);
+    }
+
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    /**
+     * Queue the requests over a max in flight and admit them by priority,
+     * so that searches are sent before recommendations prefetches and batch
+     * jobs when the client is busy. Off by default.
+     *
+     * @param admissionPolicy max in flight and priorities, null for no admission queue
+     */
+    public void setAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+        this.admissionPolicy = admissionPolicy;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Bound the bytes the client holds for requests in flight: request
+     * bodies once encoded and response bodies while they are read into a
+     * string. A request that would go over the budget waits for others to
+     * complete up to the connection request timeout, then fails with
+     * SYSTEM_BUSY. Asynchronous calls over the budget fail right away. A
+     * single request larger than the budget is let through alone.
+     *
+     * @param memoryBudget max bytes in flight, 0 for no budget
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("memoryBudget must not be negative");
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    public long getMaxResponseSize() {
+        return maxResponseSize;
+    }
+
+    /**
+     * Abort responses whose body, once decompressed, is larger than the
+     * max size, failing the call with RESPONSE_TOO_LARGE. A response with a
+     * larger content length is aborted before its body is read.
+     *
+     * @param maxResponseSize max bytes of a response body, 0 for no max
+     */
+    public void setMaxResponseSize(long maxResponseSize) {
+        if (maxResponseSize < 0) {
+            throw new IllegalArgumentException("maxResponseSize must not be negative");
+        }
+        this.maxResponseSize = maxResponseSize;
+    }
 }
@@ -0,0 +1,123 @@
+package com.visenze.visearch;
+
+/**
+ * Adaptive cap of the requests a client has in flight. The limit follows
+ * AIMD: it shrinks by the backoff ratio when the server throttles (429 or
+ * 503), a request fails with a network error or the latency rises above the
+ * tolerance times the lowest latency recently seen, and grows back by about
+ * one request per round trip while requests are fast.
+ *
+ * A request over the limit waits up to the max wait for another request to
+ * complete, then fails with {@link ResponseMessages#SYSTEM_BUSY} instead of
+ * queueing for a pooled connection. Asynchronous calls never wait.
+ */
+public class ConcurrencyLimit {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+
+    public static final int DEFAULT_MIN_LIMIT = 1;
+
+    public static final int DEFAULT_MAX_LIMIT = 200;
+
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2;
+
+    private int initialLimit = DEFAULT_INITIAL_LIMIT;
+
+    private int minLimit = DEFAULT_MIN_LIMIT;
+
+    private int maxLimit = DEFAULT_MAX_LIMIT;
+
+    private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+
+    private double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+
+    private long maxWait = 0;
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    /**
+     * @param initialLimit requests allowed in flight before any was seen
+     */
+    public void setInitialLimit(int initialLimit) {
+        if (initialLimit < 1) {
+            throw new IllegalArgumentException("initialLimit must be at least 1");
+        }
+        this.initialLimit = initialLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    /**
+     * @param minLimit lowest limit the client backs off to
+     */
+    public void setMinLimit(int minLimit) {
+        if (minLimit < 1) {
+            throw new IllegalArgumentException("minLimit must be at least 1");
+        }
+        this.minLimit = minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Usually no higher than the max number of connections, see
+     * {@link ClientConfig#setMaxConnection(int)}.
+     *
+     * @param maxLimit highest limit the client grows to
+     */
+    public void setMaxLimit(int maxLimit) {
+        if (maxLimit < 1) {
+            throw new IllegalArgumentException("maxLimit must be at least 1");
+        }
+        this.maxLimit = maxLimit;
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * @param backoffRatio factor applied to the limit on overload, between 0 and 1
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be in (0, 1)");
+        }
+        this.backoffRatio = backoffRatio;
+    }
+
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    /**
+     * @param latencyTolerance multiple of the lowest recent latency a request
+     *                         may take before it counts as overload, at least 1
+     */
+    public void setLatencyTolerance(double latencyTolerance) {
+        if (latencyTolerance < 1) {
+            throw new IllegalArgumentException("latencyTolerance must be at least 1");
+        }
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * @param maxWait milliseconds a blocking call over the limit waits before
+     *                it is rejected, 0 to reject right away
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+}
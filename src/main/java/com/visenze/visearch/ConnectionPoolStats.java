@@ -0,0 +1,68 @@
+package com.visenze.visearch;
+
+/**
+ * Snapshot of the http connection pool used by a client. When the client
+ * shares its pool with other clients, the figures cover every client of the
+ * pool.
+ */
+public class ConnectionPoolStats {
+
+    private final int leased;
+
+    private final int available;
+
+    private final int pending;
+
+    private final int max;
+
+    public ConnectionPoolStats(int leased, int available, int pending, int max) {
+        this.leased = leased;
+        this.available = available;
+        this.pending = pending;
+        this.max = max;
+    }
+
+    /**
+     * @return number of connections currently in use by requests
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * @return number of idle connections kept open for reuse
+     */
+    public int getAvailable() {
+        return available;
+    }
+
+    /**
+     * @return number of requests waiting for a connection
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return max number of connections in the pool
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * The pool is exhausted when every connection is leased and requests are
+     * queueing for one.
+     *
+     * @return true if requests are waiting for a connection
+     */
+    public boolean isExhausted() {
+        return pending > 0 && leased >= max;
+    }
+
+    @Override
+    public String toString() {
+        return "[leased: " + leased + "; pending: " + pending
+                + "; available: " + available + "; max: " + max + "]";
+    }
+}
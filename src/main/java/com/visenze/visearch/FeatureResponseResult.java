@@ -1,6 +1,8 @@
 package com.visenze.visearch;
 
 import java.util.List;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.visenze.visearch.internal.ResponseBase;
 import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
 
@@ -11,7 +13,7 @@ public class FeatureResponseResult extends ResponseBase {
 
     private String imId;
 
-    private String rawJson;
+    private Supplier<String> rawJson;
 
     private List<String> result;
 
@@ -40,11 +42,21 @@ public class FeatureResponseResult extends ResponseBase {
     }
 
     public void setRawJson(String rawJson) {
+        this.rawJson = rawJson == null ? null : Suppliers.ofInstance(rawJson);
+    }
+
+    /**
+     * Set the raw json as a supplier called on every {@link #getRawJson()},
+     * to keep it in a more compact form than a string.
+     *
+     * @param rawJson supplier of the raw json, null for none
+     */
+    public void setRawJsonSupplier(Supplier<String> rawJson) {
         this.rawJson = rawJson;
     }
 
     public String getRawJson() {
-        return rawJson;
+        return rawJson == null ? null : rawJson.get();
     }
 
     /**
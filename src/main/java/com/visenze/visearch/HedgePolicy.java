@@ -0,0 +1,133 @@
+package com.visenze.visearch;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Request hedging for read-only calls: when a response has not arrived
+ * within the hedge delay, the same request is sent again and whichever
+ * response comes first is used, the other request is cancelled. This cuts
+ * tail latency caused by a slow connection or server at the cost of some
+ * extra requests, capped by {@link #setMaxHedgeRatio(double)}.
+ *
+ * Only idempotent requests are hedged: every GET, e.g. search, color search
+ * and Product Search recommendations, and the posts to the read-only paths
+ * of {@link #getPostPaths()}. Image uploads are never hedged.
+ */
+public class HedgePolicy {
+
+    public static final double DEFAULT_MAX_HEDGE_RATIO = 0.1;
+
+    public static final int DEFAULT_MIN_SAMPLES = 100;
+
+    private final long delay;
+
+    private final double percentile;
+
+    private double maxHedgeRatio = DEFAULT_MAX_HEDGE_RATIO;
+
+    private int minSamples = DEFAULT_MIN_SAMPLES;
+
+    private final Set<String> postPaths = new CopyOnWriteArraySet<String>(Collections.singleton("/recommendations"));
+
+    private HedgePolicy(long delay, double percentile) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("delay must not be negative");
+        }
+        if (percentile < 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile must be in [0, 100)");
+        }
+        this.delay = delay;
+        this.percentile = percentile;
+    }
+
+    /**
+     * Hedge requests still unanswered after a fixed delay.
+     *
+     * @param delay hedge delay in milliseconds
+     * @return the policy
+     */
+    public static HedgePolicy fixedDelay(long delay) {
+        return new HedgePolicy(delay, 0);
+    }
+
+    /**
+     * Hedge requests slower than the given percentile of the latencies seen
+     * by the client, e.g. 95 to hedge the slowest 5% of the requests.
+     *
+     * @param percentile latency percentile, e.g. 95
+     * @param initialDelay hedge delay in milliseconds until enough latencies
+     *                     were seen
+     * @return the policy
+     */
+    public static HedgePolicy percentileDelay(double percentile, long initialDelay) {
+        if (percentile <= 0) {
+            throw new IllegalArgumentException("percentile must be positive");
+        }
+        return new HedgePolicy(initialDelay, percentile);
+    }
+
+    /**
+     * @return fixed hedge delay, or the initial delay of a percentile policy, in milliseconds
+     */
+    public long getDelay() {
+        return delay;
+    }
+
+    /**
+     * @return latency percentile the delay follows, 0 for a fixed delay
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public double getMaxHedgeRatio() {
+        return maxHedgeRatio;
+    }
+
+    /**
+     * Cap hedged requests to a share of all hedgeable requests, so a slow
+     * server does not get twice the load. Defaults to 0.1, i.e. at most one
+     * hedge per ten requests.
+     *
+     * @param maxHedgeRatio max hedges per request, between 0 and 1
+     */
+    public void setMaxHedgeRatio(double maxHedgeRatio) {
+        if (maxHedgeRatio < 0 || maxHedgeRatio > 1) {
+            throw new IllegalArgumentException("maxHedgeRatio must be in [0, 1]");
+        }
+        this.maxHedgeRatio = maxHedgeRatio;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    /**
+     * @param minSamples latencies to see before a percentile policy stops
+     *                   using its initial delay
+     */
+    public void setMinSamples(int minSamples) {
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * @return paths whose posts are read-only and may be hedged, "/recommendations" by default
+     */
+    public Set<String> getPostPaths() {
+        return postPaths;
+    }
+
+    /**
+     * Allow hedging the posts to a path. Only add paths whose requests can
+     * safely be sent twice.
+     *
+     * @param path request path, e.g. "/recommendations"
+     * @return this policy
+     */
+    public HedgePolicy addPostPath(String path) {
+        postPaths.add(path);
+        return this;
+    }
+}
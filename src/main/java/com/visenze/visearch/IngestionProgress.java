@@ -0,0 +1,91 @@
+package com.visenze.visearch;
+
+/**
+ * Snapshot of the progress of a {@link CatalogIngester} through a feed.
+ */
+public class IngestionProgress {
+
+    private final long bytesRead;
+
+    private final long length;
+
+    private final long records;
+
+    private final long skippedRecords;
+
+    private final long elapsedTime;
+
+    public IngestionProgress(long bytesRead, long length, long records, long skippedRecords, long elapsedTime) {
+        this.bytesRead = bytesRead;
+        this.length = length;
+        this.records = records;
+        this.skippedRecords = skippedRecords;
+        this.elapsedTime = elapsedTime;
+    }
+
+    /**
+     * @return bytes of the feed read so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return bytes of the feed, -1 if unknown
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return percent of the feed read, -1 if its length is unknown
+     */
+    public double getPercent() {
+        if (length < 0) {
+            return -1;
+        }
+        return length == 0 ? 100 : Math.min(100, 100.0 * bytesRead / length);
+    }
+
+    /**
+     * @return images read so far
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return malformed records skipped so far
+     */
+    public long getSkippedRecords() {
+        return skippedRecords;
+    }
+
+    /**
+     * @return milliseconds since the ingestion started
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * @return images read per second
+     */
+    public double getRecordsPerSecond() {
+        return elapsedTime == 0 ? 0 : records * 1000.0 / elapsedTime;
+    }
+
+    /**
+     * @return bytes read per second
+     */
+    public double getBytesPerSecond() {
+        return elapsedTime == 0 ? 0 : bytesRead * 1000.0 / elapsedTime;
+    }
+
+    @Override
+    public String toString() {
+        return "[records: " + records + "; skipped: " + skippedRecords + "; read: " + bytesRead + " bytes"
+                + (length < 0 ? "" : " (" + String.format("%.1f", getPercent()) + "%)")
+                + "; " + String.format("%.1f", getRecordsPerSecond()) + " records/s]";
+    }
+}
@@ -0,0 +1,35 @@
+package com.visenze.visearch;
+
+/**
+ * Outcome of the ingestion of a feed by a {@link CatalogIngester}: how much
+ * of the feed was read, and how fast, and the insert calls it was sent with.
+ */
+public class IngestionReport extends IngestionProgress {
+
+    private final BulkInsertReport insertReport;
+
+    public IngestionReport(IngestionProgress progress, BulkInsertReport insertReport) {
+        super(progress.getBytesRead(), progress.getLength(), progress.getRecords(), progress.getSkippedRecords(),
+                progress.getElapsedTime());
+        this.insertReport = insertReport;
+    }
+
+    /**
+     * @return transactions and failed batches of the insert calls
+     */
+    public BulkInsertReport getInsertReport() {
+        return insertReport;
+    }
+
+    /**
+     * @return true if no record was skipped and every batch was sent
+     */
+    public boolean isSuccess() {
+        return getSkippedRecords() == 0 && insertReport.isSuccess();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " " + insertReport;
+    }
+}
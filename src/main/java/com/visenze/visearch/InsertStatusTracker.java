@@ -0,0 +1,289 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.visenze.visearch.internal.DataOperations;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches insert transactions until they are processed, from a single
+ * scheduler thread. Each transaction is polled more often while it is about
+ * to complete and less often while it makes slow or no progress. Once it is
+ * processed, every page of its error list is fetched in parallel.
+ *
+ * <pre>
+ * InsertStatusTracker tracker = new InsertStatusTracker(viSearch);
+ * ListenableFuture&lt;InsertStatus&gt; status = tracker.track(insertTrans.getTransId());
+ * </pre>
+ */
+public class InsertStatusTracker implements Closeable {
+
+    public static final long DEFAULT_MIN_INTERVAL = 1000;
+
+    public static final long DEFAULT_MAX_INTERVAL = 60 * 1000;
+
+    public static final int DEFAULT_ERROR_LIMIT = 100;
+
+    /**
+     * Failed polls in a row after which a transaction is given up
+     */
+    static final int MAX_CONSECUTIVE_ERRORS = 5;
+
+    /**
+     * Error message of the status of a transaction still watched on close
+     */
+    static final String CLOSED_MESSAGE = "The insert status tracker was closed.";
+
+    private final DataOperations dataOperations;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final boolean ownScheduler;
+
+    private final long minInterval;
+
+    private final long maxInterval;
+
+    private final int errorLimit;
+
+    /**
+     * Transactions not completed yet, to complete on close
+     */
+    private final Set<Transaction> watched =
+            Collections.newSetFromMap(new ConcurrentHashMap<Transaction, Boolean>());
+
+    private volatile boolean closed;
+
+    /**
+     * @param dataOperations client to poll with, e.g. a {@link ViSearch}
+     */
+    public InsertStatusTracker(DataOperations dataOperations) {
+        this(dataOperations, Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("visearch-insert-status-%d")
+                .setDaemon(true)
+                .build()), true, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_ERROR_LIMIT);
+    }
+
+    /**
+     * @param dataOperations client to poll with, e.g. a {@link ViSearch}
+     * @param scheduler scheduler of the polls, not shut down by {@link #close()}
+     * @param minInterval min milliseconds between two polls of a transaction
+     * @param maxInterval max milliseconds between two polls of a transaction
+     * @param errorLimit errors fetched per page of the error list
+     */
+    public InsertStatusTracker(DataOperations dataOperations, ScheduledExecutorService scheduler,
+                               long minInterval, long maxInterval, int errorLimit) {
+        this(dataOperations, scheduler, false, minInterval, maxInterval, errorLimit);
+    }
+
+    private InsertStatusTracker(DataOperations dataOperations, ScheduledExecutorService scheduler, boolean ownScheduler,
+                                long minInterval, long maxInterval, int errorLimit) {
+        Preconditions.checkNotNull(dataOperations, "data operations must not be null");
+        Preconditions.checkArgument(minInterval > 0 && maxInterval >= minInterval,
+                "intervals must be positive, with max interval at least min interval");
+        Preconditions.checkArgument(errorLimit >= 1, "error limit must be at least 1");
+        this.dataOperations = dataOperations;
+        this.scheduler = scheduler;
+        this.ownScheduler = ownScheduler;
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.errorLimit = errorLimit;
+    }
+
+    /**
+     * Watch a transaction until it is processed. Cancelling the returned
+     * future stops the polling.
+     *
+     * @param transId id of the insert transaction
+     * @return future of the status of the processed transaction, with its
+     *         whole error list, or of the status of the last failed poll if
+     *         polling failed 5 times in a row, or of a status with an error
+     *         message if the tracker is closed first
+     */
+    public ListenableFuture<InsertStatus> track(String transId) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(transId), "trans_id must not be null or empty");
+        final Transaction transaction = new Transaction(transId);
+        watched.add(transaction);
+        transaction.result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                watched.remove(transaction);
+            }
+        }, MoreExecutors.directExecutor());
+        if (closed) {
+            transaction.close();
+        } else {
+            transaction.schedule(0);
+        }
+        return transaction.result;
+    }
+
+    /**
+     * Stop watching transactions, and stop the scheduler thread of a tracker
+     * created without a scheduler. Transactions still watched complete with
+     * a status carrying an error message.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (ownScheduler) {
+            scheduler.shutdownNow();
+        }
+        for (Transaction transaction : watched) {
+            transaction.close();
+        }
+    }
+
+    /**
+     * Delay before the next poll: half the time the transaction should take
+     * to complete at its current rate, or twice the previous delay if it made
+     * no progress.
+     *
+     * @param previousDelay milliseconds since the previous poll
+     * @param progress percents processed since the previous poll
+     * @param remaining percents left to process
+     * @return milliseconds to wait, between min and max interval
+     */
+    long nextDelay(long previousDelay, int progress, int remaining) {
+        long delay;
+        if (progress <= 0) {
+            delay = previousDelay * 2;
+        } else {
+            delay = (long) ((double) previousDelay / progress * remaining / 2);
+        }
+        return Math.max(minInterval, Math.min(maxInterval, delay));
+    }
+
+    private final class Transaction implements Runnable {
+
+        final String transId;
+
+        final SettableFuture<InsertStatus> result = SettableFuture.create();
+
+        /**
+         * Only used by one poll at a time
+         */
+        long delay;
+
+        long polledAt;
+
+        Integer percent;
+
+        int errors;
+
+        Transaction(String transId) {
+            this.transId = transId;
+        }
+
+        void close() {
+            result.set(new InsertStatus(CLOSED_MESSAGE, new CancellationException(CLOSED_MESSAGE), null));
+        }
+
+        void schedule(long delay) {
+            this.delay = delay;
+            try {
+                scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                result.setException(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                return;
+            }
+            polledAt = System.nanoTime();
+            Futures.addCallback(dataOperations.insertStatusAsync(transId), new FutureCallback<InsertStatus>() {
+                @Override
+                public void onSuccess(InsertStatus status) {
+                    polled(status);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    polled(new InsertStatus(t.getMessage(), t, null));
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        void polled(InsertStatus status) {
+            if (result.isDone()) {
+                return;
+            }
+            if (status.getErrorMessage() != null || status.getProcessedPercent() == null) {
+                if (++errors >= MAX_CONSECUTIVE_ERRORS) {
+                    result.set(status);
+                } else {
+                    schedule(Math.max(minInterval, Math.min(maxInterval, delay * 2)));
+                }
+                return;
+            }
+            errors = 0;
+            int processed = status.getProcessedPercent();
+            if (processed >= 100) {
+                fetchErrors(status);
+                return;
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - polledAt) + delay;
+            long next = percent == null ? minInterval : nextDelay(elapsed, processed - percent, 100 - processed);
+            percent = processed;
+            schedule(next);
+        }
+
+        void fetchErrors(final InsertStatus status) {
+            int failCount = status.getFailCount() == null ? 0 : status.getFailCount();
+            if (failCount == 0) {
+                result.set(status);
+                return;
+            }
+            int pages = (failCount + errorLimit - 1) / errorLimit;
+            List<ListenableFuture<InsertStatus>> errorPages = new ArrayList<ListenableFuture<InsertStatus>>(pages);
+            for (int page = 1; page <= pages; page++) {
+                errorPages.add(dataOperations.insertStatusAsync(transId, page, errorLimit));
+            }
+            Futures.addCallback(Futures.allAsList(errorPages), new FutureCallback<List<InsertStatus>>() {
+                @Override
+                public void onSuccess(List<InsertStatus> errorPages) {
+                    List<InsertError> errorList = new ArrayList<InsertError>();
+                    for (InsertStatus errorPage : errorPages) {
+                        if (errorPage.getErrorMessage() != null) {
+                            result.set(errorPage);
+                            return;
+                        }
+                        if (errorPage.getErrorList() != null) {
+                            errorList.addAll(errorPage.getErrorList());
+                        }
+                    }
+                    InsertStatus processed = new InsertStatus(status.getTransId(), status.getProcessedPercent(),
+                            status.getTotal(), status.getSuccessCount(), status.getFailCount(),
+                            status.getStartTime(), status.getUpdateTime(), errorList, 1, errorList.size());
+                    processed.setHeaders(status.getHeaders());
+                    result.set(processed);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    result.set(new InsertStatus(t.getMessage(), t, null));
+                }
+            }, MoreExecutors.directExecutor());
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.visenze.visearch;
+
+/**
+ * Classes of operations that can be given a bulkhead of their own, see
+ * {@link ClientConfig#setMaxConcurrentRequests(OperationClass, int)}.
+ */
+public enum OperationClass {
+
+    /**
+     * Lightweight calls: searches, recommendations and autocomplete.
+     */
+    SEARCH,
+
+    /**
+     * Calls posting an image or image feature, and feature extraction.
+     */
+    UPLOAD,
+
+    /**
+     * Data operations: insert, insert status and remove.
+     */
+    DATA
+}
@@ -2,6 +2,8 @@ package com.visenze.visearch;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
 
 import java.util.List;
@@ -24,7 +26,7 @@ public class PagedSearchResult extends PagedResult<ImageResult> {
 
     private Map<String, String> sysQueryInfo;
 
-    private String rawJson;
+    private Supplier<String> rawJson;
 
     private List<ObjectSearchResult> objects;
 
@@ -105,11 +107,21 @@ public class PagedSearchResult extends PagedResult<ImageResult> {
     }
 
     public void setRawJson(String rawJson) {
+        this.rawJson = rawJson == null ? null : Suppliers.ofInstance(rawJson);
+    }
+
+    /**
+     * Set the raw json as a supplier called on every {@link #getRawJson()},
+     * to keep it in a more compact form than a string.
+     *
+     * @param rawJson supplier of the raw json, null for none
+     */
+    public void setRawJsonSupplier(Supplier<String> rawJson) {
         this.rawJson = rawJson;
     }
 
     public String getRawJson() {
-        return rawJson;
+        return rawJson == null ? null : rawJson.get();
     }
 
     /**
@@ -0,0 +1,64 @@
+package com.visenze.visearch;
+
+/**
+ * Snapshot of the time the requests of one {@link RequestPriority} spent in
+ * the admission queue of a client, since the client was created.
+ */
+public class QueueTimeStats {
+
+    private final long requests;
+
+    private final int queued;
+
+    private final double totalQueueTime;
+
+    private final double maxQueueTime;
+
+    public QueueTimeStats(long requests, int queued, double totalQueueTime, double maxQueueTime) {
+        this.requests = requests;
+        this.queued = queued;
+        this.totalQueueTime = totalQueueTime;
+        this.maxQueueTime = maxQueueTime;
+    }
+
+    /**
+     * @return number of requests admitted
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return number of requests waiting for admission
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return milliseconds the admitted requests waited, summed
+     */
+    public double getTotalQueueTime() {
+        return totalQueueTime;
+    }
+
+    /**
+     * @return milliseconds an admitted request waited on average
+     */
+    public double getAverageQueueTime() {
+        return requests == 0 ? 0 : totalQueueTime / requests;
+    }
+
+    /**
+     * @return milliseconds the longest waiting admitted request waited
+     */
+    public double getMaxQueueTime() {
+        return maxQueueTime;
+    }
+
+    @Override
+    public String toString() {
+        return "[requests: " + requests + "; queued: " + queued
+                + "; average: " + getAverageQueueTime() + "ms; max: " + maxQueueTime + "ms]";
+    }
+}
@@ -0,0 +1,31 @@
+package com.visenze.visearch;
+
+/**
+ * How search results keep the raw json returned by {@code getRawJson()}.
+ */
+public enum RawJsonMode {
+
+    /**
+     * Raw json is not kept, {@code getRawJson()} returns null.
+     */
+    NONE,
+
+    /**
+     * Raw json is kept as a string.
+     */
+    STRING,
+
+    /**
+     * The parsed response is kept and serialized again on every call of
+     * {@code getRawJson()}. Saves memory when raw json is rarely read and the
+     * result is short-lived.
+     */
+    LAZY,
+
+    /**
+     * Raw json is kept as compact UTF-8 bytes, about half the size of a
+     * string for mostly ASCII responses, and decoded on every call of
+     * {@code getRawJson()}.
+     */
+    BYTES
+}
@@ -0,0 +1,23 @@
+package com.visenze.visearch;
+
+/**
+ * Priorities of the requests waiting for admission, see {@link AdmissionPolicy}.
+ * A waiting request is admitted only when no request of a higher priority waits.
+ */
+public enum RequestPriority {
+
+    /**
+     * Calls a user waits for: searches and autocomplete.
+     */
+    INTERACTIVE,
+
+    /**
+     * Calls whose result is shown later, e.g. recommendations fetched ahead of time.
+     */
+    PREFETCH,
+
+    /**
+     * Background jobs: insert, insert status, remove and feature extraction.
+     */
+    BATCH
+}
@@ -18,6 +18,9 @@ public enum ResponseMessages {
             "Please ensure that your provided ViSearch endpoint is a well-formed URL and try again."),
     PARSE_RESPONSE_ERROR(43, "Could not parse the ViSearch response."),
     INVALID_RESPONSE_FORMAT(44, "ViSearch response have wrong contents."),
+    CIRCUIT_OPEN(45, "Requests to this ViSearch API are failing and are paused for a while. " +
+            "Please try again later."),
+    RESPONSE_TOO_LARGE(46, "The ViSearch response exceeds the maximum response size."),
 
     // for data APIs
     TRANSACTION_NOT_FOUND(101, "Transaction not found with trans_id."),
@@ -0,0 +1,137 @@
+package com.visenze.visearch;
+
+import java.util.Random;
+
+/**
+ * Retries of requests failing with a network error or a transient http
+ * status (429, 502, 503 or 504), with exponential backoff and full jitter.
+ * A Retry-After header sent with the response is honored instead of the
+ * backoff.
+ *
+ * Searches, recommendations and insert status queries are retried; they can
+ * safely be sent more than once. /insert and /remove change data and are
+ * only retried with {@link #setRetryWrites(boolean)}, which sends every
+ * attempt of a call with the same TRANS_ID transaction token. Image streams
+ * of retried uploads are buffered in memory so that they can be sent again.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    public static final long DEFAULT_BASE_DELAY = 100;
+
+    public static final long DEFAULT_MAX_DELAY = 5 * 1000;
+
+    public static final long DEFAULT_MAX_RETRY_AFTER = 30 * 1000;
+
+    public static final double DEFAULT_MAX_RETRY_RATIO = 0.2;
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    private long baseDelay = DEFAULT_BASE_DELAY;
+
+    private long maxDelay = DEFAULT_MAX_DELAY;
+
+    private long maxRetryAfter = DEFAULT_MAX_RETRY_AFTER;
+
+    private double maxRetryRatio = DEFAULT_MAX_RETRY_RATIO;
+
+    private boolean retryWrites = false;
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts max number of attempts of a call, the first one included
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * Backoff before the first retry, doubled for every further retry. The
+     * actual wait is a random time up to the backoff.
+     *
+     * @param baseDelay base delay in milliseconds
+     */
+    public void setBaseDelay(long baseDelay) {
+        this.baseDelay = baseDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * @param maxDelay cap of the backoff in milliseconds
+     */
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    public long getMaxRetryAfter() {
+        return maxRetryAfter;
+    }
+
+    /**
+     * A response asking to retry later than this is returned as it is
+     * instead of being retried.
+     *
+     * @param maxRetryAfter longest Retry-After to wait for, in milliseconds
+     */
+    public void setMaxRetryAfter(long maxRetryAfter) {
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    public double getMaxRetryRatio() {
+        return maxRetryRatio;
+    }
+
+    /**
+     * Cap retries to a share of all requests, so that retries do not pile up
+     * on a server that is down. Defaults to 0.2.
+     *
+     * @param maxRetryRatio max retries per request, between 0 and 1
+     */
+    public void setMaxRetryRatio(double maxRetryRatio) {
+        if (maxRetryRatio < 0 || maxRetryRatio > 1) {
+            throw new IllegalArgumentException("maxRetryRatio must be in [0, 1]");
+        }
+        this.maxRetryRatio = maxRetryRatio;
+    }
+
+    public boolean isRetryWrites() {
+        return retryWrites;
+    }
+
+    /**
+     * Also retry /insert and /remove. Every attempt of a call carries the
+     * same TRANS_ID header, so the server can tell a retry from a new call.
+     *
+     * @param retryWrites true to retry calls changing data
+     */
+    public void setRetryWrites(boolean retryWrites) {
+        this.retryWrites = retryWrites;
+    }
+
+    /**
+     * Full jitter: a random wait up to the exponential backoff of an attempt,
+     * so that calls failing together do not retry in lockstep.
+     *
+     * @param attempt number of the failed attempt, from 1
+     * @param random source of the jitter
+     * @return milliseconds to wait before the next attempt
+     */
+    public long backoff(int attempt, Random random) {
+        double cap = Math.min(maxDelay, baseDelay * Math.pow(2, attempt - 1));
+        return (long) (random.nextDouble() * cap);
+    }
+}
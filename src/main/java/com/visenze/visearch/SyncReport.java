@@ -0,0 +1,95 @@
+package com.visenze.visearch;
+
+/**
+ * Outcome of a {@link CatalogSync}, in images.
+ */
+public class SyncReport {
+
+    private final long unchanged;
+
+    private final long inserted;
+
+    private final long insertFailed;
+
+    private final long removed;
+
+    private final long removeFailed;
+
+    private final long removeSkipped;
+
+    private final BulkInsertReport insertReport;
+
+    public SyncReport(long unchanged, long inserted, long insertFailed, long removed, long removeFailed,
+                      long removeSkipped, BulkInsertReport insertReport) {
+        this.unchanged = unchanged;
+        this.inserted = inserted;
+        this.insertFailed = insertFailed;
+        this.removed = removed;
+        this.removeFailed = removeFailed;
+        this.removeSkipped = removeSkipped;
+        this.insertReport = insertReport;
+    }
+
+    /**
+     * @return images of the snapshot already indexed, not sent
+     */
+    public long getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * @return new or changed images inserted without error
+     */
+    public long getInserted() {
+        return inserted;
+    }
+
+    /**
+     * @return new or changed images not inserted, to send again by the next sync
+     */
+    public long getInsertFailed() {
+        return insertFailed;
+    }
+
+    /**
+     * @return images no longer in the catalog removed
+     */
+    public long getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return images no longer in the catalog whose remove call failed
+     */
+    public long getRemoveFailed() {
+        return removeFailed;
+    }
+
+    /**
+     * @return images no longer in the catalog kept, as the snapshot had
+     *         malformed records or more images vanished than a sync may remove
+     */
+    public long getRemoveSkipped() {
+        return removeSkipped;
+    }
+
+    /**
+     * @return insert transactions and failed batches of the new or changed images
+     */
+    public BulkInsertReport getInsertReport() {
+        return insertReport;
+    }
+
+    /**
+     * @return true if every change was applied
+     */
+    public boolean isSuccess() {
+        return insertFailed == 0 && removeFailed == 0 && removeSkipped == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "[unchanged: " + unchanged + "; inserted: " + inserted + "; insert failed: " + insertFailed
+                + "; removed: " + removed + "; remove failed: " + removeFailed + "; remove skipped: " + removeSkipped + "]";
+    }
+}
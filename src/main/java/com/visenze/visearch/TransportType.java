@@ -0,0 +1,25 @@
+package com.visenze.visearch;
+
+/**
+ * How a client sends its http requests.
+ */
+public enum TransportType {
+
+    /**
+     * Every request holds the calling thread until the full response is read.
+     */
+    BLOCKING,
+
+    /**
+     * Requests are multiplexed over a few event-driven I/O threads, so
+     * asynchronous calls do not hold a thread while waiting for the server.
+     */
+    NIO,
+
+    /**
+     * HTTP/2 on the JDK http client, multiplexing concurrent requests over a
+     * few connections, with fallback to HTTP/1.1 for servers without HTTP/2.
+     * Requires Java 11 or later.
+     */
+    HTTP2
+}
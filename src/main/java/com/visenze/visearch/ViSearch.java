@@ -1,11 +1,13 @@
 package com.visenze.visearch;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.visenze.visearch.internal.*;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
 import com.visenze.visearch.internal.http.ViSearchHttpClientImpl;
 import com.visenze.visearch.internal.json.ViSearchModule;
 
+import java.io.Closeable;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.List;
@@ -13,7 +15,7 @@ import java.util.Map;
 import java.util.Properties;
 
 
-public class ViSearch implements DataOperations, SearchOperations {
+public class ViSearch implements DataOperations, SearchOperations, Closeable {
 
     public static String VISEACH_JAVA_SDK_VERSION;
 
@@ -46,6 +48,11 @@ public class ViSearch implements DataOperations, SearchOperations {
      */
     private final SearchOperations searchOperations;
 
+    /**
+     * Http client shared by the data and search operations, null for stubs.
+     */
+    private final ViSearchHttpClient viSearchHttpClient;
+
     /**
      * Construct a ViSearch client to call the default ViSearch API endpoint with access key and secret key.
      *
@@ -62,6 +69,7 @@ public class ViSearch implements DataOperations, SearchOperations {
     public ViSearch(DataOperations dataOperations, SearchOperations searchOperations) {
         this.dataOperations = dataOperations;
         this.searchOperations = searchOperations;
+        this.viSearchHttpClient = null;
     }
 
     /**
@@ -91,6 +99,7 @@ public class ViSearch implements DataOperations, SearchOperations {
         }
         ViSearchHttpClient viSearchHttpClient = new ViSearchHttpClientImpl(endpoint, accessKey, secretKey);
         ObjectMapper objectMapper = new ObjectMapper().registerModule(new ViSearchModule());
+        this.viSearchHttpClient = viSearchHttpClient;
         this.dataOperations = new DataOperationsImpl(viSearchHttpClient, objectMapper);
         this.searchOperations = new SearchOperationsImpl(viSearchHttpClient, objectMapper);
     }
@@ -107,8 +116,10 @@ public class ViSearch implements DataOperations, SearchOperations {
         }
         ViSearchHttpClient viSearchHttpClient = new ViSearchHttpClientImpl(endpoint, accessKey, secretKey, clientConfig);
         ObjectMapper objectMapper = new ObjectMapper().registerModule(new ViSearchModule());
-        this.dataOperations = new DataOperationsImpl(viSearchHttpClient, objectMapper);
-        this.searchOperations = new SearchOperationsImpl(viSearchHttpClient, objectMapper);
+        this.viSearchHttpClient = viSearchHttpClient;
+        this.dataOperations = new DataOperationsImpl(viSearchHttpClient, objectMapper, clientConfig.getAsyncExecutor());
+        this.searchOperations = new SearchOperationsImpl(viSearchHttpClient, objectMapper, clientConfig.getAsyncExecutor(),
+                clientConfig.getRawJsonMode());
     }
 
     /**
@@ -313,4 +324,174 @@ public class ViSearch implements DataOperations, SearchOperations {
         return result;
     }
 
+    /**
+     * Insert images to the ViSearch App without blocking the calling thread.
+     *
+     * @param imageList the list of Images to insert.
+     * @return future of the insert transaction
+     */
+    @Override
+    public ListenableFuture<InsertTrans> insertAsync(List<Image> imageList) {
+        return dataOperations.insertAsync(imageList);
+    }
+
+    /**
+     * (For testing) Insert images to the ViSearch App with custom parameters
+     * without blocking the calling thread.
+     *
+     * @param imageList    the list of Images to insert.
+     * @param customParams custom parameters
+     * @return future of the insert transaction
+     */
+    @Override
+    public ListenableFuture<InsertTrans> insertAsync(List<Image> imageList, Map<String, String> customParams) {
+        return dataOperations.insertAsync(imageList, customParams);
+    }
+
+    /**
+     * Get insert status by insert trans id without blocking the calling thread.
+     *
+     * @param transId the id of the insert trans.
+     * @return future of the insert status
+     */
+    @Override
+    public ListenableFuture<InsertStatus> insertStatusAsync(String transId) {
+        return dataOperations.insertStatusAsync(transId);
+    }
+
+    /**
+     * Get insert status by insert trans id, and get errors page, without
+     * blocking the calling thread.
+     *
+     * @param transId    the id of the insert transaction.
+     * @param errorPage  page number of the error list
+     * @param errorLimit per page limit number of the error list
+     * @return future of the insert status
+     */
+    @Override
+    public ListenableFuture<InsertStatus> insertStatusAsync(String transId, Integer errorPage, Integer errorLimit) {
+        return dataOperations.insertStatusAsync(transId, errorPage, errorLimit);
+    }
+
+    /**
+     * Remove a list of images from the ViSearch App without blocking the
+     * calling thread.
+     *
+     * @param imNameList the list of im_names of the images to be removed
+     * @return future of the remove status
+     */
+    @Override
+    public ListenableFuture<RemoveStatus> removeAsync(List<String> imNameList) {
+        return dataOperations.removeAsync(imNameList);
+    }
+
+    /**
+     * Asynchronous {@link #search(SearchParams)}. Cancelling the future aborts
+     * the request.
+     *
+     * @param searchParams the search parameters, must contain the im_name of the existing image
+     * @return future of the page of search result
+     */
+    @Override
+    public ListenableFuture<PagedSearchResult> searchAsync(SearchParams searchParams) {
+        return searchOperations.searchAsync(searchParams);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> recommendationAsync(RecommendSearchParams recommendSearchParams) {
+        return searchOperations.recommendationAsync(recommendSearchParams);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> browseLinkedGalleryImagesAsync(BrowseLinkedGalleryParams params) {
+        return searchOperations.browseLinkedGalleryImagesAsync(params);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> colorSearchAsync(ColorSearchParams colorSearchParams) {
+        return searchOperations.colorSearchAsync(colorSearchParams);
+    }
+
+    /**
+     * Asynchronous {@link #uploadSearch(UploadSearchParams)}. Cancelling the
+     * future aborts the upload.
+     *
+     * @param uploadSearchParams the upload search parameters, must contain a image file or a url
+     * @return future of the page of upload search result
+     */
+    @Override
+    public ListenableFuture<PagedSearchResult> uploadSearchAsync(UploadSearchParams uploadSearchParams) {
+        return searchOperations.uploadSearchAsync(uploadSearchParams);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> multiSearchAsync(UploadSearchParams uploadSearchParams) {
+        return searchOperations.multiSearchAsync(uploadSearchParams);
+    }
+
+    @Override
+    public ListenableFuture<AutoCompleteResult> multiSearchAutoCompleteAsync(UploadSearchParams uploadSearchParams) {
+        return searchOperations.multiSearchAutoCompleteAsync(uploadSearchParams);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> discoverSearchAsync(UploadSearchParams discoverSearchParams) {
+        return searchOperations.discoverSearchAsync(discoverSearchParams);
+    }
+
+    @Override
+    public ListenableFuture<FeatureResponseResult> extractFeatureAsync(UploadSearchParams uploadSearchParams) {
+        return searchOperations.extractFeatureAsync(uploadSearchParams);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> matchSearchAsync(MatchSearchParams matchSearchParams) {
+        return searchOperations.matchSearchAsync(matchSearchParams);
+    }
+
+    /**
+     * Get a snapshot of the http connection pool used by this client, to size
+     * the pool under load or detect pool exhaustion.
+     *
+     * @return pool statistics, or null if the client does not manage a pool
+     */
+    public ConnectionPoolStats getPoolStats() {
+        return viSearchHttpClient == null ? null : viSearchHttpClient.getPoolStats();
+    }
+
+    /**
+     * Get the time the requests of a priority waited for admission, to tune
+     * the {@link AdmissionPolicy} of the client.
+     *
+     * @param priority priority of the requests
+     * @return queue time statistics, or null if the client has no admission queue
+     */
+    public QueueTimeStats getQueueTimeStats(RequestPriority priority) {
+        return viSearchHttpClient == null ? null : viSearchHttpClient.getQueueTimeStats(priority);
+    }
+
+    /**
+     * Open connections to the endpoint before the first requests, e.g. right
+     * after a deploy, so that they don't pay for DNS lookup and TCP and TLS
+     * handshakes. Blocks until the connections are open or failed.
+     *
+     * @param connections number of connections to open, at most the pool size
+     * @return number of connections ready for requests
+     */
+    public int warmUp(int connections) {
+        return viSearchHttpClient == null ? 0 : viSearchHttpClient.warmUp(connections);
+    }
+
+    /**
+     * Release the http connections held by this client. If the client was
+     * created with a shared connection pool, the pool stays open until every
+     * client using it has been closed.
+     */
+    @Override
+    public void close() {
+        if (viSearchHttpClient != null) {
+            viSearchHttpClient.close();
+        }
+    }
+
 }
@@ -1,25 +1,114 @@
 package com.visenze.visearch.internal;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.type.CollectionType;
 import com.fasterxml.jackson.databind.type.MapType;
 import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.visenze.visearch.*;
 import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+import com.visenze.visearch.internal.http.ExecutorAsyncHttpClient;
+import com.visenze.visearch.internal.http.ViSearchAsyncHttpClient;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
+import com.visenze.visearch.internal.http.ViSearchHttpResponse;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 class BaseViSearchOperations {
 
     final ViSearchHttpClient viSearchHttpClient;
     final ObjectMapper objectMapper;
+    final Executor asyncExecutor;
+    final ViSearchAsyncHttpClient asyncHttpClient;
+    private final ConcurrentMap<Class<?>, ObjectReader> listReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
 
     BaseViSearchOperations(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper) {
+        this(viSearchHttpClient, objectMapper, AsyncExecutors.sharedExecutor());
+    }
+
+    BaseViSearchOperations(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper, Executor asyncExecutor) {
         this.viSearchHttpClient = viSearchHttpClient;
         this.objectMapper = objectMapper;
+        this.asyncExecutor = asyncExecutor;
+        this.asyncHttpClient = viSearchHttpClient instanceof ViSearchAsyncHttpClient
+                ? (ViSearchAsyncHttpClient) viSearchHttpClient
+                : new ExecutorAsyncHttpClient(viSearchHttpClient, asyncExecutor);
+    }
+
+    /**
+     * Parse an async response on the async executor, so I/O threads never
+     * parse json. Failures are turned into an error result the same way the
+     * blocking calls report them.
+     */
+    <T> ListenableFuture<T> parseAsync(ListenableFuture<ViSearchHttpResponse> response,
+                                       Function<ViSearchHttpResponse, T> parser,
+                                       Function<InternalViSearchException, T> errorResult) {
+        ListenableFuture<T> result = Futures.catching(Futures.transform(response, parser, asyncExecutor),
+                InternalViSearchException.class, errorResult);
+        ViSearchHttpResponse.closeOnCancel(response, result);
+        return result;
+    }
+
+    /**
+     * Parse a response body into a tree, streaming it from the connection
+     * when possible instead of reading it into a string first. The body
+     * string is only available afterwards (for raw responses in errors) when
+     * the response could not be streamed.
+     */
+    JsonNode readTree(ViSearchHttpResponse httpResponse) {
+        InputStream content = httpResponse.getContent();
+        if (content == null) {
+            String response = httpResponse.getBody();
+            try {
+                return objectMapper.readTree(response);
+            } catch (IOException e) {
+                throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
+                // throw new ViSearchException("Could not parse the ViSearch response: " + response, e, response);
+            }
+        }
+        try {
+            return objectMapper.readTree(content);
+        } catch (IOException e) {
+            httpResponse.checkSize(e);
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e);
+        } finally {
+            httpResponse.close();
+        }
+    }
+
+    /**
+     * A view of the http client whose async calls run the blocking call on the
+     * calling thread, to share request building between the two APIs.
+     */
+    ViSearchAsyncHttpClient callingThreadClient() {
+        return new ExecutorAsyncHttpClient(viSearchHttpClient, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Get the result of a completed future, rethrowing its failure as is.
+     */
+    static <T> T getDone(ListenableFuture<T> future) {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e.getCause());
+        }
     }
 
     protected FeatureResponseResult deserializeFeatureResponseResult(String rawResponse, JsonNode node) {
@@ -49,50 +138,6 @@ class BaseViSearchOperations {
         return featureResult;
     }
 
-    protected PagedSearchResult pagify(String rawResponse, JsonNode node) {
-
-        List<ImageResult> result = new ArrayList<ImageResult>();
-        List<ObjectSearchResult> objects = null;
-        List<GroupSearchResult> groupResults = null;
-
-        if(node.has(ViSearchHttpConstants.RESULT))
-            result = deserializeListResult(rawResponse, node.get(ViSearchHttpConstants.RESULT), ImageResult.class);
-
-        // for merged results, it is possible to have both objects and results
-        if (node.has(ViSearchHttpConstants.OBJECTS))
-            objects = deserializeListResult(rawResponse, node.get(ViSearchHttpConstants.OBJECTS), ObjectSearchResult.class);
-
-        if (node.has(ViSearchHttpConstants.GROUP_RESULTS))
-            groupResults =  deserializeListResult(rawResponse, node.get(ViSearchHttpConstants.GROUP_RESULTS), GroupSearchResult.class);
-
-        JsonNode methodNode = node.get(ViSearchHttpConstants.METHOD);
-        if (methodNode == null) {
-            throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, rawResponse);
-        }
-        JsonNode pageNode = node.get(ViSearchHttpConstants.PAGE);
-        JsonNode limitNode = node.get(ViSearchHttpConstants.LIMIT);
-        JsonNode totalNode = node.get(ViSearchHttpConstants.TOTAL);
-        JsonNode groupLimitNode = node.get(ViSearchHttpConstants.GROUP_LIMIT) ;
-        JsonNode groupByKeyNode = node.get(ViSearchHttpConstants.GROUP_BY_KEY) ;
-        JsonNode algorithmNode = node.get(ViSearchHttpConstants.ALGORITHM);
-        JsonNode fallbackAlgorithmNode = node.get(ViSearchHttpConstants.FALLBACK_ALGORITHM);
-
-        PagedSearchResult pagedResult = new PagedSearchResult(result);
-        if(pageNode!=null) pagedResult.setPage(pageNode.asInt());
-        if(limitNode!=null) pagedResult.setLimit(limitNode.asInt());
-        if(totalNode!=null) pagedResult.setTotal(totalNode.asInt());
-        if(groupLimitNode!=null) pagedResult.setGroupLimit(groupLimitNode.asInt());
-        if(groupByKeyNode!=null) pagedResult.setGroupByKey(groupByKeyNode.asText());
-        if(algorithmNode!=null) pagedResult.setAlgorithm(algorithmNode.asText());
-        if(fallbackAlgorithmNode!=null) pagedResult.setFallbackAlgorithm(fallbackAlgorithmNode.asText());
-
-        pagedResult.setObjects(objects);
-        pagedResult.setGroupSearchResults(groupResults);
-
-        return pagedResult;
-
-    }
-
     <T> T deserializeObjectResult(String rawResponse, String json, Class<T> clazz) {
         try {
             return objectMapper.reader(clazz).readValue(json);
@@ -103,12 +148,9 @@ class BaseViSearchOperations {
         }
     }
 
-    @SuppressWarnings("unchecked")
     <T> List<T> deserializeListResult(String rawResponse, JsonNode node, Class<T> clazz) {
-        String json = node.toString();
         try {
-            CollectionType listType = TypeFactory.defaultInstance().constructCollectionType(List.class, clazz);
-            return (List<T>) objectMapper.readerFor(listType).readValue(json);
+            return listReader(clazz).readValue(node);
         } catch (IOException e) {
             throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, rawResponse);
         }
@@ -116,7 +158,6 @@ class BaseViSearchOperations {
 
     @SuppressWarnings("unchecked")
     <T, U> Map<T, U> deserializeMapResult(String rawResponse, JsonNode node, Class<T> keyClass, Class<T> valueClass) {
-        String json = node.toString();
         try {
             MapType mapType = TypeFactory.defaultInstance().constructMapType(HashMap.class, keyClass, valueClass);
             return (Map<T, U>) objectMapper.readerFor(mapType).readValue(node);
@@ -124,4 +165,65 @@ class BaseViSearchOperations {
             throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, rawResponse);
         }
     }
+
+    /**
+     * Reader of lists of the given element type, created once per type.
+     */
+    private ObjectReader listReader(Class<?> clazz) {
+        ObjectReader reader = listReaders.get(clazz);
+        if (reader == null) {
+            CollectionType listType = objectMapper.getTypeFactory().constructCollectionType(List.class, clazz);
+            reader = objectMapper.readerFor(listType);
+            listReaders.putIfAbsent(clazz, reader);
+        }
+        return reader;
+    }
+
+    JsonParser createParser(String json) {
+        try {
+            return objectMapper.getFactory().createParser(json);
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, json);
+        }
+    }
+
+    JsonParser createParser(ViSearchHttpResponse httpResponse, InputStream content) {
+        try {
+            return objectMapper.getFactory().createParser(content);
+        } catch (IOException e) {
+            // the parser reads ahead to detect the encoding
+            httpResponse.checkSize(e);
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e);
+        }
+    }
+
+    JsonParser createParser(byte[] json) {
+        try {
+            return objectMapper.getFactory().createParser(json);
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e);
+        }
+    }
+
+    /**
+     * Read a response body as UTF-8 bytes, which take half the memory of a
+     * string for mostly ASCII json. The bytes stay charged to the memory
+     * budget until the response is closed, to close once they are parsed.
+     */
+    static byte[] readBytes(ViSearchHttpResponse httpResponse) {
+        byte[] bytes = httpResponse.getBytes();
+        if (bytes == null) {
+            String body = httpResponse.getBody();
+            return body == null ? new byte[0] : body.getBytes(Charsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    static void closeQuietly(JsonParser parser) {
+        try {
+            parser.close();
+        } catch (IOException e) {
+            // the underlying response is closed by its owner
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.visenze.visearch.internal;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.visenze.visearch.Image;
 import com.visenze.visearch.InsertStatus;
 import com.visenze.visearch.InsertTrans;
@@ -24,4 +25,14 @@ public interface DataOperations {
 
     RemoveStatus remove(List<String> imNameList);
 
+    ListenableFuture<InsertTrans> insertAsync(List<Image> imageList);
+
+    ListenableFuture<InsertTrans> insertAsync(List<Image> imageList, Map<String, String> customParams);
+
+    ListenableFuture<InsertStatus> insertStatusAsync(String transId);
+
+    ListenableFuture<InsertStatus> insertStatusAsync(String transId, Integer errorPage, Integer errorLimit);
+
+    ListenableFuture<RemoveStatus> removeAsync(List<String> imNameList);
+
 }
@@ -3,12 +3,14 @@ package com.visenze.visearch.internal;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.visenze.visearch.*;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
 import com.visenze.visearch.internal.http.ViSearchHttpResponse;
@@ -17,13 +19,66 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class DataOperationsImpl extends BaseViSearchOperations implements DataOperations {
 
+    private static final Function<InternalViSearchException, InsertTrans> INSERT_TRANS_ERROR =
+            new Function<InternalViSearchException, InsertTrans>() {
+                @Override
+                public InsertTrans apply(InternalViSearchException e) {
+                    return new InsertTrans(e.getMessage(), e.getCause(), e.getServerRawResponse());
+                }
+            };
+
+    private static final Function<InternalViSearchException, InsertStatus> INSERT_STATUS_ERROR =
+            new Function<InternalViSearchException, InsertStatus>() {
+                @Override
+                public InsertStatus apply(InternalViSearchException e) {
+                    return new InsertStatus(e.getMessage(), e.getCause(), e.getServerRawResponse());
+                }
+            };
+
+    private static final Function<InternalViSearchException, RemoveStatus> REMOVE_STATUS_ERROR =
+            new Function<InternalViSearchException, RemoveStatus>() {
+                @Override
+                public RemoveStatus apply(InternalViSearchException e) {
+                    return new RemoveStatus(e.getMessage(), e.getCause(), e.getServerRawResponse());
+                }
+            };
+
+    private final Function<ViSearchHttpResponse, InsertTrans> insertTransParser =
+            new Function<ViSearchHttpResponse, InsertTrans>() {
+                @Override
+                public InsertTrans apply(ViSearchHttpResponse response) {
+                    return parseInsertTrans(response);
+                }
+            };
+
+    private final Function<ViSearchHttpResponse, InsertStatus> insertStatusParser =
+            new Function<ViSearchHttpResponse, InsertStatus>() {
+                @Override
+                public InsertStatus apply(ViSearchHttpResponse response) {
+                    return parseInsertStatus(response.getBody(), response.getHeaders());
+                }
+            };
+
+    private final Function<ViSearchHttpResponse, RemoveStatus> removeStatusParser =
+            new Function<ViSearchHttpResponse, RemoveStatus>() {
+                @Override
+                public RemoveStatus apply(ViSearchHttpResponse response) {
+                    return parseRemoveStatus(response);
+                }
+            };
+
     public DataOperationsImpl(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper) {
         super(viSearchHttpClient, objectMapper);
     }
 
+    public DataOperationsImpl(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper, Executor asyncExecutor) {
+        super(viSearchHttpClient, objectMapper, asyncExecutor);
+    }
+
     @Override
     public InsertTrans insert(List<Image> imageList) {
         return insert(imageList, new HashMap<String, String>());
@@ -35,33 +90,55 @@ public class DataOperationsImpl extends BaseViSearchOperations implements DataOp
         Preconditions.checkNotNull(customParams, "custom params must not be null");
 
         try {
-            Multimap<String, String> params = imageListToParams(imageList);
-            for (Map.Entry<String, String> entry : customParams.entrySet()) {
-                params.put(entry.getKey(), entry.getValue());
-            }
-            ViSearchHttpResponse httpResponse = viSearchHttpClient.post("/insert", params);
-            String response = httpResponse.getBody();
-            Map<String, String> headers = httpResponse.getHeaders();
-            try {
-                JsonNode responseNode = objectMapper.readTree(response);
-                JsonNode statusNode = responseNode.get("status");
-                if (statusNode == null) {
-                    throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, response);
-                } else {
-                    InsertTrans insertTrans = deserializeObjectResult(response, response, InsertTrans.class);
-                    insertTrans.setHeaders(headers);
-                    return insertTrans;
-                }
-            } catch (JsonProcessingException e) {
-                throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
-            } catch (IOException e) {
-                throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
-            }
+            ViSearchHttpResponse httpResponse = viSearchHttpClient.post("/insert", insertParams(imageList, customParams));
+            return parseInsertTrans(httpResponse);
         } catch (InternalViSearchException e) {
             return new InsertTrans(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
     }
 
+    @Override
+    public ListenableFuture<InsertTrans> insertAsync(List<Image> imageList) {
+        return insertAsync(imageList, new HashMap<String, String>());
+    }
+
+    @Override
+    public ListenableFuture<InsertTrans> insertAsync(List<Image> imageList, Map<String, String> customParams) {
+        Preconditions.checkNotNull(imageList, "image list must not be null");
+        Preconditions.checkNotNull(customParams, "custom params must not be null");
+
+        return parseAsync(asyncHttpClient.postAsync("/insert", insertParams(imageList, customParams)),
+                insertTransParser, INSERT_TRANS_ERROR);
+    }
+
+    private static Multimap<String, String> insertParams(List<Image> imageList, Map<String, String> customParams) {
+        Multimap<String, String> params = imageListToParams(imageList);
+        for (Map.Entry<String, String> entry : customParams.entrySet()) {
+            params.put(entry.getKey(), entry.getValue());
+        }
+        return params;
+    }
+
+    private InsertTrans parseInsertTrans(ViSearchHttpResponse httpResponse) {
+        String response = httpResponse.getBody();
+        Map<String, String> headers = httpResponse.getHeaders();
+        try {
+            JsonNode responseNode = objectMapper.readTree(response);
+            JsonNode statusNode = responseNode.get("status");
+            if (statusNode == null) {
+                throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, response);
+            } else {
+                InsertTrans insertTrans = deserializeObjectResult(response, response, InsertTrans.class);
+                insertTrans.setHeaders(headers);
+                return insertTrans;
+            }
+        } catch (JsonProcessingException e) {
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
+        }
+    }
+
     @Override
     public InsertStatus insertStatus(String transId) {
         return insertStatus(transId, Maps.<String, String>newHashMap());
@@ -110,6 +187,27 @@ public class DataOperationsImpl extends BaseViSearchOperations implements DataOp
         }
     }
 
+    @Override
+    public ListenableFuture<InsertStatus> insertStatusAsync(String transId) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(transId), "trans_id must not be null or empty");
+
+        return parseAsync(asyncHttpClient.getAsync("/insert/status/" + transId, HashMultimap.<String, String>create()),
+                insertStatusParser, INSERT_STATUS_ERROR);
+    }
+
+    @Override
+    public ListenableFuture<InsertStatus> insertStatusAsync(String transId, Integer errorPage, Integer errorLimit) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(transId), "trans_id must not be null or empty");
+        Preconditions.checkNotNull(errorPage, "error page must not be null");
+        Preconditions.checkNotNull(errorLimit, "error limit must not be null");
+
+        Multimap<String, String> params = HashMultimap.create();
+        params.put("error_page", errorPage.toString());
+        params.put("error_limit", errorLimit.toString());
+        return parseAsync(asyncHttpClient.getAsync("/insert/status/" + transId, params),
+                insertStatusParser, INSERT_STATUS_ERROR);
+    }
+
     private InsertStatus parseInsertStatus(String response, Map<String, String> headers) {
         try {
             JsonNode responseNode = objectMapper.readTree(response);
@@ -149,31 +247,43 @@ public class DataOperationsImpl extends BaseViSearchOperations implements DataOp
         try {
             Multimap<String, String> params = Multimaps.forMap(imageNameListToParams(imNameList));
             ViSearchHttpResponse httpResponse = viSearchHttpClient.post("/remove", params);
-            String response = httpResponse.getBody();
-            try {
-                JsonNode responseNode = objectMapper.readTree(response);
-                JsonNode statusNode = responseNode.get("status");
-                JsonNode totalNode = responseNode.get("total");
-                if (statusNode == null || totalNode == null) {
+            return parseRemoveStatus(httpResponse);
+        } catch (InternalViSearchException e) {
+            return new RemoveStatus(e.getMessage(), e.getCause(), e.getServerRawResponse());
+        }
+    }
+
+    @Override
+    public ListenableFuture<RemoveStatus> removeAsync(List<String> imNameList) {
+        Preconditions.checkNotNull(imNameList, "im_name list for remove must not be null.");
+
+        Multimap<String, String> params = Multimaps.forMap(imageNameListToParams(imNameList));
+        return parseAsync(asyncHttpClient.postAsync("/remove", params), removeStatusParser, REMOVE_STATUS_ERROR);
+    }
+
+    private RemoveStatus parseRemoveStatus(ViSearchHttpResponse httpResponse) {
+        String response = httpResponse.getBody();
+        try {
+            JsonNode responseNode = objectMapper.readTree(response);
+            JsonNode statusNode = responseNode.get("status");
+            JsonNode totalNode = responseNode.get("total");
+            if (statusNode == null || totalNode == null) {
+                throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, response);
+            } else if ("fail".equals(statusNode.asText())) {
+                JsonNode errorNode = responseNode.get("error");
+                if (errorNode == null || !errorNode.isArray() || errorNode.get(0) == null) {
                     throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, response);
-                } else if ("fail".equals(statusNode.asText())) {
-                    JsonNode errorNode = responseNode.get("error");
-                    if (errorNode == null || !errorNode.isArray() || errorNode.get(0) == null) {
-                        throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, response);
-                    }
-                    String message = errorNode.path(0).asText();
-                    throw new InternalViSearchException(message, response);
-                } else {
-                    int total = totalNode.asInt();
-                    return new RemoveStatus(total);
                 }
-            } catch (JsonProcessingException e) {
-                throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
-            } catch (IOException e) {
-                throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
+                String message = errorNode.path(0).asText();
+                throw new InternalViSearchException(message, response);
+            } else {
+                int total = totalNode.asInt();
+                return new RemoveStatus(total);
             }
-        } catch (InternalViSearchException e) {
-            return new RemoveStatus(e.getMessage(), e.getCause(), e.getServerRawResponse());
+        } catch (JsonProcessingException e) {
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
         }
     }
 
@@ -16,6 +16,11 @@ public class InternalViSearchException extends RuntimeException {
      */
     private String serverRawResponse;
 
+    /**
+     * Internal response message the exception was created with, if any
+     */
+    private ResponseMessages responseMessage;
+
     /**
      * Constructor
      *
@@ -45,6 +50,7 @@ public class InternalViSearchException extends RuntimeException {
      */
     public InternalViSearchException(ResponseMessages responseMessages) {
         super(responseMessages.getMessage());
+        this.responseMessage = responseMessages;
     }
 
     /**
@@ -60,6 +66,7 @@ public class InternalViSearchException extends RuntimeException {
                                      Throwable cause)
     {
         super(responseMessages.getMessage(), cause);
+        this.responseMessage = responseMessages;
     }
 
     /**
@@ -76,6 +83,7 @@ public class InternalViSearchException extends RuntimeException {
     {
         super(responseMessages.getMessage());
         this.serverRawResponse = serverRawResponse;
+        this.responseMessage = responseMessages;
     }
 
     /**
@@ -94,6 +102,7 @@ public class InternalViSearchException extends RuntimeException {
     {
         super(responseMessages.getMessage(), cause);
         this.serverRawResponse = serverRawResponse;
+        this.responseMessage = responseMessages;
     }
 
     /**
@@ -104,4 +113,14 @@ public class InternalViSearchException extends RuntimeException {
     public String getServerRawResponse() {
         return serverRawResponse;
     }
+
+    /**
+     * Get the internal response message, e.g. to tell network errors apart
+     *
+     * @return response message, null if the exception was created with a
+     *         plain message
+     */
+    public ResponseMessages getResponseMessage() {
+        return responseMessage;
+    }
 }
@@ -0,0 +1,302 @@
+package com.visenze.visearch.internal;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.visenze.visearch.*;
+import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link PagedSearchResult} in a single pass over a search response.
+ * Typed parts are bound straight from the parser with readers created once,
+ * instead of parsing the response into a tree and parsing every part again
+ * from its string form.
+ */
+final class PagedSearchResultReader {
+
+    private enum Field {
+        STATUS, ERROR, METHOD, RESULT, OBJECTS, GROUP_RESULTS, PAGE, LIMIT, TOTAL, GROUP_LIMIT, GROUP_BY_KEY,
+        ALGORITHM, FALLBACK_ALGORITHM, PRODUCT_TYPES, PRODUCT_TYPES_LIST, OBJECT_TYPES_LIST, IM_ID, REQID, FACETS,
+        QINFO, Q_VS_META_INFO, Q_BEST_IMAGES, EXCLUDED_IM_NAMES, HIDDEN_CATEGORIES, PIN_CATEGORY_PID_MAP, SET_INFO,
+        GROUP_RESULT
+    }
+
+    private static final Map<String, Field> FIELDS = Maps.newHashMap();
+
+    static {
+        FIELDS.put(ViSearchHttpConstants.STATUS, Field.STATUS);
+        FIELDS.put(ViSearchHttpConstants.ERROR, Field.ERROR);
+        FIELDS.put(ViSearchHttpConstants.METHOD, Field.METHOD);
+        FIELDS.put(ViSearchHttpConstants.RESULT, Field.RESULT);
+        FIELDS.put(ViSearchHttpConstants.OBJECTS, Field.OBJECTS);
+        FIELDS.put(ViSearchHttpConstants.GROUP_RESULTS, Field.GROUP_RESULTS);
+        FIELDS.put(ViSearchHttpConstants.PAGE, Field.PAGE);
+        FIELDS.put(ViSearchHttpConstants.LIMIT, Field.LIMIT);
+        FIELDS.put(ViSearchHttpConstants.TOTAL, Field.TOTAL);
+        FIELDS.put(ViSearchHttpConstants.GROUP_LIMIT, Field.GROUP_LIMIT);
+        FIELDS.put(ViSearchHttpConstants.GROUP_BY_KEY, Field.GROUP_BY_KEY);
+        FIELDS.put(ViSearchHttpConstants.ALGORITHM, Field.ALGORITHM);
+        FIELDS.put(ViSearchHttpConstants.FALLBACK_ALGORITHM, Field.FALLBACK_ALGORITHM);
+        FIELDS.put(ViSearchHttpConstants.PRODUCT_TYPES, Field.PRODUCT_TYPES);
+        FIELDS.put(ViSearchHttpConstants.PRODUCT_TYPES_LIST, Field.PRODUCT_TYPES_LIST);
+        FIELDS.put(ViSearchHttpConstants.OBJECT_TYPES_LIST, Field.OBJECT_TYPES_LIST);
+        FIELDS.put(ViSearchHttpConstants.IM_ID, Field.IM_ID);
+        FIELDS.put(ViSearchHttpConstants.REQID, Field.REQID);
+        FIELDS.put(ViSearchHttpConstants.FACETS, Field.FACETS);
+        FIELDS.put(ViSearchHttpConstants.QINFO, Field.QINFO);
+        FIELDS.put(ViSearchHttpConstants.Q_VS_META_INFO, Field.Q_VS_META_INFO);
+        FIELDS.put(ViSearchHttpConstants.Q_BEST_IMAGES, Field.Q_BEST_IMAGES);
+        FIELDS.put(ViSearchHttpConstants.EXCLUDED_IM_NAMES, Field.EXCLUDED_IM_NAMES);
+        FIELDS.put(ViSearchHttpConstants.HIDDEN_CATEGORIES, Field.HIDDEN_CATEGORIES);
+        FIELDS.put(ViSearchHttpConstants.PIN_CATEGORY_PID_MAP, Field.PIN_CATEGORY_PID_MAP);
+        FIELDS.put(ViSearchHttpConstants.SET_INFO, Field.SET_INFO);
+        FIELDS.put(ViSearchHttpConstants.GROUP_RESULT, Field.GROUP_RESULT);
+    }
+
+    private final ObjectReader nodeReader;
+    private final ObjectReader imageResultsReader;
+    private final ObjectReader objectsReader;
+    private final ObjectReader groupResultsReader;
+    private final ObjectReader productTypesReader;
+    private final ObjectReader facetsReader;
+    private final ObjectReader stringMapReader;
+    private final ObjectReader bestImagesReader;
+    private final ObjectReader stringsReader;
+    private final ObjectReader setInfoReader;
+    private final ObjectReader groupResultReader;
+
+    PagedSearchResultReader(ObjectMapper objectMapper) {
+        TypeFactory typeFactory = objectMapper.getTypeFactory();
+        JavaType imageResults = typeFactory.constructCollectionType(List.class, ImageResult.class);
+        nodeReader = objectMapper.readerFor(JsonNode.class);
+        imageResultsReader = objectMapper.readerFor(imageResults);
+        objectsReader = objectMapper.readerFor(typeFactory.constructCollectionType(List.class, ObjectSearchResult.class));
+        groupResultsReader = objectMapper.readerFor(typeFactory.constructCollectionType(List.class, GroupSearchResult.class));
+        productTypesReader = objectMapper.readerFor(typeFactory.constructCollectionType(List.class, ProductType.class));
+        facetsReader = objectMapper.readerFor(typeFactory.constructCollectionType(List.class, Facet.class));
+        stringMapReader = objectMapper.readerFor(typeFactory.constructMapType(HashMap.class, String.class, String.class));
+        bestImagesReader = objectMapper.readerFor(typeFactory.constructCollectionType(List.class, BestImage.class));
+        stringsReader = objectMapper.readerFor(typeFactory.constructCollectionType(List.class, String.class));
+        setInfoReader = objectMapper.readerFor(typeFactory.constructCollectionType(List.class, SetInfo.class));
+        groupResultReader = objectMapper.readerFor(typeFactory.constructCollectionType(List.class, imageResults));
+    }
+
+    /**
+     * Read a search response.
+     *
+     * @param parser      parser positioned before the response
+     * @param rawResponse raw response for error reports, only called on errors
+     * @return the result
+     * @throws IOException when the response is not valid json or a part does
+     *                     not match its type
+     * @throws InternalViSearchException when the response is an error or
+     *                                   misses required fields
+     */
+    PagedSearchResult read(JsonParser parser, Supplier<String> rawResponse) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, rawResponse.get());
+        }
+
+        JsonNode status = null;
+        JsonNode error = null;
+        boolean hasMethod = false;
+        boolean hasResult = false;
+        List<ImageResult> result = null;
+        List<ObjectSearchResult> objects = null;
+        List<GroupSearchResult> groupResults = null;
+        JsonNode page = null;
+        JsonNode limit = null;
+        JsonNode total = null;
+        JsonNode groupLimit = null;
+        JsonNode groupByKey = null;
+        JsonNode algorithm = null;
+        JsonNode fallbackAlgorithm = null;
+        List<ProductType> productTypes = null;
+        List<ProductType> productTypesList = null;
+        List<ProductType> objectTypesList = null;
+        JsonNode imId = null;
+        JsonNode reqId = null;
+        List<Facet> facets = null;
+        Map<String, String> queryInfo = null;
+        Map<String, String> sysQueryInfo = null;
+        List<BestImage> queryBestImages = null;
+        List<String> excludedImNames = null;
+        List<String> hiddenCategories = null;
+        Map<String, String> pinCategoryPidMap = null;
+        List<SetInfo> setInfoList = null;
+        List<List<ImageResult>> groupResult = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Field field = FIELDS.get(parser.getCurrentName());
+            JsonToken token = parser.nextToken();
+            if (field == null) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case STATUS:
+                    status = nodeReader.readTree(parser);
+                    break;
+                case ERROR:
+                    error = nodeReader.readTree(parser);
+                    break;
+                case METHOD:
+                    hasMethod = true;
+                    parser.skipChildren();
+                    break;
+                case RESULT:
+                    hasResult = true;
+                    result = imageResultsReader.readValue(parser);
+                    break;
+                case OBJECTS:
+                    objects = objectsReader.readValue(parser);
+                    break;
+                case GROUP_RESULTS:
+                    groupResults = groupResultsReader.readValue(parser);
+                    break;
+                case PAGE:
+                    page = nodeReader.readTree(parser);
+                    break;
+                case LIMIT:
+                    limit = nodeReader.readTree(parser);
+                    break;
+                case TOTAL:
+                    total = nodeReader.readTree(parser);
+                    break;
+                case GROUP_LIMIT:
+                    groupLimit = nodeReader.readTree(parser);
+                    break;
+                case GROUP_BY_KEY:
+                    groupByKey = nodeReader.readTree(parser);
+                    break;
+                case ALGORITHM:
+                    algorithm = nodeReader.readTree(parser);
+                    break;
+                case FALLBACK_ALGORITHM:
+                    fallbackAlgorithm = nodeReader.readTree(parser);
+                    break;
+                case PRODUCT_TYPES:
+                    productTypes = productTypesReader.readValue(parser);
+                    break;
+                case PRODUCT_TYPES_LIST:
+                    productTypesList = productTypesReader.readValue(parser);
+                    break;
+                case OBJECT_TYPES_LIST:
+                    objectTypesList = productTypesReader.readValue(parser);
+                    break;
+                case IM_ID:
+                    imId = nodeReader.readTree(parser);
+                    break;
+                case REQID:
+                    reqId = nodeReader.readTree(parser);
+                    break;
+                case FACETS:
+                    facets = facetsReader.readValue(parser);
+                    break;
+                case QINFO:
+                    queryInfo = stringMapReader.readValue(parser);
+                    break;
+                case Q_VS_META_INFO:
+                    sysQueryInfo = stringMapReader.readValue(parser);
+                    break;
+                case Q_BEST_IMAGES:
+                    queryBestImages = bestImagesReader.readValue(parser);
+                    break;
+                case EXCLUDED_IM_NAMES:
+                    excludedImNames = stringsReader.readValue(parser);
+                    break;
+                case HIDDEN_CATEGORIES:
+                    hiddenCategories = stringsReader.readValue(parser);
+                    break;
+                case PIN_CATEGORY_PID_MAP:
+                    pinCategoryPidMap = stringMapReader.readValue(parser);
+                    break;
+                case SET_INFO:
+                    setInfoList = setInfoReader.readValue(parser);
+                    break;
+                case GROUP_RESULT:
+                    // only an array of groups is converted, any other value is ignored
+                    if (token == JsonToken.START_ARRAY) {
+                        groupResult = groupResultReader.readValue(parser);
+                    } else {
+                        groupResult = null;
+                        parser.skipChildren();
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        if (status == null) {
+            throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, rawResponse.get());
+        }
+        if (!ViSearchHttpConstants.OK.equals(status.asText())) {
+            if (error == null) {
+                throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, rawResponse.get());
+            }
+            throw new InternalViSearchException(error.path(0).asText(), rawResponse.get());
+        }
+        if (!hasMethod) {
+            throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, rawResponse.get());
+        }
+
+        PagedSearchResult pagedResult = new PagedSearchResult(hasResult ? result : new ArrayList<ImageResult>());
+        if (page != null) pagedResult.setPage(page.asInt());
+        if (limit != null) pagedResult.setLimit(limit.asInt());
+        if (total != null) pagedResult.setTotal(total.asInt());
+        if (groupLimit != null) pagedResult.setGroupLimit(groupLimit.asInt());
+        if (groupByKey != null) pagedResult.setGroupByKey(groupByKey.asText());
+        if (algorithm != null) pagedResult.setAlgorithm(algorithm.asText());
+        if (fallbackAlgorithm != null) pagedResult.setFallbackAlgorithm(fallbackAlgorithm.asText());
+        pagedResult.setObjects(objects);
+        pagedResult.setGroupSearchResults(groupResults);
+
+        pagedResult.setProductTypes(productTypes);
+        pagedResult.setProductTypesList(productTypesList);
+        pagedResult.setObjectTypesList(objectTypesList);
+        if (imId != null) pagedResult.setImId(imId.asText());
+        if (reqId != null) pagedResult.setReqId(reqId.asText());
+        pagedResult.setFacets(facets);
+        pagedResult.setQueryInfo(queryInfo);
+        pagedResult.setSysQueryInfo(sysQueryInfo);
+        pagedResult.setQueryBestImages(queryBestImages);
+        pagedResult.setExcludedImNames(excludedImNames);
+        pagedResult.setHiddenCategories(hiddenCategories);
+        pagedResult.setPinCategoryPidMap(pinCategoryPidMap);
+        pagedResult.setSetInfoList(setInfoList);
+
+        // For similarproducts search, try to convert its result into discoversearch result.
+        if (groupResult != null) {
+            List<ProductType> groupProductTypes = pagedResult.getProductTypes();
+            List<ObjectSearchResult> groupObjects = Lists.newArrayList();
+            for (int i = 0; i < groupResult.size(); i++) {
+                ProductType productType = groupProductTypes.get(i);
+                ObjectSearchResult objectSearchResult = new ObjectSearchResult();
+                objectSearchResult.setResult(groupResult.get(i));
+                objectSearchResult.setScore(productType.getScore());
+                objectSearchResult.setAttributes(productType.getAttributes());
+                objectSearchResult.setAttributesList(productType.getAttributesList());
+                objectSearchResult.setBox(productType.getBox());
+                objectSearchResult.setType(productType.getType());
+                groupObjects.add(objectSearchResult);
+            }
+            pagedResult.setObjects(groupObjects);
+            pagedResult.setObjectTypesList(pagedResult.getProductTypesList());
+        }
+        return pagedResult;
+    }
+}
@@ -1,5 +1,6 @@
 package com.visenze.visearch.internal;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.visenze.visearch.*;
 
 public interface SearchOperations {
@@ -27,4 +28,24 @@ public interface SearchOperations {
 
     @Deprecated
     PagedSearchResult similarProductsSearch(UploadSearchParams similarProductsSearchParams);
+
+    ListenableFuture<PagedSearchResult> searchAsync(SearchParams searchParams);
+
+    ListenableFuture<PagedSearchResult> recommendationAsync(RecommendSearchParams searchParams);
+
+    ListenableFuture<PagedSearchResult> browseLinkedGalleryImagesAsync(BrowseLinkedGalleryParams params);
+
+    ListenableFuture<PagedSearchResult> colorSearchAsync(ColorSearchParams colorSearchParams);
+
+    ListenableFuture<PagedSearchResult> uploadSearchAsync(UploadSearchParams uploadSearchParams);
+
+    ListenableFuture<PagedSearchResult> multiSearchAsync(UploadSearchParams uploadSearchParams);
+
+    ListenableFuture<AutoCompleteResult> multiSearchAutoCompleteAsync(UploadSearchParams uploadSearchParams);
+
+    ListenableFuture<PagedSearchResult> discoverSearchAsync(UploadSearchParams discoverSearchParams);
+
+    ListenableFuture<FeatureResponseResult> extractFeatureAsync(UploadSearchParams uploadSearchParams);
+
+    ListenableFuture<PagedSearchResult> matchSearchAsync(MatchSearchParams searchParams);
 }
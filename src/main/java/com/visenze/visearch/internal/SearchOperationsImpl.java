@@ -1,24 +1,30 @@
 package com.visenze.visearch.internal;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.visenze.visearch.*;
 import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+import com.visenze.visearch.internal.http.ViSearchAsyncHttpClient;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
 import com.visenze.visearch.internal.http.ViSearchHttpResponse;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class SearchOperationsImpl extends BaseViSearchOperations implements SearchOperations {
 
@@ -35,8 +41,71 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
     private static final String ENDPOINT_EXTRACT_FEATURE= "/extractfeature";
     private static final String ENDPOINT_MATCH= "/match";
 
+    private static final Function<InternalViSearchException, PagedSearchResult> PAGED_RESULT_ERROR =
+            new Function<InternalViSearchException, PagedSearchResult>() {
+                @Override
+                public PagedSearchResult apply(InternalViSearchException e) {
+                    return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
+                }
+            };
+
+    private static final Function<InternalViSearchException, AutoCompleteResult> AUTO_COMPLETE_RESULT_ERROR =
+            new Function<InternalViSearchException, AutoCompleteResult>() {
+                @Override
+                public AutoCompleteResult apply(InternalViSearchException e) {
+                    return new AutoCompleteResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
+                }
+            };
+
+    private static final Function<InternalViSearchException, FeatureResponseResult> FEATURE_RESULT_ERROR =
+            new Function<InternalViSearchException, FeatureResponseResult>() {
+                @Override
+                public FeatureResponseResult apply(InternalViSearchException e) {
+                    return new FeatureResponseResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
+                }
+            };
+
+    private final Function<ViSearchHttpResponse, PagedSearchResult> pagedResultParser =
+            new Function<ViSearchHttpResponse, PagedSearchResult>() {
+                @Override
+                public PagedSearchResult apply(ViSearchHttpResponse response) {
+                    return getPagedResult(response);
+                }
+            };
+
+    private final Function<ViSearchHttpResponse, AutoCompleteResult> autoCompleteResultParser =
+            new Function<ViSearchHttpResponse, AutoCompleteResult>() {
+                @Override
+                public AutoCompleteResult apply(ViSearchHttpResponse response) {
+                    return getAutoCompleteResult(response);
+                }
+            };
+
+    private final Function<ViSearchHttpResponse, FeatureResponseResult> featureResultParser =
+            new Function<ViSearchHttpResponse, FeatureResponseResult>() {
+                @Override
+                public FeatureResponseResult apply(ViSearchHttpResponse response) {
+                    return getFeatureResponseResult(response);
+                }
+            };
+
+    private final RawJsonMode rawJsonMode;
+
+    private final PagedSearchResultReader pagedSearchResultReader;
+
     public SearchOperationsImpl(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper) {
-        super(viSearchHttpClient, objectMapper);
+        this(viSearchHttpClient, objectMapper, AsyncExecutors.sharedExecutor());
+    }
+
+    public SearchOperationsImpl(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper, Executor asyncExecutor) {
+        this(viSearchHttpClient, objectMapper, asyncExecutor, RawJsonMode.STRING);
+    }
+
+    public SearchOperationsImpl(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper, Executor asyncExecutor,
+                                RawJsonMode rawJsonMode) {
+        super(viSearchHttpClient, objectMapper, asyncExecutor);
+        this.rawJsonMode = rawJsonMode;
+        this.pagedSearchResultReader = new PagedSearchResultReader(objectMapper);
     }
 
     @Override
@@ -161,6 +230,66 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
         }
     }
 
+    @Override
+    public ListenableFuture<PagedSearchResult> searchAsync(SearchParams searchParams) {
+        return parseAsync(asyncHttpClient.getAsync(ENDPOINT_SEARCH, searchParams.toMap()),
+                pagedResultParser, PAGED_RESULT_ERROR);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> browseLinkedGalleryImagesAsync(BrowseLinkedGalleryParams params) {
+        return parseAsync(asyncHttpClient.getAsync(ENDPOINT_BROWSE_LINKED_GALLERY, params.toMap()),
+                pagedResultParser, PAGED_RESULT_ERROR);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> recommendationAsync(RecommendSearchParams recommendSearchParams) {
+        return parseAsync(asyncHttpClient.postAsync(ENDPOINT_RECOMMENDATION, recommendSearchParams.toMap()),
+                pagedResultParser, PAGED_RESULT_ERROR);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> colorSearchAsync(ColorSearchParams colorSearchParams) {
+        return parseAsync(asyncHttpClient.getAsync(ENDPOINT_COLOR_SEARCH, colorSearchParams.toMap()),
+                pagedResultParser, PAGED_RESULT_ERROR);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> uploadSearchAsync(UploadSearchParams uploadSearchParams) {
+        return parseAsync(postImageSearchHttpResponseAsync(uploadSearchParams, ENDPOINT_UPLOAD_SEARCH),
+                pagedResultParser, PAGED_RESULT_ERROR);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> multiSearchAsync(UploadSearchParams uploadSearchParams) {
+        return parseAsync(postImageSearchHttpResponseAsync(uploadSearchParams, ENDPOINT_MULTI_SEARCH),
+                pagedResultParser, PAGED_RESULT_ERROR);
+    }
+
+    @Override
+    public ListenableFuture<AutoCompleteResult> multiSearchAutoCompleteAsync(UploadSearchParams uploadSearchParams) {
+        return parseAsync(postImageSearchHttpResponseAsync(uploadSearchParams, ENDPOINT_MULTI_SEARCH_AUTOCOMPLETE),
+                autoCompleteResultParser, AUTO_COMPLETE_RESULT_ERROR);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> discoverSearchAsync(UploadSearchParams uploadSearchParams) {
+        return parseAsync(postImageSearchHttpResponseAsync(uploadSearchParams, ENDPOINT_DISCOVER_SEARCH),
+                pagedResultParser, PAGED_RESULT_ERROR);
+    }
+
+    @Override
+    public ListenableFuture<FeatureResponseResult> extractFeatureAsync(UploadSearchParams uploadSearchParams) {
+        return parseAsync(postImageSearchHttpResponseAsync(uploadSearchParams, ENDPOINT_EXTRACT_FEATURE),
+                featureResultParser, FEATURE_RESULT_ERROR);
+    }
+
+    @Override
+    public ListenableFuture<PagedSearchResult> matchSearchAsync(MatchSearchParams matchSearchParams) {
+        return parseAsync(asyncHttpClient.getAsync(ENDPOINT_MATCH, matchSearchParams.toMap()),
+                pagedResultParser, PAGED_RESULT_ERROR);
+    }
+
     /**
      * Perform upload search by image
      * @param uploadSearchParams
@@ -177,6 +306,20 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
     }
 
     private ViSearchHttpResponse getPostImageSearchHttpResponse(UploadSearchParams uploadSearchParams, String endpointMethod) {
+        return getDone(postImageSearchHttpResponse(callingThreadClient(), uploadSearchParams, endpointMethod));
+    }
+
+    private ListenableFuture<ViSearchHttpResponse> postImageSearchHttpResponseAsync(UploadSearchParams uploadSearchParams, String endpointMethod) {
+        try {
+            return postImageSearchHttpResponse(asyncHttpClient, uploadSearchParams, endpointMethod);
+        } catch (InternalViSearchException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    private static ListenableFuture<ViSearchHttpResponse> postImageSearchHttpResponse(ViSearchAsyncHttpClient httpClient,
+                                                                                      UploadSearchParams uploadSearchParams,
+                                                                                      String endpointMethod) {
         File imageFile = uploadSearchParams.getImageFile();
         InputStream imageStream = uploadSearchParams.getImageStream();
         String imageUrl = uploadSearchParams.getImageUrl();
@@ -185,11 +328,11 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
 
         // if im_id is available no need to check for image
         if(!Strings.isNullOrEmpty(uploadSearchParams.getImFeature())){
-            return viSearchHttpClient.postImFeature(endpointMethod, uploadSearchParams.toMap(), uploadSearchParams.getImFeature() , uploadSearchParams.getTransId() );
+            return httpClient.postImFeatureAsync(endpointMethod, uploadSearchParams.toMap(), uploadSearchParams.getImFeature() , uploadSearchParams.getTransId() );
         }
 
         if (!Strings.isNullOrEmpty(uploadSearchParams.getImId())){
-            return viSearchHttpClient.post(endpointMethod, uploadSearchParams.toMap());
+            return httpClient.postAsync(endpointMethod, uploadSearchParams.toMap());
         }
 
         boolean isImageMissing = imageFile == null && imageStream == null && Strings.isNullOrEmpty(imageUrl);
@@ -199,34 +342,61 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
         }
 
         if (imageFile != null) {
-            try {
-                return viSearchHttpClient.postImage(endpointMethod, uploadSearchParams.toMap(), new FileInputStream(imageFile), imageFile.getName());
-            } catch (FileNotFoundException e) {
-                throw new InternalViSearchException(ResponseMessages.INVALID_IMAGE_OR_URL, e);
-                // throw new IllegalArgumentException("Could not open the image file.", e);
+            // the file is read again by every attempt rather than buffered
+            if (!imageFile.isFile() || !imageFile.canRead()) {
+                throw new InternalViSearchException(ResponseMessages.INVALID_IMAGE_OR_URL,
+                        new FileNotFoundException(imageFile.getPath()));
             }
+            return httpClient.postImageAsync(endpointMethod, uploadSearchParams.toMap(), imageFile);
         }
 
         if (imageStream != null) {
-            return viSearchHttpClient.postImage(endpointMethod, uploadSearchParams.toMap(), imageStream, ViSearchHttpConstants.IMAGE_STREAM);
+            return httpClient.postImageAsync(endpointMethod, uploadSearchParams.toMap(), imageStream, ViSearchHttpConstants.IMAGE_STREAM);
+        }
+
+        return httpClient.postAsync(endpointMethod, uploadSearchParams.toMap());
+    }
+
+    /**
+     * Keep the raw json of a response as configured by the raw json mode.
+     */
+    private Supplier<String> rawJson(final JsonNode node) {
+        switch (rawJsonMode) {
+            case NONE:
+                return null;
+            case LAZY:
+                return new Supplier<String>() {
+                    @Override
+                    public String get() {
+                        return node.toString();
+                    }
+                };
+            case BYTES:
+                final byte[] bytes;
+                try {
+                    bytes = objectMapper.writeValueAsBytes(node);
+                } catch (JsonProcessingException e) {
+                    return Suppliers.ofInstance(node.toString());
+                }
+                return utf8Supplier(bytes);
+            default:
+                return Suppliers.ofInstance(node.toString());
         }
+    }
 
-        return viSearchHttpClient.post(endpointMethod, uploadSearchParams.toMap());
+    private static Supplier<String> utf8Supplier(final byte[] bytes) {
+        return new Supplier<String>() {
+            @Override
+            public String get() {
+                return new String(bytes, Charsets.UTF_8);
+            }
+        };
     }
 
     private FeatureResponseResult getFeatureResponseResult(ViSearchHttpResponse httpResponse){
-        String response = httpResponse.getBody();
         Map<String, String> headers = httpResponse.getHeaders();
-        JsonNode node;
-        try {
-            node = objectMapper.readTree(response);
-        } catch (JsonProcessingException e) {
-            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
-            // throw new ViSearchException("Could not parse the ViSearch response: " + response, e, response);
-        } catch (IOException e) {
-            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
-            // throw new ViSearchException("Could not parse the ViSearch response: " + response, e, response);
-        }
+        JsonNode node = readTree(httpResponse);
+        String response = httpResponse.getBody();
         checkResponseStatus(node);
 
         FeatureResponseResult result = deserializeFeatureResponseResult(response, node);
@@ -238,23 +408,15 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
         if (reqidNode != null) {
             result.setReqId(reqidNode.asText());
         }
-        result.setRawJson(node.toString());
+        result.setRawJsonSupplier(rawJson(node));
         result.setHeaders(headers);
         return result;
     }
 
     private AutoCompleteResult getAutoCompleteResult(ViSearchHttpResponse httpResponse) {
-        String rawResponse = httpResponse.getBody();
         Map<String, String> headers = httpResponse.getHeaders();
-        JsonNode node;
-
-        try {
-            node = objectMapper.readTree(rawResponse);
-        } catch (JsonProcessingException e) {
-            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, rawResponse);
-        } catch (IOException e) {
-            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, rawResponse);
-        }
+        JsonNode node = readTree(httpResponse);
+        String rawResponse = httpResponse.getBody();
         checkResponseStatus(node);
 
         List<AutoCompleteResultItem> result = new ArrayList<AutoCompleteResultItem>();
@@ -286,134 +448,75 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
             autoCompleteResult.setReqId(reqidNode.asText());
         }
 
-        autoCompleteResult.setRawJson(node.toString());
+        autoCompleteResult.setRawJsonSupplier(rawJson(node));
         autoCompleteResult.setHeaders(headers);
         return autoCompleteResult;
     }
 
     private PagedSearchResult getPagedResult(ViSearchHttpResponse httpResponse) {
-        String response = httpResponse.getBody();
         Map<String, String> headers = httpResponse.getHeaders();
-        JsonNode node;
+        PagedSearchResult result;
+        Supplier<String> rawJson;
+        switch (rawJsonMode) {
+            case NONE:
+                InputStream content = httpResponse.getContent();
+                if (content == null) {
+                    String body = httpResponse.getBody();
+                    result = readPagedResult(httpResponse, createParser(body), Suppliers.ofInstance(body));
+                } else {
+                    try {
+                        result = readPagedResult(httpResponse, createParser(httpResponse, content), Suppliers.<String>ofInstance(null));
+                    } finally {
+                        httpResponse.close();
+                    }
+                }
+                rawJson = null;
+                break;
+            case LAZY:
+                JsonNode node = readTree(httpResponse);
+                rawJson = rawJson(node);
+                result = readPagedResult(httpResponse, objectMapper.treeAsTokens(node), rawJson);
+                break;
+            default:
+                try {
+                    final byte[] body = readBytes(httpResponse);
+                    rawJson = rawJsonMode == RawJsonMode.BYTES
+                            ? utf8Supplier(body)
+                            : Suppliers.ofInstance(new String(body, Charsets.UTF_8));
+                    result = readPagedResult(httpResponse, createParser(body), rawJson);
+                } finally {
+                    // gives the buffered bytes back to the memory budget
+                    httpResponse.close();
+                }
+        }
+        result.setRawJsonSupplier(rawJson);
+        result.setHeaders(headers);
+        return result;
+    }
+
+    private PagedSearchResult readPagedResult(ViSearchHttpResponse httpResponse, JsonParser parser,
+                                              Supplier<String> rawResponse) {
         try {
-            node = objectMapper.readTree(response);
-        } catch (JsonProcessingException e) {
-            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
-            // throw new ViSearchException("Could not parse the ViSearch response: " + response, e, response);
+            return pagedSearchResultReader.read(parser, rawResponse);
         } catch (IOException e) {
-            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
+            httpResponse.checkSize(e);
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, rawResponse.get());
             // throw new ViSearchException("Could not parse the ViSearch response: " + response, e, response);
+        } finally {
+            closeQuietly(parser);
         }
-        checkResponseStatus(node);
-
-        PagedSearchResult result = pagify(response, node);
-
-        JsonNode productTypesNode = node.get(ViSearchHttpConstants.PRODUCT_TYPES);
-        if (productTypesNode != null) {
-            List<ProductType> productTypes = deserializeListResult(response, productTypesNode, ProductType.class);
-            result.setProductTypes(productTypes);
-        }
-        JsonNode productTypesListNode = node.get(ViSearchHttpConstants.PRODUCT_TYPES_LIST);
-        if (productTypesListNode != null) {
-            List<ProductType> productTypesList = deserializeListResult(response, productTypesListNode, ProductType.class);
-            result.setProductTypesList(productTypesList);
-        }
-        JsonNode objectTypesListNode = node.get(ViSearchHttpConstants.OBJECT_TYPES_LIST);
-        if (objectTypesListNode != null) {
-            List<ProductType> objectTypesList = deserializeListResult(response, objectTypesListNode, ProductType.class);
-            result.setObjectTypesList(objectTypesList);
-        }
-        JsonNode imIdNode = node.get(ViSearchHttpConstants.IM_ID);
-        if (imIdNode != null) {
-            result.setImId(imIdNode.asText());
-        }
-        JsonNode reqidNode = node.get(ViSearchHttpConstants.REQID);
-        if (reqidNode != null) {
-            result.setReqId(reqidNode.asText());
-        }
-        JsonNode facetsNode = node.get(ViSearchHttpConstants.FACETS);
-        if (facetsNode != null) {
-            List<Facet> facets = deserializeListResult(response, facetsNode, Facet.class);
-            result.setFacets(facets);
-        }
-        JsonNode qinfoNode = node.get(ViSearchHttpConstants.QINFO);
-        if (qinfoNode != null) {
-            Map<String, String> qinfo = deserializeMapResult(response, qinfoNode, String.class, String.class);
-            result.setQueryInfo(qinfo);
-        }
-
-        JsonNode sysInfoNode = node.get(ViSearchHttpConstants.Q_VS_META_INFO);
-        if (sysInfoNode != null) {
-            Map<String, String> sysInfo = deserializeMapResult(response, sysInfoNode, String.class, String.class);
-            result.setSysQueryInfo(sysInfo);
-        }
-
-        JsonNode queryBestImagesNode = node.get(ViSearchHttpConstants.Q_BEST_IMAGES);
-        if (queryBestImagesNode != null) {
-            List<BestImage> bestImageList = deserializeListResult(response, queryBestImagesNode, BestImage.class);
-            result.setQueryBestImages(bestImageList);
-        }
-
-        JsonNode excludedImNamesNode = node.get(ViSearchHttpConstants.EXCLUDED_IM_NAMES);
-        if (excludedImNamesNode != null) {
-            List<String> excludedImNames = deserializeListResult(response, excludedImNamesNode, String.class);
-            result.setExcludedImNames(excludedImNames);
-        }
-
-        JsonNode hiddenCategoriesNode = node.get(ViSearchHttpConstants.HIDDEN_CATEGORIES);
-        if (hiddenCategoriesNode != null) {
-            List<String> hiddenCategories = deserializeListResult(response, hiddenCategoriesNode, String.class);
-            result.setHiddenCategories(hiddenCategories);
-        }
-
-        JsonNode pinCategoryPidMapNode = node.get(ViSearchHttpConstants.PIN_CATEGORY_PID_MAP);
-        if (pinCategoryPidMapNode != null) {
-            Map<String, String> pinCategoryPidMap = deserializeMapResult(response, pinCategoryPidMapNode, String.class, String.class);
-            result.setPinCategoryPidMap(pinCategoryPidMap);
-        }
-
-        JsonNode setInfoListNode = node.get(ViSearchHttpConstants.SET_INFO);
-        if (setInfoListNode != null) {
-            List<SetInfo> setInfoList = deserializeListResult(response, setInfoListNode, SetInfo.class);
-            result.setSetInfoList(setInfoList);
-        }
-
-        // For similarproducts search, try to convert its result into discoversearch result.
-        JsonNode groupResult = node.get(ViSearchHttpConstants.GROUP_RESULT);
-        if (groupResult != null && groupResult instanceof ArrayNode) {
-            List<ProductType> productTypes = result.getProductTypes();
-            List<ObjectSearchResult> objects = Lists.newArrayList();
-            ArrayNode arrayNode = (ArrayNode) groupResult;
-            for (int i = 0; i < arrayNode.size(); i++) {
-                JsonNode oneGroup = arrayNode.get(i);
-                ProductType productType = productTypes.get(i);
-                ObjectSearchResult objectSearchResult = new ObjectSearchResult();
-                objectSearchResult.setResult(deserializeListResult(response, oneGroup, ImageResult.class));
-                objectSearchResult.setScore(productType.getScore());
-                objectSearchResult.setAttributes(productType.getAttributes());
-                objectSearchResult.setAttributesList(productType.getAttributesList());
-                objectSearchResult.setBox(productType.getBox());
-                objectSearchResult.setType(productType.getType());
-                objects.add(objectSearchResult);
-            }
-            result.setObjects(objects);
-            result.setObjectTypesList(result.getProductTypesList());
-        }
-
-        result.setRawJson(node.toString());
-        result.setHeaders(headers);
-        return result;
     }
 
     private static void checkResponseStatus(JsonNode node) {
-        String json = node.toString();
         JsonNode statusNode = node.get(ViSearchHttpConstants.STATUS);
         if (statusNode == null) {
+            String json = node.toString();
             throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, json);
             // throw new ViSearchException("There was a malformed ViSearch response: " + json, json);
         } else {
             String status = statusNode.asText();
             if (!ViSearchHttpConstants.OK.equals(status)) {
+                String json = node.toString();
                 JsonNode errorNode = node.get(ViSearchHttpConstants.ERROR);
                 if (errorNode == null) {
                     throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, json);
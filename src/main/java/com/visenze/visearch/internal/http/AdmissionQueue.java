@@ -0,0 +1,220 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.visenze.visearch.QueueTimeStats;
+import com.visenze.visearch.RequestPriority;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admission of the requests of a client, see
+ * {@link com.visenze.visearch.AdmissionPolicy}. Waiting requests are
+ * admitted by priority, and within a priority one tenant at a time: a
+ * tenant whose request was admitted goes to the back of the line.
+ */
+final class AdmissionQueue {
+
+    /**
+     * Slot of an admitted request, released once the request completes
+     */
+    final class Permit {
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                synchronized (AdmissionQueue.this) {
+                    inFlight--;
+                }
+                dispatch();
+            }
+        }
+    }
+
+    private static final class Waiter {
+
+        final RequestPriority priority;
+
+        final String tenant;
+
+        final long enqueuedAt;
+
+        final SettableFuture<Permit> future = SettableFuture.create();
+
+        Waiter(RequestPriority priority, String tenant, long enqueuedAt) {
+            this.priority = priority;
+            this.tenant = tenant;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private static final class Stats {
+
+        long requests;
+
+        int queued;
+
+        long totalNanos;
+
+        long maxNanos;
+    }
+
+    private final int maxInFlight;
+
+    private final Ticker ticker;
+
+    private final Map<RequestPriority, LinkedHashMap<String, Deque<Waiter>>> queues =
+            new EnumMap<RequestPriority, LinkedHashMap<String, Deque<Waiter>>>(RequestPriority.class);
+
+    private final Map<RequestPriority, Stats> stats = new EnumMap<RequestPriority, Stats>(RequestPriority.class);
+
+    private int inFlight;
+
+    AdmissionQueue(int maxInFlight) {
+        this(maxInFlight, Ticker.systemTicker());
+    }
+
+    AdmissionQueue(int maxInFlight, Ticker ticker) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        this.maxInFlight = maxInFlight;
+        this.ticker = ticker;
+        for (RequestPriority priority : RequestPriority.values()) {
+            queues.put(priority, new LinkedHashMap<String, Deque<Waiter>>());
+            stats.put(priority, new Stats());
+        }
+    }
+
+    /**
+     * Queue a request for admission. Cancelling the returned future before
+     * it completes takes the request out of the queue.
+     *
+     * @param priority priority of the request
+     * @param tenant tenant sending the request, "" if unknown
+     * @return future of the permit of the request, completed once it is admitted
+     */
+    ListenableFuture<Permit> admit(RequestPriority priority, String tenant) {
+        final Waiter waiter = new Waiter(priority, tenant, ticker.read());
+        synchronized (this) {
+            Map<String, Deque<Waiter>> tenants = queues.get(priority);
+            Deque<Waiter> waiters = tenants.get(tenant);
+            if (waiters == null) {
+                waiters = new ArrayDeque<Waiter>();
+                tenants.put(tenant, waiters);
+            }
+            waiters.add(waiter);
+            stats.get(priority).queued++;
+        }
+        waiter.future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (waiter.future.isCancelled()) {
+                    remove(waiter);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        dispatch();
+        return waiter.future;
+    }
+
+    /**
+     * Take a cancelled request out of the queue, unless it was already
+     * taken out to be admitted.
+     */
+    private synchronized void remove(Waiter waiter) {
+        Map<String, Deque<Waiter>> tenants = queues.get(waiter.priority);
+        Deque<Waiter> waiters = tenants.get(waiter.tenant);
+        if (waiters == null || !waiters.remove(waiter)) {
+            return;
+        }
+        if (waiters.isEmpty()) {
+            tenants.remove(waiter.tenant);
+        }
+        stats.get(waiter.priority).queued--;
+    }
+
+    /**
+     * @return snapshot of the queue time of the requests of the priority
+     */
+    synchronized QueueTimeStats getStats(RequestPriority priority) {
+        Stats s = stats.get(priority);
+        return new QueueTimeStats(s.requests, s.queued, toMillis(s.totalNanos), toMillis(s.maxNanos));
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Admit waiting requests while there is room. The futures are completed
+     * outside the lock, as completing one runs the sending of its request.
+     */
+    private void dispatch() {
+        while (true) {
+            Waiter waiter;
+            synchronized (this) {
+                if (inFlight >= maxInFlight) {
+                    return;
+                }
+                waiter = next();
+                if (waiter == null) {
+                    return;
+                }
+                inFlight++;
+            }
+            long queueTime = ticker.read() - waiter.enqueuedAt;
+            if (waiter.future.set(new Permit())) {
+                synchronized (this) {
+                    Stats s = stats.get(waiter.priority);
+                    s.requests++;
+                    s.totalNanos += queueTime;
+                    s.maxNanos = Math.max(s.maxNanos, queueTime);
+                }
+            } else {
+                // cancelled while waiting
+                synchronized (this) {
+                    inFlight--;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return first waiter of the tenant next in line at the highest priority, null if none waits
+     */
+    private Waiter next() {
+        for (Map.Entry<RequestPriority, LinkedHashMap<String, Deque<Waiter>>> queue : queues.entrySet()) {
+            LinkedHashMap<String, Deque<Waiter>> tenants = queue.getValue();
+            Iterator<Map.Entry<String, Deque<Waiter>>> it = tenants.entrySet().iterator();
+            if (!it.hasNext()) {
+                continue;
+            }
+            Map.Entry<String, Deque<Waiter>> first = it.next();
+            String tenant = first.getKey();
+            Deque<Waiter> waiters = first.getValue();
+            Waiter waiter = waiters.poll();
+            it.remove();
+            if (!waiters.isEmpty()) {
+                tenants.put(tenant, waiters);
+            }
+            stats.get(queue.getKey()).queued--;
+            return waiter;
+        }
+        return null;
+    }
+}
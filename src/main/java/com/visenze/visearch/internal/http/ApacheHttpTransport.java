@@ -0,0 +1,212 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.ConnectionPoolStats;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking transport on Apache HttpClient. Every request holds the calling
+ * thread until the response arrives, so asynchronous execution completes on
+ * the calling thread as well. The body is left on the connection for the
+ * caller to read or stream.
+ */
+class ApacheHttpTransport implements HttpTransport {
+
+    private final CloseableHttpClient httpClient;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final HttpHost proxy;
+
+    private final int connectTimeout;
+
+    /**
+     * Wrap a http client built outside of the SDK. The pool of such a client
+     * is not visible to the SDK.
+     *
+     * @param httpClient http client to execute requests with
+     */
+    ApacheHttpTransport(CloseableHttpClient httpClient) {
+        this(httpClient, null, null, 0);
+    }
+
+    private ApacheHttpTransport(CloseableHttpClient httpClient, PoolingHttpClientConnectionManager connectionManager,
+                                HttpHost proxy, int connectTimeout) {
+        this.httpClient = httpClient;
+        this.connectionManager = connectionManager;
+        this.proxy = proxy;
+        this.connectTimeout = connectTimeout;
+    }
+
+    static ApacheHttpTransport create(ClientConfig clientConfig) {
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(TlsSessions.sharedContext(),
+                        SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+                .build();
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                socketFactories, null, null, null, clientConfig.getConnectionTimeToLive(), TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(clientConfig.getMaxConnectionTotal());
+        connectionManager.setDefaultMaxPerRoute(clientConfig.getMaxConnectionPerRoute());
+        connectionManager.setValidateAfterInactivity(clientConfig.getValidateAfterInactivity());
+        connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+                .setSoTimeout(clientConfig.getSocketTimeout())
+                .build());
+
+        CloseableHttpClient httpClient = HttpClientBuilder
+                .create()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(new KeepAliveStrategy(clientConfig.getKeepAliveTimeout()))
+                // compression is negotiated by the client and decoded by ViSearchHttpResponse
+                .disableContentCompression()
+                .build();
+        return new ApacheHttpTransport(httpClient, connectionManager, clientConfig.getProxy(),
+                clientConfig.getConnectionTimeout());
+    }
+
+    @Override
+    public ViSearchHttpResponse execute(HttpUriRequest request) {
+        CloseableHttpResponse response;
+        try {
+            response = httpClient.execute(request);
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+            // throw new NetworkException("A network error occurred when requesting to the ViSearch endpoint. " +
+            //        "Please check your network connectivity and try again.", e);
+        }
+        try {
+            return new ViSearchHttpResponse(response);
+        } catch (InternalViSearchException e) {
+            closeQuietly(response);
+            throw e;
+        }
+    }
+
+    private static void closeQuietly(CloseableHttpResponse response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            // the connection is discarded by the pool
+        }
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> executeAsync(HttpUriRequest request) {
+        try {
+            return Futures.immediateFuture(execute(request));
+        } catch (InternalViSearchException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * Connections are opened one after the other, so all but the first
+     * resume the TLS session of the first. Connections through a proxy are
+     * not warmed up, as tunnelling is done by the request execution.
+     */
+    @Override
+    public int warmUp(HttpHost host, int connections) {
+        if (connectionManager == null || proxy != null || connections <= 0) {
+            return 0;
+        }
+        HttpRoute route = new HttpRoute(host, null, "https".equalsIgnoreCase(host.getSchemeName()));
+        int count = Math.min(connections, connectionManager.getMaxPerRoute(route));
+        List<HttpClientConnection> leased = new ArrayList<HttpClientConnection>(count);
+        int ready = 0;
+        try {
+            // hold every connection until the end so that each lease opens a new one
+            for (int i = 0; i < count; i++) {
+                HttpClientConnection connection = connectionManager.requestConnection(route, null)
+                        .get(connectTimeout, TimeUnit.MILLISECONDS);
+                leased.add(connection);
+                if (!connection.isOpen()) {
+                    HttpClientContext context = HttpClientContext.create();
+                    try {
+                        connectionManager.connect(connection, route, connectTimeout, context);
+                        connectionManager.routeComplete(connection, route, context);
+                    } catch (IOException e) {
+                        // the socket may be bound even though it never connected
+                        shutdownQuietly(connection);
+                        throw e;
+                    }
+                }
+                ready++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // pool shut down, keep what is open
+        } catch (ConnectionPoolTimeoutException e) {
+            // pool busy with requests, which warm it up anyway
+        } catch (IOException e) {
+            // host unreachable, requests will report it
+        }
+        for (HttpClientConnection connection : leased) {
+            connectionManager.releaseConnection(connection, null, -1, TimeUnit.MILLISECONDS);
+        }
+        return ready;
+    }
+
+    private static void shutdownQuietly(HttpClientConnection connection) {
+        try {
+            connection.shutdown();
+        } catch (IOException e) {
+            // released as closed either way
+        }
+    }
+
+    @Override
+    public void closeIdleConnections(long idleTimeout) {
+        if (connectionManager == null) {
+            return;
+        }
+        connectionManager.closeExpiredConnections();
+        if (idleTimeout > 0) {
+            connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public ConnectionPoolStats getPoolStats() {
+        if (connectionManager == null) {
+            return null;
+        }
+        PoolStats stats = connectionManager.getTotalStats();
+        return new ConnectionPoolStats(stats.getLeased(), stats.getAvailable(), stats.getPending(), stats.getMax());
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            // nothing left to do with a client that failed to close
+        }
+    }
+}
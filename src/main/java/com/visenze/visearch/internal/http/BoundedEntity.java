@@ -0,0 +1,126 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.io.ByteStreams;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Response body failing once more than a max size is read from it, and
+ * charging the bytes read to a memory budget until it is released.
+ */
+final class BoundedEntity extends HttpEntityWrapper {
+
+    /**
+     * The body is larger than the max response size
+     */
+    static final class TooLargeException extends IOException {
+
+        TooLargeException(long maxSize) {
+            super("Response body exceeds " + maxSize + " bytes");
+        }
+    }
+
+    private final long maxSize;
+
+    private final MemoryBudget budget;
+
+    private long read;
+
+    private long charged;
+
+    private boolean tooLarge;
+
+    /**
+     * @param entity response body
+     * @param maxSize max bytes of the body, 0 for no max
+     * @param budget budget charged with the bytes read, null for none
+     */
+    BoundedEntity(HttpEntity entity, long maxSize, MemoryBudget budget) {
+        super(entity);
+        this.maxSize = maxSize;
+        this.budget = budget;
+    }
+
+    /**
+     * @return the body, charged to the budget as it is read
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        return getContent(true);
+    }
+
+    /**
+     * @param charged false for a body parsed while it is streamed, which is
+     *                not held in memory
+     */
+    InputStream getContent(final boolean charged) throws IOException {
+        return new FilterInputStream(super.getContent()) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    count(1, charged);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0) {
+                    count(n, charged);
+                }
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                // an oversized body is aborted rather than read to the end
+                if (!isTooLarge()) {
+                    super.close();
+                }
+            }
+        };
+    }
+
+    private synchronized void count(long bytes, boolean charged) throws TooLargeException {
+        read += bytes;
+        if (charged && budget != null) {
+            budget.charge(bytes);
+            this.charged += bytes;
+        }
+        if (maxSize > 0 && read > maxSize) {
+            tooLarge = true;
+            throw new TooLargeException(maxSize);
+        }
+    }
+
+    synchronized boolean isTooLarge() {
+        return tooLarge;
+    }
+
+    /**
+     * Give the bytes charged so far back to the budget.
+     */
+    synchronized void release() {
+        if (budget != null) {
+            budget.release(charged);
+        }
+        charged = 0;
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        InputStream content = getContent();
+        try {
+            ByteStreams.copy(content, outStream);
+        } finally {
+            content.close();
+        }
+    }
+}
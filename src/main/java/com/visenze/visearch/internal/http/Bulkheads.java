@@ -0,0 +1,76 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.OperationClass;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lease quotas of the operation classes sharing a client's connection
+ * pool, so that one class cannot take every connection.
+ */
+final class Bulkheads {
+
+    private final Map<OperationClass, Semaphore> permits;
+
+    private Bulkheads(Map<OperationClass, Semaphore> permits) {
+        this.permits = permits;
+    }
+
+    /**
+     * @return bulkheads of the operation classes capped by the config, null if none is
+     */
+    static Bulkheads create(ClientConfig clientConfig) {
+        Map<OperationClass, Semaphore> permits = new EnumMap<OperationClass, Semaphore>(OperationClass.class);
+        for (OperationClass operation : OperationClass.values()) {
+            Integer max = clientConfig.getMaxConcurrentRequests(operation);
+            if (max != null) {
+                permits.put(operation, new Semaphore(max, true));
+            }
+        }
+        return permits.isEmpty() ? null : new Bulkheads(permits);
+    }
+
+    /**
+     * Take a permit of the class, if it is capped.
+     *
+     * @param maxWait milliseconds to wait for a permit, 0 to not wait
+     * @throws InternalViSearchException with SYSTEM_BUSY if no permit was freed in time
+     */
+    void acquire(OperationClass operation, long maxWait) {
+        Semaphore semaphore = permits.get(operation);
+        if (semaphore == null) {
+            return;
+        }
+        boolean acquired;
+        try {
+            acquired = maxWait <= 0 ? semaphore.tryAcquire() : semaphore.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+        }
+        if (!acquired) {
+            throw new InternalViSearchException(ResponseMessages.SYSTEM_BUSY);
+        }
+    }
+
+    void release(OperationClass operation) {
+        Semaphore semaphore = permits.get(operation);
+        if (semaphore != null) {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * @return permits of the class left, -1 if it is not capped
+     */
+    int available(OperationClass operation) {
+        Semaphore semaphore = permits.get(operation);
+        return semaphore == null ? -1 : semaphore.availablePermits();
+    }
+}
@@ -0,0 +1,155 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.base.Ticker;
+import com.visenze.visearch.CircuitBreakerPolicy;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breaker of the calls to one path, see {@link CircuitBreakerPolicy}. Every
+ * call let through by {@link #acquire()} is reported with exactly one of
+ * {@link #succeeded(long)}, {@link #failed(long)} or {@link #ignored()}.
+ */
+final class CircuitBreaker {
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private static final byte FAILED = 1;
+
+    private static final byte SLOW = 2;
+
+    private final CircuitBreakerPolicy policy;
+
+    private final Ticker ticker;
+
+    /**
+     * Outcomes of the last calls, as FAILED and SLOW flags
+     */
+    private final byte[] window;
+
+    private int calls;
+
+    private int next;
+
+    private int failures;
+
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    private int trials;
+
+    private int trialSuccesses;
+
+    CircuitBreaker(CircuitBreakerPolicy policy, Ticker ticker) {
+        this.policy = policy;
+        this.ticker = ticker;
+        this.window = new byte[policy.getWindowSize()];
+    }
+
+    /**
+     * Let a call through.
+     *
+     * @throws InternalViSearchException with CIRCUIT_OPEN if the breaker is open
+     */
+    synchronized void acquire() {
+        if (state == State.OPEN
+                && ticker.read() - openedAt >= TimeUnit.MILLISECONDS.toNanos(policy.getOpenDuration())) {
+            state = State.HALF_OPEN;
+            trials = 0;
+            trialSuccesses = 0;
+        }
+        if (state == State.OPEN || state == State.HALF_OPEN && trials >= policy.getHalfOpenCalls()) {
+            throw new InternalViSearchException(ResponseMessages.CIRCUIT_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            trials++;
+        }
+    }
+
+    /**
+     * The call got a response, other than a server error.
+     *
+     * @param latency nanoseconds the call took
+     */
+    synchronized void succeeded(long latency) {
+        record(isSlow(latency) ? SLOW : 0);
+    }
+
+    /**
+     * The call failed with a network error or a server error.
+     *
+     * @param latency nanoseconds the call took
+     */
+    synchronized void failed(long latency) {
+        record((byte) (FAILED | (isSlow(latency) ? SLOW : 0)));
+    }
+
+    /**
+     * The call was cancelled or failed for a reason unrelated to the server.
+     */
+    synchronized void ignored() {
+        if (state == State.HALF_OPEN) {
+            trials--;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    private boolean isSlow(long latency) {
+        return latency > TimeUnit.MILLISECONDS.toNanos(policy.getSlowCallDuration());
+    }
+
+    private void record(byte outcome) {
+        if (state == State.HALF_OPEN) {
+            if (outcome != 0) {
+                open();
+            } else if (++trialSuccesses >= policy.getHalfOpenCalls()) {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // a call let through before the breaker opened
+            return;
+        }
+        if (calls == window.length) {
+            drop(window[next]);
+        } else {
+            calls++;
+        }
+        window[next] = outcome;
+        next = (next + 1) % window.length;
+        failures += outcome & FAILED;
+        slowCalls += (outcome & SLOW) >> 1;
+        if (calls >= policy.getMinCalls()
+                && (failures >= policy.getFailureRateThreshold() * calls
+                || slowCalls >= policy.getSlowCallRateThreshold() * calls)) {
+            open();
+        }
+    }
+
+    private void drop(byte outcome) {
+        failures -= outcome & FAILED;
+        slowCalls -= (outcome & SLOW) >> 1;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = ticker.read();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        calls = 0;
+        next = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+}
@@ -0,0 +1,66 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.base.Ticker;
+import com.visenze.visearch.CircuitBreakerPolicy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Circuit breakers of a client, one per API path.
+ */
+final class CircuitBreakers {
+
+    /**
+     * APIs whose paths end with an id, e.g. "/insert/status/{trans_id}" or
+     * "/v1/product/recommendations/{product_id}". Calls for all ids share the
+     * breaker of their API.
+     */
+    private static final String[] ID_PATH_PREFIXES = {"/insert/status/", "/search_by_id/", "/recommendations/"};
+
+    private final CircuitBreakerPolicy policy;
+
+    private final Ticker ticker;
+
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    CircuitBreakers(CircuitBreakerPolicy policy) {
+        this(policy, Ticker.systemTicker());
+    }
+
+    CircuitBreakers(CircuitBreakerPolicy policy, Ticker ticker) {
+        this.policy = policy;
+        this.ticker = ticker;
+    }
+
+    /**
+     * @param path request path, e.g. "/uploadsearch"
+     * @return the breaker of the path
+     */
+    CircuitBreaker forPath(String path) {
+        path = apiOf(path);
+        CircuitBreaker breaker = breakers.get(path);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(policy, ticker);
+            breaker = breakers.putIfAbsent(path, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * @param path request path
+     * @return the path without its trailing id, if the API takes one
+     */
+    private static String apiOf(String path) {
+        for (String prefix : ID_PATH_PREFIXES) {
+            int index = path.indexOf(prefix);
+            if (index >= 0) {
+                return path.substring(0, index + prefix.length() - 1);
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,121 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.ConcurrencyLimit;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AIMD limit of the requests in flight, see {@link ConcurrencyLimit}. Every
+ * permit taken with {@link #acquire(long)} is given back with exactly one of
+ * {@link #succeeded(long)}, {@link #dropped()} or {@link #ignored()}.
+ */
+final class ConcurrencyLimiter {
+
+    /**
+     * Latencies after which the lowest latency is measured again, so that
+     * the baseline follows a server that got slower for good
+     */
+    static final int BASELINE_WINDOW = 1000;
+
+    private final ConcurrencyLimit config;
+
+    private double limit;
+
+    private int inFlight;
+
+    private long minLatency = Long.MAX_VALUE;
+
+    private int samples;
+
+    ConcurrencyLimiter(ConcurrencyLimit config) {
+        this.config = config;
+        this.limit = Math.max(config.getMinLimit(), Math.min(config.getMaxLimit(), config.getInitialLimit()));
+    }
+
+    /**
+     * @param status http status of a response
+     * @return true if the server asks the client to slow down
+     */
+    static boolean isOverload(int status) {
+        return status == 429 || status == 503;
+    }
+
+    /**
+     * Take a permit to send a request.
+     *
+     * @param maxWait milliseconds to wait for a permit, 0 to not wait
+     * @throws InternalViSearchException with SYSTEM_BUSY if no permit was freed in time
+     */
+    synchronized void acquire(long maxWait) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+        while (inFlight >= (int) limit) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new InternalViSearchException(ResponseMessages.SYSTEM_BUSY);
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+            }
+        }
+        inFlight++;
+    }
+
+    /**
+     * The request got a response that is not an overload.
+     *
+     * @param latency nanoseconds the request took
+     */
+    synchronized void succeeded(long latency) {
+        if (++samples > BASELINE_WINDOW) {
+            samples = 1;
+            minLatency = latency;
+        } else {
+            minLatency = Math.min(minLatency, latency);
+        }
+        if (latency > minLatency * config.getLatencyTolerance()) {
+            decrease();
+        } else if (inFlight * 2 >= limit) {
+            // only grow when the limit is actually used
+            limit = Math.min(config.getMaxLimit(), limit + 1 / limit);
+        }
+        release();
+    }
+
+    /**
+     * The server throttled the request or it failed with a network error.
+     */
+    synchronized void dropped() {
+        decrease();
+        release();
+    }
+
+    /**
+     * The request failed or was cancelled for a reason that says nothing
+     * about the server load.
+     */
+    synchronized void ignored() {
+        release();
+    }
+
+    private void decrease() {
+        limit = Math.max(config.getMinLimit(), limit * config.getBackoffRatio());
+    }
+
+    private void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,261 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.TransportType;
+import org.apache.http.HttpHost;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1> ConnectionPoolRegistry </h1>
+ * Process-wide registry of pooled http transports. Clients that talk to the
+ * same endpoint (scheme, host and port) with the same transport and pool
+ * settings share a single transport and its pool, so warm connections and
+ * TLS sessions are reused across ViSearch and ProductSearch instances and the
+ * total number of sockets per host is bounded by one pool.
+ *
+ * Pools are reference counted: every client acquires a {@link Lease} when it
+ * is created and releases it when it is closed. The pool is shut down once the
+ * last lease is released. While at least one pool is alive, a single daemon
+ * thread periodically closes expired and idle connections of every pool.
+ *
+ * @since 18 Oct 2026
+ */
+public final class ConnectionPoolRegistry {
+
+    /**
+     * Interval between two runs of the idle / expired connection evictor
+     */
+    static final long EVICTION_INTERVAL_MILLIS = 5 * 1000;
+
+    private static final ConnectionPoolRegistry INSTANCE = new ConnectionPoolRegistry();
+
+    private final Map<PoolKey, SharedPool> pools = new HashMap<PoolKey, SharedPool>();
+
+    private ScheduledExecutorService evictor;
+
+    ConnectionPoolRegistry() {
+    }
+
+    /**
+     * Get the process-wide registry
+     *
+     * @return the shared registry instance
+     */
+    public static ConnectionPoolRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Acquire the shared transport for an endpoint, creating it if
+     * no client is currently using it.
+     *
+     * @param endpoint the endpoint the client sends requests to
+     * @param clientConfig the client configuration the pool is built from
+     * @return a lease that must be released when the client is closed
+     */
+    public synchronized Lease acquire(String endpoint, ClientConfig clientConfig) {
+        PoolKey key = new PoolKey(endpoint, clientConfig);
+        SharedPool pool = pools.get(key);
+        if (pool == null) {
+            pool = new SharedPool(key, createTransport(clientConfig), clientConfig.getIdleConnectionTimeout());
+            pools.put(key, pool);
+            startEvictor();
+        }
+        pool.references++;
+        return new Lease(pool);
+    }
+
+    /**
+     * @return number of pools currently alive
+     */
+    public synchronized int size() {
+        return pools.size();
+    }
+
+    private synchronized void release(SharedPool pool) {
+        pool.references--;
+        if (pool.references > 0) {
+            return;
+        }
+        pools.remove(pool.key);
+        pool.transport.close();
+        if (pools.isEmpty()) {
+            stopEvictor();
+        }
+    }
+
+    private synchronized void evict() {
+        for (SharedPool pool : pools.values()) {
+            pool.transport.closeIdleConnections(pool.idleTimeout);
+        }
+    }
+
+    private void startEvictor() {
+        if (evictor != null) {
+            return;
+        }
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("visearch-connection-evictor-%d")
+                .setDaemon(true)
+                .build());
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evict();
+            }
+        }, EVICTION_INTERVAL_MILLIS, EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopEvictor() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+    }
+
+    static HttpTransport createTransport(ClientConfig clientConfig) {
+        if (clientConfig.getTransportFactory() != null) {
+            return clientConfig.getTransportFactory().create(clientConfig);
+        }
+        if (clientConfig.getTransportType() == TransportType.NIO) {
+            return NioHttpTransport.create(clientConfig);
+        }
+        if (clientConfig.getTransportType() == TransportType.HTTP2) {
+            return JdkHttpTransport.create(clientConfig);
+        }
+        return ApacheHttpTransport.create(clientConfig);
+    }
+
+    /**
+     * Handle on a shared pool held by a single client.
+     */
+    public final class Lease {
+
+        private final SharedPool pool;
+
+        private boolean released;
+
+        private Lease(SharedPool pool) {
+            this.pool = pool;
+        }
+
+        HttpTransport getTransport() {
+            return pool.transport;
+        }
+
+        /**
+         * Give the pool back to the registry. Releasing a lease more than once
+         * has no effect.
+         */
+        public void release() {
+            synchronized (ConnectionPoolRegistry.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                ConnectionPoolRegistry.this.release(pool);
+            }
+        }
+    }
+
+    private static final class SharedPool {
+        final PoolKey key;
+        final HttpTransport transport;
+        final long idleTimeout;
+        int references;
+
+        SharedPool(PoolKey key, HttpTransport transport, long idleTimeout) {
+            this.key = key;
+            this.transport = transport;
+            this.idleTimeout = idleTimeout;
+        }
+    }
+
+    /**
+     * Identifies a pool by target host and the configuration values that are
+     * baked into the transport.
+     */
+    static final class PoolKey {
+        private final String host;
+        private final TransportType transportType;
+        private final HttpTransportFactory transportFactory;
+        private final int ioThreadCount;
+        private final int keepAliveTimeout;
+        private final int maxConnectionTotal;
+        private final int maxConnectionPerRoute;
+        private final int socketTimeout;
+        private final int connectionTimeToLive;
+        private final int validateAfterInactivity;
+        private final int idleConnectionTimeout;
+        private final int connectionTimeout;
+        private final long maxResponseSize;
+        private final HttpHost proxy;
+
+        PoolKey(String endpoint, ClientConfig clientConfig) {
+            this.host = hostOf(endpoint);
+            this.transportType = clientConfig.getTransportType();
+            this.transportFactory = clientConfig.getTransportFactory();
+            this.ioThreadCount = clientConfig.getIoThreadCount();
+            this.keepAliveTimeout = clientConfig.getKeepAliveTimeout();
+            this.maxConnectionTotal = clientConfig.getMaxConnectionTotal();
+            this.maxConnectionPerRoute = clientConfig.getMaxConnectionPerRoute();
+            this.socketTimeout = clientConfig.getSocketTimeout();
+            this.connectionTimeToLive = clientConfig.getConnectionTimeToLive();
+            this.validateAfterInactivity = clientConfig.getValidateAfterInactivity();
+            this.idleConnectionTimeout = clientConfig.getIdleConnectionTimeout();
+            this.connectionTimeout = clientConfig.getConnectionTimeout();
+            this.maxResponseSize = clientConfig.getMaxResponseSize();
+            this.proxy = clientConfig.getProxy();
+        }
+
+        private static String hostOf(String endpoint) {
+            try {
+                URI uri = new URI(endpoint);
+                if (uri.getHost() != null) {
+                    String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase();
+                    return scheme + "://" + uri.getHost().toLowerCase() + ":" + uri.getPort();
+                }
+            } catch (URISyntaxException e) {
+                // fall back to the raw endpoint, the request itself will report the invalid url
+            }
+            return endpoint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PoolKey)) return false;
+            PoolKey that = (PoolKey) o;
+            return maxConnectionTotal == that.maxConnectionTotal
+                    && maxConnectionPerRoute == that.maxConnectionPerRoute
+                    && socketTimeout == that.socketTimeout
+                    && connectionTimeToLive == that.connectionTimeToLive
+                    && validateAfterInactivity == that.validateAfterInactivity
+                    && idleConnectionTimeout == that.idleConnectionTimeout
+                    && ioThreadCount == that.ioThreadCount
+                    && keepAliveTimeout == that.keepAliveTimeout
+                    && connectionTimeout == that.connectionTimeout
+                    && maxResponseSize == that.maxResponseSize
+                    && transportType == that.transportType
+                    && transportFactory == that.transportFactory
+                    && Objects.equal(proxy, that.proxy)
+                    && host.equals(that.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(host, transportType, transportFactory, maxConnectionTotal, maxConnectionPerRoute,
+                    socketTimeout, connectionTimeToLive, validateAfterInactivity, idleConnectionTimeout, ioThreadCount,
+                    keepAliveTimeout, connectionTimeout, maxResponseSize, proxy);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.visenze.visearch.ConnectionPoolStats;
+import com.visenze.visearch.QueueTimeStats;
+import com.visenze.visearch.RequestPriority;
+import org.apache.http.auth.UsernamePasswordCredentials;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Gives a client without asynchronous calls an async view by running its
+ * blocking calls on an executor. Failures of the blocking call, including
+ * runtime exceptions thrown before the request is sent, fail the returned
+ * future.
+ */
+public class ExecutorAsyncHttpClient implements ViSearchAsyncHttpClient {
+
+    private final ViSearchHttpClient httpClient;
+
+    private final Executor executor;
+
+    public ExecutorAsyncHttpClient(ViSearchHttpClient httpClient, Executor executor) {
+        this.httpClient = httpClient;
+        this.executor = executor;
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> getAsync(final String url, final Multimap<String, String> params) {
+        return submit(new Callable<ViSearchHttpResponse>() {
+            @Override
+            public ViSearchHttpResponse call() {
+                return httpClient.get(url, params);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> postAsync(final String url, final Multimap<String, String> params) {
+        return submit(new Callable<ViSearchHttpResponse>() {
+            @Override
+            public ViSearchHttpResponse call() {
+                return httpClient.post(url, params);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> postImageAsync(final String url, final Multimap<String, String> params, final File file) {
+        return submit(new Callable<ViSearchHttpResponse>() {
+            @Override
+            public ViSearchHttpResponse call() {
+                return httpClient.postImage(url, params, file);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> postImageAsync(final String url, final Multimap<String, String> params,
+                                                                 final InputStream inputStream, final String filename) {
+        return submit(new Callable<ViSearchHttpResponse>() {
+            @Override
+            public ViSearchHttpResponse call() {
+                return httpClient.postImage(url, params, inputStream, filename);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> postImFeatureAsync(final String url, final Multimap<String, String> params,
+                                                                     final String imFeature, final String transId) {
+        return submit(new Callable<ViSearchHttpResponse>() {
+            @Override
+            public ViSearchHttpResponse call() {
+                return httpClient.postImFeature(url, params, imFeature, transId);
+            }
+        });
+    }
+
+    private ListenableFuture<ViSearchHttpResponse> submit(Callable<ViSearchHttpResponse> call) {
+        ListenableFutureTask<ViSearchHttpResponse> task = ListenableFutureTask.create(call);
+        executor.execute(task);
+        return task;
+    }
+
+    @Override
+    public UsernamePasswordCredentials getCredentials() {
+        return httpClient.getCredentials();
+    }
+
+    @Override
+    public ViSearchHttpResponse get(String url, Multimap<String, String> params) {
+        return httpClient.get(url, params);
+    }
+
+    @Override
+    public ViSearchHttpResponse post(String url, Multimap<String, String> params) {
+        return httpClient.post(url, params);
+    }
+
+    @Override
+    public ViSearchHttpResponse postImage(String url, Multimap<String, String> params, File file) {
+        return httpClient.postImage(url, params, file);
+    }
+
+    @Override
+    public ViSearchHttpResponse postImage(String url, Multimap<String, String> params, InputStream inputStream, String filename) {
+        return httpClient.postImage(url, params, inputStream, filename);
+    }
+
+    @Override
+    public ViSearchHttpResponse postImFeature(String url, Multimap<String, String> params, String imFeature, String transId) {
+        return httpClient.postImFeature(url, params, imFeature, transId);
+    }
+
+    @Override
+    public ConnectionPoolStats getPoolStats() {
+        return httpClient.getPoolStats();
+    }
+
+    @Override
+    public QueueTimeStats getQueueTimeStats(RequestPriority priority) {
+        return httpClient.getQueueTimeStats(priority);
+    }
+
+    @Override
+    public int warmUp(int connections) {
+        return httpClient.warmUp(connections);
+    }
+
+    @Override
+    public void close() {
+        httpClient.close();
+    }
+}
@@ -0,0 +1,72 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.visenze.visearch.ConnectionPoolStats;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Executes fully prepared requests (url, headers, entity and request config
+ * already set) over a connection pool. A transport only knows about hosts and
+ * connections, so one instance can serve every client talking to the same
+ * host.
+ *
+ * This is the extension point for custom http stacks, plugged in with
+ * {@link com.visenze.visearch.ClientConfig#setTransportFactory(HttpTransportFactory)}.
+ * Implementations must be thread-safe, and {@link #executeAsync(HttpUriRequest)}
+ * must not block the calling thread on the exchange.
+ */
+public interface HttpTransport {
+
+    /**
+     * Execute a request and wait for the response.
+     *
+     * @param request prepared request
+     * @return the response, whose body may still have to be read from the
+     *         connection
+     * @throws com.visenze.visearch.internal.InternalViSearchException on network or read errors
+     */
+    ViSearchHttpResponse execute(HttpUriRequest request);
+
+    /**
+     * Execute a request without holding the calling thread. Cancelling the
+     * returned future aborts the exchange.
+     *
+     * @param request prepared request
+     * @return future completed with the response, or failed with an
+     *         {@link com.visenze.visearch.internal.InternalViSearchException}
+     */
+    ListenableFuture<ViSearchHttpResponse> executeAsync(HttpUriRequest request);
+
+    /**
+     * Open connections to a host ahead of the first requests, so that they
+     * don't pay for DNS lookup and TCP and TLS handshakes. Blocks until the
+     * connections are open or failed.
+     *
+     * @param host host to connect to
+     * @param connections number of connections to open
+     * @return number of connections ready for requests, lower than asked if
+     *         the pool is smaller or connecting failed
+     */
+    int warmUp(HttpHost host, int connections);
+
+    /**
+     * Close expired connections and connections idle for longer than the
+     * given time.
+     *
+     * @param idleTimeout idle time in milliseconds, zero or negative only
+     *                    closes expired connections
+     */
+    void closeIdleConnections(long idleTimeout);
+
+    /**
+     * @return statistics of the connection pool, or null if the transport
+     *         does not expose them
+     */
+    ConnectionPoolStats getPoolStats();
+
+    /**
+     * Close the transport and its connections.
+     */
+    void close();
+}
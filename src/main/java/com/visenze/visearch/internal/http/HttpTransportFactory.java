@@ -0,0 +1,18 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.ClientConfig;
+
+/**
+ * Creates the {@link HttpTransport} of a client. Clients with a shared
+ * connection pool share the transport of clients with the same endpoint,
+ * configuration and factory instance.
+ */
+public interface HttpTransportFactory {
+
+    /**
+     * @param clientConfig configuration of the client, including timeouts,
+     *                     pool limits and proxy
+     * @return a new transport, closed by the SDK when its last client is closed
+     */
+    HttpTransport create(ClientConfig clientConfig);
+}
@@ -0,0 +1,20 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.ClientConfig;
+
+/**
+ * HTTP/2 transport on the JDK http client. The implementation is compiled for
+ * Java 11 into {@code META-INF/versions/11} of the multi-release jar; this
+ * class only stands in for it on older runtimes.
+ */
+final class JdkHttpTransport {
+
+    private JdkHttpTransport() {
+    }
+
+    static HttpTransport create(ClientConfig clientConfig) {
+        // reached on Java 11 only when the jar is not read as a multi-release jar, e.g. once repackaged
+        throw new IllegalStateException("The HTTP/2 transport requires Java 11 or later and the multi-release "
+                + "visearch-java-sdk jar");
+    }
+}
@@ -0,0 +1,28 @@
+package com.visenze.visearch.internal.http;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Keeps connections alive for the duration sent by the server in the
+ * Keep-Alive header, capped by the configured keep-alive timeout.
+ */
+class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+    private final long keepAliveTimeout;
+
+    KeepAliveStrategy(long keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    @Override
+    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+        long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+        if (keepAliveTimeout < 0) {
+            return duration;
+        }
+        return duration < 0 ? keepAliveTimeout : Math.min(duration, keepAliveTimeout);
+    }
+}
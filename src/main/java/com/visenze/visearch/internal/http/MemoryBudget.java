@@ -0,0 +1,66 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bytes of request and response bodies a client holds at once, see
+ * {@link com.visenze.visearch.ClientConfig#setMemoryBudget(long)}.
+ */
+final class MemoryBudget {
+
+    private final long capacity;
+
+    private long used;
+
+    MemoryBudget(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Take bytes for a new request body, waiting for other requests to give
+     * theirs back if the budget would be exceeded. Bytes are granted when
+     * nothing else is held, so that a body larger than the budget can go.
+     *
+     * @param bytes bytes of the body
+     * @param maxWait milliseconds to wait, 0 to not wait
+     * @throws InternalViSearchException with SYSTEM_BUSY if the bytes were not freed in time
+     */
+    synchronized void acquire(long bytes, long maxWait) {
+        long waitUntil = maxWait <= 0 ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+        while (used > 0 && used + bytes > capacity) {
+            long remaining = waitUntil - System.nanoTime();
+            if (maxWait <= 0 || remaining <= 0) {
+                throw new InternalViSearchException(ResponseMessages.SYSTEM_BUSY);
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+            }
+        }
+        used += bytes;
+    }
+
+    /**
+     * Take bytes of a response body being read, without waiting, as the
+     * connection is held until the body is read.
+     */
+    synchronized void charge(long bytes) {
+        used += bytes;
+    }
+
+    synchronized void release(long bytes) {
+        if (bytes > 0) {
+            used -= bytes;
+            notifyAll();
+        }
+    }
+
+    synchronized long getUsed() {
+        return used;
+    }
+}
@@ -0,0 +1,322 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.ConnectionPoolStats;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.entity.ContentType;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event-driven transport on Apache HttpAsyncClient. Requests are multiplexed
+ * over a small number of I/O threads, so waiting for the server does not hold
+ * a thread per request. Responses are buffered in memory before the returned
+ * future completes.
+ */
+class NioHttpTransport implements HttpTransport {
+
+    private final CloseableHttpAsyncClient httpClient;
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+
+    private final HttpHost proxy;
+
+    private final int connectTimeout;
+
+    private final long maxResponseSize;
+
+    private NioHttpTransport(CloseableHttpAsyncClient httpClient, PoolingNHttpClientConnectionManager connectionManager,
+                             HttpHost proxy, int connectTimeout, long maxResponseSize) {
+        this.httpClient = httpClient;
+        this.connectionManager = connectionManager;
+        this.proxy = proxy;
+        this.connectTimeout = connectTimeout;
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    static NioHttpTransport create(ClientConfig clientConfig) {
+        IOReactorConfig.Builder reactorConfig = IOReactorConfig.custom()
+                .setConnectTimeout(clientConfig.getConnectionTimeout())
+                .setSoTimeout(clientConfig.getSocketTimeout());
+        if (clientConfig.getIoThreadCount() > 0) {
+            reactorConfig.setIoThreadCount(clientConfig.getIoThreadCount());
+        }
+
+        DefaultConnectingIOReactor ioReactor;
+        try {
+            ioReactor = new DefaultConnectingIOReactor(reactorConfig.build());
+        } catch (IOReactorException e) {
+            throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e);
+        }
+
+        PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+                ioReactor,
+                ManagedNHttpClientConnectionFactory.INSTANCE,
+                RegistryBuilder.<SchemeIOSessionStrategy>create()
+                        .register("http", NoopIOSessionStrategy.INSTANCE)
+                        .register("https", new SSLIOSessionStrategy(TlsSessions.sharedContext(),
+                                SSLIOSessionStrategy.getDefaultHostnameVerifier()))
+                        .build(),
+                DefaultSchemePortResolver.INSTANCE,
+                SystemDefaultDnsResolver.INSTANCE,
+                clientConfig.getConnectionTimeToLive(),
+                TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(clientConfig.getMaxConnectionTotal());
+        connectionManager.setDefaultMaxPerRoute(clientConfig.getMaxConnectionPerRoute());
+
+        CloseableHttpAsyncClient httpClient = HttpAsyncClients
+                .custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(new KeepAliveStrategy(clientConfig.getKeepAliveTimeout()))
+                .build();
+        httpClient.start();
+        return new NioHttpTransport(httpClient, connectionManager, clientConfig.getProxy(),
+                clientConfig.getConnectionTimeout(), clientConfig.getMaxResponseSize());
+    }
+
+    @Override
+    public ViSearchHttpResponse execute(HttpUriRequest request) {
+        ListenableFuture<ViSearchHttpResponse> future = executeAsync(request);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InternalViSearchException) {
+                throw (InternalViSearchException) e.getCause();
+            }
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e.getCause());
+        }
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> executeAsync(final HttpUriRequest request) {
+        final SettableFuture<ViSearchHttpResponse> result = SettableFuture.create();
+        try {
+            bufferEntity(request);
+        } catch (IOException e) {
+            result.setException(new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e));
+            return result;
+        }
+
+        final Future<HttpResponse> exchange = httpClient.execute(
+                HttpAsyncMethods.create(URIUtils.extractHost(request.getURI()), request),
+                new BoundedResponseConsumer(maxResponseSize), new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                try {
+                    result.set(new ViSearchHttpResponse(response));
+                } catch (InternalViSearchException e) {
+                    result.setException(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.setException(new InternalViSearchException(e instanceof BoundedEntity.TooLargeException
+                        ? ResponseMessages.RESPONSE_TOO_LARGE : ResponseMessages.NETWORK_ERROR, e));
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled()) {
+                    exchange.cancel(true);
+                    if (request instanceof HttpRequestBase) {
+                        ((HttpRequestBase) request).abort();
+                    }
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    /**
+     * Buffers the response in memory, failing once the body received is
+     * larger than the max response size.
+     */
+    private static final class BoundedResponseConsumer extends BasicAsyncResponseConsumer {
+
+        private final long maxSize;
+
+        private long received;
+
+        BoundedResponseConsumer(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+            if (maxSize > 0 && entity.getContentLength() > maxSize) {
+                throw new BoundedEntity.TooLargeException(maxSize);
+            }
+            super.onEntityEnclosed(entity, contentType);
+        }
+
+        @Override
+        protected void onContentReceived(final ContentDecoder decoder, IOControl ioctrl) throws IOException {
+            if (maxSize <= 0) {
+                super.onContentReceived(decoder, ioctrl);
+                return;
+            }
+            super.onContentReceived(new ContentDecoder() {
+                @Override
+                public int read(ByteBuffer dst) throws IOException {
+                    int n = decoder.read(dst);
+                    if (n > 0 && (received += n) > maxSize) {
+                        throw new BoundedEntity.TooLargeException(maxSize);
+                    }
+                    return n;
+                }
+
+                @Override
+                public boolean isCompleted() {
+                    return decoder.isCompleted();
+                }
+            }, ioctrl);
+        }
+    }
+
+    /**
+     * Entities that can only be written to a stream (multipart bodies above a
+     * few KB) cannot be streamed by the I/O reactor, so they are written to
+     * memory before the request is handed over.
+     */
+    private static void bufferEntity(HttpUriRequest request) throws IOException {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+        HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+        HttpEntity entity = enclosingRequest.getEntity();
+        if (entity == null || entity instanceof HttpAsyncContentProducer) {
+            return;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        NByteArrayEntity buffered = new NByteArrayEntity(out.toByteArray());
+        buffered.setContentType(entity.getContentType());
+        buffered.setContentEncoding(entity.getContentEncoding());
+        enclosingRequest.setEntity(buffered);
+    }
+
+    /**
+     * Connections are opened concurrently by the I/O reactor. Their TLS
+     * handshake completes in the background once they are back in the pool.
+     * Connections through a proxy are not warmed up, as tunnelling is done by
+     * the request execution.
+     */
+    @Override
+    public int warmUp(HttpHost host, int connections) {
+        if (proxy != null || connections <= 0) {
+            return 0;
+        }
+        HttpRoute route = new HttpRoute(host, null, "https".equalsIgnoreCase(host.getSchemeName()));
+        int count = Math.min(connections, connectionManager.getMaxPerRoute(route));
+        List<Future<NHttpClientConnection>> leases = new ArrayList<Future<NHttpClientConnection>>(count);
+        // hold every connection until the end so that each lease opens a new one
+        for (int i = 0; i < count; i++) {
+            leases.add(connectionManager.requestConnection(route, null, connectTimeout, connectTimeout,
+                    TimeUnit.MILLISECONDS, null));
+        }
+        List<NHttpClientConnection> leased = new ArrayList<NHttpClientConnection>(count);
+        int ready = 0;
+        for (Future<NHttpClientConnection> lease : leases) {
+            try {
+                NHttpClientConnection connection = lease.get();
+                leased.add(connection);
+                if (!connectionManager.isRouteComplete(connection)) {
+                    HttpClientContext context = HttpClientContext.create();
+                    connectionManager.startRoute(connection, route, context);
+                    connectionManager.routeComplete(connection, route, context);
+                }
+                ready++;
+            } catch (InterruptedException e) {
+                lease.cancel(true);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // host unreachable or pool busy, requests will report it
+            } catch (IOException e) {
+                // TLS layering failed, requests will report it
+            }
+        }
+        for (NHttpClientConnection connection : leased) {
+            connectionManager.releaseConnection(connection, null, -1, TimeUnit.MILLISECONDS);
+        }
+        return ready;
+    }
+
+    @Override
+    public void closeIdleConnections(long idleTimeout) {
+        connectionManager.closeExpiredConnections();
+        if (idleTimeout > 0) {
+            connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }
+        // pending pool requests only time out when the pool is validated
+        connectionManager.validatePendingRequests();
+    }
+
+    @Override
+    public ConnectionPoolStats getPoolStats() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return new ConnectionPoolStats(stats.getLeased(), stats.getAvailable(), stats.getPending(), stats.getMax());
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            // nothing left to do with a client that failed to close
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.visenze.visearch.internal.http;
+
+/**
+ * Token bucket capping extra requests, hedges or retries, to a share of all
+ * requests. Every request adds the ratio to the budget and every extra
+ * request takes one token, so the extra load stays bounded even when the
+ * server is slow or failing for everyone.
+ */
+final class RequestBudget {
+
+    /**
+     * Max extra requests the budget can save up for a burst
+     */
+    private static final double MAX_TOKENS = 10;
+
+    private final double ratio;
+
+    private double tokens = 1;
+
+    /**
+     * @param ratio extra requests allowed per request, between 0 and 1
+     */
+    RequestBudget(double ratio) {
+        this.ratio = ratio;
+    }
+
+    synchronized void deposit() {
+        tokens = Math.min(MAX_TOKENS, tokens + ratio);
+    }
+
+    /**
+     * @return true if an extra request may be sent
+     */
+    synchronized boolean withdraw() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+}
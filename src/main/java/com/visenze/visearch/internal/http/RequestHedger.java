@@ -0,0 +1,276 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.visenze.visearch.HedgePolicy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends a request again when it is slower than the hedge delay of a
+ * {@link HedgePolicy} and completes with the first response. Hedges are paid
+ * for from a {@link RequestBudget} filled at the max hedge ratio.
+ */
+final class RequestHedger {
+
+    /**
+     * Number of recent latencies the percentile delay is computed over
+     */
+    private static final int LATENCY_WINDOW = 1024;
+
+    /**
+     * The percentile is recomputed after this many new latencies
+     */
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private final HedgePolicy policy;
+
+    private final ScheduledExecutorService timer;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+
+    private int latencyCount;
+
+    private int sinceRecompute;
+
+    private long percentileDelay = -1;
+
+    private final RequestBudget budget;
+
+    private final AtomicLong hedgeCount = new AtomicLong();
+
+    RequestHedger(HedgePolicy policy) {
+        this(policy, RequestTimer.shared());
+    }
+
+    RequestHedger(HedgePolicy policy, ScheduledExecutorService timer) {
+        this.policy = policy;
+        this.timer = timer;
+        this.budget = new RequestBudget(policy.getMaxHedgeRatio());
+    }
+
+    /**
+     * @param method http method
+     * @param path request path
+     * @return true if requests of this kind are idempotent and may be hedged
+     */
+    boolean isHedgeable(String method, String path) {
+        return "GET".equals(method) || ("POST".equals(method) && policy.getPostPaths().contains(path));
+    }
+
+    /**
+     * Send a request, and send it again if it is slower than the hedge delay.
+     * Cancelling the returned future cancels every attempt.
+     *
+     * @param sender sends a freshly built request on every call
+     * @return future of the first response
+     */
+    ListenableFuture<ViSearchHttpResponse> execute(Supplier<ListenableFuture<ViSearchHttpResponse>> sender) {
+        budget.deposit();
+        Race race = new Race(sender);
+        race.start(hedgeDelay());
+        return race.result;
+    }
+
+    /**
+     * @return number of hedged requests sent so far
+     */
+    long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * @return current hedge delay in milliseconds
+     */
+    synchronized long hedgeDelay() {
+        if (policy.getPercentile() <= 0 || latencyCount < Math.max(1, policy.getMinSamples())) {
+            return policy.getDelay();
+        }
+        if (percentileDelay < 0 || sinceRecompute >= RECOMPUTE_INTERVAL) {
+            int size = Math.min(latencyCount, LATENCY_WINDOW);
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(policy.getPercentile() / 100 * size) - 1;
+            percentileDelay = sorted[Math.max(0, Math.min(index, size - 1))];
+            sinceRecompute = 0;
+        }
+        return percentileDelay;
+    }
+
+    synchronized void recordLatency(long millis) {
+        latencies[latencyCount % LATENCY_WINDOW] = millis;
+        latencyCount++;
+        sinceRecompute++;
+    }
+
+    /**
+     * Attempts of one request. The first response wins, and the request only
+     * fails once every attempt failed. A failure before the hedge delay is
+     * reported right away rather than hedged.
+     */
+    private final class Race {
+
+        final SettableFuture<ViSearchHttpResponse> result = SettableFuture.create();
+
+        private final Supplier<ListenableFuture<ViSearchHttpResponse>> sender;
+
+        private final long start = System.nanoTime();
+
+        private final List<ListenableFuture<ViSearchHttpResponse>> attempts =
+                new ArrayList<ListenableFuture<ViSearchHttpResponse>>(2);
+
+        private int launched;
+
+        private int failures;
+
+        private boolean decided;
+
+        private ScheduledFuture<?> hedgeTimer;
+
+        Race(Supplier<ListenableFuture<ViSearchHttpResponse>> sender) {
+            this.sender = sender;
+        }
+
+        void start(long delay) {
+            result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (result.isCancelled() && decide()) {
+                        cancelLosers(null);
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+            synchronized (this) {
+                launched++;
+            }
+            launch();
+            synchronized (this) {
+                if (!decided) {
+                    hedgeTimer = timer.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            hedge();
+                        }
+                    }, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                if (decided || !budget.withdraw()) {
+                    return;
+                }
+                // counted before sending, so a failure meanwhile waits for it
+                launched++;
+            }
+            hedgeCount.incrementAndGet();
+            launch();
+        }
+
+        private void launch() {
+            final ListenableFuture<ViSearchHttpResponse> attempt = sender.get();
+            boolean done;
+            synchronized (this) {
+                attempts.add(attempt);
+                done = decided;
+            }
+            if (done) {
+                discard(attempt);
+                return;
+            }
+            Futures.addCallback(attempt, new FutureCallback<ViSearchHttpResponse>() {
+                @Override
+                public void onSuccess(ViSearchHttpResponse response) {
+                    if (!decide()) {
+                        // lost the race
+                        closeQuietly(response);
+                        return;
+                    }
+                    // losers are cancelled before the caller sees the response
+                    cancelLosers(attempt);
+                    recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    if (!result.set(response)) {
+                        closeQuietly(response);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failed(t);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        private void failed(Throwable t) {
+            synchronized (this) {
+                failures++;
+                if (failures < launched || decided) {
+                    return;
+                }
+                decided = true;
+            }
+            cancelLosers(null);
+            result.setException(t);
+        }
+
+        private synchronized boolean decide() {
+            if (decided) {
+                return false;
+            }
+            decided = true;
+            return true;
+        }
+
+        /**
+         * Stop the hedge timer and cancel every attempt but the winner.
+         */
+        private void cancelLosers(ListenableFuture<ViSearchHttpResponse> winner) {
+            List<ListenableFuture<ViSearchHttpResponse>> losers;
+            synchronized (this) {
+                if (hedgeTimer != null) {
+                    hedgeTimer.cancel(false);
+                }
+                losers = new ArrayList<ListenableFuture<ViSearchHttpResponse>>(attempts);
+            }
+            for (ListenableFuture<ViSearchHttpResponse> attempt : losers) {
+                if (attempt != winner && !attempt.isDone()) {
+                    attempt.cancel(true);
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(ViSearchHttpResponse response) {
+        if (response != null) {
+            response.close();
+        }
+    }
+
+    /**
+     * Cancel an attempt started after the race was decided, closing its
+     * response if it already arrived.
+     */
+    private static void discard(ListenableFuture<ViSearchHttpResponse> attempt) {
+        if (attempt.cancel(true) || attempt.isCancelled()) {
+            return;
+        }
+        try {
+            closeQuietly(Uninterruptibles.getUninterruptibly(attempt));
+        } catch (ExecutionException e) {
+            // no response, nothing to release
+        }
+    }
+}
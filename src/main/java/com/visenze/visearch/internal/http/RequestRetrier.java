@@ -0,0 +1,299 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.RetryPolicy;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.utils.DateUtils;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends a request again, after a backoff, while it fails with a network
+ * error or a transient status and the {@link RetryPolicy} allows more
+ * attempts. Retries are paid for from a {@link RequestBudget} filled at the
+ * max retry ratio.
+ */
+final class RequestRetrier {
+
+    /**
+     * Paths of calls changing data, only retried when the policy allows it
+     */
+    static final Set<String> WRITE_PATHS = ImmutableSet.of("/insert", "/remove");
+
+    private static final Set<Integer> RETRYABLE_STATUS_CODES = ImmutableSet.of(429, 502, 503, 504);
+
+    private final RetryPolicy policy;
+
+    private final ScheduledExecutorService timer;
+
+    private final Random random;
+
+    private final RequestBudget budget;
+
+    private final AtomicLong retryCount = new AtomicLong();
+
+    RequestRetrier(RetryPolicy policy) {
+        this(policy, RequestTimer.shared(), new Random());
+    }
+
+    RequestRetrier(RetryPolicy policy, ScheduledExecutorService timer, Random random) {
+        this.policy = policy;
+        this.timer = timer;
+        this.random = random;
+        this.budget = new RequestBudget(policy.getMaxRetryRatio());
+    }
+
+    /**
+     * @param path request path
+     * @return true if calls to the path may be retried
+     */
+    boolean isRetryable(String path) {
+        return policy.isRetryWrites() || !isWrite(path);
+    }
+
+    static boolean isWrite(String path) {
+        return WRITE_PATHS.contains(path);
+    }
+
+    /**
+     * @return number of retries sent so far
+     */
+    long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Send a request, retrying on the calling thread.
+     *
+     * @param sender sends a freshly built request on every call
+     * @param deadline deadline of the call as a {@link System#nanoTime()}, null if it has none
+     * @return the response of the last attempt
+     */
+    ViSearchHttpResponse execute(Supplier<ViSearchHttpResponse> sender, Long deadline) {
+        budget.deposit();
+        for (int attempt = 1; ; attempt++) {
+            ViSearchHttpResponse response;
+            try {
+                response = sender.get();
+            } catch (InternalViSearchException e) {
+                long delay = retryDelay(attempt, null, e, deadline);
+                if (delay < 0) {
+                    throw e;
+                }
+                sleep(delay);
+                continue;
+            }
+            long delay = retryDelay(attempt, response, null, deadline);
+            if (delay < 0) {
+                return response;
+            }
+            response.close();
+            sleep(delay);
+        }
+    }
+
+    private static void sleep(long delay) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+        }
+    }
+
+    /**
+     * Send a request, scheduling retries on the request timer. Cancelling
+     * the returned future cancels the current attempt and any further one.
+     *
+     * @param sender sends a freshly built request on every call
+     * @param deadline deadline of the call as a {@link System#nanoTime()}, null if it has none
+     * @return future of the response of the last attempt
+     */
+    ListenableFuture<ViSearchHttpResponse> executeAsync(Supplier<ListenableFuture<ViSearchHttpResponse>> sender,
+                                                        Long deadline) {
+        budget.deposit();
+        AsyncRetry retry = new AsyncRetry(sender, deadline);
+        retry.send();
+        return retry.result;
+    }
+
+    /**
+     * @param attempt number of the attempt that just completed, from 1
+     * @param response response of the attempt, null if it failed
+     * @param error failure of the attempt, null if it has a response
+     * @param deadline deadline of the call as a {@link System#nanoTime()}, null if it has none
+     * @return milliseconds to wait before the next attempt, negative to stop
+     */
+    long retryDelay(int attempt, ViSearchHttpResponse response, InternalViSearchException error, Long deadline) {
+        if (attempt >= policy.getMaxAttempts()) {
+            return -1;
+        }
+        long delay;
+        if (error != null) {
+            if (error.getResponseMessage() != ResponseMessages.NETWORK_ERROR) {
+                return -1;
+            }
+            delay = backoff(attempt);
+        } else {
+            if (response == null || !RETRYABLE_STATUS_CODES.contains(response.getStatusCode())) {
+                return -1;
+            }
+            long retryAfter = retryAfter(response.getHeaders());
+            if (retryAfter > policy.getMaxRetryAfter()) {
+                return -1;
+            }
+            delay = retryAfter >= 0 ? retryAfter : backoff(attempt);
+        }
+        if (deadline != null && System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) >= deadline) {
+            // the retry could not complete in time
+            return -1;
+        }
+        if (!budget.withdraw()) {
+            return -1;
+        }
+        retryCount.incrementAndGet();
+        return delay;
+    }
+
+    long backoff(int attempt) {
+        return policy.backoff(attempt, random);
+    }
+
+    /**
+     * @return wait asked for by a Retry-After header in milliseconds, -1 if
+     *         there is none or it cannot be parsed
+     */
+    static long retryAfter(Map<String, String> headers) {
+        String value = null;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (HttpHeaders.RETRY_AFTER.equalsIgnoreCase(header.getKey())) {
+                value = header.getValue();
+                break;
+            }
+        }
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Attempts of one asynchronous call
+     */
+    private final class AsyncRetry {
+
+        final SettableFuture<ViSearchHttpResponse> result = SettableFuture.create();
+
+        private final Supplier<ListenableFuture<ViSearchHttpResponse>> sender;
+
+        private final Long deadline;
+
+        private int attempt;
+
+        private Future<?> pending;
+
+        AsyncRetry(Supplier<ListenableFuture<ViSearchHttpResponse>> sender, Long deadline) {
+            this.sender = sender;
+            this.deadline = deadline;
+            result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (result.isCancelled()) {
+                        cancelPending();
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        void send() {
+            final ListenableFuture<ViSearchHttpResponse> response = sender.get();
+            synchronized (this) {
+                attempt++;
+                pending = response;
+            }
+            if (result.isCancelled()) {
+                response.cancel(true);
+                return;
+            }
+            Futures.addCallback(response, new FutureCallback<ViSearchHttpResponse>() {
+                @Override
+                public void onSuccess(ViSearchHttpResponse response) {
+                    completed(response, null);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    if (t instanceof InternalViSearchException) {
+                        completed(null, (InternalViSearchException) t);
+                    } else {
+                        result.setException(t);
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        private void completed(ViSearchHttpResponse response, InternalViSearchException error) {
+            long delay = result.isDone() ? -1 : retryDelay(currentAttempt(), response, error, deadline);
+            if (delay < 0) {
+                if (error != null) {
+                    result.setException(error);
+                } else if (!result.set(response) && response != null) {
+                    response.close();
+                }
+                return;
+            }
+            if (response != null) {
+                response.close();
+            }
+            Future<?> scheduled;
+            synchronized (this) {
+                // under the lock, so the retry cannot replace it before it is set
+                scheduled = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        send();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+                pending = scheduled;
+            }
+            if (result.isCancelled()) {
+                scheduled.cancel(false);
+            }
+        }
+
+        private synchronized int currentAttempt() {
+            return attempt;
+        }
+
+        private void cancelPending() {
+            Future<?> current;
+            synchronized (this) {
+                current = pending;
+            }
+            if (current != null) {
+                current.cancel(true);
+            }
+        }
+    }
+}
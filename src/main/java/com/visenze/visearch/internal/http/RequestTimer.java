@@ -0,0 +1,27 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Timer of delayed request attempts, hedges and retries, shared by every
+ * client in the process. Tasks only send requests, so one thread is enough.
+ */
+final class RequestTimer {
+
+    private RequestTimer() {
+    }
+
+    private static final class Holder {
+        static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("visearch-request-timer-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    static ScheduledExecutorService shared() {
+        return Holder.TIMER;
+    }
+}
@@ -0,0 +1,25 @@
+package com.visenze.visearch.internal.http;
+
+import org.apache.http.ssl.SSLContexts;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Holds the SSL context of every transport in the process. TLS sessions are
+ * cached per context, so sharing it lets a new connection, whichever pool
+ * opens it, resume a session negotiated earlier with the same host and skip
+ * the full handshake.
+ */
+final class TlsSessions {
+
+    private TlsSessions() {
+    }
+
+    private static final class Holder {
+        static final SSLContext CONTEXT = SSLContexts.createDefault();
+    }
+
+    static SSLContext sharedContext() {
+        return Holder.CONTEXT;
+    }
+}
@@ -0,0 +1,28 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * Http client that can send requests without waiting for the response.
+ * Cancelling a returned future aborts the underlying exchange. On the
+ * blocking transport the exchange runs on the configured async executor, or
+ * on the calling thread for a client built on an external http client.
+ * Request and network errors are reported through the returned future.
+ */
+public interface ViSearchAsyncHttpClient extends ViSearchHttpClient {
+
+    ListenableFuture<ViSearchHttpResponse> getAsync(String url, Multimap<String, String> params);
+
+    ListenableFuture<ViSearchHttpResponse> postAsync(String url, Multimap<String, String> params);
+
+    ListenableFuture<ViSearchHttpResponse> postImageAsync(String url, Multimap<String, String> params, File file);
+
+    ListenableFuture<ViSearchHttpResponse> postImageAsync(String url, Multimap<String, String> params, InputStream inputStream, String filename);
+
+    ListenableFuture<ViSearchHttpResponse> postImFeatureAsync(String url, Multimap<String, String> params, String imFeature, String transId);
+
+}
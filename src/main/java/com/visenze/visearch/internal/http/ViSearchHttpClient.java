@@ -1,6 +1,9 @@
 package com.visenze.visearch.internal.http;
 
 import com.google.common.collect.Multimap;
+import com.visenze.visearch.ConnectionPoolStats;
+import com.visenze.visearch.QueueTimeStats;
+import com.visenze.visearch.RequestPriority;
 import org.apache.http.auth.UsernamePasswordCredentials;
 
 import java.io.File;
@@ -20,5 +23,26 @@ public interface ViSearchHttpClient {
 
     ViSearchHttpResponse postImFeature(String url, Multimap<String, String> params, String imFeature , String transId);
 
+    ConnectionPoolStats getPoolStats();
+
+    /**
+     * @param priority priority of the requests
+     * @return time the requests of the priority spent in the admission queue, null if there is none
+     */
+    QueueTimeStats getQueueTimeStats(RequestPriority priority);
+
+    /**
+     * Open connections to the endpoint ahead of the first requests.
+     *
+     * @param connections number of connections to open
+     * @return number of connections ready for requests
+     */
+    int warmUp(int connections);
+
+    /**
+     * Release the connections held by this client. A client sharing a pool
+     * only gives back its reference, the pool stays open for other clients.
+     */
+    void close();
 
 }
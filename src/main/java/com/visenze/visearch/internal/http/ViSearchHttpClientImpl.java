@@ -1,54 +1,125 @@
 package com.visenze.visearch.internal.http;
 
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
-import com.google.common.collect.Maps;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.visenze.common.util.DeadlineMultimap;
+import com.visenze.visearch.AdmissionPolicy;
 import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.OperationClass;
+import com.visenze.visearch.ConnectionPoolStats;
+import com.visenze.visearch.QueueTimeStats;
+import com.visenze.visearch.RequestPriority;
 import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.TransportType;
 import com.visenze.visearch.internal.InternalViSearchException;
 import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
 import org.apache.http.*;
 import org.apache.http.auth.AuthenticationException;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.InputStreamBody;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
 
-public class ViSearchHttpClientImpl implements ViSearchHttpClient {
+public class ViSearchHttpClientImpl implements ViSearchAsyncHttpClient {
 
     public static final Charset UTF8_CHARSET = Charset.forName("utf-8") ;
 
+    private static final String GZIP = "gzip";
+
+    private static final ContentType FORM_CONTENT_TYPE = ContentType.APPLICATION_FORM_URLENCODED.withCharset(Consts.UTF_8);
+
+    private static final Header FORM_CONTENT_TYPE_HEADER = new BasicHeader(HttpHeaders.CONTENT_TYPE, FORM_CONTENT_TYPE.toString());
+
+    private static final Header ACCEPT_GZIP_HEADER = new BasicHeader(HttpHeaders.ACCEPT_ENCODING, GZIP);
+
+    private static final Header REQUESTED_WITH_HEADER = new BasicHeader(ViSearchHttpConstants.X_REQUESTED_WITH, ClientConfig.DEFAULT_XREQUEST_WITH);
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static final String INSERT_PATH = "/insert";
+
+    private static final String REMOVE_PATH = "/remove";
+
+    private static final String EXTRACT_FEATURE_PATH = "/extractfeature";
+
     protected final String endpoint;
-    CloseableHttpClient httpClient;
     protected final ClientConfig clientConfig;
     protected final UsernamePasswordCredentials credentials;
+    private final HttpTransport transport;
+    private final RequestConfig requestConfig;
+    private final Executor asyncExecutor;
+    private ConnectionPoolRegistry.Lease poolLease;
+    private final RequestHedger hedger;
+    private final RequestRetrier retrier;
+    private final ConcurrencyLimiter limiter;
+    private final CircuitBreakers breakers;
+    private final Bulkheads bulkheads;
+    private final AdmissionQueue admission;
+    private final MemoryBudget memoryBudget;
+    // constant for the life of the client, built once instead of per request
+    private final Header authHeader;
+    private final Header userAgentHeader;
 
     public ViSearchHttpClientImpl(String endpoint, String accessKey, String secretKey, CloseableHttpClient httpClient) {
         this.endpoint = endpoint;
         credentials = new UsernamePasswordCredentials(accessKey, secretKey);
-        this.httpClient = httpClient;
+        this.transport = new ApacheHttpTransport(httpClient);
+        this.requestConfig = null;
+        this.asyncExecutor = null;
+        this.hedger = null;
+        this.retrier = null;
+        this.limiter = null;
+        this.breakers = null;
+        this.bulkheads = null;
+        this.admission = null;
+        this.memoryBudget = null;
         this.clientConfig = new ClientConfig();
+        this.authHeader = basicAuthHeader(credentials);
+        this.userAgentHeader = userAgentHeader(clientConfig);
     }
 
     public ViSearchHttpClientImpl(String endpoint, String accessKey, String secretKey) {
@@ -62,20 +133,36 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
         RequestConfig.Builder configBuilder = RequestConfig
                 .custom()
                 .setConnectTimeout(clientConfig.getConnectionTimeout())
+                .setConnectionRequestTimeout(clientConfig.getConnectionRequestTimeout())
                 .setSocketTimeout(clientConfig.getSocketTimeout());
 
         if (clientConfig.getProxy() != null) {
             configBuilder.setProxy(clientConfig.getProxy());
         }
 
-        RequestConfig conf = configBuilder.build();
+        this.requestConfig = configBuilder.build();
+        // a blocking exchange must not hold the caller of an async call
+        this.asyncExecutor = clientConfig.getTransportFactory() == null
+                && clientConfig.getTransportType() == TransportType.BLOCKING
+                ? clientConfig.getAsyncExecutor() : null;
+        this.hedger = clientConfig.getHedgePolicy() == null ? null : new RequestHedger(clientConfig.getHedgePolicy());
+        this.retrier = clientConfig.getRetryPolicy() == null ? null : new RequestRetrier(clientConfig.getRetryPolicy());
+        this.limiter = clientConfig.getConcurrencyLimit() == null ? null : new ConcurrencyLimiter(clientConfig.getConcurrencyLimit());
+        this.breakers = clientConfig.getCircuitBreakerPolicy() == null ? null : new CircuitBreakers(clientConfig.getCircuitBreakerPolicy());
+        this.bulkheads = Bulkheads.create(clientConfig);
+        AdmissionPolicy admissionPolicy = clientConfig.getAdmissionPolicy();
+        this.admission = admissionPolicy == null ? null : new AdmissionQueue(admissionPolicy.getMaxInFlight() > 0
+                ? admissionPolicy.getMaxInFlight() : clientConfig.getMaxConnection());
+        this.memoryBudget = clientConfig.getMemoryBudget() > 0 ? new MemoryBudget(clientConfig.getMemoryBudget()) : null;
         credentials = new UsernamePasswordCredentials(accessKey, secretKey);
-        this.httpClient = HttpClientBuilder
-                .create()
-                .setMaxConnTotal(clientConfig.getMaxConnection())
-                .setMaxConnPerRoute(clientConfig.getMaxConnection())
-                .setDefaultRequestConfig(conf)
-                .build();
+        this.authHeader = basicAuthHeader(credentials);
+        this.userAgentHeader = userAgentHeader(clientConfig);
+        if (clientConfig.isSharedConnectionPool()) {
+            poolLease = ConnectionPoolRegistry.getInstance().acquire(endpoint, clientConfig);
+            transport = poolLease.getTransport();
+        } else {
+            transport = ConnectionPoolRegistry.createTransport(clientConfig);
+        }
     }
 
     @Override
@@ -83,44 +170,639 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
         return credentials;
     }
 
+    /**
+     * Get a snapshot of the connection pool, covering every client of the pool
+     * if it is shared.
+     *
+     * @return pool statistics, or null if the pool is not managed by this client
+     */
+    @Override
+    public ConnectionPoolStats getPoolStats() {
+        return transport.getPoolStats();
+    }
+
+    /**
+     * @return queue time of the requests of the priority, or null if the client has no admission queue
+     */
+    @Override
+    public QueueTimeStats getQueueTimeStats(RequestPriority priority) {
+        return admission == null ? null : admission.getStats(priority);
+    }
+
+    @Override
+    public int warmUp(int connections) {
+        HttpHost host;
+        try {
+            host = URIUtils.extractHost(new URI(endpoint));
+        } catch (URISyntaxException e) {
+            return 0;
+        }
+        return host == null ? 0 : transport.warmUp(host, connections);
+    }
+
+    @Override
+    public void close() {
+        if (poolLease != null) {
+            poolLease.release();
+        } else {
+            transport.close();
+        }
+    }
+
     @Override
-    public ViSearchHttpResponse get(String path, Multimap<String, String> params) {
-        HttpUriRequest request = buildGetRequest(endpoint + path, params);
-        return getResponse(request);
+    public ViSearchHttpResponse get(final String path, final Multimap<String, String> params) {
+        return send(new Call(HttpGet.METHOD_NAME, path, params, operationOf(path)), getRequest(path, params));
     }
 
     @Override
     public ViSearchHttpResponse post(String path, Multimap<String, String> params) {
-        HttpUriRequest request = buildPostRequest(endpoint + path, params);
-        return getResponse(request);
+        return send(new Call(HttpPost.METHOD_NAME, path, params, operationOf(path)), postRequest(path, params));
     }
 
     @Override
     public ViSearchHttpResponse postImage(String path, Multimap<String, String> params, File file) {
-        HttpUriRequest request = buildPostRequestForImage(endpoint + path, params, file);
-        return getResponse(request);
+        return send(new Call(HttpPost.METHOD_NAME, path, params, OperationClass.UPLOAD), postImageRequest(path, params, file));
     }
 
     @Override
     public ViSearchHttpResponse postImage(String path, Multimap<String, String> params, InputStream inputStream, String filename) {
-        HttpUriRequest request = buildPostRequestForImage(endpoint + path, params, inputStream, filename);
-        return getResponse(request);
+        return send(new Call(HttpPost.METHOD_NAME, path, params, OperationClass.UPLOAD), postImageRequest(path, params, inputStream, filename));
     }
 
     @Override
     public ViSearchHttpResponse postImFeature(String path, Multimap<String, String> params, String imFeature, String transId) {
-        HttpUriRequest request = buildPostRequestForImFeature(endpoint + path, params, imFeature);
-        if (!Strings.isNullOrEmpty(transId)) {
-            request.addHeader(ViSearchHttpConstants.TRANS_ID, transId);
+        return send(new Call(HttpPost.METHOD_NAME, path, params, OperationClass.UPLOAD), postImFeatureRequest(path, params, imFeature, transId));
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> getAsync(String path, Multimap<String, String> params) {
+        return sendAsync(new Call(HttpGet.METHOD_NAME, path, params, operationOf(path)), getRequest(path, params));
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> postAsync(String path, Multimap<String, String> params) {
+        return sendAsync(new Call(HttpPost.METHOD_NAME, path, params, operationOf(path)), postRequest(path, params));
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> postImageAsync(String path, Multimap<String, String> params, File file) {
+        return sendAsync(new Call(HttpPost.METHOD_NAME, path, params, OperationClass.UPLOAD), postImageRequest(path, params, file));
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> postImageAsync(String path, Multimap<String, String> params, InputStream inputStream, String filename) {
+        try {
+            return sendAsync(new Call(HttpPost.METHOD_NAME, path, params, OperationClass.UPLOAD), postImageRequest(path, params, inputStream, filename));
+        } catch (InternalViSearchException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> postImFeatureAsync(String path, Multimap<String, String> params, String imFeature, String transId) {
+        return sendAsync(new Call(HttpPost.METHOD_NAME, path, params, OperationClass.UPLOAD), postImFeatureRequest(path, params, imFeature, transId));
+    }
+
+    /*
+     * Requests are built by a supplier, so that a hedge or a retry sends a
+     * fresh request of its own.
+     */
+
+    private Supplier<HttpUriRequest> getRequest(final String path, final Multimap<String, String> params) {
+        return new Supplier<HttpUriRequest>() {
+            @Override
+            public HttpUriRequest get() {
+                return buildGetRequest(endpoint + path, params);
+            }
+        };
+    }
+
+    private Supplier<HttpUriRequest> postRequest(final String path, final Multimap<String, String> params) {
+        // every attempt of a retried write carries the same transaction token
+        final String transId = retrier != null && RequestRetrier.isWrite(path) && retrier.isRetryable(path)
+                ? UUID.randomUUID().toString() : null;
+        return new Supplier<HttpUriRequest>() {
+            @Override
+            public HttpUriRequest get() {
+                HttpUriRequest request = compressRequest(path, buildPostRequest(endpoint + path, params));
+                if (transId != null) {
+                    request.setHeader(ViSearchHttpConstants.TRANS_ID, transId);
+                }
+                return request;
+            }
+        };
+    }
+
+    private Supplier<HttpUriRequest> postImageRequest(final String path, final Multimap<String, String> params, final File file) {
+        return new Supplier<HttpUriRequest>() {
+            @Override
+            public HttpUriRequest get() {
+                return compressRequest(path, buildPostRequestForImage(endpoint + path, params, file));
+            }
+        };
+    }
+
+    private Supplier<HttpUriRequest> postImageRequest(final String path, final Multimap<String, String> params,
+                                                      final InputStream inputStream, final String filename) {
+        if (!isRetried(path)) {
+            // the stream can only be sent once
+            return Suppliers.ofInstance(compressRequest(path,
+                    buildPostRequestForImage(endpoint + path, params, inputStream, filename)));
+        }
+        final byte[] image;
+        try {
+            image = ByteStreams.toByteArray(inputStream);
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+        }
+        return new Supplier<HttpUriRequest>() {
+            @Override
+            public HttpUriRequest get() {
+                return compressRequest(path, buildPostRequestForImage(endpoint + path, params, image, filename));
+            }
+        };
+    }
+
+    private Supplier<HttpUriRequest> postImFeatureRequest(final String path, final Multimap<String, String> params,
+                                                          final String imFeature, final String transId) {
+        return new Supplier<HttpUriRequest>() {
+            @Override
+            public HttpUriRequest get() {
+                return compressRequest(path, buildPostRequestForImFeature(endpoint + path, params, imFeature, transId));
+            }
+        };
+    }
+
+    /**
+     * @return operation class of a get or post without an image
+     */
+    private static OperationClass operationOf(String path) {
+        if (path.startsWith(INSERT_PATH) || path.equals(REMOVE_PATH)) {
+            return OperationClass.DATA;
+        }
+        return path.equals(EXTRACT_FEATURE_PATH) ? OperationClass.UPLOAD : OperationClass.SEARCH;
+    }
+
+    /**
+     * What every attempt of one call shares
+     */
+    private static final class Call {
+
+        final String method;
+
+        final String path;
+
+        final OperationClass operation;
+
+        /**
+         * App key and placement id of a Product Search call, "" for others
+         */
+        final String tenant;
+
+        /**
+         * Deadline of the call as a {@link System#nanoTime()}, null if it has none
+         */
+        final Long deadline;
+
+        /**
+         * Thread of a blocking call, which attempts run by it may hold while
+         * waiting for permits, null for an async call
+         */
+        final Thread caller;
+
+        Call(String method, String path, Multimap<String, String> params, OperationClass operation) {
+            this.method = method;
+            this.path = path;
+            this.operation = operation;
+            this.tenant = tenantOf(params);
+            this.deadline = DeadlineMultimap.deadlineOf(params);
+            this.caller = null;
+        }
+
+        private Call(Call call, Thread caller) {
+            this.method = call.method;
+            this.path = call.path;
+            this.operation = call.operation;
+            this.tenant = call.tenant;
+            this.deadline = call.deadline;
+            this.caller = caller;
+        }
+
+        /**
+         * @return this call, made by the current thread waiting for it
+         */
+        Call blocking() {
+            return new Call(this, Thread.currentThread());
+        }
+
+        /**
+         * @return true if an attempt run by the current thread must not wait for permits
+         */
+        boolean isNoWait() {
+            return Thread.currentThread() != caller;
+        }
+    }
+
+    private static String tenantOf(Multimap<String, String> params) {
+        if (params == null) {
+            return "";
+        }
+        Collection<String> appKey = params.get(ViSearchHttpConstants.APP_KEY);
+        Collection<String> placementId = params.get(ViSearchHttpConstants.PLACEMENT_ID);
+        if (appKey.isEmpty() && placementId.isEmpty()) {
+            return "";
+        }
+        return Joiner.on(',').join(appKey) + '/' + Joiner.on(',').join(placementId);
+    }
+
+    private boolean isHedged(Call call) {
+        // an upload may stream a one-shot body, which two attempts cannot share
+        return hedger != null && call.operation != OperationClass.UPLOAD && hedger.isHedgeable(call.method, call.path);
+    }
+
+    private boolean isRetried(String path) {
+        return retrier != null && retrier.isRetryable(path);
+    }
+
+    private ViSearchHttpResponse send(final Call call, final Supplier<HttpUriRequest> request) {
+        if (isHedged(call)) {
+            // attempts started by this thread wait for permits like other blocking calls
+            return await(sendAsync(call.blocking(), request));
+        }
+        if (isRetried(call.path)) {
+            return retrier.execute(new Supplier<ViSearchHttpResponse>() {
+                @Override
+                public ViSearchHttpResponse get() {
+                    return sendOnce(call, request);
+                }
+            }, call.deadline);
+        }
+        return sendOnce(call, request);
+    }
+
+    private boolean isGuarded() {
+        return breakers != null || bulkheads != null || limiter != null || memoryBudget != null;
+    }
+
+    /**
+     * Send a single attempt, once admitted by the admission queue if there is one.
+     */
+    private ViSearchHttpResponse sendOnce(Call call, Supplier<HttpUriRequest> request) {
+        if (admission == null) {
+            return sendGuarded(call, request);
+        }
+        AdmissionQueue.Permit permit = admit(call);
+        ViSearchHttpResponse response;
+        try {
+            response = sendGuarded(call, request);
+        } catch (RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+        releaseOnClose(response, permit);
+        return response;
+    }
+
+    /**
+     * Give an admission permit back once the response no longer holds its connection.
+     */
+    private static void releaseOnClose(ViSearchHttpResponse response, final AdmissionQueue.Permit permit) {
+        response.onRelease(new Runnable() {
+            @Override
+            public void run() {
+                permit.release();
+            }
+        });
+    }
+
+    /**
+     * Wait for the admission of a blocking attempt, up to the max queue time.
+     *
+     * @throws InternalViSearchException with SYSTEM_BUSY if the attempt was not admitted in time
+     */
+    private AdmissionQueue.Permit admit(Call call) {
+        AdmissionPolicy policy = clientConfig.getAdmissionPolicy();
+        ListenableFuture<AdmissionQueue.Permit> admitted = admission.admit(policy.getPriority(call.path), call.tenant);
+        long maxWait = policy.getMaxQueueTime();
+        if (call.deadline != null) {
+            maxWait = Math.min(maxWait, remainingMillis(call.deadline));
+        }
+        try {
+            return admitted.get(maxWait, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (admitted.cancel(false)) {
+                throw new InternalViSearchException(ResponseMessages.SYSTEM_BUSY);
+            }
+            // admitted in the meantime
+            return Futures.getUnchecked(admitted);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!admitted.cancel(false)) {
+                Futures.getUnchecked(admitted).release();
+            }
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+        } catch (ExecutionException e) {
+            // a permit future is never failed
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Send a single attempt, through the circuit breaker of the path and
+     * within the bulkhead of the operation and the concurrency limit, if
+     * there are any.
+     */
+    private ViSearchHttpResponse sendGuarded(Call call, Supplier<HttpUriRequest> request) {
+        if (!isGuarded()) {
+            return getResponse(withDeadline(request.get(), call.deadline));
+        }
+        Attempt attempt = new Attempt(call);
+        ViSearchHttpResponse response;
+        try {
+            attempt.acquire(false);
+            HttpUriRequest built = request.get();
+            attempt.acquireMemory(built, false);
+            response = getResponse(withDeadline(built, call.deadline));
+        } catch (RuntimeException e) {
+            attempt.completed(null, e);
+            throw e;
+        }
+        attempt.completed(response, null);
+        return response;
+    }
+
+    /**
+     * Send a single attempt once admitted by the admission queue, if there
+     * is one. Cancelling the attempt while it waits takes it out of the queue.
+     */
+    private ListenableFuture<ViSearchHttpResponse> sendOnceAsync(final Call call, final Supplier<HttpUriRequest> request) {
+        if (admission == null) {
+            return sendGuardedAsync(call, request);
+        }
+        RequestPriority priority = clientConfig.getAdmissionPolicy().getPriority(call.path);
+        return Futures.transformAsync(admission.admit(priority, call.tenant),
+                new AsyncFunction<AdmissionQueue.Permit, ViSearchHttpResponse>() {
+                    @Override
+                    public ListenableFuture<ViSearchHttpResponse> apply(final AdmissionQueue.Permit permit) {
+                        ListenableFuture<ViSearchHttpResponse> response;
+                        try {
+                            response = sendGuardedAsync(call, request);
+                        } catch (RuntimeException e) {
+                            permit.release();
+                            throw e;
+                        }
+                        Futures.addCallback(response, new FutureCallback<ViSearchHttpResponse>() {
+                            @Override
+                            public void onSuccess(ViSearchHttpResponse response) {
+                                releaseOnClose(response, permit);
+                            }
+
+                            @Override
+                            public void onFailure(Throwable t) {
+                                permit.release();
+                            }
+                        }, MoreExecutors.directExecutor());
+                        return response;
+                    }
+                }, MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<ViSearchHttpResponse> sendGuardedAsync(Call call, Supplier<HttpUriRequest> request) {
+        if (!isGuarded()) {
+            return getResponseAsync(withDeadline(request.get(), call.deadline));
+        }
+        final Attempt attempt = new Attempt(call);
+        ListenableFuture<ViSearchHttpResponse> response;
+        try {
+            // an async call is rejected rather than holding its caller, and
+            // hedges and retries rather than holding the timer thread
+            boolean noWait = call.isNoWait();
+            attempt.acquire(noWait);
+            HttpUriRequest built = request.get();
+            attempt.acquireMemory(built, noWait);
+            response = getResponseAsync(withDeadline(built, call.deadline));
+        } catch (RuntimeException e) {
+            attempt.completed(null, e);
+            throw e;
+        }
+        Futures.addCallback(response, new FutureCallback<ViSearchHttpResponse>() {
+            @Override
+            public void onSuccess(ViSearchHttpResponse response) {
+                attempt.completed(response, null);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                attempt.completed(null, t);
+            }
+        }, MoreExecutors.directExecutor());
+        return response;
+    }
+
+    /**
+     * Holds the permits of one attempt and reports its outcome to the
+     * circuit breaker and the concurrency limiter. The bulkhead and the
+     * concurrency limit are held until the response is read or closed, as
+     * the connection is until then.
+     */
+    private final class Attempt {
+
+        private final Call call;
+
+        private final CircuitBreaker breaker;
+
+        private boolean breakerAcquired;
+
+        private boolean bulkheadAcquired;
+
+        private boolean limiterAcquired;
+
+        private long bodyBytes;
+
+        private long start;
+
+        Attempt(Call call) {
+            this.call = call;
+            this.breaker = breakers == null ? null : breakers.forPath(call.path);
+        }
+
+        /**
+         * @param async true to not wait for a permit
+         */
+        void acquire(boolean async) {
+            long remaining = call.deadline == null ? Long.MAX_VALUE : remainingMillis(call.deadline);
+            if (breaker != null) {
+                breaker.acquire();
+                breakerAcquired = true;
+            }
+            if (bulkheads != null) {
+                int leaseTimeout = clientConfig.getConnectionRequestTimeout();
+                long maxWait = leaseTimeout < 0 ? Long.MAX_VALUE : leaseTimeout;
+                bulkheads.acquire(call.operation, async ? 0 : Math.min(maxWait, remaining));
+                bulkheadAcquired = true;
+            }
+            if (limiter != null) {
+                long maxWait = clientConfig.getConcurrencyLimit().getMaxWait();
+                limiter.acquire(async ? 0 : Math.min(maxWait, remaining));
+                limiterAcquired = true;
+            }
+            start = System.nanoTime();
+        }
+
+        /**
+         * Take the bytes of the encoded body of the request from the memory
+         * budget, if there is one, until the attempt completes.
+         *
+         * @param async true to not wait for the bytes
+         */
+        void acquireMemory(HttpUriRequest request, boolean async) {
+            if (memoryBudget == null) {
+                return;
+            }
+            long bytes = 0;
+            if (request instanceof HttpEntityEnclosingRequest) {
+                HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+                bytes = entity == null ? 0 : Math.max(0, entity.getContentLength());
+            }
+            long remaining = call.deadline == null ? Long.MAX_VALUE : remainingMillis(call.deadline);
+            int leaseTimeout = clientConfig.getConnectionRequestTimeout();
+            long maxWait = leaseTimeout < 0 ? Long.MAX_VALUE : leaseTimeout;
+            memoryBudget.acquire(bytes, async ? 0 : Math.min(maxWait, remaining));
+            bodyBytes = bytes;
+            start = System.nanoTime();
+        }
+
+        void completed(final ViSearchHttpResponse response, Throwable error) {
+            final long latency = System.nanoTime() - start;
+            final boolean networkError = error instanceof InternalViSearchException
+                    && ((InternalViSearchException) error).getResponseMessage() == ResponseMessages.NETWORK_ERROR;
+            if (bodyBytes > 0) {
+                memoryBudget.release(bodyBytes);
+            }
+            if (breakerAcquired) {
+                if (networkError || response != null && response.getStatusCode() >= 500) {
+                    breaker.failed(latency);
+                } else if (response != null) {
+                    breaker.succeeded(latency);
+                } else {
+                    breaker.ignored();
+                }
+            }
+            if (response == null) {
+                released(null, latency, networkError);
+                return;
+            }
+            response.onRelease(new Runnable() {
+                @Override
+                public void run() {
+                    released(response, latency, networkError);
+                }
+            });
+        }
+
+        private void released(ViSearchHttpResponse response, long latency, boolean networkError) {
+            if (bulkheadAcquired) {
+                bulkheads.release(call.operation);
+            }
+            if (limiterAcquired) {
+                if (networkError || response != null && ConcurrencyLimiter.isOverload(response.getStatusCode())) {
+                    limiter.dropped();
+                } else if (response != null) {
+                    limiter.succeeded(latency);
+                } else {
+                    limiter.ignored();
+                }
+            }
+        }
+    }
+
+    private ListenableFuture<ViSearchHttpResponse> sendAsync(final Call call, final Supplier<HttpUriRequest> request) {
+        Supplier<ListenableFuture<ViSearchHttpResponse>> attempt = new Supplier<ListenableFuture<ViSearchHttpResponse>>() {
+            @Override
+            public ListenableFuture<ViSearchHttpResponse> get() {
+                try {
+                    return sendOnceAsync(call, request);
+                } catch (InternalViSearchException e) {
+                    return Futures.immediateFailedFuture(e);
+                }
+            }
+        };
+        if (isHedged(call)) {
+            final Supplier<ListenableFuture<ViSearchHttpResponse>> single = attempt;
+            attempt = new Supplier<ListenableFuture<ViSearchHttpResponse>>() {
+                @Override
+                public ListenableFuture<ViSearchHttpResponse> get() {
+                    return hedger.execute(single);
+                }
+            };
+        }
+        return isRetried(call.path) ? retrier.executeAsync(attempt, call.deadline) : attempt.get();
+    }
+
+    /**
+     * Bound the timeouts of a request by the time left until the deadline of its call.
+     *
+     * @param request request about to be sent
+     * @param deadline deadline of the call as a {@link System#nanoTime()}, null if it has none
+     * @return the request
+     */
+    private HttpUriRequest withDeadline(HttpUriRequest request, Long deadline) {
+        if (deadline == null) {
+            return request;
+        }
+        int remaining = remainingMillis(deadline);
+        if (request instanceof HttpRequestBase) {
+            RequestConfig config = requestConfig == null ? RequestConfig.DEFAULT : requestConfig;
+            ((HttpRequestBase) request).setConfig(RequestConfig.copy(config)
+                    .setConnectTimeout(bound(config.getConnectTimeout(), remaining))
+                    .setConnectionRequestTimeout(bound(config.getConnectionRequestTimeout(), remaining))
+                    .setSocketTimeout(bound(config.getSocketTimeout(), remaining))
+                    .build());
+        }
+        return request;
+    }
+
+    private static int bound(int timeout, int remaining) {
+        return timeout > 0 ? Math.min(timeout, remaining) : remaining;
+    }
+
+    /**
+     * @throws InternalViSearchException with NETWORK_ERROR if the deadline passed
+     */
+    private static int remainingMillis(long deadline) {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) {
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR,
+                    new SocketTimeoutException("Call deadline exceeded"));
+        }
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+
+    /**
+     * Wait for a request sent asynchronously, failing as the blocking call would.
+     */
+    private static ViSearchHttpResponse await(ListenableFuture<ViSearchHttpResponse> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InternalViSearchException) {
+                throw (InternalViSearchException) e.getCause();
+            }
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e.getCause());
         }
-        return getResponse(request);
     }
 
     protected HttpUriRequest buildGetRequest(String url, Multimap<String, String> params) {
-        return RequestBuilder
-                .get()
-                .setUri(buildGetUri(url, mapToNameValuePair(params)))
-                .build();
+        StringBuilder uri = new StringBuilder(url.length() + 32 * params.size()).append(url);
+        if (!params.isEmpty()) {
+            uri.append(url.indexOf('?') < 0 ? '?' : '&');
+            appendFormEncoded(uri, params);
+        }
+        return new HttpGet(toUri(uri.toString()));
     }
 
     protected static URI buildGetUri(String url, List<NameValuePair> nameValuePairList) {
@@ -134,8 +816,12 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
     }
 
     protected static URI buildPostUri(String url) {
+        return toUri(url);
+    }
+
+    private static URI toUri(String url) {
         try {
-            return new URIBuilder(url).build();
+            return new URI(url);
         } catch (URISyntaxException e) {
             throw new InternalViSearchException(ResponseMessages.INVALID_ENDPOINT, e);
             //throw new ViSearchException("There was an error parsing the ViSearch endpoint. Please ensure " +
@@ -144,12 +830,61 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
     }
 
     protected HttpUriRequest buildPostRequest(String url, Multimap<String, String> params) {
-        return RequestBuilder
-                .post()
-                .setUri(buildPostUri(url))
-                .setEntity(new UrlEncodedFormEntity(mapToNameValuePair(params), Consts.UTF_8))
-                .setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_FORM_URLENCODED.withCharset(Consts.UTF_8).toString())
-                .build();
+        StringBuilder form = new StringBuilder(32 * params.size());
+        appendFormEncoded(form, params);
+        HttpPost post = new HttpPost(buildPostUri(url));
+        post.setEntity(new StringEntity(form.toString(), FORM_CONTENT_TYPE));
+        post.setHeader(FORM_CONTENT_TYPE_HEADER);
+        return post;
+    }
+
+    /**
+     * Append params form encoded, as {@link org.apache.http.client.utils.URLEncodedUtils}
+     * would, without building a list of name value pairs first.
+     *
+     * @param out buffer of the query or body
+     * @param params params to encode
+     */
+    static void appendFormEncoded(StringBuilder out, Multimap<String, ?> params) {
+        boolean first = true;
+        for (Map.Entry<String, ?> entry : params.entries()) {
+            if (!first) {
+                out.append('&');
+            }
+            first = false;
+            appendFormEncoded(out, entry.getKey());
+            out.append('=');
+            appendFormEncoded(out, entry.getValue().toString());
+        }
+    }
+
+    private static void appendFormEncoded(StringBuilder out, String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '*') {
+                out.append(c);
+            } else if (c == ' ') {
+                out.append('+');
+            } else if (c < 0x80) {
+                appendEscaped(out, c);
+            } else {
+                // encode the whole run of non-ascii characters, keeping surrogate pairs together
+                int end = i + 1;
+                while (end < length && value.charAt(end) >= 0x80) {
+                    end++;
+                }
+                for (byte b : value.substring(i, end).getBytes(Consts.UTF_8)) {
+                    appendEscaped(out, b & 0xFF);
+                }
+                i = end - 1;
+            }
+        }
+    }
+
+    private static void appendEscaped(StringBuilder out, int b) {
+        out.append('%').append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xF]);
     }
 
     protected static HttpUriRequest buildMultipartPostRequest(String url, HttpEntity entity) {
@@ -161,8 +896,9 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
     protected static HttpUriRequest buildPostRequestForImage(String url, Multimap<String, String> params, File file) {
         MultipartEntityBuilder builder = MultipartEntityBuilder.create();
         builder.setCharset(UTF8_CHARSET);
+        ContentType contentType = ContentType.create(ContentType.TEXT_PLAIN.getMimeType(), UTF8_CHARSET);
         for (Map.Entry<String, String> entry : params.entries()) {
-            builder.addTextBody(entry.getKey(), entry.getValue(), ContentType.TEXT_PLAIN);
+            builder.addTextBody(entry.getKey(), entry.getValue(), contentType);
         }
         builder.addBinaryBody(ViSearchHttpConstants.IMAGE, file);
         HttpEntity entity = builder.build();
@@ -180,6 +916,17 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
         return buildMultipartPostRequest(url, entity);
     }
 
+    private static HttpUriRequest buildPostRequestForImage(String url, Multimap<String, String> params, byte[] image, String filename) {
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        ContentType contentType = ContentType.create(ContentType.TEXT_PLAIN.getMimeType(), UTF8_CHARSET);
+        for (Map.Entry<String, String> entry : params.entries()) {
+            builder.addTextBody(entry.getKey(), entry.getValue(), contentType);
+        }
+        builder.addBinaryBody(ViSearchHttpConstants.IMAGE, image, ContentType.DEFAULT_BINARY, filename);
+        HttpEntity entity = builder.build();
+        return buildMultipartPostRequest(url, entity);
+    }
+
     protected HttpUriRequest buildPostRequestForImFeature(String url, Multimap<String, String> params, String imFeature) {
         MultipartEntityBuilder builder = MultipartEntityBuilder.create();
         ContentType contentType = ContentType.create(ContentType.TEXT_PLAIN.getMimeType(), UTF8_CHARSET);
@@ -192,35 +939,147 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
         return buildMultipartPostRequest(url, entity);
     }
 
+    private HttpUriRequest buildPostRequestForImFeature(String url, Multimap<String, String> params, String imFeature, String transId) {
+        HttpUriRequest request = buildPostRequestForImFeature(url, params, imFeature);
+        if (!Strings.isNullOrEmpty(transId)) {
+            request.addHeader(ViSearchHttpConstants.TRANS_ID, transId);
+        }
+        return request;
+    }
+
+    /**
+     * Gzip the body of a post if it reaches the compression threshold
+     * configured for its path.
+     *
+     * @param path request path
+     * @param request post request
+     * @return the request, with its entity compressed if needed
+     */
+    protected HttpUriRequest compressRequest(String path, HttpUriRequest request) {
+        int threshold = clientConfig.getRequestCompressionThreshold(path);
+        if (threshold < 0 || !(request instanceof HttpEntityEnclosingRequest)) {
+            return request;
+        }
+        HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+        HttpEntity entity = enclosingRequest.getEntity();
+        if (entity == null || entity.getContentEncoding() != null) {
+            return request;
+        }
+        long length = entity.getContentLength();
+        if (length >= 0 && length < threshold) {
+            return request;
+        }
+        enclosingRequest.setEntity(gzip(entity));
+        return request;
+    }
+
+    /**
+     * The body is compressed up front so the request keeps a known length
+     * and can be sent again.
+     */
+    private static HttpEntity gzip(HttpEntity entity) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            try {
+                entity.writeTo(gzip);
+            } finally {
+                gzip.close();
+            }
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e);
+        }
+        ByteArrayEntity compressed = new ByteArrayEntity(out.toByteArray());
+        compressed.setContentType(entity.getContentType());
+        compressed.setContentEncoding(GZIP);
+        return compressed;
+    }
+
     protected ViSearchHttpResponse getResponse(HttpUriRequest request) {
+        prepareRequest(request);
+        return bound(getViSearchHttpResponse(request));
+    }
+
+    protected ListenableFuture<ViSearchHttpResponse> getResponseAsync(final HttpUriRequest request) {
+        prepareRequest(request);
+        applyRequestConfig(request);
+        if (memoryBudget == null && clientConfig.getMaxResponseSize() <= 0) {
+            return executeAsync(request);
+        }
+        return Futures.transform(executeAsync(request), new Function<ViSearchHttpResponse, ViSearchHttpResponse>() {
+            @Override
+            public ViSearchHttpResponse apply(ViSearchHttpResponse response) {
+                return bound(response);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Bound the body of a response to the max response size, and charge it
+     * to the memory budget while it is read.
+     */
+    private ViSearchHttpResponse bound(ViSearchHttpResponse response) {
+        if (response != null) {
+            response.bound(clientConfig.getMaxResponseSize(), memoryBudget);
+        }
+        return response;
+    }
+
+    private ListenableFuture<ViSearchHttpResponse> executeAsync(final HttpUriRequest request) {
+        if (asyncExecutor == null) {
+            return transport.executeAsync(request);
+        }
+        final ListenableFutureTask<ViSearchHttpResponse> task = ListenableFutureTask.create(new Callable<ViSearchHttpResponse>() {
+            @Override
+            public ViSearchHttpResponse call() {
+                return transport.execute(request);
+            }
+        });
+        task.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (task.isCancelled() && request instanceof HttpRequestBase) {
+                    ((HttpRequestBase) request).abort();
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        asyncExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * Add the headers every request of this client carries.
+     *
+     * @param request request about to be sent
+     */
+    protected void prepareRequest(HttpUriRequest request) {
         addAuthHeader(request);
         addOtherHeaders(request);
-        return getViSearchHttpResponse(request);
     }
 
     protected ViSearchHttpResponse getViSearchHttpResponse(HttpUriRequest request) {
-        CloseableHttpResponse response = executeRequest(request);
-        try {
-            Map<String, String> headers = Maps.newHashMap();
-            Header[] responseHeaders = response.getAllHeaders();
-            if (responseHeaders != null) {
-                for (Header header : responseHeaders) {
-                    headers.put(header.getName(), header.getValue());
-                }
-            }
-            ViSearchHttpResponse viSearchHttpResponse = new ViSearchHttpResponse(response);
-            viSearchHttpResponse.setHeaders(headers);
-            return viSearchHttpResponse;
-        } catch (IllegalArgumentException e) {
-            throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e);
-            // throw new NetworkException("A network error occurred when reading response from the ViSearch endpoint. " +
-            //        "Please check your network connectivity and try again.", e);
+        applyRequestConfig(request);
+        return transport.execute(request);
+    }
+
+    /**
+     * Timeouts and proxy are set per request, so clients with different
+     * settings can share one transport.
+     */
+    private void applyRequestConfig(HttpUriRequest request) {
+        if (requestConfig != null && request instanceof HttpRequestBase
+                && ((HttpRequestBase) request).getConfig() == null) {
+            ((HttpRequestBase) request).setConfig(requestConfig);
         }
     }
 
     protected void addAuthHeader(HttpUriRequest request) {
+        request.addHeader(authHeader);
+    }
+
+    private static Header basicAuthHeader(UsernamePasswordCredentials credentials) {
         try {
-            request.addHeader(new BasicScheme().authenticate(credentials, request, null));
+            return new BasicScheme().authenticate(credentials, new HttpGet(), null);
         } catch (AuthenticationException e) {
             throw new InternalViSearchException(ResponseMessages.UNAUTHORIZED, e);
             // throw new com.visenze.visearch.internal.AuthenticationException("There was an error generating the " +
@@ -230,24 +1089,23 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
 
     protected void addOtherHeaders(HttpUriRequest request) {
         // add user agent header
-        String userAgent = clientConfig.getUserAgent();
-        if (!userAgent.equals(ClientConfig.DEFAULT_USER_AGENT)) {
-            userAgent += " " + ClientConfig.DEFAULT_USER_AGENT;
-        }
-        request.addHeader(HttpHeaders.USER_AGENT, userAgent);
+        request.addHeader(userAgentHeader);
 
         // add x-request-with header
-        request.addHeader(ViSearchHttpConstants.X_REQUESTED_WITH, ClientConfig.DEFAULT_XREQUEST_WITH);
+        request.addHeader(REQUESTED_WITH_HEADER);
+
+        // responses are decoded by ViSearchHttpResponse on every transport
+        if (clientConfig.isResponseCompression()) {
+            request.addHeader(ACCEPT_GZIP_HEADER);
+        }
     }
 
-    protected CloseableHttpResponse executeRequest(HttpUriRequest request) {
-        try {
-            return httpClient.execute(request);
-        } catch (IOException e) {
-            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
-            // throw new NetworkException("A network error occurred when requesting to the ViSearch endpoint. " +
-            //        "Please check your network connectivity and try again.", e);
+    private static Header userAgentHeader(ClientConfig clientConfig) {
+        String userAgent = clientConfig.getUserAgent();
+        if (!userAgent.equals(ClientConfig.DEFAULT_USER_AGENT)) {
+            userAgent += " " + ClientConfig.DEFAULT_USER_AGENT;
         }
+        return new BasicHeader(HttpHeaders.USER_AGENT, userAgent);
     }
 
     public static List<NameValuePair> mapToNameValuePair(Multimap<String, ?> params) {
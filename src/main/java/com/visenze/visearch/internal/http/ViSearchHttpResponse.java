@@ -1,29 +1,395 @@
 package com.visenze.visearch.internal.http;
 
+import com.google.common.collect.ForwardingMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.visenze.visearch.ResponseMessages;
 import com.visenze.visearch.internal.InternalViSearchException;
 import com.visenze.visearch.internal.ResponseBase;
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.Args;
 import org.apache.http.util.EntityUtils;
 
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
-public class ViSearchHttpResponse extends ResponseBase {
+/**
+ * Response of a http call. The body is not read when the response is
+ * created: it is either streamed once through {@link #getContent()} or read
+ * into a string by {@link #getBody()}. On the blocking transport the
+ * connection is held until the body is read or the response is closed.
+ */
+public class ViSearchHttpResponse extends ResponseBase implements Closeable {
     private String body;
+    private HttpEntity entity;
+    private HttpEntity rawEntity;
+    private BoundedEntity bounded;
+    private InputStream content;
+    private int statusCode;
+    private List<Runnable> releaseListeners;
+    private boolean released;
+
     public ViSearchHttpResponse(CloseableHttpResponse response) {
+        this((HttpResponse) response);
+    }
+
+    public ViSearchHttpResponse(HttpResponse response) {
         try {
-            body = EntityUtils.toString(response.getEntity());
-        } catch (IOException e) {
-            throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e);
-            // throw new NetworkException("A network error occurred when reading response from the ViSearch endpoint. " +
-            //         "Please check your network connectivity and try again.", e);
+            HttpEntity responseEntity = Args.notNull(response.getEntity(), "Entity");
+            entity = decode(response, responseEntity);
+            rawEntity = responseEntity;
+            setHeaders(new HeaderMap(response, entity != responseEntity));
+            statusCode = response.getStatusLine() == null ? 0 : response.getStatusLine().getStatusCode();
         } catch (IllegalArgumentException e) {
             throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e);
             // throw new NetworkException("A network error occurred when reading response from the ViSearch endpoint. " +
             //        "Please check your network connectivity and try again.", e);
         }
     }
+
+    /**
+     * Decompress a gzip or deflate encoded body while it is read, whichever
+     * transport received it.
+     */
+    private static HttpEntity decode(HttpResponse response, HttpEntity entity) {
+        Header encoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+        if (encoding == null) {
+            return entity;
+        }
+        if ("gzip".equalsIgnoreCase(encoding.getValue()) || "x-gzip".equalsIgnoreCase(encoding.getValue())) {
+            return new GzipDecompressingEntity(entity);
+        }
+        if ("deflate".equalsIgnoreCase(encoding.getValue())) {
+            return new DeflateDecompressingEntity(entity);
+        }
+        return entity;
+    }
+
+    /**
+     * Response headers by name, copied from the response on first access so
+     * that callers which never look at them don't pay for the map. The
+     * encoding headers of a decompressed body are dropped as they no longer
+     * describe it.
+     */
+    private static final class HeaderMap extends ForwardingMap<String, String> {
+        private final HttpResponse response;
+        private final boolean decoded;
+        private Map<String, String> headers;
+
+        HeaderMap(HttpResponse response, boolean decoded) {
+            this.response = response;
+            this.decoded = decoded;
+        }
+
+        @Override
+        protected synchronized Map<String, String> delegate() {
+            if (headers == null) {
+                Map<String, String> responseHeaders = Maps.newHashMap();
+                Header[] allHeaders = response.getAllHeaders();
+                if (allHeaders != null) {
+                    for (Header header : allHeaders) {
+                        if (decoded && (HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(header.getName())
+                                || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(header.getName()))) {
+                            continue;
+                        }
+                        responseHeaders.put(header.getName(), header.getValue());
+                    }
+                }
+                headers = responseHeaders;
+            }
+            return headers;
+        }
+    }
+
+    /**
+     * Bound the body to a max size, and charge it to a memory budget while it
+     * is read into a string.
+     *
+     * @param maxSize max bytes of the body once decompressed, 0 for no max
+     * @param budget budget of the client, null for none
+     * @throws InternalViSearchException with RESPONSE_TOO_LARGE if the content length is over the max
+     */
+    void bound(long maxSize, MemoryBudget budget) {
+        if (entity == null || maxSize <= 0 && budget == null) {
+            return;
+        }
+        if (maxSize > 0 && rawEntity.getContentLength() > maxSize) {
+            abort();
+            throw new InternalViSearchException(ResponseMessages.RESPONSE_TOO_LARGE);
+        }
+        bounded = new BoundedEntity(entity, maxSize, budget);
+        entity = bounded;
+    }
+
+    /**
+     * Drop the connection of an oversized body rather than reading it to the end.
+     */
+    private void abort() {
+        try {
+            InputStream in = rawEntity.getContent();
+            if (in instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger) in).abortConnection();
+            } else {
+                in.close();
+            }
+        } catch (IOException e) {
+            // the connection is discarded by the pool
+        } catch (IllegalStateException e) {
+            // no content to abort
+        }
+        entity = null;
+    }
+
+    /**
+     * @return http status code, 0 if unknown
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Get the body as a string, reading it from the connection on first call.
+     *
+     * @return the body, or null if it was already streamed by {@link #getContent()}
+     */
     public String getBody() {
+        if (body == null && entity != null) {
+            try {
+                body = EntityUtils.toString(entity);
+            } catch (IOException e) {
+                checkSize(e);
+                throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e);
+                // throw new NetworkException("A network error occurred when reading response from the ViSearch endpoint. " +
+                //         "Please check your network connectivity and try again.", e);
+            } finally {
+                entity = null;
+                if (bounded != null) {
+                    bounded.release();
+                }
+                released();
+            }
+        }
         return body;
     }
+
+    /**
+     * Read the unread body as UTF-8 bytes, to parse them once buffered. The
+     * bytes are charged to the memory budget of the client until this
+     * response is closed, while the connection is given back right away.
+     *
+     * @return the body, or null if the body is already read or is not
+     *         UTF-8, in which case {@link #getBody()} must be used
+     * @throws InternalViSearchException with RESPONSE_TOO_LARGE if the body is over the max response size
+     */
+    public byte[] getBytes() {
+        if (entity == null || !isUtf8(entity)) {
+            return null;
+        }
+        HttpEntity read = entity;
+        entity = null;
+        try {
+            InputStream in = read.getContent();
+            try {
+                return ByteStreams.toByteArray(in);
+            } finally {
+                // an oversized body is not closed, but aborted by checkSize
+                in.close();
+            }
+        } catch (IOException e) {
+            checkSize(e);
+            throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e);
+        } finally {
+            released();
+        }
+    }
+
+    /**
+     * Turn a failure to read or parse the body into RESPONSE_TOO_LARGE,
+     * dropping the connection, if it is due to the body being over the max
+     * response size. Other failures are left to the caller.
+     *
+     * @param e failure reading the body
+     * @throws InternalViSearchException with RESPONSE_TOO_LARGE if the body is too large
+     */
+    public void checkSize(IOException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BoundedEntity.TooLargeException) {
+                abort();
+                content = null;
+                throw new InternalViSearchException(ResponseMessages.RESPONSE_TOO_LARGE, e);
+            }
+        }
+    }
+
+    /**
+     * Take the unread body as a UTF-8 byte stream, to parse it without
+     * holding the whole body as a string. The stream can only be taken once
+     * and should be closed by closing this response.
+     *
+     * @return the body stream, or null if the body is already read or is not
+     *         UTF-8, in which case {@link #getBody()} must be used
+     */
+    public InputStream getContent() {
+        if (entity == null || !isUtf8(entity)) {
+            return null;
+        }
+        try {
+            // a streamed body is parsed as it is read, not held
+            InputStream stream = entity == bounded ? bounded.getContent(false) : entity.getContent();
+            entity = null;
+            content = new FilterInputStream(stream) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b < 0) {
+                        released();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n < 0) {
+                        released();
+                    }
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        released();
+                    }
+                }
+            };
+            return content;
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e);
+        }
+    }
+
+    private static boolean isUtf8(HttpEntity entity) {
+        try {
+            ContentType contentType = ContentType.get(entity);
+            Charset charset = contentType == null ? null : contentType.getCharset();
+            return charset == null || Consts.UTF_8.equals(charset);
+        } catch (RuntimeException e) {
+            // unparsable or unsupported charset, leave decoding to getBody
+            return false;
+        }
+    }
+
+    /**
+     * Release the connection of an unread or partially read body.
+     */
+    @Override
+    public void close() {
+        if (bounded != null) {
+            bounded.release();
+            if (bounded.isTooLarge()) {
+                abort();
+                content = null;
+            }
+        }
+        if (entity != null) {
+            EntityUtils.consumeQuietly(entity);
+            entity = null;
+        }
+        if (content != null) {
+            try {
+                content.close();
+            } catch (IOException e) {
+                // the connection is discarded by the pool
+            }
+            content = null;
+        }
+        released();
+    }
+
+    /**
+     * Run {@code listener} once the body of this response is read or the
+     * response is closed, i.e. once it no longer holds a connection. Runs
+     * right away if that already happened.
+     *
+     * @param listener code releasing what the request held
+     */
+    void onRelease(Runnable listener) {
+        synchronized (this) {
+            if (!released) {
+                if (releaseListeners == null) {
+                    releaseListeners = new ArrayList<Runnable>(2);
+                }
+                releaseListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    private void released() {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            released = true;
+            listeners = releaseListeners;
+            releaseListeners = null;
+        }
+        if (listeners != null) {
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Close the response once {@code result}, which consumes it, is cancelled
+     * after the response arrived. The consumer then never runs, so the
+     * response would otherwise keep its connection.
+     *
+     * @param response future of the response
+     * @param result future consuming the response
+     */
+    public static void closeOnCancel(final ListenableFuture<ViSearchHttpResponse> response,
+                                     final ListenableFuture<?> result) {
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (!result.isCancelled() || !response.isDone() || response.isCancelled()) {
+                    return;
+                }
+                try {
+                    ViSearchHttpResponse unused = Uninterruptibles.getUninterruptibly(response);
+                    if (unused != null) {
+                        unused.close();
+                    }
+                } catch (ExecutionException e) {
+                    // no response, nothing to release
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
 }
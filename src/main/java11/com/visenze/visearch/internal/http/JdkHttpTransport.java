@@ -0,0 +1,272 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.ConnectionPoolStats;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP/2 transport on the JDK http client. Concurrent requests to a host are
+ * multiplexed over a single connection; servers without HTTP/2 are served
+ * over HTTP/1.1. The JDK client manages its own connections, so pool limits
+ * and idle eviction of the client config do not apply and no pool statistics
+ * are available. The socket timeout bounds the wait for the response headers.
+ */
+final class JdkHttpTransport implements HttpTransport {
+
+    /**
+     * Headers the JDK client sets itself and refuses from callers
+     */
+    private static final Set<String> RESTRICTED_HEADERS = Set.of(
+            "connection", "content-length", "date", "expect", "from", "host", "upgrade", "via", "warning");
+
+    private final HttpClient httpClient;
+
+    private final ExecutorService executor;
+
+    private JdkHttpTransport(HttpClient httpClient, ExecutorService executor) {
+        this.httpClient = httpClient;
+        this.executor = executor;
+    }
+
+    static HttpTransport create(ClientConfig clientConfig) {
+        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("visearch-http2-%d")
+                .setDaemon(true)
+                .build());
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .sslContext(TlsSessions.sharedContext())
+                .executor(executor);
+        if (clientConfig.getConnectionTimeout() > 0) {
+            builder.connectTimeout(Duration.ofMillis(clientConfig.getConnectionTimeout()));
+        }
+        HttpHost proxy = clientConfig.getProxy();
+        if (proxy != null) {
+            builder.proxy(ProxySelector.of(new InetSocketAddress(proxy.getHostName(), proxy.getPort())));
+        }
+        return new JdkHttpTransport(builder.build(), executor);
+    }
+
+    @Override
+    public ViSearchHttpResponse execute(HttpUriRequest request) {
+        ListenableFuture<ViSearchHttpResponse> future = executeAsync(request);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InternalViSearchException) {
+                throw (InternalViSearchException) e.getCause();
+            }
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e.getCause());
+        }
+    }
+
+    @Override
+    public ListenableFuture<ViSearchHttpResponse> executeAsync(HttpUriRequest request) {
+        HttpRequest jdkRequest;
+        try {
+            jdkRequest = toJdkRequest(request);
+        } catch (IOException | IllegalArgumentException e) {
+            return Futures.immediateFailedFuture(new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e));
+        }
+
+        SettableFuture<ViSearchHttpResponse> result = SettableFuture.create();
+        CompletableFuture<HttpResponse<InputStream>> exchange =
+                httpClient.sendAsync(jdkRequest, HttpResponse.BodyHandlers.ofInputStream());
+        exchange.whenComplete((response, failure) -> {
+            if (failure != null) {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure;
+                result.setException(new InternalViSearchException(ResponseMessages.NETWORK_ERROR, cause));
+                return;
+            }
+            try {
+                if (!result.set(toResponse(response))) {
+                    // cancelled while the response arrived
+                    closeQuietly(response.body());
+                }
+            } catch (InternalViSearchException e) {
+                closeQuietly(response.body());
+                result.setException(e);
+            }
+        });
+        result.addListener(() -> {
+            if (result.isCancelled()) {
+                exchange.cancel(true);
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    private static HttpRequest toJdkRequest(HttpUriRequest request) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getURI());
+        RequestConfig config = request instanceof Configurable ? ((Configurable) request).getConfig() : null;
+        if (config != null && config.getSocketTimeout() > 0) {
+            builder.timeout(Duration.ofMillis(config.getSocketTimeout()));
+        }
+        for (Header header : request.getAllHeaders()) {
+            if (!RESTRICTED_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT))) {
+                builder.header(header.getName(), header.getValue());
+            }
+        }
+
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.noBody();
+        HttpEntity entity = request instanceof HttpEntityEnclosingRequest
+                ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+        if (entity != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entity.writeTo(out);
+            body = HttpRequest.BodyPublishers.ofByteArray(out.toByteArray());
+            if (entity.getContentType() != null) {
+                builder.setHeader(entity.getContentType().getName(), entity.getContentType().getValue());
+            }
+            if (entity.getContentEncoding() != null) {
+                builder.setHeader(entity.getContentEncoding().getName(), entity.getContentEncoding().getValue());
+            }
+        }
+        return builder.method(request.getMethod(), body).build();
+    }
+
+    private static ViSearchHttpResponse toResponse(HttpResponse<InputStream> response) {
+        BasicHttpResponse httpResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, response.statusCode(), null);
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            for (String value : header.getValue()) {
+                httpResponse.addHeader(header.getKey(), value);
+            }
+        }
+        long contentLength = response.headers().firstValueAsLong("content-length").orElse(-1);
+        httpResponse.setEntity(new InputStreamEntity(response.body(), contentLength, contentType(response)));
+        return new ViSearchHttpResponse(httpResponse);
+    }
+
+    private static ContentType contentType(HttpResponse<?> response) {
+        String value = response.headers().firstValue("content-type").orElse(null);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return ContentType.parse(value);
+        } catch (RuntimeException e) {
+            // leave an unparsable content type to the default decoding
+            return null;
+        }
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException e) {
+            // the exchange is discarded anyway
+        }
+    }
+
+    /**
+     * Warms up with HEAD requests to the root of the host. Over HTTP/2 the
+     * first one opens the single connection every request shares; over
+     * HTTP/1.1 the others open further connections, resuming its TLS session.
+     */
+    @Override
+    public int warmUp(HttpHost host, int connections) {
+        if (connections <= 0) {
+            return 0;
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(host.toURI() + "/"))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody());
+        httpClient.connectTimeout().ifPresent(builder::timeout);
+        HttpRequest request = builder.build();
+        try {
+            HttpResponse<Void> first = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            if (first.version() == HttpClient.Version.HTTP_2) {
+                return 1;
+            }
+        } catch (IOException e) {
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+
+        List<CompletableFuture<HttpResponse<Void>>> exchanges = new ArrayList<>(connections - 1);
+        for (int i = 1; i < connections; i++) {
+            exchanges.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+        }
+        int ready = 1;
+        for (CompletableFuture<HttpResponse<Void>> exchange : exchanges) {
+            try {
+                exchange.get();
+                ready++;
+            } catch (ExecutionException e) {
+                // requests will report it
+            } catch (InterruptedException e) {
+                exchange.cancel(true);
+                Thread.currentThread().interrupt();
+            }
+        }
+        return ready;
+    }
+
+    @Override
+    public void closeIdleConnections(long idleTimeout) {
+        // the JDK client closes idle connections itself
+    }
+
+    @Override
+    public ConnectionPoolStats getPoolStats() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        // HttpClient can be closed from Java 21 on
+        if (httpClient instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) httpClient).close();
+            } catch (Exception e) {
+                // nothing left to do with a client that failed to close
+            }
+        }
+        executor.shutdownNow();
+    }
+}
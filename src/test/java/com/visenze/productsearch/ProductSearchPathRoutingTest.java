@@ -1,16 +1,25 @@
 package com.visenze.productsearch;
 
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.Futures;
 import com.visenze.productsearch.http.ProductSearchHttpClientImpl;
 import com.visenze.productsearch.param.SearchByIdParam;
 import com.visenze.productsearch.param.SearchByImageParam;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
 import com.visenze.visearch.internal.http.ViSearchHttpResponse;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Matchers;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
@@ -22,6 +31,9 @@ public class ProductSearchPathRoutingTest {
     private static final String DUMMY_KEY = "test_key";
     private static final int DUMMY_PLACEMENT = 1;
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private ProductSearchHttpClientImpl mockClient;
     private ViSearchHttpResponse mockResponse;
 
@@ -32,6 +44,8 @@ public class ProductSearchPathRoutingTest {
         mockClient = mock(ProductSearchHttpClientImpl.class);
         when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
         when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        when(mockClient.postAsync(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(Futures.immediateFuture(mockResponse));
+        when(mockClient.getAsync(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(Futures.immediateFuture(mockResponse));
     }
 
     private ProductSearch buildSdk(String endpoint) {
@@ -162,4 +176,72 @@ public class ProductSearchPathRoutingTest {
         sdk.imageSearch(SearchByImageParam.newFromImageUrl("http://example.com/img.jpg"));
         verify(mockClient).post(eq("/v1/visearch/search_by_image"), Matchers.<Multimap<String, String>>any());
     }
+
+    // --- Async path tests ---
+
+    @Test
+    public void awsEndpoint_imageSearchAsync_usesNewPath() throws Exception {
+        ProductSearch sdk = buildSdk(ProductSearch.ENDPOINT_AWS);
+        ProductSearchResponse response = sdk.imageSearchAsync(SearchByImageParam.newFromImageUrl("http://example.com/img.jpg")).get();
+        assertEquals("test.jpg", response.getImageId());
+        verify(mockClient).postAsync(eq("/v1/visearch/search_by_image"), Matchers.<Multimap<String, String>>any());
+    }
+
+    @Test
+    public void legacyEndpoint_recommendationsAsync_usesLegacyPath() throws Exception {
+        ProductSearch sdk = buildSdk("https://search.visenze.com");
+        sdk.recommendationsAsync(new SearchByIdParam("pid123")).get();
+        verify(mockClient).getAsync(eq("/v1/product/recommendations/pid123"), Matchers.<Multimap<String, String>>any());
+    }
+
+    // --- Image file tests ---
+
+    @Test
+    public void imageSearchByFile_sendsTheFile() throws Exception {
+        File image = temporaryFolder.newFile("image.jpg");
+        when(mockClient.postImage(anyString(), Matchers.<Multimap<String, String>>any(), eq(image))).thenReturn(mockResponse);
+        ProductSearch sdk = buildSdk(ProductSearch.ENDPOINT_AWS);
+        sdk.imageSearch(SearchByImageParam.newFromImageFile(image));
+        verify(mockClient).postImage(eq("/v1/visearch/search_by_image"), Matchers.<Multimap<String, String>>any(), eq(image));
+    }
+
+    @Test
+    public void imageSearchAsyncByFile_sendsTheFile() throws Exception {
+        File image = temporaryFolder.newFile("image.jpg");
+        when(mockClient.postImageAsync(anyString(), Matchers.<Multimap<String, String>>any(), eq(image)))
+                .thenReturn(Futures.immediateFuture(mockResponse));
+        ProductSearch sdk = buildSdk(ProductSearch.ENDPOINT_AWS);
+        sdk.imageSearchAsync(SearchByImageParam.newFromImageFile(image)).get();
+        verify(mockClient).postImageAsync(eq("/v1/visearch/search_by_image"), Matchers.<Multimap<String, String>>any(), eq(image));
+    }
+
+    @Test
+    public void imageSearchByMissingFile_isRejected() {
+        ProductSearch sdk = buildSdk(ProductSearch.ENDPOINT_AWS);
+        try {
+            sdk.imageSearch(SearchByImageParam.newFromImageFile(new File(temporaryFolder.getRoot(), "missing.jpg")));
+            fail();
+        } catch (InternalViSearchException e) {
+            assertEquals(ResponseMessages.INVALID_IMAGE_OR_URL.getMessage(), e.getMessage());
+        }
+        verifyZeroInteractions(mockClient);
+    }
+
+    // --- Multi-region tests ---
+
+    @Test
+    public void allRegions_recommendations_usesNewPath() {
+        ProductSearch sdk = new ProductSearch.Builder(DUMMY_KEY, DUMMY_PLACEMENT)
+                .useAllRegions()
+                .build();
+        sdk.setHttpClient(mockClient);
+        sdk.recommendations(new SearchByIdParam("pid123"));
+        verify(mockClient).get(eq("/v1/visearch/recommendations/pid123"), Matchers.<Multimap<String, String>>any());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void regionsWithDifferentPaths_areRejected() {
+        new ProductSearch.Builder(DUMMY_KEY, DUMMY_PLACEMENT)
+                .useRegions(ProductSearch.ENDPOINT_AWS, "https://search.visenze.com");
+    }
 }
@@ -0,0 +1,195 @@
+package com.visenze.productsearch.http;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.internal.http.ViSearchAsyncHttpClient;
+import com.visenze.visearch.internal.http.ViSearchHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MultiRegionHttpClientTest {
+
+    private static final String PATH = "/v1/search";
+
+    private final Multimap<String, String> params = ArrayListMultimap.create();
+
+    private FakeTicker ticker;
+
+    private ViSearchAsyncHttpClient aws;
+
+    private ViSearchAsyncHttpClient azure;
+
+    private MultiRegionHttpClient client;
+
+    private static class FakeTicker extends Ticker {
+
+        long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        aws = mock(ViSearchAsyncHttpClient.class);
+        azure = mock(ViSearchAsyncHttpClient.class);
+        client = new MultiRegionHttpClient(Arrays.asList(aws, azure), Arrays.asList("aws", "azure"), ticker);
+    }
+
+    private static ViSearchHttpResponse response(int status) {
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getStatusCode()).thenReturn(status);
+        return response;
+    }
+
+    private static InternalViSearchException networkError() {
+        return new InternalViSearchException(ResponseMessages.NETWORK_ERROR, new java.net.ConnectException());
+    }
+
+    @Test
+    public void testRegionsAreTriedInOrderUntilLatenciesAreKnown() {
+        assertEquals("aws", client.route().get(0).endpoint);
+    }
+
+    @Test
+    public void testRoutesToFastestRegion() {
+        client.getRegions().get(0).succeeded(TimeUnit.MILLISECONDS.toNanos(120));
+        client.getRegions().get(1).succeeded(TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals("azure", client.route().get(0).endpoint);
+
+        ViSearchHttpResponse ok = response(200);
+        when(azure.get(PATH, params)).thenReturn(ok);
+        assertSame(ok, client.get(PATH, params));
+        verify(aws, never()).get(anyString(), Matchers.<Multimap<String, String>>any());
+    }
+
+    @Test
+    public void testSlowRegionIsProbedOccasionally() {
+        client.getRegions().get(0).succeeded(TimeUnit.MILLISECONDS.toNanos(120));
+        client.getRegions().get(1).succeeded(TimeUnit.MILLISECONDS.toNanos(40));
+        int probes = 0;
+        for (int i = 0; i < MultiRegionHttpClient.PROBE_INTERVAL * 5; i++) {
+            ticker.nanos++;
+            MultiRegionHttpClient.Region first = client.route().get(0);
+            first.used(ticker.nanos);
+            if ("aws".equals(first.endpoint)) {
+                probes++;
+            }
+        }
+        assertEquals(5, probes);
+    }
+
+    @Test
+    public void testFailsOverOnNetworkError() {
+        ViSearchHttpResponse ok = response(200);
+        when(aws.get(PATH, params)).thenThrow(networkError());
+        when(azure.get(PATH, params)).thenReturn(ok);
+
+        assertSame(ok, client.get(PATH, params));
+        // the failed region is out of rotation for the cool-down
+        assertEquals("azure", client.route().get(0).endpoint);
+        ticker.nanos += MultiRegionHttpClient.COOL_DOWN_NANOS;
+        assertEquals(2, client.route().size());
+        assertEquals("aws", client.route().get(0).endpoint);
+    }
+
+    @Test
+    public void testFailsOverOnServerError() {
+        ViSearchHttpResponse unavailable = response(503);
+        ViSearchHttpResponse ok = response(200);
+        when(aws.post(PATH, params)).thenReturn(unavailable);
+        when(azure.post(PATH, params)).thenReturn(ok);
+
+        assertSame(ok, client.post(PATH, params));
+        verify(unavailable).close();
+        assertEquals(MultiRegionHttpClient.EWMA_WEIGHT, client.getRegions().get(0).getErrorRate(), 1e-9);
+    }
+
+    @Test
+    public void testLastServerErrorIsReturned() {
+        ViSearchHttpResponse unavailable = response(503);
+        ViSearchHttpResponse failed = response(500);
+        when(aws.get(PATH, params)).thenReturn(unavailable);
+        when(azure.get(PATH, params)).thenReturn(failed);
+
+        assertSame(failed, client.get(PATH, params));
+        verify(failed, never()).close();
+    }
+
+    @Test
+    public void testRequestErrorIsNotFailedOver() {
+        InternalViSearchException error = new InternalViSearchException(ResponseMessages.INVALID_ENDPOINT);
+        when(aws.get(PATH, params)).thenThrow(error);
+
+        try {
+            client.get(PATH, params);
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(error, e);
+        }
+        verify(azure, never()).get(anyString(), Matchers.<Multimap<String, String>>any());
+    }
+
+    @Test
+    public void testImageStreamIsNotFailedOver() {
+        InputStream image = mock(InputStream.class);
+        InternalViSearchException error = networkError();
+        when(aws.postImage(PATH, params, image, "image.jpg")).thenThrow(error);
+
+        try {
+            client.postImage(PATH, params, image, "image.jpg");
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(error, e);
+        }
+        verify(azure, never()).postImage(PATH, params, image, "image.jpg");
+    }
+
+    @Test
+    public void testAsyncFailsOverOnNetworkError() throws Exception {
+        ViSearchHttpResponse ok = response(200);
+        when(aws.getAsync(PATH, params)).thenReturn(Futures.<ViSearchHttpResponse>immediateFailedFuture(networkError()));
+        when(azure.getAsync(PATH, params)).thenReturn(Futures.immediateFuture(ok));
+
+        assertSame(ok, client.getAsync(PATH, params).get());
+        assertEquals("azure", client.route().get(0).endpoint);
+    }
+
+    @Test
+    public void testAsyncFailsWhenEveryRegionFailed() throws Exception {
+        InternalViSearchException last = networkError();
+        when(aws.getAsync(PATH, params)).thenReturn(Futures.<ViSearchHttpResponse>immediateFailedFuture(networkError()));
+        when(azure.getAsync(PATH, params)).thenReturn(Futures.<ViSearchHttpResponse>immediateFailedFuture(last));
+
+        ListenableFuture<ViSearchHttpResponse> result = client.getAsync(PATH, params);
+        try {
+            result.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(last, e.getCause());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.visenze.productsearch.param;
 
 import com.google.common.collect.Multimap;
+import com.visenze.common.util.DeadlineMultimap;
 import com.visenze.visearch.internal.http.ViSearchHttpClientImpl;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URIBuilder;
@@ -76,4 +77,14 @@ public class BaseProductSearchParamTest {
         Collections.sort(unsorted, comp);
         return unsorted;
     }
-}
\ No newline at end of file
+
+    @Test
+    public void timeoutIsADeadlineNotAParam() {
+        BaseProductSearchParam param = new BaseProductSearchParam();
+        param.setTimeout(300L);
+        Multimap<String, String> paramMap = param.toMultimap();
+        paramMap.put("app_key", "APP_KEY");
+        assertNotNull(DeadlineMultimap.deadlineOf(paramMap));
+        assertEquals(1, paramMap.size());
+    }
+}
@@ -2,8 +2,11 @@ package com.visenze.visearch;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.visenze.common.util.DeadlineMultimap;
 import org.junit.Test;
 
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.*;
 
 /**
@@ -38,4 +41,17 @@ public class BaseSearchParamsTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void timeoutIsADeadlineNotAParam() {
+        SearchParams params = new SearchParams("im_name").setTimeout(300L);
+        Multimap<String, String> map = params.toMap();
+        Long deadline = DeadlineMultimap.deadlineOf(map);
+        assertNotNull(deadline);
+        assertTrue(deadline - System.nanoTime() <= TimeUnit.MILLISECONDS.toNanos(300));
+        assertFalse(map.containsKey("timeout"));
+        assertEquals("im_name", map.get("im_name").iterator().next());
+
+        assertNull(DeadlineMultimap.deadlineOf(new SearchParams("im_name").toMap()));
+    }
+
+}
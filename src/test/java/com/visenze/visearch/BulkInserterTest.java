@@ -0,0 +1,170 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.visenze.visearch.internal.DataOperations;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BulkInserterTest {
+
+    private DataOperations dataOperations;
+
+    private int transIds;
+
+    @Before
+    public void setUp() {
+        dataOperations = mock(DataOperations.class);
+    }
+
+    private ListenableFuture<InsertTrans> inserted(int total) {
+        return Futures.immediateFuture(new InsertTrans(String.valueOf(++transIds), total, Collections.<InsertError>emptyList()));
+    }
+
+    private static List<Image> images(int count) {
+        List<Image> images = new ArrayList<Image>();
+        for (int i = 0; i < count; i++) {
+            images.add(new Image("im_" + i, "http://www.example.com/im_" + i + ".jpeg"));
+        }
+        return images;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<Image>> sentBatches(int count) {
+        ArgumentCaptor<List> batches = ArgumentCaptor.forClass(List.class);
+        verify(dataOperations, times(count)).insertAsync(batches.capture());
+        List<List<Image>> sent = new ArrayList<List<Image>>();
+        for (List batch : batches.getAllValues()) {
+            sent.add((List<Image>) batch);
+        }
+        return sent;
+    }
+
+    @Test
+    public void testSplitsByCount() {
+        when(dataOperations.insertAsync(Matchers.<List<Image>>any())).thenReturn(inserted(100), inserted(100), inserted(50));
+        BulkInsertReport report = new BulkInserter(dataOperations).insertAll(images(250).iterator());
+
+        List<List<Image>> batches = sentBatches(3);
+        assertEquals(100, batches.get(0).size());
+        assertEquals(50, batches.get(2).size());
+        assertEquals("im_100", batches.get(1).get(0).getImName());
+        assertEquals(Lists.newArrayList("1", "2", "3"), report.getTransIds());
+        assertEquals(250, report.getImageCount());
+        assertTrue(report.isSuccess());
+    }
+
+    @Test
+    public void testSplitsByEncodedSize() {
+        when(dataOperations.insertAsync(Matchers.<List<Image>>any())).thenReturn(inserted(1));
+        String url = "http://www.example.com/" + Strings.repeat("a", 1000);
+        BulkInserter inserter = new BulkInserter(dataOperations, 100, 2500, 4);
+        for (int i = 0; i < 5; i++) {
+            inserter.add(new Image("im_" + i, url));
+        }
+        inserter.finish();
+
+        List<List<Image>> batches = sentBatches(3);
+        assertEquals(2, batches.get(0).size());
+        assertEquals(2, batches.get(1).size());
+        assertEquals(1, batches.get(2).size());
+    }
+
+    @Test
+    public void testLaterImageReplacesDuplicate() {
+        when(dataOperations.insertAsync(Matchers.<List<Image>>any())).thenReturn(inserted(2));
+        BulkInserter inserter = new BulkInserter(dataOperations);
+        inserter.add(new Image("a", "http://www.example.com/old.jpeg"));
+        inserter.add(new Image("b", "http://www.example.com/b.jpeg"));
+        inserter.add(new Image("a", "http://www.example.com/new.jpeg"));
+        BulkInsertReport report = inserter.finish();
+
+        List<Image> batch = sentBatches(1).get(0);
+        assertEquals(2, batch.size());
+        assertEquals("a", batch.get(0).getImName());
+        assertEquals("http://www.example.com/new.jpeg", batch.get(0).getImUrl());
+        assertEquals(1, report.getDuplicateCount());
+        assertEquals(2, report.getImageCount());
+    }
+
+    @Test
+    public void testCollectsFailuresAndInsertErrors() {
+        InsertError error = new InsertError("im_1", 1, 102, "Image not found with im_name.");
+        when(dataOperations.insertAsync(Matchers.<List<Image>>any())).thenReturn(
+                Futures.immediateFuture(new InsertTrans("1", 2, Collections.singletonList(error))),
+                Futures.immediateFuture(new InsertTrans("System busy", (Throwable) null, null)),
+                Futures.<InsertTrans>immediateFailedFuture(new IOException("reset")));
+        BulkInsertReport report = new BulkInserter(dataOperations, 2, BulkInserter.DEFAULT_MAX_BATCH_BYTES, 1)
+                .insertAll(images(6).iterator());
+
+        assertFalse(report.isSuccess());
+        assertEquals(Collections.singletonList("1"), report.getTransIds());
+        assertEquals(Collections.singletonList(error), report.getInsertErrors());
+        assertEquals(2, report.getFailures().size());
+        assertEquals("System busy", report.getFailures().get(0).getErrorMessage());
+        assertEquals(Lists.newArrayList("im_2", "im_3"), report.getFailures().get(0).getImNames());
+        assertEquals("reset", report.getFailures().get(1).getErrorMessage());
+        assertEquals(2, report.getImageCount());
+    }
+
+    @Test
+    public void testBlocksWhileBatchesAreInFlight() throws Exception {
+        final SettableFuture<InsertTrans> first = SettableFuture.create();
+        when(dataOperations.insertAsync(Matchers.<List<Image>>any())).thenReturn(first, inserted(1));
+        final BulkInserter inserter = new BulkInserter(dataOperations, 1, BulkInserter.DEFAULT_MAX_BATCH_BYTES, 1);
+        inserter.add(new Image("a", null));
+
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                inserter.add(new Image("b", null));
+                added.countDown();
+            }
+        });
+        producer.start();
+        assertFalse(added.await(100, TimeUnit.MILLISECONDS));
+
+        first.set(new InsertTrans("1", 1, Collections.<InsertError>emptyList()));
+        assertTrue(added.await(1, TimeUnit.SECONDS));
+        producer.join();
+        assertEquals(2, inserter.finish().getTransIds().size());
+    }
+
+    @Test
+    public void testListenerSeesSentBatches() {
+        when(dataOperations.insertAsync(Matchers.<List<Image>>any())).thenReturn(inserted(2),
+                Futures.<InsertTrans>immediateFailedFuture(new IOException("reset")));
+        final List<String> sent = new ArrayList<String>();
+        BulkInserter inserter = new BulkInserter(dataOperations, 2, BulkInserter.DEFAULT_MAX_BATCH_BYTES, 1);
+        inserter.setListener(new BulkInserter.Listener() {
+            @Override
+            public void onBatchSent(List<Image> images, InsertTrans insertTrans) {
+                sent.add(insertTrans.getTransId() + ":" + images.size());
+            }
+        });
+        inserter.insertAll(images(4).iterator());
+
+        assertEquals(Collections.singletonList("1:2"), sent);
+    }
+}
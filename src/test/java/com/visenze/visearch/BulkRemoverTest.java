@@ -0,0 +1,157 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.visenze.visearch.internal.DataOperations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BulkRemoverTest {
+
+    private DataOperations dataOperations;
+
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() {
+        dataOperations = mock(DataOperations.class);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private BulkRemover remover(int batchSize, int maxConcurrentBatches) {
+        return new BulkRemover(dataOperations, scheduler, batchSize, maxConcurrentBatches, 3, 1);
+    }
+
+    private static ListenableFuture<RemoveStatus> removed(int total) {
+        return Futures.immediateFuture(new RemoveStatus(total));
+    }
+
+    private static ListenableFuture<RemoveStatus> failed(ResponseMessages message) {
+        return Futures.immediateFuture(new RemoveStatus(message.getMessage(), null, null));
+    }
+
+    private static List<String> imNames(int count) {
+        List<String> imNames = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            imNames.add("im_" + i);
+        }
+        return imNames;
+    }
+
+    @Test
+    public void testSplitsIntoBatches() {
+        when(dataOperations.removeAsync(Matchers.<List<String>>any())).thenReturn(removed(100), removed(100), removed(50));
+        BulkRemover remover = new BulkRemover(dataOperations);
+        BulkRemoveReport report = remover.removeAll(imNames(250).iterator());
+        remover.close();
+
+        ArgumentCaptor<List> batches = ArgumentCaptor.forClass(List.class);
+        verify(dataOperations, times(3)).removeAsync(batches.capture());
+        assertEquals(100, batches.getAllValues().get(0).size());
+        assertEquals("im_200", batches.getAllValues().get(2).get(0));
+        assertEquals(250, report.getTotal());
+        assertEquals(3, report.getBatchCount());
+        assertTrue(report.isSuccess());
+    }
+
+    @Test
+    public void testRetriesTransientErrors() {
+        when(dataOperations.removeAsync(Matchers.<List<String>>any())).thenReturn(
+                failed(ResponseMessages.SYSTEM_BUSY),
+                Futures.<RemoveStatus>immediateFailedFuture(new IOException("reset")),
+                removed(2));
+        BulkRemoveReport report = remover(2, 1).removeAll(imNames(2).iterator());
+
+        verify(dataOperations, times(3)).removeAsync(Lists.newArrayList("im_0", "im_1"));
+        assertEquals(2, report.getTotal());
+        assertEquals(2, report.getRetryCount());
+        assertTrue(report.isSuccess());
+    }
+
+    @Test
+    public void testReportsFailedBatches() {
+        when(dataOperations.removeAsync(Matchers.<List<String>>any())).thenReturn(
+                failed(ResponseMessages.INVALID_KEY),
+                failed(ResponseMessages.NETWORK_ERROR));
+        BulkRemoveReport report = remover(2, 1).removeAll(imNames(4).iterator());
+
+        assertFalse(report.isSuccess());
+        assertEquals(2, report.getFailures().size());
+        BulkRemoveReport.Failure invalidKey = report.getFailures().get(0);
+        assertEquals(Lists.newArrayList("im_0", "im_1"), invalidKey.getImNames());
+        assertEquals(1, invalidKey.getAttempts());
+        BulkRemoveReport.Failure networkError = report.getFailures().get(1);
+        assertEquals(ResponseMessages.NETWORK_ERROR.getMessage(), networkError.getErrorMessage());
+        assertEquals(3, networkError.getAttempts());
+        assertEquals(0, report.getTotal());
+        assertEquals(2, report.getBatchCount());
+    }
+
+    @Test(timeout = 5000)
+    public void testCloseReportsDroppedRetries() {
+        when(dataOperations.removeAsync(Matchers.<List<String>>any())).thenReturn(failed(ResponseMessages.SYSTEM_BUSY));
+        BulkRemover remover = new BulkRemover(dataOperations);
+        remover.add("im_0");
+        remover.flush();
+        remover.close();
+
+        // the dropped retry releases its permit, or finish would block
+        BulkRemoveReport report = remover.finish();
+        assertEquals(1, report.getFailures().size());
+        BulkRemoveReport.Failure busy = report.getFailures().get(0);
+        assertEquals(ResponseMessages.SYSTEM_BUSY.getMessage(), busy.getErrorMessage());
+        assertTrue(busy.getAttempts() < 3);
+        verify(dataOperations, times(busy.getAttempts())).removeAsync(Matchers.<List<String>>any());
+        assertEquals(busy.getAttempts() - 1, report.getRetryCount());
+    }
+
+    @Test
+    public void testBlocksWhileBatchesAreInFlight() throws Exception {
+        SettableFuture<RemoveStatus> first = SettableFuture.create();
+        when(dataOperations.removeAsync(Matchers.<List<String>>any())).thenReturn(first, removed(1));
+        final BulkRemover remover = remover(1, 1);
+        remover.add("a");
+
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                remover.add("b");
+                added.countDown();
+            }
+        });
+        producer.start();
+        assertFalse(added.await(100, TimeUnit.MILLISECONDS));
+
+        first.set(new RemoveStatus(1));
+        assertTrue(added.await(1, TimeUnit.SECONDS));
+        producer.join();
+        assertEquals(2, remover.finish().getTotal());
+    }
+}
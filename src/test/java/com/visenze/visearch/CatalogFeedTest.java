@@ -0,0 +1,112 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CatalogFeedTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static CatalogFeed feed(String content, CatalogFeed.Format format) throws IOException {
+        byte[] bytes = content.getBytes(Charsets.UTF_8);
+        return new CatalogFeed(new ByteArrayInputStream(bytes), format, bytes.length);
+    }
+
+    @Test
+    public void testReadsJsonl() throws IOException {
+        CatalogFeed feed = feed("{\"im_name\": \"im_1\", \"im_url\": \"http://www.example.com/1.jpeg\", \"price\": 12.5, \"tags\": [\"a\"]}\n"
+                + "\n"
+                + "{\"im_name\": \"im_2\", \"brand\": null}\n", CatalogFeed.Format.JSONL);
+
+        Image image = feed.next();
+        assertEquals("im_1", image.getImName());
+        assertEquals("http://www.example.com/1.jpeg", image.getImUrl());
+        assertEquals("12.5", image.getMetadata().get("price"));
+        assertEquals("[\"a\"]", image.getMetadata().get("tags"));
+        image = feed.next();
+        assertEquals("im_2", image.getImName());
+        assertNull(image.getImUrl());
+        assertFalse(image.getMetadata().containsKey("brand"));
+        assertNull(feed.next());
+        assertEquals(2, feed.getRecords());
+        assertEquals(feed.getLength(), feed.getBytesRead());
+    }
+
+    @Test
+    public void testSkipsMalformedJsonl() throws IOException {
+        CatalogFeed feed = feed("{\"im_name\": \"im_1\"\n"
+                + "[1, 2]\n"
+                + "{\"im_url\": \"http://www.example.com/1.jpeg\"}\n"
+                + "{\"im_name\": \"im_2\"}", CatalogFeed.Format.JSONL);
+
+        assertEquals("im_2", feed.next().getImName());
+        assertNull(feed.next());
+        assertEquals(1, feed.getRecords());
+        assertEquals(3, feed.getSkippedRecords());
+    }
+
+    @Test
+    public void testReadsCsv() throws IOException {
+        CatalogFeed feed = feed("im_name,im_url,title,brand\r\n"
+                + "im_1,http://www.example.com/1.jpeg,\"Shirt, \"\"slim\"\"\nfit\",\r\n"
+                + "\r\n"
+                + "im_2,,Dress,Acme\r\n"
+                + "im_3,http://www.example.com/3.jpeg\r\n"
+                + "im_4,http://www.example.com/4.jpeg,\"\",Acme", CatalogFeed.Format.CSV);
+
+        Image image = feed.next();
+        assertEquals("im_1", image.getImName());
+        assertEquals("Shirt, \"slim\"\nfit", image.getMetadata().get("title"));
+        assertFalse(image.getMetadata().containsKey("brand"));
+        image = feed.next();
+        assertNull(image.getImUrl());
+        assertEquals("Acme", image.getMetadata().get("brand"));
+        image = feed.next();
+        assertEquals("im_4", image.getImName());
+        assertFalse(image.getMetadata().containsKey("title"));
+        assertNull(feed.next());
+        assertEquals(3, feed.getRecords());
+        assertEquals(1, feed.getSkippedRecords());
+    }
+
+    @Test
+    public void testCsvNeedsImNameColumn() throws IOException {
+        try {
+            feed("im_url,title\n", CatalogFeed.Format.CSV);
+            fail();
+        } catch (IOException e) {
+            assertEquals("CSV feed header must have an im_name column", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testOpenPicksFormatFromFileName() throws IOException {
+        File csv = folder.newFile("catalog.csv");
+        Files.write("im_name\nim_1\n", csv, Charsets.UTF_8);
+        File jsonl = folder.newFile("catalog.jsonl");
+        Files.write("{\"im_name\": \"im_1\"}\n", jsonl, Charsets.UTF_8);
+
+        CatalogFeed feed = CatalogFeed.open(csv);
+        assertEquals(CatalogFeed.Format.CSV, feed.getFormat());
+        assertEquals("im_1", feed.next().getImName());
+        feed.close();
+        feed = CatalogFeed.open(jsonl);
+        assertEquals(CatalogFeed.Format.JSONL, feed.getFormat());
+        assertEquals(jsonl.length(), feed.getLength());
+        assertEquals("im_1", feed.next().getImName());
+        feed.close();
+    }
+}
@@ -0,0 +1,84 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CatalogIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Image image(String imUrl, Map<String, String> metadata) {
+        return new Image("im_1", imUrl, new LinkedHashMap<String, String>(metadata));
+    }
+
+    @Test
+    public void testHashIgnoresMetadataOrder() {
+        assertEquals(CatalogIndex.hash(image("url", ImmutableMap.of("a", "1", "b", "2"))),
+                CatalogIndex.hash(image("url", ImmutableMap.of("b", "2", "a", "1"))));
+        assertNotEquals(CatalogIndex.hash(image("url", ImmutableMap.of("a", "1", "b", "2"))),
+                CatalogIndex.hash(image("url", ImmutableMap.of("a", "1", "b", "3"))));
+        assertNotEquals(CatalogIndex.hash(image("url", ImmutableMap.of("a", "1"))),
+                CatalogIndex.hash(image("other", ImmutableMap.of("a", "1"))));
+        // fields are delimited
+        assertNotEquals(CatalogIndex.hash(image("url", ImmutableMap.of("ab", "c"))),
+                CatalogIndex.hash(image("url", ImmutableMap.of("a", "bc"))));
+    }
+
+    @Test
+    public void testContainsOnlyUnchangedImages() {
+        CatalogIndex index = new CatalogIndex();
+        index.put(image("url", ImmutableMap.of("a", "1")));
+
+        assertTrue(index.contains(image("url", ImmutableMap.of("a", "1"))));
+        assertFalse(index.contains(image("url", ImmutableMap.of("a", "2"))));
+        assertTrue(index.contains("im_1"));
+        index.remove("im_1");
+        assertFalse(index.contains("im_1"));
+    }
+
+    @Test
+    public void testSavesAndLoads() throws IOException {
+        File file = new File(folder.getRoot(), "catalog.index");
+        assertEquals(0, CatalogIndex.load(file).size());
+
+        CatalogIndex index = new CatalogIndex();
+        index.put(image("url", ImmutableMap.of("a", "1")));
+        index.put(new Image("im_2", "url"));
+        index.save(file);
+        index.remove("im_2");
+        index.save(file);
+
+        CatalogIndex loaded = CatalogIndex.load(file);
+        assertEquals(1, loaded.size());
+        assertTrue(loaded.contains(image("url", ImmutableMap.of("a", "1"))));
+        assertFalse(new File(folder.getRoot(), "catalog.index.tmp").exists());
+    }
+
+    @Test
+    public void testRejectsOtherFiles() throws IOException {
+        File file = folder.newFile("catalog.csv");
+        Files.write("im_name,im_url\n", file, Charsets.UTF_8);
+        try {
+            CatalogIndex.load(file);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().endsWith("is not a catalog index file"));
+        }
+    }
+}
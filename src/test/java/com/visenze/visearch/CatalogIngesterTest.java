@@ -0,0 +1,79 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.Futures;
+import com.visenze.visearch.internal.DataOperations;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CatalogIngesterTest {
+
+    private DataOperations dataOperations;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        dataOperations = mock(DataOperations.class);
+        when(dataOperations.insertAsync(any(List.class))).thenReturn(
+                Futures.immediateFuture(new InsertTrans("1", 100, Collections.<InsertError>emptyList())));
+    }
+
+    private static CatalogFeed feed(int images) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < images; i++) {
+            content.append("{\"im_name\": \"im_").append(i).append("\", \"im_url\": \"http://www.example.com/")
+                    .append(i).append(".jpeg\"}\n");
+        }
+        content.append("not json\n");
+        byte[] bytes = content.toString().getBytes(Charsets.UTF_8);
+        return new CatalogFeed(new ByteArrayInputStream(bytes), CatalogFeed.Format.JSONL, bytes.length);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testInsertsTheFeedInBatches() throws IOException {
+        IngestionReport report = new CatalogIngester(dataOperations).ingest(feed(250));
+
+        verify(dataOperations, times(3)).insertAsync(any(List.class));
+        assertEquals(250, report.getRecords());
+        assertEquals(1, report.getSkippedRecords());
+        assertEquals(100.0, report.getPercent(), 0);
+        assertEquals(250, report.getInsertReport().getImageCount());
+        assertTrue(report.getInsertReport().isSuccess());
+    }
+
+    @Test
+    public void testReportsProgress() throws IOException {
+        final List<IngestionProgress> progress = new ArrayList<IngestionProgress>();
+        CatalogIngester ingester = new CatalogIngester(dataOperations);
+        ingester.setProgressInterval(1);
+        ingester.setProgressListener(new CatalogIngester.ProgressListener() {
+            @Override
+            public void onProgress(IngestionProgress snapshot) {
+                progress.add(snapshot);
+            }
+        });
+        ingester.ingest(feed(10));
+
+        assertTrue(progress.size() >= 1);
+        IngestionProgress last = progress.get(progress.size() - 1);
+        assertEquals(10, last.getRecords());
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i).getRecords() >= progress.get(i - 1).getRecords());
+        }
+    }
+}
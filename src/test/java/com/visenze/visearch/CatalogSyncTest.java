@@ -0,0 +1,170 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.visenze.visearch.internal.DataOperations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CatalogSyncTest {
+
+    private DataOperations dataOperations;
+
+    private ScheduledExecutorService scheduler;
+
+    private CatalogIndex index;
+
+    private CatalogSync sync;
+
+    @Before
+    public void setUp() {
+        dataOperations = mock(DataOperations.class);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        index = new CatalogIndex();
+        sync = new CatalogSync(dataOperations, index, new InsertStatusTracker(dataOperations, scheduler, 1, 10, 100));
+        when(dataOperations.insertAsync(Matchers.<List<Image>>any())).thenReturn(
+                Futures.immediateFuture(new InsertTrans("1", 2, Collections.<InsertError>emptyList())));
+        when(dataOperations.insertStatusAsync("1")).thenReturn(processed(0));
+        when(dataOperations.remove(Matchers.<List<String>>any())).thenReturn(new RemoveStatus(1));
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static ListenableFuture<InsertStatus> processed(int failCount) {
+        return Futures.immediateFuture(new InsertStatus("1", 100, 2, 2 - failCount, failCount,
+                new Date(), new Date(), Collections.<InsertError>emptyList(), 1, 100));
+    }
+
+    private static Image image(String imName, String price) {
+        return new Image(imName, "http://www.example.com/" + imName + ".jpeg", ImmutableMap.of("price", price));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Image> inserted() {
+        ArgumentCaptor<List> images = ArgumentCaptor.forClass(List.class);
+        verify(dataOperations).insertAsync(images.capture());
+        return (List<Image>) images.getValue();
+    }
+
+    @Test
+    public void testSendsOnlyChanges() {
+        index.put(image("same", "1"));
+        index.put(image("changed", "1"));
+        index.put(image("gone", "1"));
+        SyncReport report = sync.sync(Lists.newArrayList(image("same", "1"), image("changed", "2"), image("new", "1")).iterator());
+
+        List<Image> images = inserted();
+        assertEquals(2, images.size());
+        assertEquals("changed", images.get(0).getImName());
+        assertEquals("new", images.get(1).getImName());
+        verify(dataOperations).remove(Collections.singletonList("gone"));
+        assertEquals(1, report.getUnchanged());
+        assertEquals(2, report.getInserted());
+        assertEquals(1, report.getRemoved());
+        assertTrue(report.isSuccess());
+        assertTrue(index.contains(image("changed", "2")));
+        assertTrue(index.contains(image("new", "1")));
+        assertFalse(index.contains("gone"));
+    }
+
+    @Test
+    public void testIndexesOnlyConfirmedImages() {
+        InsertError error = new InsertError("b", 1, 102, "Image download failed.");
+        when(dataOperations.insertStatusAsync("1")).thenReturn(processed(1));
+        when(dataOperations.insertStatusAsync("1", 1, 100)).thenReturn(Futures.immediateFuture(
+                new InsertStatus("1", 100, 2, 1, 1, new Date(), new Date(), Collections.singletonList(error), 1, 100)));
+        SyncReport report = sync.sync(Lists.newArrayList(image("a", "1"), image("b", "1")).iterator());
+
+        assertEquals(1, report.getInserted());
+        assertEquals(1, report.getInsertFailed());
+        assertFalse(report.isSuccess());
+        assertTrue(index.contains("a"));
+        assertFalse(index.contains("b"));
+    }
+
+    @Test
+    public void testKeepsImagesWhoseRemoveFailed() {
+        index.put(image("gone", "1"));
+        sync.setMaxRemovalRatio(1);
+        when(dataOperations.remove(Matchers.<List<String>>any())).thenReturn(
+                new RemoveStatus(ResponseMessages.NETWORK_ERROR.getMessage(), null, null));
+        SyncReport report = sync.sync(Collections.<Image>emptyList().iterator());
+
+        verify(dataOperations, never()).insertAsync(Matchers.<List<Image>>any());
+        assertEquals(1, report.getRemoveFailed());
+        assertTrue(index.contains("gone"));
+    }
+
+    @Test
+    public void testMalformedRecordsRemoveNothing() throws IOException {
+        index.put(image("a", "1"));
+        index.put(image("b", "1"));
+        index.put(image("c", "1"));
+        byte[] feed = ("{\"im_name\":\"a\",\"im_url\":\"http://www.example.com/a.jpeg\",\"price\":\"1\"}\n"
+                + "{\"im_name\":\"b\",\"im_url\":\n"
+                + "{\"im_name\":\"c\",\"im_url\":\"http://www.example.com/c.jpeg\",\"price\":\"1\"}\n")
+                .getBytes(Charset.forName("UTF-8"));
+        SyncReport report = sync.sync(new CatalogFeed(new ByteArrayInputStream(feed), CatalogFeed.Format.JSONL, feed.length));
+
+        verify(dataOperations, never()).remove(Matchers.<List<String>>any());
+        assertEquals(2, report.getUnchanged());
+        assertEquals(1, report.getRemoveSkipped());
+        assertFalse(report.isSuccess());
+        assertTrue(index.contains("b"));
+    }
+
+    @Test
+    public void testRemovalsAreCapped() {
+        index.put(image("a", "1"));
+        index.put(image("b", "1"));
+        index.put(image("c", "1"));
+        SyncReport report = sync.sync(Collections.singletonList(image("a", "1")).iterator());
+
+        verify(dataOperations, never()).remove(Matchers.<List<String>>any());
+        assertEquals(2, report.getRemoveSkipped());
+        assertTrue(index.contains("b"));
+
+        sync.setMaxRemovalRatio(1);
+        report = sync.sync(Collections.singletonList(image("a", "1")).iterator());
+        assertEquals(2, report.getRemoved());
+        assertEquals(0, report.getRemoveSkipped());
+        assertFalse(index.contains("b"));
+    }
+
+    @Test
+    public void testUnconfirmedImagesFailAfterTheTimeout() {
+        when(dataOperations.insertStatusAsync("1")).thenReturn(Futures.immediateFuture(new InsertStatus("1", 50, 2, 1, 0,
+                new Date(), new Date(), Collections.<InsertError>emptyList(), 1, 100)));
+        sync.setConfirmTimeout(50);
+        SyncReport report = sync.sync(Lists.newArrayList(image("a", "1"), image("b", "1")).iterator());
+
+        assertEquals(0, report.getInserted());
+        assertEquals(2, report.getInsertFailed());
+        assertFalse(index.contains("a"));
+    }
+}
@@ -2,6 +2,8 @@ package com.visenze.visearch;
 
 import org.junit.Test;
 
+import java.util.concurrent.ExecutorService;
+
 import static org.junit.Assert.*;
 
 /**
@@ -22,4 +24,61 @@ public class ClientConfigTest {
         System.out.println(ClientConfig.DEFAULT_XREQUEST_WITH);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void setTransportTypeRejectsHttp2BeforeJava11() throws Exception {
+        ClientConfig config = new ClientConfig();
+        if (ClientConfig.isHttp2Supported()) {
+            config.setTransportType(TransportType.HTTP2);
+            assertEquals(TransportType.HTTP2, config.getTransportType());
+            return;
+        }
+        try {
+            config.setTransportType(TransportType.HTTP2);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("The HTTP/2 transport requires Java 11 or later"));
+        }
+        assertEquals(TransportType.BLOCKING, config.getTransportType());
+    }
+
+    @Test
+    public void setMaxConnectionSetsTotalAndPerRoute() throws Exception {
+        ClientConfig config = new ClientConfig();
+        config.setMaxConnection(80);
+        assertEquals(80, config.getMaxConnection());
+        assertEquals(80, config.getMaxConnectionTotal());
+        assertEquals(80, config.getMaxConnectionPerRoute());
+
+        config.setMaxConnectionPerRoute(20);
+        assertEquals(80, config.getMaxConnectionTotal());
+        assertEquals(20, config.getMaxConnectionPerRoute());
+    }
+
+    @Test
+    public void defaultPoolPolicies() throws Exception {
+        ClientConfig config = new ClientConfig();
+        assertEquals(-1, config.getConnectionRequestTimeout());
+        assertEquals(-1, config.getKeepAliveTimeout());
+        assertEquals(-1, config.getConnectionTimeToLive());
+        assertEquals(ClientConfig.DEFAULT_VALIDATE_AFTER_INACTIVITY, config.getValidateAfterInactivity());
+    }
+
+    @Test
+    public void asyncExecutorDefaultsToSharedExecutor() throws Exception {
+        ClientConfig config = new ClientConfig();
+        assertSame(AsyncExecutors.sharedExecutor(), config.getAsyncExecutor());
+
+        ExecutorService executor = AsyncExecutors.newVirtualThreadPerTaskExecutor();
+        config.setAsyncExecutor(executor);
+        assertSame(executor, config.getAsyncExecutor());
+        executor.shutdown();
+    }
+
+    @Test
+    public void rawJsonModeDefaultsToString() throws Exception {
+        ClientConfig config = new ClientConfig();
+        assertEquals(RawJsonMode.STRING, config.getRawJsonMode());
+        config.setRawJsonMode(RawJsonMode.BYTES);
+        assertEquals(RawJsonMode.BYTES, config.getRawJsonMode());
+    }
+}
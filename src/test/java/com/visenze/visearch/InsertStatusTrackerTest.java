@@ -0,0 +1,153 @@
+package com.visenze.visearch;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.visenze.visearch.internal.DataOperations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InsertStatusTrackerTest {
+
+    private DataOperations dataOperations;
+
+    private ScheduledExecutorService scheduler;
+
+    private InsertStatusTracker tracker;
+
+    @Before
+    public void setUp() {
+        dataOperations = mock(DataOperations.class);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        tracker = new InsertStatusTracker(dataOperations, scheduler, 1, 10, 2);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static ListenableFuture<InsertStatus> status(int percent, int failCount) {
+        return Futures.immediateFuture(new InsertStatus("1", percent, 5, 5 - failCount, failCount,
+                new Date(), new Date(), Collections.<InsertError>emptyList(), 1, 10));
+    }
+
+    private static ListenableFuture<InsertStatus> errorPage(String... imNames) {
+        InsertError[] errors = new InsertError[imNames.length];
+        for (int i = 0; i < imNames.length; i++) {
+            errors[i] = new InsertError(imNames[i], i, 400, "image download failed");
+        }
+        return Futures.immediateFuture(new InsertStatus("1", 100, 5, 0, 5,
+                new Date(), new Date(), Arrays.asList(errors), 1, 2));
+    }
+
+    private static ListenableFuture<InsertStatus> failed() {
+        return Futures.immediateFuture(new InsertStatus(ResponseMessages.NETWORK_ERROR.getMessage(), null, null));
+    }
+
+    @Test
+    public void testPollsUntilProcessed() throws Exception {
+        when(dataOperations.insertStatusAsync("1")).thenReturn(status(0, 0), status(40, 0), status(100, 0));
+        InsertStatus status = tracker.track("1").get(5, TimeUnit.SECONDS);
+
+        assertEquals(100, status.getProcessedPercent().intValue());
+        verify(dataOperations, times(3)).insertStatusAsync("1");
+        verify(dataOperations, never()).insertStatusAsync(anyString(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void testFetchesAllErrorPages() throws Exception {
+        when(dataOperations.insertStatusAsync("1")).thenReturn(status(100, 5));
+        when(dataOperations.insertStatusAsync("1", 1, 2)).thenReturn(errorPage("im_1", "im_2"));
+        when(dataOperations.insertStatusAsync("1", 2, 2)).thenReturn(errorPage("im_3", "im_4"));
+        when(dataOperations.insertStatusAsync("1", 3, 2)).thenReturn(errorPage("im_5"));
+        InsertStatus status = tracker.track("1").get(5, TimeUnit.SECONDS);
+
+        assertEquals(5, status.getFailCount().intValue());
+        assertEquals(5, status.getErrorList().size());
+        assertEquals("im_5", status.getErrorList().get(4).getImName());
+    }
+
+    @Test
+    public void testFailedErrorPageFailsTheTransaction() throws Exception {
+        when(dataOperations.insertStatusAsync("1")).thenReturn(status(100, 3));
+        when(dataOperations.insertStatusAsync("1", 1, 2)).thenReturn(errorPage("im_1", "im_2"));
+        when(dataOperations.insertStatusAsync("1", 2, 2)).thenReturn(failed());
+        InsertStatus status = tracker.track("1").get(5, TimeUnit.SECONDS);
+
+        assertEquals(ResponseMessages.NETWORK_ERROR.getMessage(), status.getErrorMessage());
+    }
+
+    @Test
+    public void testRetriesFailedPolls() throws Exception {
+        when(dataOperations.insertStatusAsync("1")).thenReturn(failed(), failed(), status(100, 0));
+        InsertStatus status = tracker.track("1").get(5, TimeUnit.SECONDS);
+
+        assertEquals(100, status.getProcessedPercent().intValue());
+    }
+
+    @Test
+    public void testGivesUpAfterConsecutiveFailedPolls() throws Exception {
+        when(dataOperations.insertStatusAsync("1")).thenReturn(failed());
+        InsertStatus status = tracker.track("1").get(5, TimeUnit.SECONDS);
+
+        assertEquals(ResponseMessages.NETWORK_ERROR.getMessage(), status.getErrorMessage());
+        verify(dataOperations, times(InsertStatusTracker.MAX_CONSECUTIVE_ERRORS)).insertStatusAsync("1");
+    }
+
+    @Test
+    public void testCancelStopsPolling() throws Exception {
+        when(dataOperations.insertStatusAsync("1")).thenReturn(status(0, 0));
+        ListenableFuture<InsertStatus> status = tracker.track("1");
+        Thread.sleep(50);
+        assertTrue(status.cancel(false));
+        // let a poll scheduled before the cancel run
+        Thread.sleep(50);
+        int polls = mockingDetails(dataOperations).getInvocations().size();
+        Thread.sleep(50);
+        assertEquals(polls, mockingDetails(dataOperations).getInvocations().size());
+    }
+
+    @Test
+    public void testCloseCompletesWatchedTransactions() throws Exception {
+        when(dataOperations.insertStatusAsync("1")).thenReturn(status(0, 0));
+        InsertStatusTracker tracker = new InsertStatusTracker(dataOperations);
+        ListenableFuture<InsertStatus> status = tracker.track("1");
+        Thread.sleep(50);
+        tracker.close();
+
+        assertEquals(InsertStatusTracker.CLOSED_MESSAGE, status.get(5, TimeUnit.SECONDS).getErrorMessage());
+        assertEquals(InsertStatusTracker.CLOSED_MESSAGE,
+                tracker.track("2").get(5, TimeUnit.SECONDS).getErrorMessage());
+    }
+
+    @Test
+    public void testNextDelay() {
+        InsertStatusTracker tracker = new InsertStatusTracker(dataOperations, scheduler, 1000, 60000, 100);
+        // 10% in 2s, 80% left: done in 16s
+        assertEquals(8000, tracker.nextDelay(2000, 10, 80));
+        // no progress
+        assertEquals(4000, tracker.nextDelay(2000, 0, 80));
+        assertEquals(60000, tracker.nextDelay(40000, 0, 80));
+        // about to complete
+        assertEquals(1000, tracker.nextDelay(2000, 50, 1));
+    }
+}
@@ -5,6 +5,7 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.visenze.visearch.internal.DataOperations;
 import com.visenze.visearch.internal.DataOperationsImpl;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
@@ -538,4 +539,33 @@ public class ViSearchDataOperationsTest {
         InsertStatus insertStatus = dataOperations.insertStatus("317503499455827968");
         assertEquals(ResponseMessages.PARSE_RESPONSE_ERROR.getMessage(), insertStatus.getErrorMessage());
     }
+
+    @Test
+    public void testInsertAsync() throws Exception {
+        String insertResponse = "{\"status\":\"OK\",\"trans_id\":317503499455827968,\"method\":\"insert\",\"total\":1}";
+        ViSearchHttpResponse mockResponse = mock(ViSearchHttpResponse.class);
+        when(mockResponse.getBody()).thenReturn(insertResponse);
+        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper, MoreExecutors.directExecutor());
+        List<Image> imageList = new ArrayList<Image>();
+        imageList.add(new Image("test_im_0", "http://www.example.com/test_im_0.jpeg"));
+        InsertTrans insertTrans = dataOperations.insertAsync(imageList).get();
+        assertEquals("317503499455827968", insertTrans.getTransId());
+        Multimap<String, String> expectedParams = HashMultimap.create();
+        expectedParams.put("im_name[0]", "test_im_0");
+        expectedParams.put("im_url[0]", "http://www.example.com/test_im_0.jpeg");
+        verify(mockClient).post("/insert", expectedParams);
+    }
+
+    @Test
+    public void testRemoveAsyncReportsServerError() throws Exception {
+        String removeResponse = "{\"status\":\"fail\",\"method\":\"remove\",\"error\":[\"Invalid im_name.\"],\"total\":0}";
+        ViSearchHttpResponse mockResponse = mock(ViSearchHttpResponse.class);
+        when(mockResponse.getBody()).thenReturn(removeResponse);
+        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(mockResponse);
+        DataOperations dataOperations = new DataOperationsImpl(mockClient, objectMapper, MoreExecutors.directExecutor());
+        RemoveStatus removeStatus = dataOperations.removeAsync(Lists.newArrayList("test_im_0")).get();
+        assertEquals("Invalid im_name.", removeStatus.getErrorMessage());
+        assertEquals(removeResponse, removeStatus.getRawResponseMessage());
+    }
 }
@@ -6,6 +6,7 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.visenze.visearch.internal.SearchOperations;
 import com.visenze.visearch.internal.SearchOperationsImpl;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
@@ -15,8 +16,10 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Matchers;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -38,6 +41,9 @@ public class ViSearchSearchOperationsTest {
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void beforeTest() {
         mockClient = mock(ViSearchHttpClient.class);
@@ -472,6 +478,20 @@ public class ViSearchSearchOperationsTest {
         assertEquals(ResponseMessages.INVALID_IMAGE_OR_URL.getMessage(), response.getErrorMessage());
     }
 
+    @Test
+    public void testUploadSearchSendsTheFile() throws Exception {
+        File image = temporaryFolder.newFile("image.jpg");
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn("{\"status\":\"OK\",\"method\":\"uploadsearch\",\"error\":[],\"page\":1,\"limit\":10,\"total\":0,\"result\":[]}");
+        when(mockClient.postImage(anyString(), Matchers.<Multimap<String, String>>any(), eq(image))).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+        PagedSearchResult result = searchOperations.uploadSearch(new UploadSearchParams(image));
+        assertNull(result.getErrorMessage());
+        verify(mockClient).postImage(eq("/uploadsearch"), Matchers.<Multimap<String, String>>any(), eq(image));
+        verify(mockClient, never()).postImage(anyString(), Matchers.<Multimap<String, String>>any(),
+                any(InputStream.class), anyString());
+    }
+
     @Test
     public void testUploadSearchParamsNullStream() {
         expectedException.expect(NullPointerException.class);
@@ -1916,4 +1936,123 @@ public class ViSearchSearchOperationsTest {
         assertEquals("oscar de la renta", item3.getText());
         assertTrue(46.0 == item3.getScore());
     }
+
+    @Test
+    public void testSearchAsync() throws Exception {
+        String responseBody = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":10,\"total\":20,\"result\":[{\"im_name\":\"test_im_1\"}]}";
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, MoreExecutors.directExecutor());
+        PagedSearchResult pagedSearchResult = searchOperations.searchAsync(new SearchParams("test_im")).get();
+        assertNull(pagedSearchResult.getErrorMessage());
+        assertEquals(20, pagedSearchResult.getTotal().intValue());
+        Multimap<String, String> expectedParams = HashMultimap.create();
+        expectedParams.put("im_name", "test_im");
+        verify(mockClient).get("/search", expectedParams);
+    }
+
+    @Test
+    public void testUploadSearchAsyncReportsMissingImage() throws Exception {
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, MoreExecutors.directExecutor());
+        PagedSearchResult pagedSearchResult = searchOperations.uploadSearchAsync(new UploadSearchParams()).get();
+        assertEquals(ResponseMessages.INVALID_IMAGE_SOURCE.getMessage(), pagedSearchResult.getErrorMessage());
+        verifyZeroInteractions(mockClient);
+    }
+
+    @Test
+    public void testUploadSearchAsyncWithImageStream() throws Exception {
+        String responseBody = "{\"status\":\"OK\",\"method\":\"uploadsearch\",\"error\":[],\"page\":1,\"limit\":10,\"total\":20,\"result\":[{\"im_name\":\"test_im_1\"}]}";
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        InputStream inputStream = mock(InputStream.class);
+        when(mockClient.postImage(anyString(), Matchers.<Multimap<String, String>>any(), any(InputStream.class), anyString())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, MoreExecutors.directExecutor());
+        PagedSearchResult pagedSearchResult = searchOperations.uploadSearchAsync(new UploadSearchParams(inputStream)).get();
+        assertNull(pagedSearchResult.getErrorMessage());
+        verify(mockClient).postImage(eq("/uploadsearch"), Matchers.<Multimap<String, String>>any(), eq(inputStream), anyString());
+    }
+
+    @Test
+    public void testSearchAsyncReportsParseError() throws Exception {
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn("{malformed");
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, MoreExecutors.directExecutor());
+        PagedSearchResult pagedSearchResult = searchOperations.searchAsync(new SearchParams("test_im")).get();
+        assertEquals(ResponseMessages.PARSE_RESPONSE_ERROR.getMessage(), pagedSearchResult.getErrorMessage());
+        assertEquals("{malformed", pagedSearchResult.getRawResponseMessage());
+    }
+
+    @Test
+    public void testSearchParsesStreamedResponse() throws Exception {
+        String responseBody = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":10,\"total\":20,\"result\":[{\"im_name\":\"test_im_1\"}]}";
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBytes()).thenReturn(responseBody.getBytes("UTF-8"));
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+        PagedSearchResult pagedSearchResult = searchOperations.search(new SearchParams("test_im"));
+        assertNull(pagedSearchResult.getErrorMessage());
+        assertEquals(20, pagedSearchResult.getTotal().intValue());
+        assertEquals("test_im_1", pagedSearchResult.getResult().get(0).getImName());
+        verify(response).close();
+    }
+
+    @Test
+    public void testRawJsonModes() {
+        String responseBody = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":10,\"total\":20,\"result\":[{\"im_name\":\"test_im_\u00e9\"}]}";
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+
+        SearchOperations none = new SearchOperationsImpl(mockClient, objectMapper, MoreExecutors.directExecutor(), RawJsonMode.NONE);
+        PagedSearchResult noneResult = none.search(new SearchParams("test_im"));
+        assertNull(noneResult.getRawJson());
+        assertEquals(20, noneResult.getTotal().intValue());
+
+        SearchOperations lazy = new SearchOperationsImpl(mockClient, objectMapper, MoreExecutors.directExecutor(), RawJsonMode.LAZY);
+        assertEquals(responseBody, lazy.search(new SearchParams("test_im")).getRawJson());
+
+        SearchOperations bytes = new SearchOperationsImpl(mockClient, objectMapper, MoreExecutors.directExecutor(), RawJsonMode.BYTES);
+        assertEquals(responseBody, bytes.search(new SearchParams("test_im")).getRawJson());
+    }
+
+    @Test
+    public void testSimilarProductsGroupResultBecomesObjects() {
+        String responseBody = "{\"result\":[],\"group_result\":[[{\"im_name\":\"top_0\"},{\"im_name\":\"top_1\"}],[{\"im_name\":\"bag_0\"}]],"
+                + "\"product_types\":[{\"type\":\"top\",\"score\":0.9,\"box\":[1,2,3,4]},{\"type\":\"bag\",\"score\":0.5,\"box\":[5,6,7,8]}],"
+                + "\"product_types_list\":[{\"type\":\"top\"},{\"type\":\"bag\"}],\"unknown\":{\"nested\":[1,2]},"
+                + "\"method\":\"similarproducts\",\"page\":1,\"limit\":10,\"total\":3,\"status\":\"OK\"}";
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.post(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper);
+        UploadSearchParams uploadSearchParams = new UploadSearchParams();
+        uploadSearchParams.setImId("abc");
+        PagedSearchResult result = searchOperations.similarProductsSearch(uploadSearchParams);
+
+        assertNull(result.getErrorMessage());
+        assertEquals(3, result.getTotal().intValue());
+        assertEquals(2, result.getObjects().size());
+        assertEquals("top", result.getObjects().get(0).getType());
+        assertEquals(2, result.getObjects().get(0).getResult().size());
+        assertEquals("bag_0", result.getObjects().get(1).getResult().get(0).getImName());
+        assertEquals(Lists.newArrayList(5, 6, 7, 8), result.getObjects().get(1).getBox());
+        assertEquals(result.getProductTypesList(), result.getObjectTypesList());
+    }
+
+    @Test
+    public void testRawJsonNoneStreamsResponse() throws Exception {
+        String responseBody = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":10,\"total\":20,\"result\":[{\"im_name\":\"test_im_1\"}]}";
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getContent()).thenReturn(new ByteArrayInputStream(responseBody.getBytes("UTF-8")));
+        when(mockClient.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, MoreExecutors.directExecutor(), RawJsonMode.NONE);
+        PagedSearchResult pagedSearchResult = searchOperations.search(new SearchParams("test_im"));
+        assertNull(pagedSearchResult.getErrorMessage());
+        assertEquals("test_im_1", pagedSearchResult.getResult().get(0).getImName());
+        assertNull(pagedSearchResult.getRawJson());
+        verify(response, never()).getBody();
+        verify(response).close();
+    }
 }
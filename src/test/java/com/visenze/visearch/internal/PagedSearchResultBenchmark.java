@@ -0,0 +1,131 @@
+package com.visenze.visearch.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.CollectionType;
+import com.fasterxml.jackson.databind.type.MapType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.google.common.base.Charsets;
+import com.google.common.base.Suppliers;
+import com.visenze.visearch.Facet;
+import com.visenze.visearch.ImageResult;
+import com.visenze.visearch.PagedSearchResult;
+import com.visenze.visearch.ProductType;
+import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+import com.visenze.visearch.internal.json.ViSearchModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing a search response in a single pass with the previous
+ * approach of parsing it into a tree and parsing every part again from its
+ * string form. Run {@link #main(String[])} from the test classpath; the gc
+ * profiler reports the allocation per operation next to the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PagedSearchResultBenchmark {
+
+    private ObjectMapper objectMapper;
+
+    private PagedSearchResultReader reader;
+
+    private byte[] response;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new ObjectMapper().registerModule(new ViSearchModule());
+        reader = new PagedSearchResultReader(objectMapper);
+        response = searchResponse(50).getBytes(Charsets.UTF_8);
+    }
+
+    static String searchResponse(int results) {
+        StringBuilder json = new StringBuilder("{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":")
+                .append(results).append(",\"total\":1000,\"reqid\":\"1234567890\",\"result\":[");
+        for (int i = 0; i < results; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"im_name\":\"im_").append(i).append("\",\"score\":0.").append(900 - i)
+                    .append(",\"value_map\":{\"title\":\"product title ").append(i)
+                    .append("\",\"price\":\"").append(10 + i).append(".99\",\"brand\":\"brand ").append(i % 7)
+                    .append("\",\"im_url\":\"https://example.com/images/").append(i).append(".jpg\"}}");
+        }
+        json.append("],\"product_types\":[{\"type\":\"top\",\"score\":0.98,\"box\":[10,20,300,400],")
+                .append("\"attributes\":{\"color\":[\"red\",\"blue\"]}}],")
+                .append("\"facets\":[{\"key\":\"brand\",\"items\":[{\"value\":\"brand 0\",\"count\":8},")
+                .append("{\"value\":\"brand 1\",\"count\":7}]}],")
+                .append("\"qinfo\":{\"im_url\":\"https://example.com/query.jpg\",\"title\":\"query\"}}");
+        return json.toString();
+    }
+
+    @Benchmark
+    public PagedSearchResult singlePass() throws IOException {
+        PagedSearchResult result = reader.read(objectMapper.getFactory().createParser(response),
+                Suppliers.<String>ofInstance(null));
+        result.setRawJson(new String(response, Charsets.UTF_8));
+        return result;
+    }
+
+    @Benchmark
+    public PagedSearchResult singlePassWithoutRawJson() throws IOException {
+        return reader.read(objectMapper.getFactory().createParser(response), Suppliers.<String>ofInstance(null));
+    }
+
+    @Benchmark
+    public PagedSearchResult treeAndReparse() throws IOException {
+        String body = new String(response, Charsets.UTF_8);
+        JsonNode node = objectMapper.readTree(body);
+        // the status check serialized the whole tree up front
+        String json = node.toString();
+        if (!ViSearchHttpConstants.OK.equals(node.get(ViSearchHttpConstants.STATUS).asText())) {
+            throw new IllegalStateException(json);
+        }
+        PagedSearchResult result = new PagedSearchResult(readList(node.get(ViSearchHttpConstants.RESULT), ImageResult.class));
+        result.setPage(node.get(ViSearchHttpConstants.PAGE).asInt());
+        result.setLimit(node.get(ViSearchHttpConstants.LIMIT).asInt());
+        result.setTotal(node.get(ViSearchHttpConstants.TOTAL).asInt());
+        result.setReqId(node.get(ViSearchHttpConstants.REQID).asText());
+        result.setProductTypes(readList(node.get(ViSearchHttpConstants.PRODUCT_TYPES), ProductType.class));
+        result.setFacets(readList(node.get(ViSearchHttpConstants.FACETS), Facet.class));
+        MapType mapType = TypeFactory.defaultInstance().constructMapType(HashMap.class, String.class, String.class);
+        Map<String, String> queryInfo = objectMapper.readerFor(mapType).readValue(node.get(ViSearchHttpConstants.QINFO));
+        result.setQueryInfo(queryInfo);
+        result.setRawJson(node.toString());
+        return result;
+    }
+
+    private <T> List<T> readList(JsonNode node, Class<T> clazz) throws IOException {
+        CollectionType listType = TypeFactory.defaultInstance().constructCollectionType(List.class, clazz);
+        return objectMapper.readerFor(listType).readValue(node.toString());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PagedSearchResultBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,152 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.visenze.visearch.AdmissionPolicy;
+import com.visenze.visearch.QueueTimeStats;
+import com.visenze.visearch.RequestPriority;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionQueueTest {
+
+    private FakeTicker ticker;
+
+    private static class FakeTicker extends Ticker {
+
+        long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+    }
+
+    private static AdmissionQueue.Permit permit(ListenableFuture<AdmissionQueue.Permit> admitted) throws Exception {
+        assertTrue(admitted.isDone());
+        return admitted.get();
+    }
+
+    @Test
+    public void testAdmitsUpToMaxInFlight() throws Exception {
+        AdmissionQueue queue = new AdmissionQueue(2, ticker);
+        AdmissionQueue.Permit first = permit(queue.admit(RequestPriority.INTERACTIVE, ""));
+        permit(queue.admit(RequestPriority.INTERACTIVE, ""));
+        ListenableFuture<AdmissionQueue.Permit> third = queue.admit(RequestPriority.INTERACTIVE, "");
+        assertFalse(third.isDone());
+
+        first.release();
+        // releasing twice frees a single slot
+        first.release();
+        permit(third);
+        assertEquals(2, queue.getInFlight());
+    }
+
+    @Test
+    public void testHigherPriorityFirst() throws Exception {
+        AdmissionQueue queue = new AdmissionQueue(1, ticker);
+        AdmissionQueue.Permit running = permit(queue.admit(RequestPriority.BATCH, ""));
+        ListenableFuture<AdmissionQueue.Permit> batch = queue.admit(RequestPriority.BATCH, "");
+        ListenableFuture<AdmissionQueue.Permit> prefetch = queue.admit(RequestPriority.PREFETCH, "");
+        ListenableFuture<AdmissionQueue.Permit> interactive = queue.admit(RequestPriority.INTERACTIVE, "");
+
+        running.release();
+        permit(interactive).release();
+        assertFalse(batch.isDone());
+        permit(prefetch).release();
+        permit(batch);
+    }
+
+    @Test
+    public void testTenantsTakeTurns() throws Exception {
+        AdmissionQueue queue = new AdmissionQueue(1, ticker);
+        AdmissionQueue.Permit running = permit(queue.admit(RequestPriority.INTERACTIVE, "a"));
+        List<ListenableFuture<AdmissionQueue.Permit>> busy = new ArrayList<ListenableFuture<AdmissionQueue.Permit>>();
+        for (int i = 0; i < 3; i++) {
+            busy.add(queue.admit(RequestPriority.INTERACTIVE, "a"));
+        }
+        ListenableFuture<AdmissionQueue.Permit> other = queue.admit(RequestPriority.INTERACTIVE, "b");
+
+        running.release();
+        permit(busy.get(0)).release();
+        // "b" is served before the rest of the requests of "a"
+        permit(other).release();
+        permit(busy.get(1));
+        assertFalse(busy.get(2).isDone());
+    }
+
+    @Test
+    public void testCancelledWaiterIsSkipped() throws Exception {
+        AdmissionQueue queue = new AdmissionQueue(1, ticker);
+        AdmissionQueue.Permit running = permit(queue.admit(RequestPriority.INTERACTIVE, ""));
+        ListenableFuture<AdmissionQueue.Permit> cancelled = queue.admit(RequestPriority.INTERACTIVE, "");
+        ListenableFuture<AdmissionQueue.Permit> next = queue.admit(RequestPriority.INTERACTIVE, "");
+        assertTrue(cancelled.cancel(false));
+
+        running.release();
+        permit(next);
+        assertEquals(1, queue.getInFlight());
+    }
+
+    @Test
+    public void testCancelledWaiterLeavesTheQueue() throws Exception {
+        AdmissionQueue queue = new AdmissionQueue(1, ticker);
+        AdmissionQueue.Permit running = permit(queue.admit(RequestPriority.INTERACTIVE, ""));
+        for (int i = 0; i < 3; i++) {
+            queue.admit(RequestPriority.BATCH, "a").cancel(false);
+        }
+        ListenableFuture<AdmissionQueue.Permit> waiting = queue.admit(RequestPriority.BATCH, "b");
+        assertEquals(1, queue.getStats(RequestPriority.BATCH).getQueued());
+
+        running.release();
+        permit(waiting);
+        assertEquals(0, queue.getStats(RequestPriority.BATCH).getQueued());
+        assertEquals(1, queue.getStats(RequestPriority.BATCH).getRequests());
+    }
+
+    @Test
+    public void testQueueTimeStats() throws Exception {
+        AdmissionQueue queue = new AdmissionQueue(1, ticker);
+        AdmissionQueue.Permit running = permit(queue.admit(RequestPriority.BATCH, ""));
+        ListenableFuture<AdmissionQueue.Permit> waiting = queue.admit(RequestPriority.INTERACTIVE, "");
+        assertEquals(1, queue.getStats(RequestPriority.INTERACTIVE).getQueued());
+
+        ticker.nanos += TimeUnit.MILLISECONDS.toNanos(30);
+        running.release();
+        permit(waiting);
+
+        QueueTimeStats interactive = queue.getStats(RequestPriority.INTERACTIVE);
+        assertEquals(1, interactive.getRequests());
+        assertEquals(0, interactive.getQueued());
+        assertEquals(30, interactive.getMaxQueueTime(), 0.001);
+        QueueTimeStats batch = queue.getStats(RequestPriority.BATCH);
+        assertEquals(1, batch.getRequests());
+        assertEquals(0, batch.getAverageQueueTime(), 0.001);
+    }
+
+    @Test
+    public void testDefaultPriorities() {
+        AdmissionPolicy policy = new AdmissionPolicy();
+        assertEquals(RequestPriority.INTERACTIVE, policy.getPriority("/search"));
+        assertEquals(RequestPriority.INTERACTIVE, policy.getPriority("/v1/autocomplete"));
+        assertEquals(RequestPriority.PREFETCH, policy.getPriority("/v1/visearch/recommendations/p1"));
+        assertEquals(RequestPriority.BATCH, policy.getPriority("/insert/status/1"));
+        assertEquals(RequestPriority.BATCH, policy.getPriority("/extractfeature"));
+
+        policy.setPriority("/v1/visearch/recommendations", RequestPriority.INTERACTIVE);
+        assertEquals(RequestPriority.INTERACTIVE, policy.getPriority("/v1/visearch/recommendations/p1"));
+    }
+}
@@ -0,0 +1,82 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.visenze.visearch.ClientConfig;
+import org.apache.http.HttpHost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import static org.junit.Assert.assertEquals;
+
+public class ApacheHttpTransportTest {
+
+    private HttpServer server;
+
+    private ViSearchHttpClientImpl client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/echo", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = exchange.getRequestMethod().getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+
+        ClientConfig config = new ClientConfig();
+        config.setMaxConnection(4);
+        client = new ViSearchHttpClientImpl("http://127.0.0.1:" + server.getAddress().getPort(), "access", "secret", config);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testWarmUpOpensPooledConnections() {
+        assertEquals(3, client.warmUp(3));
+        assertEquals(3, client.getPoolStats().getAvailable());
+        assertEquals(0, client.getPoolStats().getLeased());
+
+        assertEquals("GET", client.get("/echo", ArrayListMultimap.<String, String>create()).getBody());
+        assertEquals(3, client.getPoolStats().getAvailable());
+    }
+
+    @Test
+    public void testWarmUpIsBoundedByPoolSize() {
+        assertEquals(4, client.warmUp(10));
+        assertEquals(4, client.getPoolStats().getAvailable());
+    }
+
+    @Test
+    public void testWarmUpOfUnreachableHostOpensNothing() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+
+        ApacheHttpTransport transport = ApacheHttpTransport.create(new ClientConfig());
+        try {
+            assertEquals(0, transport.warmUp(new HttpHost("127.0.0.1", port, "http"), 2));
+            assertEquals(0, transport.getPoolStats().getAvailable());
+        } finally {
+            transport.close();
+        }
+    }
+}
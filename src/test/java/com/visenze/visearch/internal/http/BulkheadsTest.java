@@ -0,0 +1,68 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.OperationClass;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkheadsTest {
+
+    @Test
+    public void testNoBulkheadsByDefault() {
+        assertNull(Bulkheads.create(new ClientConfig()));
+    }
+
+    @Test
+    public void testClassesAreCappedIndependently() {
+        ClientConfig config = new ClientConfig();
+        config.setMaxConcurrentRequests(OperationClass.DATA, 1);
+        Bulkheads bulkheads = Bulkheads.create(config);
+
+        bulkheads.acquire(OperationClass.DATA, 0);
+        try {
+            bulkheads.acquire(OperationClass.DATA, 10);
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.SYSTEM_BUSY, e.getResponseMessage());
+        }
+        // searches are not capped
+        for (int i = 0; i < 100; i++) {
+            bulkheads.acquire(OperationClass.SEARCH, 0);
+        }
+        assertEquals(-1, bulkheads.available(OperationClass.SEARCH));
+
+        bulkheads.release(OperationClass.DATA);
+        bulkheads.acquire(OperationClass.DATA, 0);
+        assertEquals(0, bulkheads.available(OperationClass.DATA));
+    }
+
+    @Test
+    public void testWaitsForPermit() throws Exception {
+        ClientConfig config = new ClientConfig();
+        config.setMaxConcurrentRequests(OperationClass.UPLOAD, 1);
+        final Bulkheads bulkheads = Bulkheads.create(config);
+        bulkheads.acquire(OperationClass.UPLOAD, 0);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                bulkheads.acquire(OperationClass.UPLOAD, 5000);
+                acquired.countDown();
+            }
+        });
+        waiter.start();
+        bulkheads.release(OperationClass.UPLOAD);
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        waiter.join();
+    }
+}
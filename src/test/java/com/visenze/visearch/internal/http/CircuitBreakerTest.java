@@ -0,0 +1,188 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.base.Ticker;
+import com.visenze.visearch.CircuitBreakerPolicy;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(20);
+
+    private FakeTicker ticker;
+
+    private CircuitBreakerPolicy policy;
+
+    private static class FakeTicker extends Ticker {
+
+        long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        policy = new CircuitBreakerPolicy();
+        policy.setWindowSize(10);
+        policy.setMinCalls(4);
+        policy.setHalfOpenCalls(2);
+    }
+
+    private CircuitBreaker breaker() {
+        return new CircuitBreaker(policy, ticker);
+    }
+
+    private static void succeedCalls(CircuitBreaker breaker, int calls) {
+        for (int i = 0; i < calls; i++) {
+            breaker.acquire();
+            breaker.succeeded(FAST);
+        }
+    }
+
+    private static void failCalls(CircuitBreaker breaker, int calls) {
+        for (int i = 0; i < calls; i++) {
+            breaker.acquire();
+            breaker.failed(FAST);
+        }
+    }
+
+    private static void assertRejected(CircuitBreaker breaker) {
+        try {
+            breaker.acquire();
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.CIRCUIT_OPEN, e.getResponseMessage());
+        }
+    }
+
+    private void openDurationPassed() {
+        ticker.nanos += TimeUnit.MILLISECONDS.toNanos(policy.getOpenDuration());
+    }
+
+    @Test
+    public void testOpensOnFailureRate() {
+        CircuitBreaker breaker = breaker();
+        succeedCalls(breaker, 5);
+        failCalls(breaker, 4);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        failCalls(breaker, 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertRejected(breaker);
+    }
+
+    @Test
+    public void testWaitsForMinCalls() {
+        CircuitBreaker breaker = breaker();
+        failCalls(breaker, 3);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        failCalls(breaker, 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testOldCallsLeaveTheWindow() {
+        CircuitBreaker breaker = breaker();
+        succeedCalls(breaker, 6);
+        failCalls(breaker, 4);
+        succeedCalls(breaker, 6);
+        failCalls(breaker, 4);
+        // 4 failures out of the last 10 calls
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testOpensOnSlowCallRate() {
+        CircuitBreaker breaker = breaker();
+        succeedCalls(breaker, 2);
+        for (int i = 0; i < 7; i++) {
+            breaker.acquire();
+            breaker.succeeded(SLOW);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.acquire();
+        breaker.succeeded(SLOW);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testClosesAfterSuccessfulTrials() {
+        CircuitBreaker breaker = breaker();
+        failCalls(breaker, 4);
+        assertRejected(breaker);
+        openDurationPassed();
+
+        breaker.acquire();
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // only the trial calls are let through
+        assertRejected(breaker);
+        breaker.succeeded(FAST);
+        breaker.succeeded(FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        succeedCalls(breaker, 3);
+    }
+
+    @Test
+    public void testReopensOnFailedTrial() {
+        CircuitBreaker breaker = breaker();
+        failCalls(breaker, 4);
+        openDurationPassed();
+
+        breaker.acquire();
+        breaker.failed(FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertRejected(breaker);
+    }
+
+    @Test
+    public void testCancelledTrialIsGivenBack() {
+        CircuitBreaker breaker = breaker();
+        failCalls(breaker, 4);
+        openDurationPassed();
+
+        breaker.acquire();
+        breaker.acquire();
+        breaker.ignored();
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testBreakersArePerPath() {
+        CircuitBreakers breakers = new CircuitBreakers(policy, ticker);
+        assertSame(breakers.forPath("/uploadsearch"), breakers.forPath("/uploadsearch"));
+        assertNotSame(breakers.forPath("/uploadsearch"), breakers.forPath("/search"));
+        failCalls(breakers.forPath("/uploadsearch"), 4);
+        assertRejected(breakers.forPath("/uploadsearch"));
+        breakers.forPath("/search").acquire();
+        assertSame(breakers.forPath("/insert/status/1"), breakers.forPath("/insert/status/2"));
+    }
+
+    @Test
+    public void testProductIdsShareTheBreakerOfTheirApi() {
+        CircuitBreakers breakers = new CircuitBreakers(policy, ticker);
+        CircuitBreaker recommendations = breakers.forPath("/v1/product/recommendations/pid1");
+        assertSame(recommendations, breakers.forPath("/v1/product/recommendations/pid2"));
+        assertSame(breakers.forPath("/v1/visearch/search_by_id/pid1"), breakers.forPath("/v1/visearch/search_by_id/pid2"));
+        assertNotSame(recommendations, breakers.forPath("/v1/product/search_by_id/pid1"));
+
+        failCalls(breakers.forPath("/v1/product/recommendations/pid1"), 2);
+        failCalls(breakers.forPath("/v1/product/recommendations/pid2"), 2);
+        assertRejected(breakers.forPath("/v1/product/recommendations/pid3"));
+    }
+}
@@ -0,0 +1,129 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.ConcurrencyLimit;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private ConcurrencyLimit config;
+
+    @Before
+    public void setUp() {
+        config = new ConcurrencyLimit();
+        config.setInitialLimit(4);
+        config.setMaxLimit(8);
+        config.setBackoffRatio(0.5);
+    }
+
+    private static void fill(ConcurrencyLimiter limiter, int permits) {
+        for (int i = 0; i < permits; i++) {
+            limiter.acquire(0);
+        }
+    }
+
+    @Test
+    public void testRejectsOverLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+        fill(limiter, 4);
+        try {
+            limiter.acquire(0);
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.SYSTEM_BUSY, e.getResponseMessage());
+        }
+        limiter.ignored();
+        limiter.acquire(0);
+        assertEquals(4, limiter.getInFlight());
+    }
+
+    @Test
+    public void testOverloadHalvesLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+        fill(limiter, 2);
+        limiter.dropped();
+        assertEquals(2, limiter.getLimit());
+        limiter.dropped();
+        assertEquals(1, limiter.getLimit());
+        // never below the min limit
+        limiter.acquire(0);
+        limiter.dropped();
+        assertEquals(1, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testGrowsBackWhileHealthy() {
+        config.setInitialLimit(1);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire(0);
+            limiter.succeeded(FAST);
+        }
+        assertTrue(limiter.getLimit() > 1);
+        assertTrue(limiter.getLimit() <= 8);
+    }
+
+    @Test
+    public void testDoesNotGrowWhenLimitIsUnused() {
+        config.setInitialLimit(8);
+        config.setMaxLimit(100);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire(0);
+            limiter.succeeded(FAST);
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void testRisingLatencyShrinksLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+        fill(limiter, 2);
+        limiter.succeeded(FAST);
+        assertEquals(4, limiter.getLimit());
+        limiter.succeeded(FAST * 3);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testWaitsForPermitUpToMaxWait() throws Exception {
+        config.setInitialLimit(1);
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+        limiter.acquire(0);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                limiter.acquire(5000);
+                acquired.countDown();
+            }
+        });
+        waiter.start();
+        assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+        limiter.succeeded(FAST);
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        waiter.join();
+    }
+
+    @Test
+    public void testOverloadStatuses() {
+        assertTrue(ConcurrencyLimiter.isOverload(429));
+        assertTrue(ConcurrencyLimiter.isOverload(503));
+        assertFalse(ConcurrencyLimiter.isOverload(200));
+        assertFalse(ConcurrencyLimiter.isOverload(500));
+    }
+}
@@ -0,0 +1,132 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.TransportType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class ConnectionPoolRegistryTest {
+
+    private final ConnectionPoolRegistry registry = new ConnectionPoolRegistry();
+
+    @Test
+    public void testSameHostAndConfigShareOnePool() {
+        ClientConfig config = new ClientConfig();
+        ConnectionPoolRegistry.Lease first = registry.acquire("https://visearch.visenze.com", config);
+        ConnectionPoolRegistry.Lease second = registry.acquire("https://VISEARCH.visenze.com/", new ClientConfig());
+
+        assertSame(first.getTransport(), second.getTransport());
+        assertEquals(1, registry.size());
+
+        first.release();
+        second.release();
+    }
+
+    @Test
+    public void testDifferentHostOrConfigGetSeparatePools() {
+        ClientConfig config = new ClientConfig();
+        ClientConfig biggerPool = new ClientConfig();
+        biggerPool.setMaxConnection(200);
+
+        ConnectionPoolRegistry.Lease visearch = registry.acquire("https://visearch.visenze.com", config);
+        ConnectionPoolRegistry.Lease productSearch = registry.acquire("https://multisearch-aw.rezolve.com", config);
+        ConnectionPoolRegistry.Lease bigger = registry.acquire("https://visearch.visenze.com", biggerPool);
+
+        assertNotSame(visearch.getTransport(), productSearch.getTransport());
+        assertNotSame(visearch.getTransport(), bigger.getTransport());
+        assertEquals(3, registry.size());
+        assertEquals(200, bigger.getTransport().getPoolStats().getMax());
+
+        visearch.release();
+        productSearch.release();
+        bigger.release();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testTransportTypesGetSeparatePools() {
+        ClientConfig nio = new ClientConfig();
+        nio.setTransportType(TransportType.NIO);
+        nio.setIoThreadCount(1);
+
+        ConnectionPoolRegistry.Lease blocking = registry.acquire("https://visearch.visenze.com", new ClientConfig());
+        ConnectionPoolRegistry.Lease nonBlocking = registry.acquire("https://visearch.visenze.com", nio);
+
+        assertTrue(blocking.getTransport() instanceof ApacheHttpTransport);
+        assertTrue(nonBlocking.getTransport() instanceof NioHttpTransport);
+        assertEquals(2, registry.size());
+
+        blocking.release();
+        nonBlocking.release();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testCustomTransportFactory() {
+        final HttpTransport transport = mock(HttpTransport.class);
+        HttpTransportFactory factory = new HttpTransportFactory() {
+            @Override
+            public HttpTransport create(ClientConfig clientConfig) {
+                return transport;
+            }
+        };
+        ClientConfig custom = new ClientConfig();
+        custom.setTransportFactory(factory);
+        ClientConfig sameFactory = new ClientConfig();
+        sameFactory.setTransportFactory(factory);
+
+        ConnectionPoolRegistry.Lease first = registry.acquire("https://visearch.visenze.com", custom);
+        ConnectionPoolRegistry.Lease second = registry.acquire("https://visearch.visenze.com", sameFactory);
+        ConnectionPoolRegistry.Lease builtIn = registry.acquire("https://visearch.visenze.com", new ClientConfig());
+
+        assertSame(transport, first.getTransport());
+        assertSame(transport, second.getTransport());
+        assertTrue(builtIn.getTransport() instanceof ApacheHttpTransport);
+        assertEquals(2, registry.size());
+
+        first.release();
+        second.release();
+        builtIn.release();
+        verify(transport).close();
+    }
+
+    @Test
+    public void testPoolIsRemovedWhenLastLeaseIsReleased() {
+        ClientConfig config = new ClientConfig();
+        ConnectionPoolRegistry.Lease first = registry.acquire("https://visearch.visenze.com", config);
+        ConnectionPoolRegistry.Lease second = registry.acquire("https://visearch.visenze.com", config);
+
+        first.release();
+        first.release();
+        assertEquals(1, registry.size());
+
+        second.release();
+        assertEquals(0, registry.size());
+
+        ConnectionPoolRegistry.Lease third = registry.acquire("https://visearch.visenze.com", config);
+        assertNotSame(first.getTransport(), third.getTransport());
+        third.release();
+    }
+
+    @Test
+    public void testSharedClientsUseRegistryPool() {
+        ClientConfig config = new ClientConfig();
+        config.setSharedConnectionPool(true);
+        int before = ConnectionPoolRegistry.getInstance().size();
+
+        ViSearchHttpClientImpl first = new ViSearchHttpClientImpl("https://shared.visenze.com", "access", "secret", config);
+        ViSearchHttpClientImpl second = new ViSearchHttpClientImpl("https://shared.visenze.com", "access", "secret", config);
+        assertEquals(before + 1, ConnectionPoolRegistry.getInstance().size());
+
+        first.close();
+        assertEquals(before + 1, ConnectionPoolRegistry.getInstance().size());
+        second.close();
+        assertEquals(before, ConnectionPoolRegistry.getInstance().size());
+    }
+}
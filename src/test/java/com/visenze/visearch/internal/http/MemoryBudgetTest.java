@@ -0,0 +1,74 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemoryBudgetTest {
+
+    private static void assertBusy(MemoryBudget budget, long bytes, long maxWait) {
+        try {
+            budget.acquire(bytes, maxWait);
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.SYSTEM_BUSY, e.getResponseMessage());
+        }
+    }
+
+    @Test
+    public void testBodiesShareTheBudget() {
+        MemoryBudget budget = new MemoryBudget(100);
+        budget.acquire(60, 0);
+        budget.acquire(40, 0);
+        assertBusy(budget, 1, 10);
+
+        budget.release(40);
+        budget.acquire(30, 0);
+        assertEquals(90, budget.getUsed());
+    }
+
+    @Test
+    public void testLargeBodyGoesAlone() {
+        MemoryBudget budget = new MemoryBudget(100);
+        budget.acquire(500, 0);
+        assertBusy(budget, 1, 0);
+        budget.release(500);
+        budget.acquire(1, 0);
+    }
+
+    @Test
+    public void testResponseBytesAreChargedWithoutWaiting() {
+        MemoryBudget budget = new MemoryBudget(100);
+        budget.acquire(100, 0);
+        budget.charge(50);
+        assertEquals(150, budget.getUsed());
+        budget.release(150);
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void testWaitsForBytes() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(100);
+        budget.acquire(100, 0);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                budget.acquire(50, 5000);
+                acquired.countDown();
+            }
+        });
+        waiter.start();
+        budget.release(100);
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        waiter.join();
+    }
+}
@@ -0,0 +1,170 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.TransportType;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NioHttpTransportTest {
+
+    private HttpServer server;
+
+    private ViSearchHttpClientImpl client;
+
+    private final CountDownLatch slowResponse = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/echo", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] request = ByteStreams.toByteArray(exchange.getRequestBody());
+                byte[] body = (exchange.getRequestMethod() + " " + request.length).getBytes("UTF-8");
+                exchange.getResponseHeaders().add("X-Test", "nio");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    slowResponse.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/chunked", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                out.write(new byte[1000]);
+                out.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        ClientConfig config = new ClientConfig();
+        config.setTransportType(TransportType.NIO);
+        config.setIoThreadCount(1);
+        client = new ViSearchHttpClientImpl("http://127.0.0.1:" + server.getAddress().getPort(), "access", "secret", config);
+    }
+
+    @After
+    public void tearDown() {
+        slowResponse.countDown();
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testBlockingCallOverNio() {
+        ViSearchHttpResponse response = client.get("/echo", ArrayListMultimap.<String, String>create());
+        assertEquals("GET 0", response.getBody());
+        assertEquals("nio", response.getHeaders().get("X-test"));
+    }
+
+    @Test
+    public void testConcurrentCallsShareFewIoThreads() throws Exception {
+        Multimap<String, String> params = ArrayListMultimap.create();
+        params.put("q", "value");
+        List<ListenableFuture<ViSearchHttpResponse>> futures = new ArrayList<ListenableFuture<ViSearchHttpResponse>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(client.postAsync("/echo", params));
+        }
+        for (ListenableFuture<ViSearchHttpResponse> future : futures) {
+            assertEquals("POST 7", future.get(10, TimeUnit.SECONDS).getBody());
+        }
+    }
+
+    @Test
+    public void testLargeMultipartBodyIsSent() throws Exception {
+        byte[] image = new byte[100 * 1024];
+        ListenableFuture<ViSearchHttpResponse> future = client.postImageAsync("/echo",
+                ArrayListMultimap.<String, String>create(), new ByteArrayInputStream(image), "image.jpg");
+        String body = future.get(10, TimeUnit.SECONDS).getBody();
+        assertTrue(body.startsWith("POST "));
+        assertTrue(Integer.parseInt(body.substring(5)) > image.length);
+    }
+
+    @Test
+    public void testCancelAbortsExchange() throws Exception {
+        ListenableFuture<ViSearchHttpResponse> future = client.getAsync("/slow", ArrayListMultimap.<String, String>create());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (client.getPoolStats().getLeased() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, client.getPoolStats().getLeased());
+
+        assertTrue(future.cancel(true));
+        deadline = System.currentTimeMillis() + 5000;
+        while (client.getPoolStats().getLeased() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.getPoolStats().getLeased());
+    }
+
+    @Test
+    public void testWarmUpOpensPooledConnections() {
+        assertEquals(3, client.warmUp(3));
+        assertEquals(3, client.getPoolStats().getAvailable());
+        assertEquals(0, client.getPoolStats().getLeased());
+
+        assertEquals("GET 0", client.get("/echo", ArrayListMultimap.<String, String>create()).getBody());
+        assertEquals(3, client.getPoolStats().getAvailable());
+    }
+
+    @Test
+    public void testOversizedResponseIsAborted() {
+        ClientConfig config = new ClientConfig();
+        config.setTransportType(TransportType.NIO);
+        config.setIoThreadCount(1);
+        config.setMaxResponseSize(100);
+        ViSearchHttpClientImpl bounded = new ViSearchHttpClientImpl(
+                "http://127.0.0.1:" + server.getAddress().getPort(), "access", "secret", config);
+        try {
+            assertEquals("GET 0", bounded.get("/echo", ArrayListMultimap.<String, String>create()).getBody());
+            try {
+                bounded.get("/chunked", ArrayListMultimap.<String, String>create());
+                fail();
+            } catch (InternalViSearchException e) {
+                assertSame(ResponseMessages.RESPONSE_TOO_LARGE, e.getResponseMessage());
+            }
+        } finally {
+            bounded.close();
+        }
+    }
+}
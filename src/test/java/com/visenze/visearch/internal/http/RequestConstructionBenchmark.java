@@ -0,0 +1,175 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.message.BasicHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building a request and wrapping its response with the previous
+ * approach, which encoded the credentials, user agent and params again for
+ * every request and copied every response header. Run {@link #main(String[])}
+ * from the test classpath; the gc profiler reports the allocation per
+ * operation next to the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestConstructionBenchmark {
+
+    private static final String URL = "https://visearch.visenze.com/search";
+
+    private ClientConfig clientConfig;
+
+    private ViSearchHttpClientImpl client;
+
+    private UsernamePasswordCredentials credentials;
+
+    private Multimap<String, String> searchParams;
+
+    private Multimap<String, String> insertParams;
+
+    private HttpResponse response;
+
+    @Setup
+    public void setUp() {
+        clientConfig = new ClientConfig();
+        client = new ViSearchHttpClientImpl("https://visearch.visenze.com", "access_key", "secret_key", clientConfig);
+        credentials = new UsernamePasswordCredentials("access_key", "secret_key");
+
+        searchParams = LinkedListMultimap.create();
+        searchParams.put("im_name", "product_1234");
+        searchParams.put("limit", "30");
+        searchParams.put("page", "1");
+        searchParams.put("score", "true");
+        searchParams.put("fl", "title");
+        searchParams.put("fl", "price");
+        searchParams.put("fl", "im_url");
+        searchParams.put("fq", "brand:acme shoes");
+
+        insertParams = LinkedListMultimap.create();
+        for (int i = 0; i < 50; i++) {
+            insertParams.put("im_name[" + i + "]", "product_" + i);
+            insertParams.put("im_url[" + i + "]", "https://example.com/images/" + i + ".jpg");
+            insertParams.put("title[" + i + "]", "Product title " + i);
+        }
+
+        response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setHeader("Date", "Sun, 18 Oct 2026 12:00:00 GMT");
+        response.setHeader("Content-Type", "application/json;charset=UTF-8");
+        response.setHeader("Content-Length", "2048");
+        response.setHeader("Connection", "keep-alive");
+        response.setHeader("X-Log-ID", "1234567890");
+        response.setHeader("X-Request-ID", "abcdef");
+        response.setHeader("Vary", "Accept-Encoding");
+        response.setHeader("Strict-Transport-Security", "max-age=31536000");
+        response.setEntity(new StringEntity("{}", ContentType.APPLICATION_JSON));
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    public ViSearchHttpResponse search() {
+        HttpUriRequest request = client.buildGetRequest(URL, searchParams);
+        client.prepareRequest(request);
+        return new ViSearchHttpResponse(response);
+    }
+
+    @Benchmark
+    public ViSearchHttpResponse searchPrevious() throws Exception {
+        HttpUriRequest request = RequestBuilder
+                .get()
+                .setUri(new URIBuilder(URL).addParameters(ViSearchHttpClientImpl.mapToNameValuePair(searchParams)).build())
+                .build();
+        addPreviousHeaders(request);
+        return previousResponse();
+    }
+
+    @Benchmark
+    public HttpUriRequest insert() {
+        HttpUriRequest request = client.buildPostRequest(URL, insertParams);
+        client.prepareRequest(request);
+        return request;
+    }
+
+    @Benchmark
+    public HttpUriRequest insertPrevious() throws Exception {
+        HttpUriRequest request = RequestBuilder
+                .post()
+                .setUri(new URIBuilder(URL).build())
+                .setEntity(new UrlEncodedFormEntity(ViSearchHttpClientImpl.mapToNameValuePair(insertParams), Consts.UTF_8))
+                .setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_FORM_URLENCODED.withCharset(Consts.UTF_8).toString())
+                .build();
+        addPreviousHeaders(request);
+        return request;
+    }
+
+    private void addPreviousHeaders(HttpUriRequest request) throws AuthenticationException, URISyntaxException {
+        request.addHeader(new BasicScheme().authenticate(credentials, request, null));
+        String userAgent = clientConfig.getUserAgent();
+        if (!userAgent.equals(ClientConfig.DEFAULT_USER_AGENT)) {
+            userAgent += " " + ClientConfig.DEFAULT_USER_AGENT;
+        }
+        request.addHeader(HttpHeaders.USER_AGENT, userAgent);
+        request.addHeader(ViSearchHttpConstants.X_REQUESTED_WITH, ClientConfig.DEFAULT_XREQUEST_WITH);
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+    }
+
+    private ViSearchHttpResponse previousResponse() {
+        Map<String, String> headers = Maps.newHashMap();
+        for (Header header : response.getAllHeaders()) {
+            headers.put(header.getName(), header.getValue());
+        }
+        ViSearchHttpResponse wrapped = new ViSearchHttpResponse(response);
+        wrapped.setHeaders(headers);
+        return wrapped;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RequestConstructionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,244 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.visenze.visearch.HedgePolicy;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class RequestHedgerTest {
+
+    private ScheduledExecutorService timer;
+
+    private Sender sender;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        sender = new Sender();
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Hands out a new pending future for every attempt
+     */
+    private static class Sender implements Supplier<ListenableFuture<ViSearchHttpResponse>> {
+
+        final BlockingQueue<SettableFuture<ViSearchHttpResponse>> sent =
+                new LinkedBlockingQueue<SettableFuture<ViSearchHttpResponse>>();
+
+        final List<SettableFuture<ViSearchHttpResponse>> all = new CopyOnWriteArrayList<SettableFuture<ViSearchHttpResponse>>();
+
+        @Override
+        public ListenableFuture<ViSearchHttpResponse> get() {
+            SettableFuture<ViSearchHttpResponse> attempt = SettableFuture.create();
+            all.add(attempt);
+            sent.add(attempt);
+            return attempt;
+        }
+
+        SettableFuture<ViSearchHttpResponse> next() throws InterruptedException {
+            return sent.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testFastResponseIsNotHedged() throws Exception {
+        RequestHedger hedger = new RequestHedger(HedgePolicy.fixedDelay(50), timer);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+
+        ListenableFuture<ViSearchHttpResponse> result = hedger.execute(sender);
+        sender.next().set(response);
+
+        assertSame(response, result.get());
+        Thread.sleep(100);
+        assertEquals(1, sender.all.size());
+        assertEquals(0, hedger.getHedgeCount());
+    }
+
+    @Test
+    public void testSlowResponseIsHedgedAndLoserCancelled() throws Exception {
+        RequestHedger hedger = new RequestHedger(HedgePolicy.fixedDelay(10), timer);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+
+        ListenableFuture<ViSearchHttpResponse> result = hedger.execute(sender);
+        SettableFuture<ViSearchHttpResponse> primary = sender.next();
+        SettableFuture<ViSearchHttpResponse> hedge = sender.next();
+        hedge.set(response);
+
+        assertSame(response, result.get());
+        assertTrue(primary.isCancelled());
+        assertEquals(1, hedger.getHedgeCount());
+    }
+
+    /**
+     * An exchange whose response arrived before it could be cancelled
+     */
+    private static class UncancellableFuture extends AbstractFuture<ViSearchHttpResponse> {
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean set(ViSearchHttpResponse value) {
+            return super.set(value);
+        }
+    }
+
+    @Test
+    public void testLateLoserResponseIsClosed() throws Exception {
+        SettableFuture<ViSearchHttpResponse> primary = SettableFuture.create();
+        UncancellableFuture hedge = new UncancellableFuture();
+        final Iterator<ListenableFuture<ViSearchHttpResponse>> attempts =
+                Arrays.<ListenableFuture<ViSearchHttpResponse>>asList(primary, hedge).iterator();
+        final CountDownLatch hedged = new CountDownLatch(1);
+        RequestHedger hedger = new RequestHedger(HedgePolicy.fixedDelay(10), timer);
+        ViSearchHttpResponse winner = mock(ViSearchHttpResponse.class);
+        ViSearchHttpResponse loser = mock(ViSearchHttpResponse.class);
+
+        ListenableFuture<ViSearchHttpResponse> result = hedger.execute(new Supplier<ListenableFuture<ViSearchHttpResponse>>() {
+            @Override
+            public ListenableFuture<ViSearchHttpResponse> get() {
+                ListenableFuture<ViSearchHttpResponse> attempt = attempts.next();
+                if (!attempts.hasNext()) {
+                    hedged.countDown();
+                }
+                return attempt;
+            }
+        });
+        assertTrue(hedged.await(5, TimeUnit.SECONDS));
+        // both responses arrive together, the primary first
+        primary.set(winner);
+        hedge.set(loser);
+
+        assertSame(winner, result.get());
+        verify(loser, timeout(1000)).close();
+    }
+
+    @Test
+    public void testEarlyFailureIsNotHedged() throws Exception {
+        RequestHedger hedger = new RequestHedger(HedgePolicy.fixedDelay(50), timer);
+        InternalViSearchException error = new InternalViSearchException(ResponseMessages.NETWORK_ERROR);
+
+        ListenableFuture<ViSearchHttpResponse> result = hedger.execute(sender);
+        sender.next().setException(error);
+
+        try {
+            result.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+        Thread.sleep(100);
+        assertEquals(1, sender.all.size());
+    }
+
+    @Test
+    public void testFailsOnlyWhenEveryAttemptFailed() throws Exception {
+        RequestHedger hedger = new RequestHedger(HedgePolicy.fixedDelay(10), timer);
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+
+        ListenableFuture<ViSearchHttpResponse> result = hedger.execute(sender);
+        SettableFuture<ViSearchHttpResponse> primary = sender.next();
+        SettableFuture<ViSearchHttpResponse> hedge = sender.next();
+        primary.setException(new InternalViSearchException(ResponseMessages.NETWORK_ERROR));
+
+        assertFalse(result.isDone());
+        hedge.set(response);
+        assertSame(response, result.get());
+    }
+
+    @Test
+    public void testCancelCancelsEveryAttempt() throws Exception {
+        RequestHedger hedger = new RequestHedger(HedgePolicy.fixedDelay(10), timer);
+
+        ListenableFuture<ViSearchHttpResponse> result = hedger.execute(sender);
+        SettableFuture<ViSearchHttpResponse> primary = sender.next();
+        SettableFuture<ViSearchHttpResponse> hedge = sender.next();
+        result.cancel(true);
+
+        assertTrue(primary.isCancelled());
+        // the hedge may still be on its way out of the timer thread
+        for (int i = 0; i < 100 && !hedge.isCancelled(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(hedge.isCancelled());
+    }
+
+    @Test
+    public void testHedgesAreCappedByBudget() throws Exception {
+        HedgePolicy policy = HedgePolicy.fixedDelay(0);
+        policy.setMaxHedgeRatio(0.1);
+        RequestHedger hedger = new RequestHedger(policy, timer);
+
+        for (int i = 0; i < 50; i++) {
+            ListenableFuture<ViSearchHttpResponse> result = hedger.execute(sender);
+            // let the hedge timer run before answering
+            Thread.sleep(2);
+            sender.all.get(0).set(mock(ViSearchHttpResponse.class));
+            result.get();
+            sender.all.clear();
+        }
+
+        // the initial allowance of one hedge plus a tenth of the requests
+        assertTrue(hedger.getHedgeCount() > 0);
+        assertTrue(hedger.getHedgeCount() <= 6);
+    }
+
+    @Test
+    public void testPercentileDelayFollowsLatencies() {
+        HedgePolicy policy = HedgePolicy.percentileDelay(95, 200);
+        policy.setMinSamples(20);
+        RequestHedger hedger = new RequestHedger(policy, timer);
+
+        assertEquals(200, hedger.hedgeDelay());
+        for (int i = 1; i <= 100; i++) {
+            hedger.recordLatency(i);
+        }
+        assertEquals(95, hedger.hedgeDelay());
+    }
+
+    @Test
+    public void testOnlyIdempotentRequestsAreHedgeable() {
+        RequestHedger hedger = new RequestHedger(HedgePolicy.fixedDelay(10).addPostPath("/match"), timer);
+
+        assertTrue(hedger.isHedgeable("GET", "/search"));
+        assertTrue(hedger.isHedgeable("POST", "/recommendations"));
+        assertTrue(hedger.isHedgeable("POST", "/match"));
+        assertFalse(hedger.isHedgeable("POST", "/insert"));
+        assertFalse(hedger.isHedgeable("DELETE", "/search"));
+    }
+
+}
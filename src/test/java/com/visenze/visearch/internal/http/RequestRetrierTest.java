@@ -0,0 +1,277 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.RetryPolicy;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.apache.http.client.utils.DateUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RequestRetrierTest {
+
+    private ScheduledExecutorService timer;
+
+    private RetryPolicy policy;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        policy = new RetryPolicy();
+        policy.setBaseDelay(1);
+        policy.setMaxDelay(1);
+        policy.setMaxRetryRatio(1);
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private RequestRetrier retrier() {
+        return new RequestRetrier(policy, timer, new Random(42));
+    }
+
+    private static ViSearchHttpResponse response(int status) {
+        return response(status, Collections.<String, String>emptyMap());
+    }
+
+    private static ViSearchHttpResponse response(int status, Map<String, String> headers) {
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getStatusCode()).thenReturn(status);
+        when(response.getHeaders()).thenReturn(headers);
+        return response;
+    }
+
+    private static InternalViSearchException networkError() {
+        return new InternalViSearchException(ResponseMessages.NETWORK_ERROR, new ConnectException());
+    }
+
+    /**
+     * Returns the given outcomes in turn, throwing the exceptions
+     */
+    private static class Sender implements Supplier<ViSearchHttpResponse> {
+
+        private final List<Object> outcomes;
+
+        int calls;
+
+        Sender(Object... outcomes) {
+            this.outcomes = new ArrayList<Object>(Arrays.asList(outcomes));
+        }
+
+        @Override
+        public ViSearchHttpResponse get() {
+            Object outcome = outcomes.get(calls++);
+            if (outcome instanceof InternalViSearchException) {
+                throw (InternalViSearchException) outcome;
+            }
+            return (ViSearchHttpResponse) outcome;
+        }
+    }
+
+    @Test
+    public void testRetriesTransientStatus() {
+        ViSearchHttpResponse unavailable = response(503);
+        ViSearchHttpResponse ok = response(200);
+        RequestRetrier retrier = retrier();
+
+        assertSame(ok, retrier.execute(new Sender(unavailable, ok), null));
+        verify(unavailable).close();
+        assertEquals(1, retrier.getRetryCount());
+    }
+
+    @Test
+    public void testRetriesNetworkError() {
+        ViSearchHttpResponse ok = response(200);
+        assertSame(ok, retrier().execute(new Sender(networkError(), ok), null));
+    }
+
+    @Test
+    public void testOtherErrorsAreNotRetried() {
+        InternalViSearchException error = new InternalViSearchException(ResponseMessages.INVALID_ENDPOINT);
+        Sender sender = new Sender(error);
+        try {
+            retrier().execute(sender, null);
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(error, e);
+        }
+        assertEquals(1, sender.calls);
+
+        ViSearchHttpResponse notFound = response(404);
+        assertSame(notFound, retrier().execute(new Sender(notFound), null));
+        verify(notFound, never()).close();
+    }
+
+    @Test
+    public void testStopsAfterMaxAttempts() {
+        policy.setMaxAttempts(2);
+        ViSearchHttpResponse last = response(503);
+        Sender sender = new Sender(response(503), last, response(200));
+
+        assertSame(last, retrier().execute(sender, null));
+        assertEquals(2, sender.calls);
+        verify(last, never()).close();
+    }
+
+    @Test
+    public void testBackoffIsJitteredAndCapped() {
+        policy.setBaseDelay(100);
+        policy.setMaxDelay(300);
+        policy.setMaxAttempts(10);
+        RequestRetrier retrier = retrier();
+        long[] caps = {100, 200, 300, 300};
+        boolean jittered = false;
+        for (int i = 0; i < 50; i++) {
+            for (int attempt = 1; attempt <= caps.length; attempt++) {
+                long delay = retrier.backoff(attempt);
+                assertTrue(delay >= 0 && delay <= caps[attempt - 1]);
+                jittered |= delay != retrier.backoff(attempt);
+            }
+        }
+        assertTrue(jittered);
+    }
+
+    @Test
+    public void testRetryAfterIsHonored() {
+        policy.setMaxAttempts(5);
+        RequestRetrier retrier = retrier();
+        ViSearchHttpResponse throttled = response(429, ImmutableMap.of("retry-after", "2"));
+        assertEquals(2000, retrier.retryDelay(1, throttled, null, null));
+
+        String date = DateUtils.formatDate(new Date(System.currentTimeMillis() + 10000));
+        long delay = RequestRetrier.retryAfter(ImmutableMap.of("Retry-After", date));
+        assertTrue(delay > 8000 && delay <= 10000);
+        assertEquals(-1, RequestRetrier.retryAfter(ImmutableMap.of("Retry-After", "soon")));
+        assertEquals(-1, RequestRetrier.retryAfter(Collections.<String, String>emptyMap()));
+    }
+
+    @Test
+    public void testLongRetryAfterIsNotWaitedFor() {
+        policy.setMaxRetryAfter(1000);
+        ViSearchHttpResponse throttled = response(503, ImmutableMap.of("Retry-After", "120"));
+        assertEquals(-1, retrier().retryDelay(1, throttled, null, null));
+    }
+
+    @Test
+    public void testNoRetryPastDeadline() {
+        policy.setMaxAttempts(5);
+        RequestRetrier retrier = retrier();
+        ViSearchHttpResponse throttled = response(503, ImmutableMap.of("Retry-After", "2"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        assertEquals(-1, retrier.retryDelay(1, throttled, null, deadline));
+        assertEquals(0, retrier.getRetryCount());
+
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        assertEquals(2000, retrier.retryDelay(1, throttled, null, deadline));
+    }
+
+    @Test
+    public void testWritesAreOnlyRetriedWhenAllowed() {
+        assertTrue(retrier().isRetryable("/search"));
+        assertTrue(retrier().isRetryable("/insert/status"));
+        assertFalse(retrier().isRetryable("/insert"));
+        assertFalse(retrier().isRetryable("/remove"));
+        policy.setRetryWrites(true);
+        assertTrue(retrier().isRetryable("/insert"));
+    }
+
+    @Test
+    public void testRetriesAreCappedByBudget() {
+        policy.setMaxRetryRatio(0.1);
+        policy.setMaxAttempts(2);
+        RequestRetrier retrier = retrier();
+        for (int i = 0; i < 100; i++) {
+            retrier.execute(new Sender(response(503), response(200)), null);
+        }
+        // the initial token plus one token for every ten calls
+        assertTrue(retrier.getRetryCount() <= 11);
+        assertTrue(retrier.getRetryCount() >= 9);
+    }
+
+    @Test
+    public void testAsyncRetry() throws Exception {
+        final ViSearchHttpResponse unavailable = response(503);
+        final ViSearchHttpResponse ok = response(200);
+        final List<ListenableFuture<ViSearchHttpResponse>> outcomes = Arrays.asList(
+                Futures.<ViSearchHttpResponse>immediateFailedFuture(networkError()),
+                Futures.immediateFuture(unavailable),
+                Futures.immediateFuture(ok));
+        Supplier<ListenableFuture<ViSearchHttpResponse>> sender = new Supplier<ListenableFuture<ViSearchHttpResponse>>() {
+            int calls;
+
+            @Override
+            public ListenableFuture<ViSearchHttpResponse> get() {
+                return outcomes.get(calls++);
+            }
+        };
+
+        assertSame(ok, retrier().executeAsync(sender, null).get(1, TimeUnit.SECONDS));
+        verify(unavailable).close();
+    }
+
+    @Test
+    public void testAsyncFailureIsReported() throws Exception {
+        policy.setMaxAttempts(1);
+        final InternalViSearchException error = networkError();
+        ListenableFuture<ViSearchHttpResponse> result = retrier().executeAsync(new Supplier<ListenableFuture<ViSearchHttpResponse>>() {
+            @Override
+            public ListenableFuture<ViSearchHttpResponse> get() {
+                return Futures.immediateFailedFuture(error);
+            }
+        }, null);
+        try {
+            result.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void testCancelStopsAsyncRetry() throws Exception {
+        final SettableFuture<ViSearchHttpResponse> attempt = SettableFuture.create();
+        final int[] calls = new int[1];
+        ListenableFuture<ViSearchHttpResponse> result = retrier().executeAsync(new Supplier<ListenableFuture<ViSearchHttpResponse>>() {
+            @Override
+            public ListenableFuture<ViSearchHttpResponse> get() {
+                calls[0]++;
+                return attempt;
+            }
+        }, null);
+
+        result.cancel(true);
+        assertTrue(attempt.isCancelled());
+        Thread.sleep(50);
+        assertEquals(1, calls[0]);
+    }
+}
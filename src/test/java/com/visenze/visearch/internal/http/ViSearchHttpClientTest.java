@@ -1,29 +1,69 @@
 package com.visenze.visearch.internal.http;
 
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.visenze.common.util.DeadlineMultimap;
+import com.visenze.visearch.AdmissionPolicy;
+import com.visenze.visearch.CircuitBreakerPolicy;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.ConcurrencyLimit;
+import com.visenze.visearch.ConnectionPoolStats;
+import com.visenze.visearch.HedgePolicy;
+import com.visenze.visearch.OperationClass;
+import com.visenze.visearch.RequestPriority;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.RetryPolicy;
 import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
 import com.visenze.visearch.internal.http.ViSearchHttpClientImpl;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Consts;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.util.EncodingUtils;
+import org.apache.http.util.EntityUtils;
+import org.hamcrest.CoreMatchers;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 public class ViSearchHttpClientTest {
@@ -195,4 +235,553 @@ public class ViSearchHttpClientTest {
         assertEquals(validAccessKey, client.getCredentials().getUserName());
         assertEquals(validSecretKey, client.getCredentials().getPassword());
     }
+
+    @Test
+    public void testPoolStatsFollowClientConfig() {
+        ClientConfig config = new ClientConfig();
+        config.setMaxConnectionTotal(20);
+        config.setMaxConnectionPerRoute(5);
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+        ConnectionPoolStats stats = client.getPoolStats();
+        assertEquals(20, stats.getMax());
+        assertEquals(0, stats.getLeased());
+        assertEquals(0, stats.getPending());
+        assertFalse(stats.isExhausted());
+        client.close();
+    }
+
+    @Test
+    public void testPoolStatsUnavailableForExternalHttpClient() {
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, mockedHttpClient);
+        assertNull(client.getPoolStats());
+    }
+
+    @Test
+    public void testAsyncCallOnBlockingTransportIsComplete() throws Exception {
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, mockedHttpClient);
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getEntity()).thenReturn(new StringEntity("test"));
+        when(mockedHttpClient.execute(Matchers.<HttpUriRequest>any())).thenReturn(response);
+
+        ListenableFuture<ViSearchHttpResponse> future = client.getAsync(path, params);
+        assertTrue(future.isDone());
+        assertEquals("test", future.get().getBody());
+    }
+
+    @Test
+    public void testAsyncCallReportsNetworkErrorThroughFuture() throws Exception {
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, mockedHttpClient);
+        when(mockedHttpClient.execute(Matchers.<HttpUriRequest>any())).thenThrow(new IOException("test IOException"));
+
+        ListenableFuture<ViSearchHttpResponse> future = client.postAsync(path, params);
+        expectedException.expectCause(CoreMatchers.<Throwable>instanceOf(InternalViSearchException.class));
+        future.get();
+    }
+
+    private HttpUriRequest sendThroughMockTransport(ClientConfig config, String method, String path,
+                                                   Multimap<String, String> params) {
+        final HttpTransport transport = mock(HttpTransport.class);
+        config.setTransportFactory(new HttpTransportFactory() {
+            @Override
+            public HttpTransport create(ClientConfig clientConfig) {
+                return transport;
+            }
+        });
+        ArgumentCaptor<HttpUriRequest> argument = ArgumentCaptor.forClass(HttpUriRequest.class);
+        when(transport.execute(argument.capture())).thenReturn(mock(ViSearchHttpResponse.class));
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+        if ("get".equals(method)) {
+            client.get(path, params);
+        } else {
+            client.post(path, params);
+        }
+        return argument.getValue();
+    }
+
+    private static Multimap<String, String> insertParams(int count) {
+        Multimap<String, String> params = LinkedListMultimap.create();
+        for (int i = 0; i < count; i++) {
+            params.put("im_name[" + i + "]", "image_" + i);
+            params.put("im_url[" + i + "]", "https://example.com/images/" + i + ".jpg");
+        }
+        return params;
+    }
+
+    private static String gunzip(HttpEntity entity) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(entity.getContent());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testPostBodyIsCompressedAboveThreshold() throws Exception {
+        ClientConfig config = new ClientConfig();
+        config.setRequestCompressionThreshold("/insert", 1024);
+
+        HttpEntity entity = ((HttpEntityEnclosingRequest) sendThroughMockTransport(config, "post", "/insert",
+                insertParams(100))).getEntity();
+        assertEquals("gzip", entity.getContentEncoding().getValue());
+        assertTrue(entity.getContentLength() > 0);
+        assertTrue(entity.isRepeatable());
+        assertTrue(gunzip(entity).startsWith("im_name%5B0%5D=image_0&im_url%5B0%5D="));
+        assertTrue(entity.getContentType().getValue().startsWith("application/x-www-form-urlencoded"));
+
+        HttpEntity small = ((HttpEntityEnclosingRequest) sendThroughMockTransport(config, "post", "/insert",
+                insertParams(1))).getEntity();
+        assertNull(small.getContentEncoding());
+        assertEquals("im_name%5B0%5D=image_0&im_url%5B0%5D=https%3A%2F%2Fexample.com%2Fimages%2F0.jpg",
+                EntityUtils.toString(small));
+    }
+
+    @Test
+    public void testPostBodyIsUncompressedByDefault() {
+        HttpEntity entity = ((HttpEntityEnclosingRequest) sendThroughMockTransport(new ClientConfig(), "post",
+                "/insert", insertParams(100))).getEntity();
+        assertNull(entity.getContentEncoding());
+
+        ClientConfig config = new ClientConfig();
+        config.setRequestCompressionThreshold(0);
+        config.setRequestCompressionThreshold("/uploadsearch", -1);
+        HttpEntity upload = ((HttpEntityEnclosingRequest) sendThroughMockTransport(config, "post",
+                "/uploadsearch", insertParams(100))).getEntity();
+        assertNull(upload.getContentEncoding());
+        HttpEntity insert = ((HttpEntityEnclosingRequest) sendThroughMockTransport(config, "post",
+                "/insert", insertParams(1))).getEntity();
+        assertEquals("gzip", insert.getContentEncoding().getValue());
+    }
+
+    @Test
+    public void testResponseCompressionIsNegotiated() {
+        HttpUriRequest request = sendThroughMockTransport(new ClientConfig(), "get", "/search", params);
+        assertNotNull(request.getFirstHeader(HttpHeaders.ACCEPT_ENCODING));
+        assertEquals("gzip", request.getFirstHeader(HttpHeaders.ACCEPT_ENCODING).getValue());
+
+        ClientConfig config = new ClientConfig();
+        config.setResponseCompression(false);
+        assertNull(sendThroughMockTransport(config, "get", "/search", params).getFirstHeader(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    @Test
+    public void testSlowSearchIsHedged() throws Exception {
+        final HttpTransport transport = mock(HttpTransport.class);
+        ClientConfig config = new ClientConfig();
+        config.setHedgePolicy(HedgePolicy.fixedDelay(10));
+        config.setTransportFactory(new HttpTransportFactory() {
+            @Override
+            public HttpTransport create(ClientConfig clientConfig) {
+                return transport;
+            }
+        });
+        SettableFuture<ViSearchHttpResponse> slow = SettableFuture.create();
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        ArgumentCaptor<HttpUriRequest> argument = ArgumentCaptor.forClass(HttpUriRequest.class);
+        when(transport.executeAsync(argument.capture()))
+                .thenReturn(slow)
+                .thenReturn(Futures.immediateFuture(response));
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+
+        assertSame(response, client.get("/search", params));
+        assertTrue(slow.isCancelled());
+        assertEquals(2, argument.getAllValues().size());
+        // every attempt is a separately built request
+        assertNotSame(argument.getAllValues().get(0), argument.getAllValues().get(1));
+        assertEquals(argument.getAllValues().get(0).getURI(), argument.getAllValues().get(1).getURI());
+        verify(transport, never()).execute(Matchers.any(HttpUriRequest.class));
+    }
+
+    @Test
+    public void testInsertIsNeverHedged() {
+        ClientConfig config = new ClientConfig();
+        config.setHedgePolicy(HedgePolicy.fixedDelay(0));
+        assertNotNull(sendThroughMockTransport(config, "post", "/insert", insertParams(1)));
+    }
+
+    @Test
+    public void testImageUploadIsNeverHedged() {
+        ClientConfig config = new ClientConfig();
+        config.setHedgePolicy(HedgePolicy.fixedDelay(0).addPostPath("/uploadsearch"));
+        HttpTransport transport = mockTransport(config);
+        ViSearchHttpResponse ok = mockResponse(200);
+        when(transport.execute(Matchers.any(HttpUriRequest.class))).thenReturn(ok);
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+
+        assertSame(ok, client.postImage("/uploadsearch", params, new ByteArrayInputStream(new byte[]{1, 2}), "image.jpg"));
+        verify(transport).execute(Matchers.any(HttpUriRequest.class));
+        verify(transport, never()).executeAsync(Matchers.any(HttpUriRequest.class));
+    }
+
+    private static RetryPolicy quickRetries() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setBaseDelay(1);
+        policy.setMaxDelay(1);
+        policy.setMaxRetryRatio(1);
+        return policy;
+    }
+
+    private static HttpTransport mockTransport(ClientConfig config) {
+        final HttpTransport transport = mock(HttpTransport.class);
+        config.setTransportFactory(new HttpTransportFactory() {
+            @Override
+            public HttpTransport create(ClientConfig clientConfig) {
+                return transport;
+            }
+        });
+        return transport;
+    }
+
+    private static ViSearchHttpResponse mockResponse(int status) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+        response.setEntity(new StringEntity("{}", ContentType.APPLICATION_JSON));
+        // a spy runs the release listeners of the permits the call held
+        return spy(new ViSearchHttpResponse(response));
+    }
+
+    @Test
+    public void testUnavailableSearchIsRetried() {
+        ClientConfig config = new ClientConfig();
+        config.setRetryPolicy(quickRetries());
+        HttpTransport transport = mockTransport(config);
+        ViSearchHttpResponse unavailable = mockResponse(503);
+        ViSearchHttpResponse ok = mockResponse(200);
+        ArgumentCaptor<HttpUriRequest> argument = ArgumentCaptor.forClass(HttpUriRequest.class);
+        when(transport.execute(argument.capture())).thenReturn(unavailable).thenReturn(ok);
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+
+        assertSame(ok, client.get("/search", params));
+        verify(unavailable).close();
+        assertNotSame(argument.getAllValues().get(0), argument.getAllValues().get(1));
+    }
+
+    @Test
+    public void testInsertIsNotRetriedByDefault() {
+        ClientConfig config = new ClientConfig();
+        config.setRetryPolicy(quickRetries());
+        HttpTransport transport = mockTransport(config);
+        ViSearchHttpResponse unavailable = mockResponse(503);
+        when(transport.execute(Matchers.any(HttpUriRequest.class))).thenReturn(unavailable);
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+
+        assertSame(unavailable, client.post("/insert", insertParams(1)));
+        verify(transport, times(1)).execute(Matchers.any(HttpUriRequest.class));
+    }
+
+    @Test
+    public void testRetriedInsertKeepsTransactionId() {
+        RetryPolicy policy = quickRetries();
+        policy.setRetryWrites(true);
+        ClientConfig config = new ClientConfig();
+        config.setRetryPolicy(policy);
+        HttpTransport transport = mockTransport(config);
+        ViSearchHttpResponse ok = mockResponse(200);
+        ArgumentCaptor<HttpUriRequest> argument = ArgumentCaptor.forClass(HttpUriRequest.class);
+        when(transport.execute(argument.capture()))
+                .thenThrow(new InternalViSearchException(ResponseMessages.NETWORK_ERROR, new IOException()))
+                .thenReturn(ok);
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+
+        assertSame(ok, client.post("/insert", insertParams(1)));
+        Header first = argument.getAllValues().get(0).getFirstHeader(ViSearchHttpConstants.TRANS_ID);
+        Header second = argument.getAllValues().get(1).getFirstHeader(ViSearchHttpConstants.TRANS_ID);
+        assertNotNull(first);
+        assertEquals(first.getValue(), second.getValue());
+    }
+
+    @Test
+    public void testRetriedImageStreamIsSentAgain() throws Exception {
+        ClientConfig config = new ClientConfig();
+        config.setRetryPolicy(quickRetries());
+        HttpTransport transport = mockTransport(config);
+        ViSearchHttpResponse badGateway = mockResponse(502);
+        ViSearchHttpResponse ok = mockResponse(200);
+        ArgumentCaptor<HttpUriRequest> argument = ArgumentCaptor.forClass(HttpUriRequest.class);
+        when(transport.execute(argument.capture())).thenReturn(badGateway).thenReturn(ok);
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+        InputStream image = new ByteArrayInputStream("image bytes".getBytes("UTF-8"));
+
+        assertSame(ok, client.postImage("/uploadsearch", params, image, "image.jpg"));
+        for (HttpUriRequest request : argument.getAllValues()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            ((HttpEntityEnclosingRequest) request).getEntity().writeTo(body);
+            assertTrue(body.toString("UTF-8").contains("image bytes"));
+        }
+    }
+
+    @Test
+    public void testCallsOverConcurrencyLimitAreRejected() throws Exception {
+        ConcurrencyLimit limit = new ConcurrencyLimit();
+        limit.setInitialLimit(1);
+        ClientConfig config = new ClientConfig();
+        config.setConcurrencyLimit(limit);
+        HttpTransport transport = mockTransport(config);
+        SettableFuture<ViSearchHttpResponse> pending = SettableFuture.create();
+        ViSearchHttpResponse ok = mockResponse(200);
+        when(transport.executeAsync(Matchers.any(HttpUriRequest.class))).thenReturn(pending);
+        when(transport.execute(Matchers.any(HttpUriRequest.class))).thenReturn(ok);
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+
+        ListenableFuture<ViSearchHttpResponse> first = client.getAsync("/search", params);
+        try {
+            client.get("/search", params);
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.SYSTEM_BUSY, e.getResponseMessage());
+        }
+        verify(transport, never()).execute(Matchers.any(HttpUriRequest.class));
+
+        pending.set(mockResponse(200));
+        first.get().close();
+        assertSame(ok, client.get("/search", params));
+    }
+
+    @Test
+    public void testFailingPathFailsFast() {
+        CircuitBreakerPolicy policy = new CircuitBreakerPolicy();
+        policy.setMinCalls(2);
+        ClientConfig config = new ClientConfig();
+        config.setCircuitBreakerPolicy(policy);
+        HttpTransport transport = mockTransport(config);
+        ViSearchHttpResponse ok = mockResponse(200);
+        when(transport.execute(Matchers.any(HttpUriRequest.class)))
+                .thenThrow(new InternalViSearchException(ResponseMessages.NETWORK_ERROR, new IOException()));
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                client.post("/uploadsearch", params);
+                fail();
+            } catch (InternalViSearchException e) {
+                assertSame(i < 2 ? ResponseMessages.NETWORK_ERROR : ResponseMessages.CIRCUIT_OPEN, e.getResponseMessage());
+            }
+        }
+        verify(transport, times(2)).execute(Matchers.any(HttpUriRequest.class));
+
+        // other paths have breakers of their own
+        reset(transport);
+        when(transport.execute(Matchers.any(HttpUriRequest.class))).thenReturn(ok);
+        assertSame(ok, client.get("/search", params));
+    }
+
+    @Test
+    public void testCallTimeoutBoundsRequestTimeouts() {
+        ClientConfig config = new ClientConfig();
+        HttpUriRequest request = sendThroughMockTransport(config, "get", "/search",
+                DeadlineMultimap.withTimeout(params, 500L));
+        RequestConfig requestConfig = ((HttpRequestBase) request).getConfig();
+        assertTrue(requestConfig.getSocketTimeout() > 0 && requestConfig.getSocketTimeout() <= 500);
+        assertTrue(requestConfig.getConnectTimeout() > 0 && requestConfig.getConnectTimeout() <= 500);
+        assertTrue(requestConfig.getConnectionRequestTimeout() > 0 && requestConfig.getConnectionRequestTimeout() <= 500);
+
+        // without a timeout the client config applies
+        request = sendThroughMockTransport(config, "get", "/search", params);
+        assertEquals(config.getSocketTimeout(), ((HttpRequestBase) request).getConfig().getSocketTimeout());
+    }
+
+    @Test
+    public void testExpiredCallIsNotSent() {
+        ClientConfig config = new ClientConfig();
+        HttpTransport transport = mockTransport(config);
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+        try {
+            client.get("/search", DeadlineMultimap.withTimeout(params, 0L));
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.NETWORK_ERROR, e.getResponseMessage());
+        }
+        verify(transport, never()).execute(Matchers.any(HttpUriRequest.class));
+    }
+
+    @Test
+    public void testDataOperationsCannotStarveSearches() throws Exception {
+        ClientConfig config = new ClientConfig();
+        config.setMaxConcurrentRequests(OperationClass.DATA, 1);
+        config.setConnectionRequestTimeout(10);
+        HttpTransport transport = mockTransport(config);
+        SettableFuture<ViSearchHttpResponse> insert = SettableFuture.create();
+        ViSearchHttpResponse ok = mockResponse(200);
+        when(transport.executeAsync(Matchers.any(HttpUriRequest.class))).thenReturn(insert);
+        when(transport.execute(Matchers.any(HttpUriRequest.class))).thenReturn(ok);
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+
+        ListenableFuture<ViSearchHttpResponse> inserted = client.postAsync("/insert", insertParams(1));
+        try {
+            client.post("/remove", params);
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.SYSTEM_BUSY, e.getResponseMessage());
+        }
+        assertSame(ok, client.get("/search", params));
+
+        insert.set(mockResponse(200));
+        inserted.get().close();
+        assertSame(ok, client.post("/remove", params));
+    }
+
+    @Test
+    public void testPermitsAreHeldUntilTheResponseIsRead() throws Exception {
+        ConcurrencyLimit limit = new ConcurrencyLimit();
+        limit.setInitialLimit(1);
+        ClientConfig config = new ClientConfig();
+        config.setMaxConcurrentRequests(OperationClass.DATA, 1);
+        config.setConnectionRequestTimeout(10);
+        HttpTransport transport = mockTransport(config);
+        when(transport.execute(Matchers.any(HttpUriRequest.class))).thenReturn(mockResponse(200), mockResponse(200));
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+
+        ViSearchHttpResponse inserted = client.post("/insert", insertParams(1));
+        try {
+            client.post("/remove", params);
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.SYSTEM_BUSY, e.getResponseMessage());
+        }
+        inserted.getBody();
+        client.post("/remove", params).close();
+
+        // the concurrency limit is held until a streamed body is closed
+        config.setConcurrencyLimit(limit);
+        client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+        when(transport.execute(Matchers.any(HttpUriRequest.class))).thenReturn(mockResponse(200), mockResponse(200));
+        ViSearchHttpResponse found = client.get("/search", params);
+        InputStream content = found.getContent();
+        try {
+            client.get("/search", params);
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.SYSTEM_BUSY, e.getResponseMessage());
+        }
+        content.close();
+        client.get("/search", params).close();
+    }
+
+    @Test
+    public void testBlockingHedgedCallWaitsForPermits() throws Exception {
+        ClientConfig config = new ClientConfig();
+        config.setHedgePolicy(HedgePolicy.fixedDelay(60 * 1000));
+        config.setMaxConcurrentRequests(OperationClass.SEARCH, 1);
+        config.setConnectionRequestTimeout(5000);
+        HttpTransport transport = mockTransport(config);
+        SettableFuture<ViSearchHttpResponse> pending = SettableFuture.create();
+        ViSearchHttpResponse ok = mockResponse(200);
+        when(transport.executeAsync(Matchers.any(HttpUriRequest.class))).thenReturn(pending, Futures.immediateFuture(ok));
+        final ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+
+        ListenableFuture<ViSearchHttpResponse> first = client.getAsync("/search", params);
+        final SettableFuture<ViSearchHttpResponse> blocking = SettableFuture.create();
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocking.set(client.get("/search", params));
+                } catch (RuntimeException e) {
+                    blocking.setException(e);
+                }
+            }
+        });
+        caller.start();
+        Thread.sleep(100);
+        assertFalse(blocking.isDone());
+
+        pending.set(mockResponse(200));
+        first.get().close();
+        assertSame(ok, blocking.get(5, TimeUnit.SECONDS));
+        caller.join();
+    }
+
+    @Test
+    public void testSearchesAreAdmittedBeforeBatchJobs() throws Exception {
+        ClientConfig config = new ClientConfig();
+        AdmissionPolicy admissionPolicy = new AdmissionPolicy();
+        admissionPolicy.setMaxInFlight(1);
+        admissionPolicy.setMaxQueueTime(10);
+        config.setAdmissionPolicy(admissionPolicy);
+        HttpTransport transport = mockTransport(config);
+        SettableFuture<ViSearchHttpResponse> insert = SettableFuture.create();
+        SettableFuture<ViSearchHttpResponse> search = SettableFuture.create();
+        ArgumentCaptor<HttpUriRequest> sent = ArgumentCaptor.forClass(HttpUriRequest.class);
+        when(transport.executeAsync(sent.capture())).thenReturn(insert, search);
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+
+        ListenableFuture<ViSearchHttpResponse> inserted = client.postAsync("/insert", insertParams(1));
+        ListenableFuture<ViSearchHttpResponse> queuedRemove = client.postAsync("/remove", params);
+        ListenableFuture<ViSearchHttpResponse> queuedSearch = client.getAsync("/search", params);
+        try {
+            client.get("/search", params);
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.SYSTEM_BUSY, e.getResponseMessage());
+        }
+        assertEquals(RequestPriority.BATCH, admissionPolicy.getPriority("/remove"));
+        assertEquals(1, client.getQueueTimeStats(RequestPriority.BATCH).getQueued());
+
+        insert.set(mockResponse(200));
+        inserted.get().close();
+        assertEquals(2, sent.getAllValues().size());
+        assertTrue(sent.getAllValues().get(1).getURI().getPath().endsWith("/search"));
+        assertFalse(queuedRemove.isDone());
+        assertEquals(1, client.getQueueTimeStats(RequestPriority.INTERACTIVE).getRequests());
+
+        // cancelling a queued call takes it out of the queue
+        queuedRemove.cancel(false);
+        search.set(mockResponse(200));
+        assertTrue(queuedSearch.isDone());
+        queuedSearch.get().close();
+        assertEquals(2, sent.getAllValues().size());
+        ViSearchHttpResponse ok = mockResponse(200);
+        when(transport.execute(Matchers.any(HttpUriRequest.class))).thenReturn(ok);
+        assertSame(ok, client.get("/search", params));
+    }
+
+    @Test
+    public void testRequestBodiesShareTheMemoryBudget() throws Exception {
+        ClientConfig config = new ClientConfig();
+        config.setMemoryBudget(10);
+        HttpTransport transport = mockTransport(config);
+        SettableFuture<ViSearchHttpResponse> insert = SettableFuture.create();
+        ViSearchHttpResponse ok = mockResponse(200);
+        when(transport.executeAsync(Matchers.any(HttpUriRequest.class))).thenReturn(insert, Futures.immediateFuture(ok));
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, config);
+
+        client.postAsync("/insert", insertParams(1));
+        try {
+            client.postAsync("/insert", insertParams(1)).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(ResponseMessages.SYSTEM_BUSY, ((InternalViSearchException) e.getCause()).getResponseMessage());
+        }
+
+        insert.set(mockResponse(200));
+        assertTrue(client.postAsync("/insert", insertParams(1)).isDone());
+    }
+
+    @Test
+    public void testParamsAreFormEncodedLikeUrlEncodedUtils() {
+        Multimap<String, String> params = LinkedListMultimap.create();
+        params.put("q", "red dress & shoes");
+        params.put("fl", "im_url");
+        params.put("fl", "price~*-_.");
+        params.put("fq", "brand:\u00e9t\u00e9 \u4e2d\u6587 \ud83d\udc57/+=?");
+        params.put("im_name[0]", "a%b");
+
+        StringBuilder encoded = new StringBuilder();
+        ViSearchHttpClientImpl.appendFormEncoded(encoded, params);
+        assertEquals(URLEncodedUtils.format(ViSearchHttpClientImpl.mapToNameValuePair(params), Consts.UTF_8),
+                encoded.toString());
+    }
+
+    @Test
+    public void testGetRequestCarriesEncodedParams() {
+        Multimap<String, String> params = LinkedListMultimap.create();
+        params.put("q", "red dress");
+        params.put("limit", "10");
+        HttpUriRequest request = sendThroughMockTransport(new ClientConfig(), "get", "/search", params);
+        assertEquals("http://localhost//search?q=red+dress&limit=10", request.getURI().toString());
+        assertEquals("http://localhost//search",
+                sendThroughMockTransport(new ClientConfig(), "get", "/search", this.params).getURI().toString());
+    }
 }
@@ -0,0 +1,308 @@
+package com.visenze.visearch.internal.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.visenze.productsearch.ProductSearchResponse;
+import com.visenze.visearch.PagedSearchResult;
+import com.visenze.visearch.RawJsonMode;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.SearchParams;
+import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.internal.SearchOperations;
+import com.visenze.visearch.internal.SearchOperationsImpl;
+import com.visenze.visearch.internal.json.ViSearchModule;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ViSearchHttpResponseTest {
+
+    private static class TrackingStream extends ByteArrayInputStream {
+        boolean closed;
+
+        TrackingStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    private static HttpResponse httpResponse(InputStream content, ContentType contentType) {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setHeader("X-Test", "value");
+        response.setEntity(new InputStreamEntity(content, -1, contentType));
+        return response;
+    }
+
+    @Test
+    public void testBodyIsNotReadOnCreation() {
+        TrackingStream stream = new TrackingStream("{\"status\":\"OK\"}".getBytes(Charset.forName("UTF-8")));
+        ViSearchHttpResponse response = new ViSearchHttpResponse(httpResponse(stream, ContentType.APPLICATION_JSON));
+        assertEquals("value", response.getHeaders().get("X-Test"));
+        assertEquals(15, stream.available());
+    }
+
+    @Test
+    public void testContentIsStreamedOnce() throws IOException {
+        TrackingStream stream = new TrackingStream("{\"status\":\"OK\"}".getBytes(Charset.forName("UTF-8")));
+        ViSearchHttpResponse response = new ViSearchHttpResponse(httpResponse(stream, ContentType.APPLICATION_JSON));
+        InputStream content = response.getContent();
+        assertNotNull(content);
+        assertNull(response.getContent());
+        assertNull(response.getBody());
+        response.close();
+        assertTrue(stream.closed);
+    }
+
+    @Test
+    public void testBodyIsReadOnce() {
+        TrackingStream stream = new TrackingStream("{\"status\":\"OK\"}".getBytes(Charset.forName("UTF-8")));
+        ViSearchHttpResponse response = new ViSearchHttpResponse(httpResponse(stream, ContentType.APPLICATION_JSON));
+        assertEquals("{\"status\":\"OK\"}", response.getBody());
+        assertEquals("{\"status\":\"OK\"}", response.getBody());
+        assertNull(response.getContent());
+    }
+
+    @Test
+    public void testReleaseListenersRunOnceTheBodyIsConsumed() throws IOException {
+        final int[] released = new int[1];
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                released[0]++;
+            }
+        };
+        ViSearchHttpResponse read = new ViSearchHttpResponse(httpResponse(
+                new ByteArrayInputStream("{}".getBytes(Charset.forName("UTF-8"))), ContentType.APPLICATION_JSON));
+        read.onRelease(listener);
+        assertEquals(0, released[0]);
+        read.getBody();
+        read.close();
+        assertEquals(1, released[0]);
+
+        ViSearchHttpResponse streamed = new ViSearchHttpResponse(httpResponse(
+                new ByteArrayInputStream("{}".getBytes(Charset.forName("UTF-8"))), ContentType.APPLICATION_JSON));
+        streamed.onRelease(listener);
+        InputStream content = streamed.getContent();
+        content.read(new byte[2]);
+        assertEquals(1, released[0]);
+        assertEquals(-1, content.read());
+        assertEquals(2, released[0]);
+
+        // already released
+        streamed.onRelease(listener);
+        assertEquals(3, released[0]);
+    }
+
+    @Test
+    public void testNonUtf8BodyIsNotStreamed() {
+        ContentType latin1 = ContentType.create("application/json", "ISO-8859-1");
+        byte[] bytes = "{\"name\":\"café\"}".getBytes(Charset.forName("ISO-8859-1"));
+        ViSearchHttpResponse response = new ViSearchHttpResponse(httpResponse(new ByteArrayInputStream(bytes), latin1));
+        assertNull(response.getContent());
+        assertEquals("{\"name\":\"café\"}", response.getBody());
+    }
+
+    @Test
+    public void testCloseReleasesUnreadBody() {
+        TrackingStream stream = new TrackingStream(new byte[1024]);
+        ViSearchHttpResponse response = new ViSearchHttpResponse(httpResponse(stream, ContentType.APPLICATION_JSON));
+        response.close();
+        assertTrue(stream.closed);
+        assertNull(response.getContent());
+    }
+
+    @Test
+    public void testCloseOnCancelReleasesArrivedResponse() {
+        TrackingStream stream = new TrackingStream(new byte[16]);
+        SettableFuture<ViSearchHttpResponse> response = SettableFuture.create();
+        SettableFuture<Object> result = SettableFuture.create();
+        ViSearchHttpResponse.closeOnCancel(response, result);
+        response.set(new ViSearchHttpResponse(httpResponse(stream, ContentType.APPLICATION_JSON)));
+
+        result.cancel(false);
+        assertTrue(stream.closed);
+    }
+
+    @Test
+    public void testCloseOnCancelKeepsConsumedResponse() {
+        TrackingStream stream = new TrackingStream(new byte[16]);
+        SettableFuture<ViSearchHttpResponse> response = SettableFuture.create();
+        SettableFuture<Object> result = SettableFuture.create();
+        ViSearchHttpResponse.closeOnCancel(response, result);
+        response.set(new ViSearchHttpResponse(httpResponse(stream, ContentType.APPLICATION_JSON)));
+
+        result.set("parsed");
+        assertFalse(stream.closed);
+    }
+
+    @Test
+    public void testGzipBodyIsDecompressed() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write("{\"status\":\"OK\"}".getBytes(Charset.forName("UTF-8")));
+        gzip.close();
+        HttpResponse httpResponse = httpResponse(new ByteArrayInputStream(bytes.toByteArray()), ContentType.APPLICATION_JSON);
+        httpResponse.setHeader("Content-Encoding", "gzip");
+        httpResponse.setHeader("Content-Length", String.valueOf(bytes.size()));
+
+        ViSearchHttpResponse response = new ViSearchHttpResponse(httpResponse);
+        assertEquals("{\"status\":\"OK\"}", response.getBody());
+        assertNull(response.getHeaders().get("Content-Encoding"));
+        assertNull(response.getHeaders().get("Content-Length"));
+        assertEquals("value", response.getHeaders().get("X-Test"));
+    }
+
+    @Test
+    public void testOversizedContentLengthIsAbortedBeforeReading() {
+        TrackingStream stream = new TrackingStream(new byte[1024]);
+        HttpResponse httpResponse = httpResponse(stream, ContentType.APPLICATION_JSON);
+        ((BasicHttpResponse) httpResponse).setEntity(new InputStreamEntity(stream, 1024, ContentType.APPLICATION_JSON));
+        ViSearchHttpResponse response = new ViSearchHttpResponse(httpResponse);
+        try {
+            response.bound(100, null);
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.RESPONSE_TOO_LARGE, e.getResponseMessage());
+        }
+        assertTrue(stream.closed);
+        assertEquals(1024, stream.available());
+    }
+
+    @Test
+    public void testOversizedBodyFailsWhileRead() {
+        TrackingStream stream = new TrackingStream(new byte[10000]);
+        ViSearchHttpResponse response = new ViSearchHttpResponse(httpResponse(stream, ContentType.APPLICATION_JSON));
+        MemoryBudget budget = new MemoryBudget(1000);
+        response.bound(5000, budget);
+        try {
+            response.getBody();
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.RESPONSE_TOO_LARGE, e.getResponseMessage());
+        }
+        // the rest of the body is not read
+        assertTrue(stream.available() > 0);
+        assertTrue(stream.closed);
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void testBodyIsChargedUntilRead() throws IOException {
+        final MemoryBudget budget = new MemoryBudget(1000);
+        TrackingStream stream = new TrackingStream("{\"status\":\"OK\"}".getBytes(Charset.forName("UTF-8"))) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                // the bytes read so far are charged while the body is read
+                assertEquals(15 - available(), budget.getUsed());
+                return super.read(b, off, len);
+            }
+        };
+        ViSearchHttpResponse response = new ViSearchHttpResponse(httpResponse(stream, ContentType.APPLICATION_JSON));
+        response.bound(0, budget);
+        assertEquals("{\"status\":\"OK\"}", response.getBody());
+        assertEquals(0, budget.getUsed());
+
+        // a streamed body is not held, so not charged
+        response = new ViSearchHttpResponse(httpResponse(
+                new ByteArrayInputStream(new byte[100]), ContentType.APPLICATION_JSON));
+        response.bound(0, budget);
+        InputStream content = response.getContent();
+        assertEquals(100, content.read(new byte[200]));
+        assertEquals(0, budget.getUsed());
+        response.close();
+    }
+
+    private static final String SEARCH_RESPONSE = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,"
+            + "\"limit\":10,\"total\":1,\"result\":[{\"im_name\":\"test_im_1\"}]}";
+
+    private static SearchOperations searchOperations(ViSearchHttpResponse response, RawJsonMode rawJsonMode) {
+        ViSearchHttpClient client = mock(ViSearchHttpClient.class);
+        when(client.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        return new SearchOperationsImpl(client, new ObjectMapper().registerModule(new ViSearchModule()),
+                MoreExecutors.directExecutor(), rawJsonMode);
+    }
+
+    @Test
+    public void testSearchChargesBufferedBodyUntilParsed() {
+        final MemoryBudget budget = new MemoryBudget(1000);
+        byte[] body = SEARCH_RESPONSE.getBytes(Charset.forName("UTF-8"));
+        ViSearchHttpResponse response = new ViSearchHttpResponse(httpResponse(
+                new ByteArrayInputStream(body), ContentType.APPLICATION_JSON));
+        response.bound(0, budget);
+        final long[] chargedWhenRead = new long[1];
+        response.onRelease(new Runnable() {
+            @Override
+            public void run() {
+                chargedWhenRead[0] = budget.getUsed();
+            }
+        });
+
+        PagedSearchResult result = searchOperations(response, RawJsonMode.STRING).search(new SearchParams("test_im"));
+        assertNull(result.getErrorMessage());
+        assertEquals("test_im_1", result.getResult().get(0).getImName());
+        assertEquals(body.length, chargedWhenRead[0]);
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void testSearchReportsOversizedBody() {
+        // json whitespace, so that a streaming parser reads on until the max size
+        for (RawJsonMode mode : RawJsonMode.values()) {
+            TrackingStream stream = new TrackingStream(Strings.repeat(" ", 10000).getBytes(Charset.forName("UTF-8")));
+            ViSearchHttpResponse response = new ViSearchHttpResponse(httpResponse(stream, ContentType.APPLICATION_JSON));
+            MemoryBudget budget = new MemoryBudget(1000);
+            response.bound(5000, budget);
+
+            PagedSearchResult result = searchOperations(response, mode).search(new SearchParams("test_im"));
+            assertEquals(mode.name(), ResponseMessages.RESPONSE_TOO_LARGE.getMessage(), result.getErrorMessage());
+            // the rest of the body is not read
+            assertTrue(stream.available() > 0);
+            assertTrue(stream.closed);
+            assertEquals(0, budget.getUsed());
+        }
+    }
+
+    @Test
+    public void testProductSearchReportsOversizedBody() {
+        TrackingStream stream = new TrackingStream(Strings.repeat(" ", 10000).getBytes(Charset.forName("UTF-8")));
+        ViSearchHttpResponse response = new ViSearchHttpResponse(httpResponse(stream, ContentType.APPLICATION_JSON));
+        response.bound(5000, null);
+        try {
+            ProductSearchResponse.fromResponse(response);
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.RESPONSE_TOO_LARGE, e.getResponseMessage());
+        }
+        assertTrue(stream.available() > 0);
+    }
+}
@@ -0,0 +1,170 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.visenze.common.util.DeadlineMultimap;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.TransportType;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs on Java 11 and later only, see the java11 profile of the build.
+ */
+public class JdkHttpTransportTest {
+
+    private HttpServer server;
+
+    private ClientConfig config;
+
+    private ViSearchHttpClientImpl client;
+
+    private final CountDownLatch slowResponse = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/echo", exchange -> {
+            InputStream in = exchange.getRequestBody();
+            String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            if ("gzip".equals(encoding)) {
+                in = new GZIPInputStream(in);
+            }
+            byte[] request = ByteStreams.toByteArray(in);
+            exchange.getResponseHeaders().add("X-Test", "http2");
+            exchange.getResponseHeaders().add("X-Content-Type", String.valueOf(exchange.getRequestHeaders().getFirst("Content-Type")));
+            exchange.getResponseHeaders().add("X-Content-Encoding", String.valueOf(encoding));
+            exchange.getResponseHeaders().add("X-Accept-Encoding", String.valueOf(exchange.getRequestHeaders().getFirst("Accept-Encoding")));
+            send(exchange, (exchange.getRequestMethod() + " " + request.length).getBytes(StandardCharsets.UTF_8));
+        });
+        server.createContext("/gzip", exchange -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write("{\"status\":\"OK\"}".getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            send(exchange, out.toByteArray());
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                slowResponse.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        config = new ClientConfig();
+        config.setTransportType(TransportType.HTTP2);
+        client = client(config);
+    }
+
+    private ViSearchHttpClientImpl client(ClientConfig config) {
+        return new ViSearchHttpClientImpl("http://127.0.0.1:" + server.getAddress().getPort(), "access", "secret", config);
+    }
+
+    private static void send(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        slowResponse.countDown();
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testMapsHeaders() {
+        ViSearchHttpResponse response = client.get("/echo", ArrayListMultimap.<String, String>create());
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("GET 0", response.getBody());
+        // the JDK client reports header names in lower case
+        assertEquals("http2", response.getHeaders().get("x-test"));
+        assertEquals("gzip", response.getHeaders().get("x-accept-encoding"));
+    }
+
+    @Test
+    public void testPostsFormBodyAsync() throws Exception {
+        Multimap<String, String> params = ArrayListMultimap.create();
+        params.put("q", "value");
+        ViSearchHttpResponse response = client.postAsync("/echo", params).get(10, TimeUnit.SECONDS);
+
+        assertEquals("POST 7", response.getBody());
+        assertTrue(response.getHeaders().get("x-content-type").startsWith("application/x-www-form-urlencoded"));
+    }
+
+    @Test
+    public void testCompressesLargeBodies() throws Exception {
+        client.close();
+        config.setRequestCompressionThreshold(100);
+        client = client(config);
+        Multimap<String, String> params = ArrayListMultimap.create();
+        params.put("q", Strings.repeat("a", 1000));
+        ViSearchHttpResponse response = client.postAsync("/echo", params).get(10, TimeUnit.SECONDS);
+
+        assertEquals("POST 1002", response.getBody());
+        assertEquals("gzip", response.getHeaders().get("x-content-encoding"));
+    }
+
+    @Test
+    public void testDecompressesGzipResponses() {
+        ViSearchHttpResponse response = client.get("/gzip", ArrayListMultimap.<String, String>create());
+
+        assertEquals("{\"status\":\"OK\"}", response.getBody());
+    }
+
+    @Test
+    public void testDeadlineBoundsTheWaitForHeaders() {
+        long start = System.nanoTime();
+        try {
+            client.get("/slow", DeadlineMultimap.withTimeout(ArrayListMultimap.<String, String>create(), 300L));
+            fail();
+        } catch (InternalViSearchException e) {
+            assertSame(ResponseMessages.NETWORK_ERROR, e.getResponseMessage());
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testCancelledCallLeavesTheClientUsable() throws Exception {
+        ListenableFuture<ViSearchHttpResponse> future = client.getAsync("/slow", ArrayListMultimap.<String, String>create());
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+
+        assertEquals("GET 0", client.getAsync("/echo", ArrayListMultimap.<String, String>create())
+                .get(10, TimeUnit.SECONDS).getBody());
+    }
+}